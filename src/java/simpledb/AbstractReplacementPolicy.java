@@ -0,0 +1,49 @@
+package simpledb;
+
+/**
+ * Helper for implementing ReplacementPolicies. Keeps the hit and miss
+ * counters so that subclasses only need to maintain their eviction order.
+ */
+public abstract class AbstractReplacementPolicy implements ReplacementPolicy {
+
+    private long hits = 0;
+    private long misses = 0;
+
+    /** If subclasses override this, they should call super.pageHit(). */
+    public void pageHit(int frame) {
+        hits++;
+    }
+
+    /** If subclasses override this, they should call super.pageLoaded(). */
+    public void pageLoaded(int frame, PageId pid) {
+        misses++;
+    }
+
+    /** Tracks the page through pageLoaded(), without counting a miss. */
+    public void pagePrefetched(int frame, PageId pid) {
+        pageLoaded(frame, pid);
+        misses--;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public void resetStats() {
+        hits = 0;
+        misses = 0;
+    }
+
+    /** @return the short name of this policy, used by toString() */
+    protected abstract String getName();
+
+    public String toString() {
+        long total = hits + misses;
+        double ratio = total == 0 ? 0.0 : (double) hits / total;
+        return String.format("%s: hits=%d misses=%d hit ratio=%.3f", getName(), hits, misses, ratio);
+    }
+}
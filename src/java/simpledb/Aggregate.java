@@ -7,7 +7,7 @@ import java.util.*;
  * min). Note that we only support aggregates over a single column, grouped by a
  * single column.
  */
-public class Aggregate extends Operator {
+public class Aggregate extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -20,6 +20,7 @@ public class Aggregate extends Operator {
     private Aggregator aggregator;
     // The resulting OpIterator obtained from the Aggregator
     private OpIterator resultIterator;
+    private transient BatchIterator resultBatches;
     /**
      * Constructor.
      *
@@ -128,10 +129,20 @@ public class Aggregate extends Operator {
 	// some code goes here
         super.open();
         child.open();
-        while(child.hasNext()){
-            aggregator.mergeTupleIntoGroup(child.next());
+        if (child instanceof BatchIterator && aggregator instanceof IntegerAggregator) {
+            // read the child in batches, which the aggregator takes whole
+            TupleBatch batch;
+            while ((batch = ((BatchIterator) child).nextBatch()) != null) {
+                ((IntegerAggregator) aggregator).mergeBatch(batch);
+            }
+        }
+        else {
+            while(child.hasNext()){
+                aggregator.mergeTupleIntoGroup(child.next());
+            }
         }
         this.resultIterator = aggregator.iterator();
+        this.resultBatches = new BatchingIterator(resultIterator);
         resultIterator.open();
     }
 
@@ -148,6 +159,11 @@ public class Aggregate extends Operator {
 	return null;
     }
 
+    /** Returns the results of the aggregate in batches. */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        return resultBatches.nextBatch();
+    }
+
     public void rewind() throws DbException, TransactionAbortedException {
 	// some code goes here
         resultIterator.rewind();
@@ -24,6 +24,10 @@ public class BTreeFile implements DbFile {
 	private final TupleDesc td;
 	private final int tableid ;
 	private int keyField;
+	/** The mapping reads go through instead of a stream, or null. */
+	private volatile MappedFile mapped;
+	/** The checksums pages are checked against, or null. */
+	private volatile PageChecksums checksums;
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -38,6 +42,122 @@ public class BTreeFile implements DbFile {
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.td = td;
+		setMemoryMapped(MappedFile.enabledByDefault());
+		setChecksummed(PageChecksums.enabledByDefault());
+	}
+
+	/**
+	 * Makes reads copy pages out of a memory mapping of the file instead of
+	 * reading them through a stream, leaving the caching of the file to the
+	 * OS. Meant for indexes that are mostly read.
+	 * 
+	 * @see MappedFile
+	 */
+	public void setMemoryMapped(boolean mapped) {
+		this.mapped = mapped ? new MappedFile(f) : null;
+	}
+
+	/**
+	 * @return true if pages are read from a memory mapping of the file
+	 */
+	public boolean isMemoryMapped() {
+		return mapped != null;
+	}
+
+	/**
+	 * Makes this file keep a checksum of every page it writes and check
+	 * pages against them when they are read, so torn or damaged pages are
+	 * reported instead of being parsed. The root pointer page has the
+	 * checksum at position 0, and every other page the one at its page
+	 * number.
+	 * 
+	 * @see PageChecksums
+	 * @see PageScrubber
+	 */
+	public synchronized void setChecksummed(boolean checksummed) {
+		if(checksummed && checksums == null) {
+			checksums = new PageChecksums(PageChecksums.fileFor(f));
+		}
+		else if(!checksummed && checksums != null) {
+			try {
+				checksums.close();
+			} catch (IOException e) {
+				Debug.log(1, "cannot close page checksums of %s: %s", f, e);
+			}
+			checksums = null;
+		}
+	}
+
+	/**
+	 * @return true if pages are checked against checksums when they are read
+	 */
+	public boolean isChecksummed() {
+		return checksums != null;
+	}
+
+	/**
+	 * @return the checksums of the pages, or null if this file keeps none
+	 */
+	PageChecksums checksums() {
+		return checksums;
+	}
+
+	/**
+	 * @return the position of the checksum of a page
+	 */
+	private static int checksumIndex(BTreePageId id) {
+		return id.pgcateg() == BTreePageId.ROOT_PTR ? 0 : id.getPageNumber();
+	}
+
+	/**
+	 * Checks the bytes of a page read from disk against its checksums.
+	 * 
+	 * @return data
+	 * @throws IOException if the page fails its checksum
+	 */
+	private byte[] checked(BTreePageId id, byte[] data) throws IOException {
+		PageChecksums c = checksums;
+		if(c != null) {
+			c.check(checksumIndex(id), data);
+		}
+		return data;
+	}
+
+	/**
+	 * Reads the bytes of a page straight from the file, for a scrub.
+	 * 
+	 * @param index - 0 for the root pointer page, otherwise the page number
+	 */
+	byte[] readPageBytes(int index) throws IOException {
+		byte[] data;
+		long offset;
+		if(index == 0) {
+			data = new byte[BTreeRootPtrPage.getPageSize()];
+			offset = 0;
+		}
+		else {
+			data = new byte[BufferPool.getPageSize()];
+			offset = BTreeRootPtrPage.getPageSize() + (long) (index-1) * BufferPool.getPageSize();
+		}
+		RandomAccessFile rf = new RandomAccessFile(f, "r");
+		try {
+			rf.seek(offset);
+			rf.readFully(data);
+		} finally {
+			rf.close();
+		}
+		return data;
+	}
+
+	/**
+	 * Records the checksum of a page about to be written, if this file keeps
+	 * checksums. It is on disk when this returns, before the page is.
+	 */
+	private void recordChecksum(BTreePageId id, byte[] data) throws IOException {
+		PageChecksums c = checksums;
+		if(c != null) {
+			c.update(checksumIndex(id), data);
+		}
 	}
 
 	/**
@@ -77,9 +197,44 @@ public class BTreeFile implements DbFile {
 	 * @return the page constructed from the contents on disk
 	 */
 	public Page readPage(PageId pid) {
+		return decodePage(pid, readPageData(pid));
+	}
+
+	/**
+	 * Read the bytes of a page from the file on disk and check them against
+	 * their checksum, if this file keeps checksums.
+	 * 
+	 * @param pid - the id of the page to read from disk
+	 * @return the bytes of the page as written by writePage
+	 * @see DbFile#readPageData
+	 */
+	public byte[] readPageData(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
 		BufferedInputStream bis = null;
 
+		MappedFile m = mapped;
+		if(m != null) {
+			byte pageBuf[];
+			long offset;
+			if(id.pgcateg() == BTreePageId.ROOT_PTR) {
+				pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
+				offset = 0;
+			}
+			else {
+				pageBuf = new byte[BufferPool.getPageSize()];
+				offset = BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber()-1) * BufferPool.getPageSize();
+			}
+			try {
+				if(m.read(offset, pageBuf)) {
+					Debug.log(1, "BTreeFile.readPage: read mapped page %d", id.getPageNumber());
+					return checked(id, pageBuf);
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			// past the end of the file; the stream below reports it
+		}
+
 		try {
 			bis = new BufferedInputStream(new FileInputStream(f));
 			if(id.pgcateg() == BTreePageId.ROOT_PTR) {
@@ -93,8 +248,7 @@ public class BTreeFile implements DbFile {
 							+ BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
 				}
 				Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-				BTreeRootPtrPage p = new BTreeRootPtrPage(id, pageBuf);
-				return p;
+				return checked(id, pageBuf);
 			}
 			else {
 				byte pageBuf[] = new byte[BufferPool.getPageSize()];
@@ -112,18 +266,7 @@ public class BTreeFile implements DbFile {
 							+ BufferPool.getPageSize() + " bytes from BTreeFile");
 				}
 				Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-				if(id.pgcateg() == BTreePageId.INTERNAL) {
-					BTreeInternalPage p = new BTreeInternalPage(id, pageBuf, keyField);
-					return p;
-				}
-				else if(id.pgcateg() == BTreePageId.LEAF) {
-					BTreeLeafPage p = new BTreeLeafPage(id, pageBuf, keyField);
-					return p;
-				}
-				else { // id.pgcateg() == BTreePageId.HEADER
-					BTreeHeaderPage p = new BTreeHeaderPage(id, pageBuf);
-					return p;
-				}
+				return checked(id, pageBuf);
 			}
 		} catch (IOException e) {
 			throw new RuntimeException(e);
@@ -138,6 +281,35 @@ public class BTreeFile implements DbFile {
 		}
 	}
 
+	/**
+	 * Build a page from its on-disk bytes. Does no I/O; readPage uses this
+	 * once it has read the bytes, and so does the BufferPool when it keeps
+	 * page bytes outside the Java heap.
+	 * 
+	 * @param pid - the id of the page
+	 * @param data - the bytes of the page as written by writePage
+	 * @return the page built from data
+	 */
+	public Page decodePage(PageId pid, byte[] data) {
+		BTreePageId id = (BTreePageId) pid;
+		try {
+			if(id.pgcateg() == BTreePageId.ROOT_PTR) {
+				return new BTreeRootPtrPage(id, data);
+			}
+			else if(id.pgcateg() == BTreePageId.INTERNAL) {
+				return new BTreeInternalPage(id, data, keyField);
+			}
+			else if(id.pgcateg() == BTreePageId.LEAF) {
+				return new BTreeLeafPage(id, data, keyField);
+			}
+			else { // id.pgcateg() == BTreePageId.HEADER
+				return new BTreeHeaderPage(id, data);
+			}
+		} catch (IOException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
 	/**
 	 * Write a page to disk.  This should not be called directly but should 
 	 * be called from the BufferPool when pages are flushed to disk
@@ -148,6 +320,7 @@ public class BTreeFile implements DbFile {
 		BTreePageId id = (BTreePageId) page.getId();
 		
 		byte[] data = page.getPageData();
+		recordChecksum(id, data);
 		RandomAccessFile rf = new RandomAccessFile(f, "rw");
 		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
 			rf.write(data);
@@ -160,6 +333,37 @@ public class BTreeFile implements DbFile {
 		}
 	}
 	
+	// see DbFile.java for javadocs
+	public void writePages(List<Page> pages) throws IOException {
+		int[] indexes = new int[pages.size()];
+		byte[][] data = new byte[pages.size()][];
+		for (int i = 0; i < indexes.length; i++) {
+			indexes[i] = checksumIndex((BTreePageId) pages.get(i).getId());
+			data[i] = pages.get(i).getPageData();
+		}
+		PageChecksums c = checksums;
+		if(c != null) {
+			// forced before the pages, so a torn page is told from an old one
+			c.update(indexes, data);
+		}
+		VectoredWriter writer = new VectoredWriter(pages.size());
+		for (int i = 0; i < indexes.length; i++) {
+			BTreePageId id = (BTreePageId) pages.get(i).getId();
+			long offset = 0;
+			if(id.pgcateg() != BTreePageId.ROOT_PTR) {
+				offset = BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber()-1) * BufferPool.getPageSize();
+			}
+			writer.add(offset, data[i]);
+		}
+		// one file handle for the whole batch, as writePage uses for one page
+		RandomAccessFile rf = new RandomAccessFile(f, "rw");
+		try {
+			writer.writeAndForce(rf.getChannel());
+		} finally {
+			rf.close();
+		}
+	}
+	
 	/**
 	 * Returns the number of pages in this BTreeFile.
 	 */
@@ -852,6 +1056,8 @@ public class BTreeFile implements DbFile {
 						new FileOutputStream(f, true));
 				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
 				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
+				recordChecksum(BTreeRootPtrPage.getId(tableid), emptyRootPtrData);
+				recordChecksum(new BTreePageId(tableid, 1, BTreePageId.LEAF), emptyLeafData);
 				bw.write(emptyRootPtrData);
 				bw.write(emptyLeafData);
 				bw.close();
@@ -913,6 +1119,7 @@ public class BTreeFile implements DbFile {
 				BufferedOutputStream bw = new BufferedOutputStream(
 						new FileOutputStream(f, true));
 				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
+				recordChecksum(new BTreePageId(tableid, numPages() + 1, BTreePageId.INTERNAL), emptyData);
 				bw.write(emptyData);
 				bw.close();
 				emptyPageNo = numPages();
@@ -945,9 +1152,11 @@ public class BTreeFile implements DbFile {
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 		
 		// write empty page to disk
+		byte[] emptyData = BTreePage.createEmptyPageData();
+		recordChecksum(newPageId, emptyData);
 		RandomAccessFile rf = new RandomAccessFile(f, "rw");
 		rf.seek(BTreeRootPtrPage.getPageSize() + (emptyPageNo-1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
+		rf.write(emptyData);
 		rf.close();
 		
 		// make sure the page is not in the buffer pool	or in the local cache		
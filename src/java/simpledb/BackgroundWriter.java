@@ -0,0 +1,182 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BackgroundWriter flushes dirty pages of a BufferPool ahead of eviction, so
+ * that a getPage that needs a frame usually finds a clean victim and does
+ * not have to wait for someone else's page to be written first.
+ * <p>
+ * The writer runs on a daemon thread that wakes up periodically, and early
+ * whenever an eviction had to write a dirty page itself. Each round it
+ * counts the dirty frames and, if fewer than the target fraction of the
+ * pool is clean, sweeps the frames like a clock hand and writes dirty pages
+ * until the target is met again. Pages are written through the same path
+ * as a foreground flush, so the update record of a page is logged and the
+ * log forced before the page itself reaches disk.
+ * <p>
+ * The target fraction is taken from the {@link #PROPERTY} system property
+ * when the BufferPool is created and can be changed with
+ * {@link #setTargetCleanFraction}. The default of 0 leaves the writer off:
+ * writing the pages of running transactions is a STEAL policy, which is
+ * only safe once aborts are undone from the log.
+ *
+ * @see BufferPool#getBackgroundWriter()
+ */
+public class BackgroundWriter implements Runnable {
+
+    /** Name of the system property holding the target clean fraction of a new Database. */
+    public static final String PROPERTY = "simpledb.bufferpool.cleanfraction";
+
+    /** Milliseconds between two rounds when nobody asks for one. */
+    static final long INTERVAL_MS = 100;
+
+    private final BufferPool bufferPool;
+    private volatile double targetClean;
+    private Thread thread;
+    private boolean nudged;
+    /** Set once the pool is closed; the writer is not started again. */
+    private boolean stopped;
+    /** Held for a whole round, so nudging the writer never waits for its I/O. */
+    private final Object roundLock = new Object();
+    private int hand;
+
+    private final AtomicLong rounds = new AtomicLong();
+    private final AtomicLong pagesWritten = new AtomicLong();
+    private final AtomicLong foregroundWrites = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param bufferPool the pool whose pages are written
+     * @param targetClean the fraction of frames to keep clean; 0 for none
+     */
+    BackgroundWriter(BufferPool bufferPool, double targetClean) {
+        this.bufferPool = bufferPool;
+        setTargetCleanFraction(targetClean);
+    }
+
+    /** @return the fraction of frames the writer keeps clean; 0 if it is off */
+    public double getTargetCleanFraction() {
+        return targetClean;
+    }
+
+    /**
+     * Sets the fraction of frames to keep clean, starting the writer thread
+     * if it is not running yet. 0 stops the writer.
+     */
+    public synchronized void setTargetCleanFraction(double fraction) {
+        if (fraction < 0 || fraction > 1)
+            throw new IllegalArgumentException("Clean fraction must be between 0 and 1");
+        this.targetClean = fraction;
+        if (fraction > 0 && thread == null && !stopped) {
+            thread = new Thread(this, "simpledb-writer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        notifyAll();
+    }
+
+    /**
+     * Stops the writer for good and waits for its thread to finish the
+     * round it is writing, so no page of the pool is written once this
+     * returns. The thread is woken rather than interrupted, since an
+     * interrupt would close the file channel a write is using.
+     */
+    void stop() {
+        Thread t;
+        synchronized (this) {
+            stopped = true;
+            targetClean = 0;
+            t = thread;
+            notifyAll();
+        }
+        if (t == null)
+            return;
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** @return the number of rounds the writer has run */
+    public long getRoundCount() {
+        return rounds.get();
+    }
+
+    /** @return the number of pages written by the writer */
+    public long getPagesWritten() {
+        return pagesWritten.get();
+    }
+
+    /** @return the number of evictions that had to write a dirty victim themselves */
+    public long getForegroundWrites() {
+        return foregroundWrites.get();
+    }
+
+    /** Resets the counters to zero. */
+    public void resetStats() {
+        rounds.set(0);
+        pagesWritten.set(0);
+        foregroundWrites.set(0);
+    }
+
+    /** Records that an eviction wrote a dirty page and wakes the writer up. */
+    void evictionWrote() {
+        foregroundWrites.incrementAndGet();
+        nudge();
+    }
+
+    /** Asks for a round as soon as possible. */
+    public synchronized void nudge() {
+        nudged = true;
+        notifyAll();
+    }
+
+    public void run() {
+        while (true) {
+            synchronized (this) {
+                if (targetClean == 0) {
+                    thread = null;
+                    return;
+                }
+                if (!nudged) {
+                    try {
+                        wait(INTERVAL_MS);
+                    } catch (InterruptedException e) {
+                        thread = null;
+                        return;
+                    }
+                }
+                nudged = false;
+            }
+            try {
+                writeRound();
+            } catch (IOException e) {
+                // the page stays dirty and is written again by eviction
+                Debug.log(1, "background write failed: %s", e);
+            }
+        }
+    }
+
+    /** Writes dirty pages until the target fraction of frames is clean. */
+    void writeRound() throws IOException {
+        synchronized (roundLock) {
+            rounds.incrementAndGet();
+            int pages = bufferPool.getNumPages();
+            int allowed = pages - (int) Math.ceil(targetClean * pages);
+            int excess = bufferPool.dirtyCount() - allowed;
+            // the frames of all partitions, which may add up to more than the pool
+            int frames = bufferPool.frameCount();
+            for (int n = 0; n < frames && excess > 0; n++) {
+                hand = (hand + 1) % frames;
+                if (bufferPool.writeFrame(hand)) {
+                    pagesWritten.incrementAndGet();
+                    excess--;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package simpledb;
+
+/**
+ * BatchIterator is an OpIterator that can also return its tuples a batch at
+ * a time, column by column, so that an operator above it works through a
+ * thousand rows per call instead of paying a virtual call and a Tuple per
+ * row at every level of the plan.
+ * <p>
+ * An open BatchIterator is read either with {@link #nextBatch} or with
+ * {@link OpIterator#hasNext} and {@link OpIterator#next}, not with both:
+ * the two may run ahead of each other. An operator that reads its children
+ * in batches gets a BatchIterator for any child with
+ * {@link BatchingIterator#of}, and {@link UnbatchingIterator} reads the
+ * batches of a BatchIterator back as tuples, so plans can mix operators of
+ * both kinds.
+ *
+ * @see TupleBatch
+ */
+public interface BatchIterator extends OpIterator {
+
+    /**
+     * Returns the next batch of tuples. The batch belongs to this iterator
+     * and may be reused by its next call; it is never empty.
+     *
+     * @return the next batch, or null if there are no more tuples
+     * @throws IllegalStateException if the iterator has not been opened
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+
+}
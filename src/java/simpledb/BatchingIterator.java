@@ -0,0 +1,69 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * BatchingIterator reads an OpIterator that has no batches of its own a
+ * tuple at a time and returns its tuples in batches. Opening, closing and
+ * rewinding it does the same to the iterator it reads, so an operator may
+ * open its child itself and read it through a BatchingIterator.
+ */
+public class BatchingIterator implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final OpIterator child;
+    private transient TupleBatch batch;
+
+    /**
+     * Constructor.
+     *
+     * @param child the iterator whose tuples to return in batches
+     */
+    public BatchingIterator(OpIterator child) {
+        this.child = child;
+    }
+
+    /**
+     * @return the given iterator if it is a BatchIterator, and otherwise a
+     *         BatchingIterator reading it
+     */
+    public static BatchIterator of(OpIterator child) {
+        if (child instanceof BatchIterator)
+            return (BatchIterator) child;
+        return new BatchingIterator(child);
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null)
+            batch = new TupleBatch(child.getTupleDesc());
+        batch.clear();
+        while (!batch.isFull() && child.hasNext())
+            batch.addTuple(child.next(), null);
+        return batch.size() > 0 ? batch : null;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        return child.hasNext();
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        return child.next();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+    }
+}
@@ -1,11 +1,12 @@
 package simpledb;
 
 import java.io.*;
-
 import java.util.ArrayList;
-import java.util.Enumeration;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -15,6 +16,10 @@ import java.util.concurrent.ConcurrentHashMap;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * The pool itself takes no global lock: pages are latched one frame at a
+ * time while they are read, written or evicted, and concurrent requests for
+ * a page that is being read wait for that read instead of repeating it.
  *
  * @Threadsafe, all fields are final
  */
@@ -30,17 +35,158 @@ public class BufferPool {
     public static final int DEFAULT_PAGES = 50;
 
     private final int numPages;
-    private PageBufferPool bufferPool;
+    /** The partitions, in matching order; the last one is the default partition. */
+    private final PartitionSpec[] specs;
+    private final PageBufferPool[] partitions;
+    private final FrameBudget budget;
+    /** The off-heap storage shared by the partitions, or null. */
+    private final PageArena arena;
+    private final ReadAhead readAhead;
+    private final BackgroundWriter writer;
+    private final WarmUp warmUp;
+    private volatile double ringFraction;
+    private final AtomicLong ringReads = new AtomicLong();
+    private final AtomicLong ringReadAheads = new AtomicLong();
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Name of the system property that selects where a new Database keeps
+     * its page frames: <tt>heap</tt> (the default) keeps decoded pages on
+     * the Java heap, <tt>direct</tt> keeps page bytes in direct buffers and
+     * <tt>mapped</tt> in a memory-mapped scratch file.
+     */
+    public static final String ARENA_PROPERTY = "simpledb.bufferpool.arena";
+
+    /**
+     * Name of the system property holding the scan ring fraction of a new
+     * Database; see {@link #setScanRingFraction}.
+     */
+    public static final String RING_PROPERTY = "simpledb.bufferpool.ringfraction";
+
+    /** Maximum number of pages an off-heap pool keeps decoded on the Java heap. */
+    public static final int DEFAULT_DECODED_PAGES = 1024;
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, using the
+     * partitions listed in the {@link PartitionSpec#PROPERTY} system
+     * property, the replacement policy named by the
+     * {@link ReplacementPolicy#PROPERTY} system property and the frame
+     * storage named by the {@link #ARENA_PROPERTY} system property.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, PartitionSpec.parseAll(System.getProperty(PartitionSpec.PROPERTY, "")));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, split into the
+     * given partitions and a default partition for all other pages. The
+     * default partition uses the replacement policy named by the
+     * {@link ReplacementPolicy#PROPERTY} system property, and every
+     * partition keeps its frames where the {@link #ARENA_PROPERTY} system
+     * property says.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param partitions the partitions, matched in order
+     * @throws IllegalArgumentException if the minimum quotas add up to
+     *   more than numPages or a maximum quota exceeds it
+     */
+    public BufferPool(int numPages, List<PartitionSpec> partitions) {
+        this.numPages = numPages;
+        String arenaKind = System.getProperty(ARENA_PROPERTY, "heap");
+        String policy = System.getProperty(ReplacementPolicy.PROPERTY, ReplacementPolicy.DEFAULT_POLICY);
+        this.specs = partitions.toArray(new PartitionSpec[partitions.size() + 1]);
+        this.specs[partitions.size()] = new PartitionSpec("default", 0, numPages, policy);
+        this.budget = new FrameBudget(numPages);
+        this.partitions = new PageBufferPool[specs.length];
+        // the partitions share one arena, as they share the frame budget
+        this.arena = createArena(numPages, arenaKind);
+        int reserved = 0;
+        for (int i = 0; i < specs.length; i++) {
+            PartitionSpec spec = specs[i];
+            if (spec.getMaxPages() > numPages) {
+                throw new IllegalArgumentException("Partition " + spec + " is larger than the pool");
+            }
+            reserved += spec.getMinPages();
+            int max = spec.getMaxPages();
+            this.partitions[i] = new PageBufferPool(max, ReplacementPolicy.forName(spec.getPolicy(), max),
+                    arena, Math.min(max, DEFAULT_DECODED_PAGES), budget);
+        }
+        if (reserved > numPages) {
+            throw new IllegalArgumentException("Partitions reserve " + reserved + " of " + numPages + " pages");
+        }
+        this.readAhead = new ReadAhead(this, Integer.getInteger(ReadAhead.PROPERTY, 0));
+        this.writer = new BackgroundWriter(this,
+                Double.parseDouble(System.getProperty(BackgroundWriter.PROPERTY, "0")));
+        setScanRingFraction(Double.parseDouble(System.getProperty(RING_PROPERTY, "1")));
+        this.warmUp = createWarmUp(this);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages on the Java heap.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy decides which page to evict when the pool is full
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy) {
+        this(numPages, policy, null);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy decides which page to evict when the pool is full
+     * @param arena off-heap storage for the bytes of the cached pages, or
+     *   null to keep the pages on the Java heap
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy, PageArena arena) {
+        this(numPages, policy, arena, Math.min(numPages, DEFAULT_DECODED_PAGES));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy decides which page to evict when the pool is full
+     * @param arena off-heap storage for the bytes of the cached pages, or
+     *   null to keep the pages on the Java heap
+     * @param decodedPages with an arena, how many clean pages are kept
+     *   decoded on the Java heap; the others are decoded again on access
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy, PageArena arena, int decodedPages) {
         // some code goes here
         this.numPages = numPages;
-        this.bufferPool = new PageBufferPool(numPages);
+        this.specs = new PartitionSpec[] { new PartitionSpec("default", 0, numPages, policy.getClass().getSimpleName()) };
+        this.budget = new FrameBudget(numPages);
+        this.arena = arena;
+        this.partitions = new PageBufferPool[] { new PageBufferPool(numPages, policy, arena, decodedPages, budget) };
+        this.readAhead = new ReadAhead(this, Integer.getInteger(ReadAhead.PROPERTY, 0));
+        this.writer = new BackgroundWriter(this,
+                Double.parseDouble(System.getProperty(BackgroundWriter.PROPERTY, "0")));
+        setScanRingFraction(Double.parseDouble(System.getProperty(RING_PROPERTY, "1")));
+        this.warmUp = createWarmUp(this);
+    }
+
+    private static WarmUp createWarmUp(BufferPool bufferPool) {
+        String file = System.getProperty(WarmUp.PROPERTY);
+        return new WarmUp(bufferPool, file == null ? null : new File(file));
+    }
+
+    private static PageArena createArena(int numPages, String kind) {
+        String k = kind.trim().toLowerCase();
+        if (k.equals("heap"))
+            return null;
+        if (k.equals("direct"))
+            return new PageArena(numPages, getPageSize());
+        if (k.equals("mapped")) {
+            try {
+                return new PageArena(numPages, getPageSize(), File.createTempFile("simpledb-arena", ".dat"));
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to create buffer pool arena", e);
+            }
+        }
+        throw new IllegalArgumentException("Unknown buffer pool arena " + kind);
     }
 
     public static int getPageSize() {
@@ -75,23 +221,304 @@ public class BufferPool {
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException {
         // some code goes here
-        if (bufferPool.containsKey(pid)) {
-            return bufferPool.get(pid);
-        } else {
-            if (bufferPool.size() < numPages) {
-                Page page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-                bufferPool.put(pid, page);
-                return page;
+        lockPage(tid, pid, perm);
+        Page page = load(pid, false);
+        readAhead.accessed(pid);
+        return page;
+    }
+
+    /**
+     * Acquires the lock tid needs on a page before using it, blocking while
+     * another transaction holds a conflicting one. Every page a transaction
+     * uses is locked here, whether it comes through {@link #getPage} or a
+     * {@link ScanRing}, which reads around the pool.
+     *
+     * @param tid the ID of the transaction requesting the lock
+     * @param pid the ID of the page to lock
+     * @param perm the permissions the lock must grant
+     */
+    void lockPage(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException {
+        // some code goes here
+        // not necessary for lab1|lab2
+    }
+
+    /**
+     * Reads a page into the pool ahead of the request for it, evicting
+     * another page if necessary.
+     *
+     * @return true if the page was read, false if it was already resident
+     */
+    boolean prefetchPage(PageId pid) throws DbException {
+        return load(pid, true) != null;
+    }
+
+    /**
+     * Finds a page in the pool or reads it from disk.
+     *
+     * @param prefetch true to only read the page if it is not resident,
+     *   without counting the request as a hit
+     * @return the page, or null when prefetching a page that was resident
+     */
+    private Page load(PageId pid, boolean prefetch) throws DbException {
+        int p = partitionOf(pid);
+        PageBufferPool bufferPool = partitions[p];
+        while (true) {
+            if (!prefetch) {
+                Page page = bufferPool.get(pid);
+                if (page != null) {
+                    return page;
+                }
+            }
+            int frame = bufferPool.reserve(pid);
+            if (frame == PageBufferPool.RESIDENT) {
+                if (prefetch) {
+                    return null;
+                }
+                // another thread got there first; wait for its read
+                continue;
+            }
+            if (frame == ReplacementPolicy.NO_FRAME) {
+                evictPage(p);
+                continue;
             }
-            else {
-                Page page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-                if (bufferPool.size() == numPages) evictPage();
-                bufferPool.put(page.getId(), page);
+            boolean loaded = false;
+            try {
+                DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+                Page page;
+                if (bufferPool.getArena() != null) {
+                    // the arena keeps the bytes as read, not the page serialized again
+                    byte[] data = file.readPageData(pid);
+                    page = bufferPool.complete(frame, file.decodePage(pid, data), data, prefetch);
+                } else {
+                    page = bufferPool.complete(frame, file.readPage(pid), null, prefetch);
+                }
+                loaded = true;
                 return page;
+            } finally {
+                if (!loaded) {
+                    bufferPool.abort(frame);
+                }
             }
         }
     }
 
+    /** @return the index of the partition a page belongs to */
+    private int partitionOf(PageId pid) {
+        int last = specs.length - 1;
+        for (int i = 0; i < last; i++) {
+            if (specs[i].matches(pid)) {
+                return i;
+            }
+        }
+        return last;
+    }
+
+    /** @return the partition a page belongs to */
+    PageBufferPool partition(PageId pid) {
+        return partitions[partitionOf(pid)];
+    }
+
+    /** @return the name of the partition a page belongs to */
+    public String getPartitionName(PageId pid) {
+        return specs[partitionOf(pid)].getName();
+    }
+
+    /** @return the number of pages resident in the named partition, or -1 if there is none */
+    public int getPartitionSize(String name) {
+        for (int i = 0; i < specs.length; i++) {
+            if (specs[i].getName().equals(name)) {
+                return partitions[i].size();
+            }
+        }
+        return -1;
+    }
+
+    /** @return the maximum number of pages in this buffer pool */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /** @return the number of pages resident in the whole pool */
+    public int size() {
+        return budget.used();
+    }
+
+    /** @return the total number of frames over all partitions */
+    int frameCount() {
+        int n = 0;
+        for (PageBufferPool pool : partitions) {
+            n += pool.capacity();
+        }
+        return n;
+    }
+
+    /** @return the ids of the pages resident in the whole pool */
+    List<PageId> residentPages() {
+        List<PageId> pages = new ArrayList<PageId>();
+        for (PageBufferPool pool : partitions) {
+            pages.addAll(pool.pageIds());
+        }
+        return pages;
+    }
+
+    /** @return the number of frames holding a dirty page */
+    int dirtyCount() {
+        int n = 0;
+        for (PageBufferPool pool : partitions) {
+            n += pool.dirtyCount();
+        }
+        return n;
+    }
+
+    /** @return the number of prefetched pages that were later requested */
+    long prefetchUsed() {
+        long n = 0;
+        for (PageBufferPool pool : partitions) {
+            n += pool.getPrefetchUsed();
+        }
+        return n;
+    }
+
+    /** @return the number of prefetched pages evicted before being requested */
+    long prefetchWasted() {
+        long n = 0;
+        for (PageBufferPool pool : partitions) {
+            n += pool.getPrefetchWasted();
+        }
+        return n;
+    }
+
+    void resetPrefetchStats() {
+        for (PageBufferPool pool : partitions) {
+            pool.resetPrefetchStats();
+        }
+    }
+
+    /** @return the replacement policy of the default partition */
+    public ReplacementPolicy getReplacementPolicy() {
+        return partitions[partitions.length - 1].getPolicy();
+    }
+
+    /** @return the off-heap storage of the pool, or null if pages live on the Java heap */
+    public PageArena getArena() {
+        return arena;
+    }
+
+    /**
+     * Starts what runs in the background on behalf of the pool of the
+     * Database, i.e. the warm-up snapshots. Database opens a pool once it is
+     * installed.
+     */
+    void open() {
+        warmUp.start(Integer.getInteger(WarmUp.INTERVAL_PROPERTY, WarmUp.DEFAULT_INTERVAL));
+    }
+
+    /**
+     * Stops the warm-up snapshots and restores of this pool, and releases
+     * what it holds outside the Java heap: the memory of its arena is freed
+     * at once instead of whenever the arena is collected. The pool must not
+     * be used afterwards. Database closes a pool when it replaces it.
+     */
+    public void close() {
+        warmUp.stop();
+        writer.stop();
+        readAhead.stop();
+        if (arena != null) {
+            arena.close();
+        }
+    }
+
+    /** @return the read-ahead of this pool, which also holds its statistics */
+    public ReadAhead getReadAhead() {
+        return readAhead;
+    }
+
+    /** @return the warm-up snapshot of this pool */
+    public WarmUp getWarmUp() {
+        return warmUp;
+    }
+
+    /** @return the background writer of this pool, which also holds its statistics */
+    public BackgroundWriter getBackgroundWriter() {
+        return writer;
+    }
+
+    /** @return the fraction of its partition a table must exceed to be scanned through a ring; 0 if rings are off */
+    public double getScanRingFraction() {
+        return ringFraction;
+    }
+
+    /**
+     * Sets how large a heap file must be for a sequential scan to read it
+     * through a {@link ScanRing} of its own instead of through the pool: a
+     * table is scanned through a ring if it has more pages than this
+     * fraction of the frames of its partition. The default of 1 only keeps
+     * tables out of the pool that could not be cached whole anyway; 0 turns
+     * rings off.
+     */
+    public void setScanRingFraction(double fraction) {
+        if (fraction < 0) {
+            throw new IllegalArgumentException("Scan ring fraction must not be negative");
+        }
+        this.ringFraction = fraction;
+    }
+
+    /**
+     * Returns the ring a sequential scan of a heap file should read through,
+     * to keep its pages out of the pool.
+     *
+     * @param numPages the number of pages of the file
+     * @return a new ring, or null if the scan should go through the pool
+     */
+    ScanRing scanRing(HeapFile f, int numPages) {
+        double fraction = ringFraction;
+        if (fraction == 0) {
+            return null;
+        }
+        int frames = partition(new HeapPageId(f.getId(), 0)).capacity();
+        if (numPages <= fraction * frames) {
+            return null;
+        }
+        return new ScanRing(this, f, numPages);
+    }
+
+    void ringRead() {
+        ringReads.incrementAndGet();
+    }
+
+    void ringReadAhead() {
+        ringReadAheads.incrementAndGet();
+    }
+
+    /** @return the number of pages scans read ahead into their rings on the read-ahead threads */
+    public long getRingReadAheadCount() {
+        return ringReadAheads.get();
+    }
+
+    /** @return the number of pages scans read through their rings instead of the pool */
+    public long getRingReadCount() {
+        return ringReads.get();
+    }
+
+    /** @return the number of getPage requests served without a disk read */
+    public long getHitCount() {
+        long n = 0;
+        for (PageBufferPool pool : partitions) {
+            n += pool.getPolicy().getHits();
+        }
+        return n;
+    }
+
+    /** @return the number of getPage requests that read the page from disk */
+    public long getMissCount() {
+        long n = 0;
+        for (PageBufferPool pool : partitions) {
+            n += pool.getPolicy().getMisses();
+        }
+        return n;
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -155,6 +582,10 @@ public class BufferPool {
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        for (Page page : file.insertTuple(tid, t)) {
+            install(tid, page);
+        }
     }
 
     /**
@@ -174,6 +605,24 @@ public class BufferPool {
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        DbFile file = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
+        for (Page page : file.deleteTuple(tid, t)) {
+            install(tid, page);
+        }
+    }
+
+    /**
+     * Marks a page dirtied by tid and makes it the cached version of the
+     * page, evicting another page if it is no longer resident. Both happen
+     * under the latch of the frame, so a concurrent flush or eviction of the
+     * page either finishes first or sees the new version dirty.
+     */
+    private void install(TransactionId tid, Page page) throws DbException {
+        int p = partitionOf(page.getId());
+        while (!partitions[p].install(page.getId(), page, tid)) {
+            // no frame for the page; make one and try again
+            evictPage(p);
+        }
     }
 
     /**
@@ -184,7 +633,7 @@ public class BufferPool {
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-
+        flushBatch(null);
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -195,100 +644,225 @@ public class BufferPool {
      Also used by B+ tree files to ensure that deleted pages
      are removed from the cache so they can be reused safely
      */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
+        partition(pid).remove(pid);
     }
 
     /**
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
      */
-    private synchronized  void flushPage(PageId pid) throws IOException {
+    private void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
+        PageBufferPool bufferPool = partition(pid);
+        PageBufferPool.Frame f = bufferPool.latch(pid);
+        if (f != null) {
+            try {
+                writeFrame(bufferPool, f);
+            } finally {
+                bufferPool.unlatch(f);
+            }
+        }
     }
 
-    /** Write all pages of the specified transaction to disk.
+    /**
+     * Writes the page in a frame to disk if it is dirty, on behalf of the
+     * background writer.
+     *
+     * @param index the number of the frame, counting through the frames of
+     *   all partitions in order
+     * @return true if a page was written
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2
+    boolean writeFrame(int index) throws IOException {
+        int p = 0;
+        while (index >= partitions[p].capacity()) {
+            index -= partitions[p++].capacity();
+        }
+        PageBufferPool bufferPool = partitions[p];
+        PageBufferPool.Frame f = bufferPool.frame(index);
+        PageId pid = f.pid;
+        Page pg = f.page;
+        if (pid == null || pg == null || pg.isDirty() == null) {
+            return false;
+        }
+        f = bufferPool.latch(pid);
+        if (f == null) {
+            return false;
+        }
+        try {
+            return writeFrame(bufferPool, f);
+        } finally {
+            bufferPool.unlatch(f);
+        }
     }
 
     /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Writes the page of a latched frame to disk if it is dirty. The update
+     * is logged and the log forced first, so the log always reaches disk
+     * before the page it describes.
+     *
+     * @return true if the page was dirty
      */
-    private synchronized  void evictPage() throws DbException {
-        // some code goes here
-        // not necessary for lab1
-        Page pg = bufferPool.evictPage();
-        PageId pid = pg.getId();
-        try {
-            if (pg != null) {
-                flushPage(pid);
-                discardPage(pid);
-            }
-        }
-        catch (IOException e) {
-            throw new DbException("error during page flush");
+    private boolean writeFrame(PageBufferPool bufferPool, PageBufferPool.Frame f) throws IOException {
+        Page pg = f.page;
+        TransactionId dirtier = pg != null ? pg.isDirty() : null;
+        if (dirtier == null) {
+            return false;
         }
+        LogFile log = Database.getLogFile();
+        log.logWrite(dirtier, pg.getBeforeImage(), pg);
+        log.force();
+        Database.getCatalog().getDatabaseFile(f.pid.getTableId()).writePage(pg);
+        pg.markDirty(false, null);
+        bufferPool.pageWritten(f.pid, pg);
+        return true;
     }
 
-    private static class PageBufferPool {
-        private final int capacity;
-        private final ArrayList<Page> pageBuffer;
-        private final ConcurrentHashMap<PageId, Page> pageIdToPage;
-
-        public PageBufferPool(int size) {
-            this.capacity = size;
-            this.pageBuffer = new ArrayList<>(size);
-            this.pageIdToPage = new ConcurrentHashMap<>(size);
-        }
+    /** Write all pages of the specified transaction to disk.
+     */
+    public synchronized  void flushPages(TransactionId tid) throws IOException {
+        // some code goes here
+        // not necessary for lab1|lab2
+        flushBatch(tid);
+    }
 
-        public boolean containsKey(PageId id) {
-            return pageIdToPage.containsKey(id);
+    /**
+     * Writes dirty pages as one batch: every update is logged and the log
+     * forced once, then each file gets its pages in file order, adjacent
+     * pages coalesced into single writes, and one fsync.
+     * <p>
+     * The frames are latched in page order for the whole batch, so no page
+     * can be dirtied again or evicted between being logged and written.
+     * Callers are serialized on this object, which is what makes holding
+     * several latches at once safe: everybody else holds at most one.
+     *
+     * @param tid only write pages dirtied by this transaction; null for all
+     */
+    private void flushBatch(TransactionId tid) throws IOException {
+        ArrayList<PageId> dirty = new ArrayList<PageId>();
+        for (PageBufferPool pool : partitions) {
+            dirty.addAll(pool.dirtyPages(tid));
         }
+        Collections.sort(dirty, new Comparator<PageId>() {
+            public int compare(PageId a, PageId b) {
+                if (a.getTableId() != b.getTableId()) {
+                    return a.getTableId() < b.getTableId() ? -1 : 1;
+                }
+                return Integer.compare(a.getPageNumber(), b.getPageNumber());
+            }
+        });
 
-        public Page get(PageId id) {
-            return pageIdToPage.get(id);
-        }
+        ArrayList<PageBufferPool.Frame> latched = new ArrayList<PageBufferPool.Frame>();
+        try {
+            for (PageId pid : dirty) {
+                PageBufferPool bufferPool = partition(pid);
+                PageBufferPool.Frame f = bufferPool.latch(pid);
+                if (f == null) {
+                    continue;
+                }
+                Page pg = f.page;
+                TransactionId dirtier = pg != null ? pg.isDirty() : null;
+                if (dirtier == null || (tid != null && !tid.equals(dirtier))) {
+                    // written or evicted since we looked
+                    bufferPool.unlatch(f);
+                    continue;
+                }
+                latched.add(f);
+            }
+            if (latched.isEmpty()) {
+                return;
+            }
 
-        public void put(PageId id, Page page) {
-            if (pageBuffer.size() < capacity) {
-                if (pageIdToPage.containsKey(id)) {
-                    pageBuffer.remove(page);
-                } else {
-                    pageIdToPage.put(id, page);
+            LogFile log = Database.getLogFile();
+            for (PageBufferPool.Frame f : latched) {
+                log.logWrite(f.page.isDirty(), f.page.getBeforeImage(), f.page);
+            }
+            log.force();
+
+            int from = 0;
+            while (from < latched.size()) {
+                int tableId = latched.get(from).pid.getTableId();
+                ArrayList<Page> pages = new ArrayList<Page>();
+                int to = from;
+                while (to < latched.size() && latched.get(to).pid.getTableId() == tableId) {
+                    pages.add(latched.get(to++).page);
+                }
+                Database.getCatalog().getDatabaseFile(tableId).writePages(pages);
+                for (Page pg : pages) {
+                    pg.markDirty(false, null);
+                    partition(pg.getId()).pageWritten(pg.getId(), pg);
                 }
-                pageBuffer.add(page);
+                from = to;
+            }
+        } finally {
+            for (PageBufferPool.Frame f : latched) {
+                partition(f.pid).unlatch(f);
             }
         }
+    }
 
-        public Page remove(PageId pid) {
-            if (pageIdToPage.containsKey(pid)) {
-                Page pg = pageIdToPage.remove(pid);
-                pageBuffer.remove(pg);
-                return pg;
+    /**
+     * Discards a page from the buffer pool.
+     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     *
+     * @param p the partition that needs a frame
+     */
+    private void evictPage(int p) throws DbException {
+        // some code goes here
+        // not necessary for lab1
+        PageBufferPool bufferPool = partitions[chooseEvictingPartition(p)];
+        PageId pid = bufferPool.evictPage();
+        if (pid == null) {
+            if (bufferPool.loadingCount() > 0) {
+                // every frame is being read; one of them will be evictable soon
+                Thread.yield();
+                return;
             }
-            return null;
+            throw new DbException("no page to evict");
         }
-
-        public int size() {
-            return pageBuffer.size();
+        // the victim stays latched from the flush until its frame is free,
+        // so nobody can dirty it in between
+        PageBufferPool.Frame f = bufferPool.latch(pid);
+        if (f == null) {
+            // another thread evicted it already
+            return;
         }
-
-        public Page evictPage() {
-            int bufferSize = pageBuffer.size();
-            if (bufferSize > 0 && bufferSize == capacity) {
-                return pageBuffer.get(0);
+        try {
+            if (writeFrame(bufferPool, f)) {
+                writer.evictionWrote();
             }
-            return null;
+        } catch (IOException e) {
+            bufferPool.unlatch(f);
+            throw new DbException("error during page flush");
         }
-
+        bufferPool.remove(f);
     }
 
-
+    /**
+     * Picks the partition to take a frame from when partition p needs one.
+     * A partition at its maximum replaces its own pages. Otherwise the pool
+     * as a whole is full, and the frame comes from the partition that holds
+     * the most pages beyond its minimum, p itself on a tie, so partitions
+     * only ever lose frames they borrowed.
+     */
+    private int chooseEvictingPartition(int p) {
+        if (partitions[p].size() >= specs[p].getMaxPages() || partitions.length == 1) {
+            return p;
+        }
+        int best = p;
+        int bestExcess = partitions[p].size() > 0
+                ? partitions[p].size() - specs[p].getMinPages() : Integer.MIN_VALUE;
+        for (int i = 0; i < partitions.length; i++) {
+            int excess = partitions[i].size() - specs[i].getMinPages();
+            if (partitions[i].size() > 0 && excess > bestExcess) {
+                best = i;
+                bestExcess = excess;
+            }
+        }
+        return best;
+    }
 
 }
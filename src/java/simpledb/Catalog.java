@@ -72,6 +72,8 @@ public class Catalog {
         // some code goes here
         catalog.put(file.getId(), new DbTable(file, name, pkeyField));
         name2IdMap.put(name, file.getId());
+        // pages of the table saved before a restart can be read back now
+        Database.getBufferPool().getWarmUp().tableAdded(file.getId());
     }
 
     public void addTable(DbFile file, String name) {
@@ -148,12 +150,28 @@ public class Catalog {
     /** Delete all tables from the catalog */
     public void clear() {
         // some code goes here
+        for (DbTable table : catalog.values()) {
+            if (table.getFile() instanceof HeapFile) {
+                try {
+                    ((HeapFile) table.getFile()).close();
+                } catch (IOException e) {
+                    // the table is dropped either way
+                }
+            }
+        }
         catalog.clear();
         name2IdMap.clear();
     }
 
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Columns are of type int, string or varchar; a varchar column holds strings
+     * like a string column, but makes the table a {@link SlottedFile}, on which
+     * strings take only the bytes of their values. Varchar values are at most
+     * {@link Type#STRING_LEN} characters long, like those of string columns, and
+     * longer values are cut. A table whose columns are
+     * followed by <tt>columnar</tt> is a {@link PaxFile}, which stores them
+     * column by column.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -171,6 +189,8 @@ public class Catalog {
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
                 String primaryKey = "";
+                // a varchar column puts the table on slotted pages
+                boolean slotted = false;
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
@@ -178,7 +198,10 @@ public class Catalog {
                         types.add(Type.INT_TYPE);
                     else if (els2[1].trim().toLowerCase().equals("string"))
                         types.add(Type.STRING_TYPE);
-                    else {
+                    else if (els2[1].trim().toLowerCase().equals("varchar")) {
+                        types.add(Type.STRING_TYPE);
+                        slotted = true;
+                    } else {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
@@ -194,7 +217,19 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                File dataFile = new File(baseFolder+"/"+name + ".dat");
+                boolean columnar = line.substring(line.indexOf(")") + 1).trim().toLowerCase().equals("columnar");
+                if (slotted && columnar) {
+                    System.out.println("Table " + name + " cannot be both columnar and have varchar columns");
+                    System.exit(0);
+                }
+                HeapFile tabHf;
+                if (columnar)
+                    tabHf = new PaxFile(dataFile, t);
+                else if (slotted)
+                    tabHf = new SlottedFile(dataFile, t);
+                else
+                    tabHf = new HeapFile(dataFile, t);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
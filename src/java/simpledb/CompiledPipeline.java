@@ -0,0 +1,330 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * CompiledPipeline is an operator that runs a part of a plan compiled by
+ * {@link QueryCompiler} into one generated class. The generated code reads
+ * batches of a SeqScan and, in one loop over their rows, filters them,
+ * probes the hash tables of joins, and either aggregates the rows or
+ * emits them, without passing them through an operator per step.
+ * <p>
+ * The build sides of joins are run as plans of their own when the
+ * pipeline is opened and kept in {@link JoinTable}s. The children of the
+ * operator are the scan followed by the build sides.
+ *
+ * @see QueryCompiler
+ */
+public class CompiledPipeline extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The code generated for a pipeline extends this class. Generated
+     * classes are loaded apart from simpledb, so everything they use is
+     * public.
+     */
+    public static abstract class Code {
+        /** The rows emitted and not yet returned. */
+        final ArrayList<int[]> out = new ArrayList<int[]>();
+
+        /** Runs the pipeline over the rows of a batch of its source. */
+        public abstract void consume(TupleBatch batch);
+
+        /** Called once the source is exhausted; emits the rows of an aggregate. */
+        public void finish() {
+        }
+
+        /** Adds a row to the output of the pipeline. */
+        protected final void emit(int[] row) {
+            out.add(row);
+        }
+    }
+
+    /**
+     * The rows of the build side of a hash join, by their int join key.
+     */
+    public static final class JoinTable {
+        private int[] keys = new int[16];
+        private int[][][] rows = new int[16][][];
+        private int size;
+
+        /** Reads the rows of an open plan. */
+        JoinTable(OpIterator build, int keyField) throws DbException, TransactionAbortedException {
+            int n = build.getTupleDesc().numFields();
+            HashMap<Integer, ArrayList<int[]>> building = new HashMap<Integer, ArrayList<int[]>>();
+            while (build.hasNext()) {
+                Tuple t = build.next();
+                int[] row = new int[n];
+                for (int i = 0; i < n; i++)
+                    row[i] = t.getInt(i);
+                ArrayList<int[]> list = building.get(row[keyField]);
+                if (list == null) {
+                    list = new ArrayList<int[]>();
+                    building.put(row[keyField], list);
+                }
+                list.add(row);
+            }
+            for (Map.Entry<Integer, ArrayList<int[]>> e : building.entrySet())
+                put(e.getKey(), e.getValue().toArray(new int[0][]));
+        }
+
+        private static int hash(int key) {
+            int h = key * 0x9e3779b9;
+            return h ^ (h >>> 16);
+        }
+
+        private void put(int key, int[][] matches) {
+            if ((size + 1) * 2 > keys.length) {
+                int[] oldKeys = keys;
+                int[][][] oldRows = rows;
+                keys = new int[oldKeys.length * 2];
+                rows = new int[keys.length][][];
+                size = 0;
+                for (int i = 0; i < oldKeys.length; i++)
+                    if (oldRows[i] != null)
+                        put(oldKeys[i], oldRows[i]);
+            }
+            int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            while (rows[i] != null)
+                i = (i + 1) & mask;
+            keys[i] = key;
+            rows[i] = matches;
+            size++;
+        }
+
+        /** @return the rows whose join key is key, or null if there are none */
+        public int[][] get(int key) {
+            int mask = keys.length - 1;
+            for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+                int[][] matches = rows[i];
+                if (matches == null || keys[i] == key)
+                    return matches;
+            }
+        }
+    }
+
+    /**
+     * The running aggregates of groups with int keys, kept in the order
+     * the groups were first seen, as {@link IntegerAggregator} keeps them.
+     */
+    public static final class GroupTable {
+        /** The group at each position of the hash table, or -1. */
+        private int[] slots = new int[32];
+        private int size;
+        private int[] keys = new int[16];
+        /** The count, sum, min and max of each group, next to each other. */
+        private int[] aggregates = new int[16 * 4];
+
+        public GroupTable() {
+            Arrays.fill(slots, -1);
+        }
+
+        /** Adds a value to the aggregates of the group of key. */
+        public void add(int key, int value) {
+            int a = group(key) << 2;
+            int[] aggs = aggregates;
+            aggs[a]++;
+            aggs[a + 1] += value;
+            if (value < aggs[a + 2])
+                aggs[a + 2] = value;
+            if (value > aggs[a + 3])
+                aggs[a + 3] = value;
+        }
+
+        private int group(int key) {
+            int mask = slots.length - 1;
+            int h = key * 0x9e3779b9;
+            for (int i = (h ^ (h >>> 16)) & mask; ; i = (i + 1) & mask) {
+                int g = slots[i];
+                if (g < 0)
+                    return newGroup(key, i);
+                if (keys[g] == key)
+                    return g;
+            }
+        }
+
+        private int newGroup(int key, int slot) {
+            int g = size++;
+            if (g == keys.length) {
+                keys = Arrays.copyOf(keys, g * 2);
+                aggregates = Arrays.copyOf(aggregates, g * 2 * 4);
+            }
+            keys[g] = key;
+            aggregates[(g << 2) + 2] = Integer.MAX_VALUE;
+            aggregates[(g << 2) + 3] = Integer.MIN_VALUE;
+            slots[slot] = g;
+            if (size * 2 > slots.length)
+                rehash();
+            return g;
+        }
+
+        private void rehash() {
+            slots = new int[slots.length * 2];
+            Arrays.fill(slots, -1);
+            int mask = slots.length - 1;
+            for (int g = 0; g < size; g++) {
+                int h = keys[g] * 0x9e3779b9;
+                int i = (h ^ (h >>> 16)) & mask;
+                while (slots[i] >= 0)
+                    i = (i + 1) & mask;
+                slots[i] = g;
+            }
+        }
+
+        /** @return the number of groups */
+        public int size() {
+            return size;
+        }
+
+        public int key(int g) {
+            return keys[g];
+        }
+
+        public int count(int g) {
+            return aggregates[g << 2];
+        }
+
+        public int sum(int g) {
+            return aggregates[(g << 2) + 1];
+        }
+
+        public int min(int g) {
+            return aggregates[(g << 2) + 2];
+        }
+
+        public int max(int g) {
+            return aggregates[(g << 2) + 3];
+        }
+    }
+
+    private final TupleDesc td;
+    private SeqScan source;
+    private final OpIterator[] builds;
+    /** The fields of the source the generated code reads. */
+    private final int[] neededFields;
+    private final int[] buildKeys;
+    private final Class<? extends Code> codeClass;
+    private final int[] constants;
+
+    private transient JoinTable[] tables;
+    private transient Code code;
+    private transient int position;
+    private transient boolean finished;
+
+    /**
+     * Creates an operator that runs generated code in place of a plan.
+     *
+     * @param plan the plan the code was generated from
+     * @param source the scan the pipeline reads
+     * @param neededFields the fields of the source the code reads
+     * @param builds the build side of each join of the pipeline
+     * @param buildKeys the join field of each build side
+     * @param codeClass the generated class
+     * @param constants the constants the generated code compares with
+     */
+    CompiledPipeline(OpIterator plan, SeqScan source, int[] neededFields, OpIterator[] builds,
+            int[] buildKeys, Class<? extends Code> codeClass, int[] constants) {
+        this.td = plan.getTupleDesc();
+        this.source = source;
+        this.neededFields = neededFields;
+        source.setNeededFields(neededFields);
+        this.builds = builds;
+        this.buildKeys = buildKeys;
+        this.codeClass = codeClass;
+        this.constants = constants;
+    }
+
+    private Code newCode() throws DbException {
+        try {
+            return codeClass.getConstructor(int[].class, JoinTable[].class).newInstance(constants, tables);
+        } catch (ReflectiveOperationException e) {
+            throw new DbException("cannot run compiled pipeline: " + e);
+        }
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        tables = new JoinTable[builds.length];
+        for (int i = 0; i < builds.length; i++) {
+            builds[i].open();
+            tables[i] = new JoinTable(builds[i], buildKeys[i]);
+        }
+        source.open();
+        code = newCode();
+        position = 0;
+        finished = false;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        source.close();
+        for (OpIterator build : builds)
+            build.close();
+        code = null;
+        tables = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        source.rewind();
+        code = newCode();
+        position = 0;
+        finished = false;
+    }
+
+    /**
+     * Returns the next row the generated code emits, running it over the
+     * next batch of the source when it has none left.
+     */
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        ArrayList<int[]> out = code.out;
+        while (position == out.size()) {
+            if (finished)
+                return null;
+            out.clear();
+            position = 0;
+            TupleBatch batch = source.nextBatch();
+            if (batch == null) {
+                code.finish();
+                finished = true;
+            } else {
+                code.consume(batch);
+            }
+        }
+        int[] row = out.get(position++);
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < row.length; i++)
+            t.setInt(i, row[i]);
+        return t;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the scan the pipeline reads, followed by the build side of each join */
+    @Override
+    public OpIterator[] getChildren() {
+        OpIterator[] children = new OpIterator[1 + builds.length];
+        children[0] = source;
+        System.arraycopy(builds, 0, children, 1, builds.length);
+        return children;
+    }
+
+    /**
+     * Replaces the scan and the build sides, which must return the tuples
+     * of those they replace; the generated code reads the batches of the
+     * scan, so it must be a SeqScan.
+     */
+    @Override
+    public void setChildren(OpIterator[] children) {
+        if (children.length != 1 + builds.length || !(children[0] instanceof SeqScan))
+            throw new IllegalArgumentException("a pipeline reads a SeqScan and " + builds.length + " build sides");
+        if (children[0] != source) {
+            source = (SeqScan) children[0];
+            source.setNeededFields(neededFields);
+        }
+        System.arraycopy(children, 1, builds, 0, builds.length);
+    }
+}
@@ -0,0 +1,356 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * CompressedHeapFile is a HeapFile whose pages are compressed on disk, for
+ * large tables that are mostly scanned and seldom changed. A scan then reads
+ * a fraction of the bytes and spends some CPU inflating them; pages in the
+ * buffer pool are ordinary HeapPages.
+ * <p>
+ * Each page is deflated on its own at the fastest level and stored as an
+ * extent of the data file. Extents are appended to the file in the order
+ * pages are written; a page that is written again gets a new extent,
+ * leaving its old one unused until the file is compressed again. A page
+ * that does not compress is stored as it is, and an empty page takes no
+ * extent at all.
+ * <p>
+ * Where the extent of each page is kept in a map file next to the data
+ * file, with <tt>.pmap</tt> added to its name: a header of a magic number
+ * and the page size, then the offset (a long) and length (an int) of the
+ * extent of each page in page order. The data of a page is written before
+ * its map entry, and an extent is never written over, so the map never
+ * points at a partly written extent. Only the entries of the pages written
+ * are written to the map.
+ * <p>
+ * Pages are not read through a memory mapping, whatever
+ * {@link #setMemoryMapped} is told.
+ *
+ * @see #compress
+ */
+public class CompressedHeapFile extends HeapFile {
+
+    static final int MAGIC = 0x53444243;
+    private static final int MAP_HEADER_SIZE = 8;
+    private static final int ENTRY_SIZE = 12;
+
+    /** Compressors for the threads writing pages. */
+    private static final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.BEST_SPEED, true);
+        }
+    };
+
+    /** Decompressors for the threads reading pages. */
+    private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+    };
+
+    private final File mapFile;
+    /** The extents of the pages, read from the map file on first use. */
+    private long[] offsets;
+    private int[] lengths;
+    private int numPages = -1;
+    /** Where the next extent is appended. */
+    private long end;
+    private RandomAccessFile map;
+    /** The number of map entries written, for tests. */
+    private long mapEntryWrites;
+
+    /**
+     * Constructs a compressed heap file backed by the specified file.
+     *
+     * @param f the file the compressed pages are stored in
+     * @param td the schema of the tuples stored in the file
+     */
+    public CompressedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+        this.mapFile = new File(f.getPath() + ".pmap");
+    }
+
+    /**
+     * Writes a compressed copy of a heap file. Pages are compressed and
+     * written in batches, in page order.
+     *
+     * @param source the heap file to copy
+     * @param f the file to write the compressed pages to; it is replaced
+     *   if it exists
+     * @return the compressed copy, which is not added to the catalog
+     */
+    public static CompressedHeapFile compress(HeapFile source, File f) throws IOException {
+        f.delete();
+        new File(f.getPath() + ".pmap").delete();
+        new File(f.getPath() + ".fsm").delete();
+        PageChecksums.discard(f);
+        CompressedHeapFile target = new CompressedHeapFile(f, source.getTupleDesc());
+        int n = source.numPages();
+        byte[][] batch = new byte[HeapFile.LOAD_CHUNK_PAGES][];
+        for (int first = 0; first < n; first += batch.length) {
+            int count = Math.min(batch.length, n - first);
+            for (int i = 0; i < count; i++) {
+                batch[i] = HeapPage.createEmptyPageData();
+                source.readPageData(first + i, batch[i]);
+            }
+            target.writeCompressed(first, Arrays.copyOf(batch, count));
+        }
+        target.force();
+        return target;
+    }
+
+    /** Reads the map file, if it has not been read yet. */
+    private synchronized void loadMap() throws IOException {
+        if (numPages >= 0)
+            return;
+        offsets = new long[16];
+        lengths = new int[16];
+        numPages = 0;
+        end = getFile().length();
+        if (!mapFile.exists())
+            return;
+        RandomAccessFile in = new RandomAccessFile(mapFile, "r");
+        try {
+            if (in.length() < MAP_HEADER_SIZE)
+                return;
+            if (in.readInt() != MAGIC)
+                throw new IOException(mapFile + " is not a page map");
+            int pageSize = in.readInt();
+            if (pageSize != BufferPool.getPageSize())
+                throw new IOException(mapFile + " has pages of " + pageSize + " bytes, not "
+                        + BufferPool.getPageSize());
+            byte[] entries = new byte[(int) ((in.length() - MAP_HEADER_SIZE) / ENTRY_SIZE * ENTRY_SIZE)];
+            in.readFully(entries);
+            ByteBuffer buf = ByteBuffer.wrap(entries);
+            while (buf.hasRemaining())
+                setExtent(numPages, buf.getLong(), buf.getInt());
+        } finally {
+            in.close();
+        }
+    }
+
+    /** Records the extent of a page in memory, growing the map if needed. */
+    private void setExtent(int pgNo, long offset, int length) {
+        if (pgNo >= offsets.length) {
+            int size = Math.max(pgNo + 1, offsets.length * 2);
+            offsets = Arrays.copyOf(offsets, size);
+            lengths = Arrays.copyOf(lengths, size);
+        }
+        offsets[pgNo] = offset;
+        lengths[pgNo] = length;
+        numPages = Math.max(numPages, pgNo + 1);
+    }
+
+    /** Writes the map entries of pages [from, to) to the map file. */
+    private void writeMap(int from, int to) throws IOException {
+        if (map == null) {
+            map = new RandomAccessFile(mapFile, "rw");
+            if (map.length() < MAP_HEADER_SIZE) {
+                map.writeInt(MAGIC);
+                map.writeInt(BufferPool.getPageSize());
+            }
+        }
+        ByteBuffer buf = ByteBuffer.allocate((to - from) * ENTRY_SIZE);
+        for (int i = from; i < to; i++)
+            buf.putLong(offsets[i]).putInt(lengths[i]);
+        map.seek(MAP_HEADER_SIZE + (long) from * ENTRY_SIZE);
+        map.write(buf.array());
+        mapEntryWrites += to - from;
+    }
+
+    /** @return the number of map entries written since the file was opened */
+    synchronized long getMapEntryWrites() {
+        return mapEntryWrites;
+    }
+
+    /** @return the bytes the data file uses for the pages, which is less than numPages() pages */
+    public synchronized long compressedLength() throws IOException {
+        loadMap();
+        return end;
+    }
+
+    @Override
+    public synchronized int numPages() {
+        try {
+            loadMap();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("cannot read page map of " + getFile(), e);
+        }
+        return numPages;
+    }
+
+    @Override
+    void readPageData(int pgNo, byte[] rawPgData) throws IOException {
+        long offset;
+        int length;
+        synchronized (this) {
+            loadMap();
+            if (pgNo >= numPages)
+                return;
+            offset = offsets[pgNo];
+            length = lengths[pgNo];
+        }
+        if (length == 0) {
+            Arrays.fill(rawPgData, (byte) 0);
+            return;
+        }
+        if (length == rawPgData.length) {
+            // stored uncompressed
+            readAt(offset, ByteBuffer.wrap(rawPgData));
+            return;
+        }
+        byte[] extent = new byte[length];
+        readAt(offset, ByteBuffer.wrap(extent));
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(extent);
+        try {
+            int n = 0;
+            while (n < rawPgData.length && !inflater.finished()) {
+                int got = inflater.inflate(rawPgData, n, rawPgData.length - n);
+                if (got == 0 && inflater.needsInput())
+                    break;
+                n += got;
+            }
+            if (n != rawPgData.length)
+                throw new IOException("page " + pgNo + " of " + getFile() + " is truncated");
+        } catch (DataFormatException e) {
+            throw new IOException("page " + pgNo + " of " + getFile() + " is corrupt", e);
+        }
+    }
+
+    /** @return the page as it is stored: deflated, as it is, or empty */
+    private static byte[] deflate(byte[] page) {
+        boolean empty = true;
+        for (byte b : page) {
+            if (b != 0) {
+                empty = false;
+                break;
+            }
+        }
+        if (empty)
+            return new byte[0];
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(page);
+        deflater.finish();
+        // output that saves less than a sixteenth of the page is not worth
+        // inflating; a page stored as it is is told apart by its length
+        byte[] out = new byte[page.length - page.length / 16];
+        int n = 0;
+        while (!deflater.finished() && n < out.length)
+            n += deflater.deflate(out, n, out.length - n);
+        if (!deflater.finished())
+            return page;
+        return Arrays.copyOf(out, n);
+    }
+
+    /**
+     * Compresses pages and stores them, appending their extents together
+     * with one write, and then points their map entries at the new extents.
+     *
+     * @param first the number of the first page
+     * @param pages the data of consecutive pages
+     */
+    private void writeCompressed(int first, byte[][] pages) throws IOException {
+        int[] pgNos = new int[pages.length];
+        for (int i = 0; i < pages.length; i++)
+            pgNos[i] = first + i;
+        writeCompressed(pgNos, pages);
+    }
+
+    private void writeCompressed(int[] pgNos, byte[][] pages) throws IOException {
+        byte[][] extents = new byte[pages.length][];
+        int appended = 0;
+        for (int i = 0; i < pages.length; i++) {
+            extents[i] = deflate(pages[i]);
+            appended += extents[i].length;
+        }
+        synchronized (this) {
+            loadMap();
+            int oldNumPages = numPages;
+            ByteBuffer tail = ByteBuffer.allocate(appended);
+            for (byte[] extent : extents)
+                tail.put(extent);
+            if (appended > 0) {
+                tail.flip();
+                writeAt(end, tail);
+            }
+            long offset = end;
+            end += appended;
+            for (int i = 0; i < pages.length; i++) {
+                int length = extents[i].length;
+                setExtent(pgNos[i], length == 0 ? 0 : offset, length);
+                offset += length;
+            }
+            // the entries of the pages written, and of any pages an append
+            // skipped over, which are empty
+            int[] changed = pgNos.clone();
+            Arrays.sort(changed);
+            int i = 0;
+            while (i < changed.length && changed[i] < oldNumPages) {
+                int from = changed[i];
+                int to = from + 1;
+                while (++i < changed.length && changed[i] <= to && changed[i] < oldNumPages)
+                    to = changed[i] + 1;
+                writeMap(from, to);
+            }
+            if (numPages > oldNumPages)
+                writeMap(oldNumPages, numPages);
+        }
+    }
+
+    /** Forces the data file and then the map to disk. */
+    private synchronized void force() throws IOException {
+        channel(true).force(false);
+        if (map != null)
+            map.getChannel().force(false);
+    }
+
+    @Override
+    public void writePage(Page page) throws IOException {
+        int[] pgNos = { page.getId().getPageNumber() };
+        byte[][] data = { page.getPageData() };
+        recordChecksums(pgNos, data);
+        writeCompressed(pgNos, data);
+    }
+
+    @Override
+    public void writePages(List<Page> pages) throws IOException {
+        int[] pgNos = new int[pages.size()];
+        byte[][] data = new byte[pages.size()][];
+        for (int i = 0; i < pgNos.length; i++) {
+            pgNos[i] = pages.get(i).getId().getPageNumber();
+            data[i] = pages.get(i).getPageData();
+        }
+        recordChecksums(pgNos, data);
+        writeCompressed(pgNos, data);
+        force();
+    }
+
+    @Override
+    synchronized void writeEmptyPage(int pgNo) throws IOException {
+        loadMap();
+        setExtent(pgNo, 0, 0);
+        writeMap(pgNo, pgNo + 1);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        super.close();
+        if (map != null) {
+            map.close();
+            map = null;
+        }
+    }
+}
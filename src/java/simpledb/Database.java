@@ -15,6 +15,9 @@ import java.util.concurrent.atomic.AtomicReference;
  */
 public class Database {
     private static AtomicReference<Database> _instance = new AtomicReference<Database>(new Database());
+    static {
+        _instance.get()._bufferpool.open();
+    }
     private final Catalog _catalog;
     private final BufferPool _bufferpool;
 
@@ -55,11 +58,28 @@ public class Database {
      * return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(new BufferPool(pages));
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool
+     * that uses the specified replacement policy and return it
+     */
+    public static BufferPool resetBufferPool(int pages, ReplacementPolicy policy) {
+        return resetBufferPool(new BufferPool(pages, policy));
+    }
+
+    /**
+     * Method used for testing -- install the given buffer pool and return it.
+     * The pool it replaces is closed, and the new one opened.
+     */
+    public static BufferPool resetBufferPool(BufferPool bufferPool) {
+        BufferPool old = _instance.get()._bufferpool;
         java.lang.reflect.Field bufferPoolF=null;
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            bufferPoolF.set(_instance.get(), bufferPool);
         } catch (NoSuchFieldException e) {
             e.printStackTrace();
         } catch (SecurityException e) {
@@ -70,12 +90,19 @@ public class Database {
             e.printStackTrace();
         }
 //        _instance._bufferpool = new BufferPool(pages);
+        if (old != bufferPool) {
+            old.close();
+            bufferPool.open();
+        }
         return _instance.get()._bufferpool;
     }
 
     // reset the database, used for unit tests only.
     public static void reset() {
-        _instance.set(new Database());
+        Database db = new Database();
+        Database old = _instance.getAndSet(db);
+        old._bufferpool.close();
+        db._bufferpool.open();
     }
 
 }
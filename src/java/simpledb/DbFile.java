@@ -19,6 +19,29 @@ public interface DbFile {
      */
     public Page readPage(PageId id);
 
+    /**
+     * Builds the specified page from bytes in the on-disk format, as written
+     * by {@link #writePage}, without doing any I/O. Used by the buffer pool
+     * to rebuild pages whose bytes it keeps outside the Java heap.
+     *
+     * @throws IllegalArgumentException if the bytes cannot be parsed as a
+     *   page of this file.
+     */
+    public Page decodePage(PageId id, byte[] data);
+
+    /**
+     * Reads the bytes of the specified page from disk, in the form
+     * {@link #decodePage} takes. A buffer pool that keeps page bytes outside
+     * the Java heap stores them as they were read instead of serializing
+     * the page decoded from them. By default the page is read and
+     * serialized.
+     *
+     * @throws IllegalArgumentException if the page does not exist in this file.
+     */
+    public default byte[] readPageData(PageId id) {
+        return readPage(id).getPageData();
+    }
+
     /**
      * Push the specified page to disk.
      *
@@ -28,6 +51,17 @@ public interface DbFile {
      */
     public void writePage(Page p) throws IOException;
 
+    /**
+     * Push several pages of this file to disk at once. Implementations
+     * should write the pages in file order, coalesce pages that are adjacent
+     * on disk into single writes, and force the file to disk once at the
+     * end, so the pages are durable when this method returns.
+     *
+     * @param pages The pages to write, in any order.
+     * @throws IOException if the write fails
+     */
+    public void writePages(List<Page> pages) throws IOException;
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -0,0 +1,37 @@
+package simpledb;
+
+/**
+ * First-in first-out replacement: evicts the page that has been resident the
+ * longest, regardless of how often it was used. This is what the BufferPool
+ * did before replacement became pluggable.
+ */
+public class FifoPolicy extends AbstractReplacementPolicy {
+
+    private final FrameList queue;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity the number of frames in the pool this policy serves
+     */
+    public FifoPolicy(int capacity) {
+        this.queue = new FrameList(capacity);
+    }
+
+    public void pageLoaded(int frame, PageId pid) {
+        super.pageLoaded(frame, pid);
+        queue.addLast(frame);
+    }
+
+    public void pageRemoved(int frame, PageId pid) {
+        queue.remove(frame);
+    }
+
+    public int chooseVictim() {
+        return queue.first();
+    }
+
+    protected String getName() {
+        return "fifo";
+    }
+}
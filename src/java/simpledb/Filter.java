@@ -4,13 +4,26 @@ import java.util.*;
 
 /**
  * Filter is an operator that implements a relational select.
+ * <p>
+ * A plan applies several predicates to one table as a stack of Filters,
+ * one per predicate. When opened, the topmost Filter of a stack compiles
+ * the predicates of the whole stack into one test and reads the operator
+ * below the stack itself, so the Filters under it are not called for
+ * every tuple. They stay in the plan, which still describes the query.
  */
-public class Filter extends Operator {
+public class Filter extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
 
     private Predicate p;
     private OpIterator child;
+    private transient BatchIterator batches;
+    /** The operator below the stack of Filters this Filter tops, which tuples are read from. */
+    private transient OpIterator source;
+    /** The predicates of the stack, lowest first. */
+    private transient Predicate[] predicates;
+    /** The predicates of the stack compiled into one test. */
+    private transient PredicateCompiler.TupleTest test;
     // need to keep current tuple in case where one outer tuple matches multiple inner tuples.
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -42,6 +55,28 @@ public class Filter extends Operator {
         // some code goes here
         super.open();
         child.open();
+        compile();
+    }
+
+    /** Compiles the predicates of this Filter and of the Filters stacked under it. */
+    private void compile() {
+        ArrayList<Predicate> stack = new ArrayList<Predicate>();
+        stack.add(p);
+        OpIterator below = child;
+        while (below instanceof Filter) {
+            Filter f = (Filter) below;
+            stack.add(f.p);
+            below = f.child;
+        }
+        // a tuple is tested by the lowest Filter first, as the stack would
+        Collections.reverse(stack);
+        predicates = stack.toArray(new Predicate[stack.size()]);
+        PredicateCompiler.TupleTest[] tests = new PredicateCompiler.TupleTest[predicates.length];
+        for (int i = 0; i < tests.length; i++)
+            tests[i] = predicates[i].compile();
+        test = PredicateCompiler.and(tests);
+        source = below;
+        batches = null;
     }
 
     public void close() {
@@ -67,18 +102,38 @@ public class Filter extends Operator {
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         // some code goes here
-        //Iterates through the child Operator
-        while (child.hasNext()){
+        //Iterates through the operator below the stack of Filters
+        while (source.hasNext()){
             // Read next tuple
-            Tuple tuple = child.next();
-            // If it matches the predicate, return
-            if(p.filter(tuple)){
+            Tuple tuple = source.next();
+            // If it matches the predicates, return
+            if(test.test(tuple)){
                 return tuple;
             }
         }
         return null;
     }
 
+    /**
+     * Returns the rows of the next batches read below the stack of Filters
+     * that pass all its predicates, skipping batches none of whose rows
+     * pass.
+     *
+     * @see Predicate#filter(TupleBatch)
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batches == null)
+            batches = BatchingIterator.of(source);
+        TupleBatch batch;
+        while ((batch = batches.nextBatch()) != null) {
+            for (int i = 0; i < predicates.length && batch.size() > 0; i++)
+                predicates[i].filter(batch);
+            if (batch.size() > 0)
+                return batch;
+        }
+        return null;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
@@ -93,6 +148,7 @@ public class Filter extends Operator {
         // some code goes here
         // See Operator JavaDocs
         this.child = children[0];
+        compile();
     }
 
 }
@@ -0,0 +1,42 @@
+package simpledb;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The number of frames that the partitions of a BufferPool may fill
+ * together. Each partition has frames up to its own maximum, but the sum
+ * of their resident pages is held to the size of the whole pool.
+ */
+class FrameBudget {
+
+    private final int limit;
+    private final AtomicInteger used = new AtomicInteger();
+
+    FrameBudget(int limit) {
+        this.limit = limit;
+    }
+
+    int limit() {
+        return limit;
+    }
+
+    int used() {
+        return used.get();
+    }
+
+    /** Takes one frame. @return false if the budget is used up */
+    boolean tryAcquire() {
+        while (true) {
+            int n = used.get();
+            if (n >= limit)
+                return false;
+            if (used.compareAndSet(n, n + 1))
+                return true;
+        }
+    }
+
+    /** Gives back a frame taken with {@link #tryAcquire}. */
+    void release() {
+        used.decrementAndGet();
+    }
+}
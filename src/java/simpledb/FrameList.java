@@ -0,0 +1,87 @@
+package simpledb;
+
+/**
+ * A doubly linked list of buffer pool frame numbers whose links live in
+ * plain int arrays indexed by frame, so adding, removing and moving a frame
+ * never allocates and takes constant time. Several lists may share the same
+ * link arrays as long as a frame is on at most one of them at a time, which
+ * is how policies with more than one queue keep a single set of links.
+ */
+class FrameList {
+
+    /** Marks the absence of a frame. */
+    static final int NIL = -1;
+
+    private final int[] prev;
+    private final int[] next;
+    private int head = NIL;
+    private int tail = NIL;
+    private int size = 0;
+
+    /** Creates a list with its own links for frames 0 to capacity - 1. */
+    FrameList(int capacity) {
+        this(new int[capacity], new int[capacity]);
+    }
+
+    /** Creates a list that threads through the given link arrays. */
+    FrameList(int[] prev, int[] next) {
+        this.prev = prev;
+        this.next = next;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** @return the oldest frame on the list, or NIL */
+    int first() {
+        return head;
+    }
+
+    /** Appends a frame that is not on any list sharing these links. */
+    void addLast(int frame) {
+        prev[frame] = tail;
+        next[frame] = NIL;
+        if (tail == NIL)
+            head = frame;
+        else
+            next[tail] = frame;
+        tail = frame;
+        size++;
+    }
+
+    /** Unlinks a frame that is on this list. */
+    void remove(int frame) {
+        int p = prev[frame];
+        int n = next[frame];
+        if (p == NIL)
+            head = n;
+        else
+            next[p] = n;
+        if (n == NIL)
+            tail = p;
+        else
+            prev[n] = p;
+        size--;
+    }
+
+    /** Moves a frame that is on this list to its end. */
+    void moveToLast(int frame) {
+        if (frame != tail) {
+            remove(frame);
+            addLast(frame);
+        }
+    }
+
+    /** Removes and returns the oldest frame on the list, or NIL. */
+    int removeFirst() {
+        int frame = head;
+        if (frame != NIL)
+            remove(frame);
+        return frame;
+    }
+}
@@ -0,0 +1,142 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap records which pages of a HeapFile have room for another
+ * tuple, so an insert can go straight to such a page instead of reading
+ * the file from the start to find one. The map holds one bit per page, kept in memory
+ * and in a small file next to the heap file: an int with the number of
+ * pages the map covers, followed by the bitmap. A bit is written to disk
+ * whenever it changes, which is once every time a page fills up or gets
+ * its first empty slot back.
+ * <p>
+ * The map is only a hint and is neither logged nor forced. A page the map
+ * wrongly shows as free is found full by the insert that tries it, which
+ * then corrects the map; a page wrongly shown as full only leaves its
+ * empty slots unused until a delete frees one. When the map has no entry
+ * for some pages, for instance because the file was written by
+ * HeapFileEncoder or predates the map, those pages are taken to be full,
+ * except for the last one, since such files are packed in page order.
+ *
+ * @see HeapFile#insertTuple
+ */
+class FreeSpaceMap {
+
+    /** Bytes before the bitmap in the map file. */
+    private static final int HEADER_SIZE = 4;
+
+    private final File file;
+    private final BitSet free = new BitSet();
+    /** The number of pages the map has an entry for. */
+    private int known = 0;
+    /** No page below this one has its bit set. */
+    private int cursor = 0;
+    private RandomAccessFile raf;
+
+    /**
+     * Constructor. Reads the map file if there is one.
+     *
+     * @param file the file the map is kept in
+     */
+    FreeSpaceMap(File file) {
+        this.file = file;
+        if (file.exists()) {
+            try {
+                RandomAccessFile in = new RandomAccessFile(file, "r");
+                try {
+                    int pages = in.readInt();
+                    byte[] bits = new byte[(pages + 7) / 8];
+                    in.readFully(bits);
+                    free.or(BitSet.valueOf(bits));
+                    known = pages;
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                // start over; the map is rebuilt as pages are used
+                Debug.log(1, "cannot read free space map %s: %s", file, e);
+                free.clear();
+                known = 0;
+            }
+        }
+    }
+
+    /**
+     * Finds a page that has an empty slot.
+     *
+     * @param numPages the number of pages in the heap file
+     * @return the number of the page, or -1 if no page has an empty slot
+     */
+    synchronized int findFree(int numPages) {
+        cover(numPages);
+        int pgNo = free.nextSetBit(cursor);
+        if (pgNo < 0 || pgNo >= numPages) {
+            cursor = numPages;
+            return -1;
+        }
+        cursor = pgNo;
+        return pgNo;
+    }
+
+    /**
+     * Records whether a page has an empty slot.
+     */
+    synchronized void setFree(int pgNo, boolean hasFree) {
+        cover(pgNo + 1);
+        if (free.get(pgNo) == hasFree)
+            return;
+        free.set(pgNo, hasFree);
+        if (hasFree && pgNo < cursor)
+            cursor = pgNo;
+        write(pgNo / 8, pgNo / 8 + 1);
+    }
+
+    /** @return true if the map shows the page as having an empty slot */
+    synchronized boolean isFree(int pgNo) {
+        return free.get(pgNo);
+    }
+
+    /** Gives entries to pages the map does not know yet. */
+    private void cover(int numPages) {
+        if (numPages <= known)
+            return;
+        int from = known;
+        free.clear(from, numPages);
+        free.set(numPages - 1);
+        if (numPages - 1 < cursor)
+            cursor = numPages - 1;
+        known = numPages;
+        write(from / 8, (numPages + 7) / 8);
+    }
+
+    /** Writes the page count and the bitmap bytes in [from, to) to the map file. */
+    private void write(int from, int to) {
+        try {
+            if (raf == null)
+                raf = new RandomAccessFile(file, "rw");
+            raf.seek(0);
+            raf.writeInt(known);
+            byte[] bits = free.toByteArray();
+            byte[] range = new byte[to - from];
+            System.arraycopy(bits, Math.min(from, bits.length), range, 0,
+                    Math.max(0, Math.min(to, bits.length) - from));
+            raf.seek(HEADER_SIZE + from);
+            raf.write(range);
+        } catch (IOException e) {
+            // the map is a hint; the next change writes it again
+            Debug.log(1, "cannot write free space map %s: %s", file, e);
+        }
+    }
+
+    /** Closes the map file; it is opened again by the next change. */
+    synchronized void close() throws IOException {
+        if (raf != null) {
+            raf.close();
+            raf = null;
+        }
+    }
+}
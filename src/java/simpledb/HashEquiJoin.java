@@ -5,7 +5,7 @@ import java.util.*;
 /**
  * The Join operator implements the relational join operation.
  */
-public class HashEquiJoin extends Operator {
+public class HashEquiJoin extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
     private JoinPredicate pred;
@@ -14,6 +14,14 @@ public class HashEquiJoin extends Operator {
     transient private Tuple t1 = null;
     transient private Tuple t2 = null;
 
+    transient private BatchIterator probeBatches;
+    transient private TupleBatch probeBatch;
+    transient private int probePosition;
+    transient private int probeRow;
+    transient private ArrayList<Tuple> matches;
+    transient private int matchPosition;
+    transient private TupleBatch joined;
+
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
@@ -57,7 +65,8 @@ public class HashEquiJoin extends Operator {
         int cnt = 0;
         map.clear();
         while (child1.hasNext()) {
-            t1 = child1.next();
+            // the table outlives the pages the tuples are read from
+            t1 = child1.next().copy();
             ArrayList<Tuple> list = map.get(t1.getField(pred.getField1()));
             if (list == null) {
                 list = new ArrayList<Tuple>();
@@ -86,12 +95,18 @@ public class HashEquiJoin extends Operator {
         this.t1=null;
         this.t2=null;
         this.listIt=null;
+        this.probeBatch=null;
+        this.matches=null;
         this.map.clear();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         child1.rewind();
         child2.rewind();
+        this.listIt = null;
+        this.probeBatch = null;
+        this.matches = null;
+        loadMap();
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -123,9 +138,9 @@ public class HashEquiJoin extends Operator {
         // set fields in combined tuple
         Tuple t = new Tuple(comboTD);
         for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
+            t.setFieldFrom(i, t1, i);
         for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
+            t.setFieldFrom(td1n + i, t2, i);
         return t;
 
     }
@@ -159,6 +174,40 @@ public class HashEquiJoin extends Operator {
         return null;
     }
 
+    /**
+     * Returns the next joined tuples in a batch. The tuples of child1 are
+     * loaded into the hash table as {@link #fetchNext} loads them, and
+     * child2 is probed a batch at a time.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (joined == null) {
+            joined = new TupleBatch(comboTD);
+            probeBatches = BatchingIterator.of(child2);
+        }
+        joined.clear();
+        int field2 = pred.getField2();
+        while (!joined.isFull() && !map.isEmpty()) {
+            if (matches != null && matchPosition < matches.size()) {
+                joined.addJoined(matches.get(matchPosition++), probeBatch, probeRow);
+                continue;
+            }
+            if (probeBatch == null || probePosition == probeBatch.size()) {
+                probeBatch = probeBatches.nextBatch();
+                probePosition = 0;
+                if (probeBatch == null) {
+                    // child2 is done: load the next part of child1
+                    child2.rewind();
+                    loadMap();
+                    continue;
+                }
+            }
+            probeRow = probeBatch.row(probePosition++);
+            matches = map.get(probeBatch.getField(field2, probeRow));
+            matchPosition = 0;
+        }
+        return joined.size() > 0 ? joined : null;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[]{this.child1, this.child2};
@@ -168,6 +217,8 @@ public class HashEquiJoin extends Operator {
     public void setChildren(OpIterator[] children) {
         this.child1 = children[0];
         this.child2 = children[1];
+        this.probeBatches = null;
+        this.joined = null;
     }
     
 }
@@ -1,11 +1,18 @@
 package simpledb;
 
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
@@ -21,6 +28,15 @@ import java.util.NoSuchElementException;
 public class HeapFile implements DbFile {
     private final File dbFile;
     private final TupleDesc tupleDesc;
+    /** Opened on first use and kept open, so a page read is a single positional read. */
+    private FileChannel channel;
+    private boolean writable;
+    /** The mapping reads go through instead of the channel, or null. */
+    private volatile MappedFile mapped;
+    /** Which pages have an empty slot; read on the first insert or delete. */
+    private FreeSpaceMap freeSpace;
+    /** The checksums pages are checked against, or null. */
+    private volatile PageChecksums checksums;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -33,6 +49,8 @@ public class HeapFile implements DbFile {
         // some code goes here
         this.dbFile = f;
         this.tupleDesc = td;
+        setMemoryMapped(MappedFile.enabledByDefault());
+        setChecksummed(PageChecksums.enabledByDefault());
     }
 
     /**
@@ -72,18 +90,82 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
-        int tableId = pid.getTableId();
-        int pgNo = pid.getPageNumber();
+        return decodePage(new HeapPageId(pid.getTableId(), pid.getPageNumber()), readPageData(pid));
+    }
+
+    /**
+     * Reads the bytes of a page into a new buffer and checks them. The page
+     * decoded from them keeps the buffer as its before image and decodes its
+     * tuples from it, so the buffer must not be changed afterwards.
+     *
+     * @see DbFile#readPageData
+     */
+    public byte[] readPageData(PageId pid) {
         byte[] rawPgData = HeapPage.createEmptyPageData();
+        try {
+            readCheckedPageData(pid.getPageNumber(), rawPgData);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Heap file I/O error", e);
+        }
+        return rawPgData;
+    }
+
+    /**
+     * Reads the bytes of a page into a buffer and checks them against their
+     * checksum, if this file keeps checksums.
+     *
+     * @throws IOException if the page cannot be read or fails its checksum
+     */
+    void readCheckedPageData(int pgNo, byte[] rawPgData) throws IOException {
+        readPageData(pgNo, rawPgData);
+        PageChecksums c = checksums;
+        if (c != null) {
+            c.check(pgNo, rawPgData);
+        }
+    }
+
+    /**
+     * Reads the bytes of a page with a single positional read, which leaves
+     * no file position for concurrent readers to contend for. Past the end
+     * of the file the rest of the buffer is left as it is.
+     */
+    void readPageData(int pgNo, byte[] rawPgData) throws IOException {
+        long offset = (long) pgNo * BufferPool.getPageSize();
+        MappedFile m = mapped;
+        if (m != null && m.read(offset, rawPgData)) {
+            return;
+        }
+        readAt(offset, ByteBuffer.wrap(rawPgData));
+    }
+
+    /**
+     * Fills a buffer from the file with positional reads, stopping at the
+     * end of the file.
+     */
+    void readAt(long offset, ByteBuffer buf) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            FileChannel ch = channel(false);
+            try {
+                while (buf.hasRemaining()) {
+                    if (ch.read(buf, offset + buf.position()) < 0)
+                        return;
+                }
+                return;
+            } catch (ClosedChannelException e) {
+                // closed under us by close(); open it again once
+                if (attempt > 0)
+                    throw e;
+                buf.clear();
+            }
+        }
+    }
 
-        // random access read from disk
+    // see DbFile.java for javadocs
+    public Page decodePage(PageId pid, byte[] data) {
         try {
-            FileInputStream in = new FileInputStream(dbFile);
-            in.skip(pgNo * BufferPool.getPageSize());
-            in.read(rawPgData);
-            return new HeapPage(new HeapPageId(tableId, pgNo), rawPgData);
+            return new HeapPage((HeapPageId) pid, data);
         } catch (IOException e) {
-            throw new IllegalArgumentException("Heap file I/O error");
+            throw new IllegalArgumentException("Heap page " + pid.getPageNumber() + " cannot be parsed");
         }
     }
 
@@ -91,6 +173,172 @@ public class HeapFile implements DbFile {
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
+        byte[] data = page.getPageData();
+        recordChecksums(new int[] { page.getId().getPageNumber() }, new byte[][] { data });
+        writeAt((long) page.getId().getPageNumber() * BufferPool.getPageSize(), ByteBuffer.wrap(data));
+    }
+
+    /** Writes a buffer to the file with positional writes. */
+    void writeAt(long offset, ByteBuffer buf) throws IOException {
+        FileChannel ch = channel(true);
+        while (buf.hasRemaining()) {
+            ch.write(buf, offset + buf.position());
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePages(List<Page> pages) throws IOException {
+        int[] pgNos = new int[pages.size()];
+        byte[][] data = new byte[pages.size()][];
+        for (int i = 0; i < pgNos.length; i++) {
+            pgNos[i] = pages.get(i).getId().getPageNumber();
+            data[i] = pages.get(i).getPageData();
+        }
+        recordChecksums(pgNos, data);
+        VectoredWriter writer = new VectoredWriter(pages.size());
+        for (int i = 0; i < pgNos.length; i++) {
+            writer.add((long) pgNos[i] * BufferPool.getPageSize(), data[i]);
+        }
+        writer.writeAndForce(channel(true));
+    }
+
+    /**
+     * Records the checksums of pages about to be written, if this file
+     * keeps checksums. They are on disk when this returns, so they are
+     * never older than the pages written after it.
+     */
+    void recordChecksums(int[] pgNos, byte[][] pages) throws IOException {
+        PageChecksums c = checksums;
+        if (c != null) {
+            c.update(pgNos, pages);
+        }
+    }
+
+    /**
+     * Makes this file keep a checksum of every page it writes and check
+     * pages against them when they are read, so torn or damaged pages are
+     * reported instead of being read as tuples. Pages written while
+     * checksums were off are not checked until they are written again.
+     *
+     * @see PageChecksums
+     * @see PageScrubber
+     */
+    public synchronized void setChecksummed(boolean checksummed) {
+        if (checksummed && checksums == null) {
+            checksums = new PageChecksums(PageChecksums.fileFor(dbFile));
+        } else if (!checksummed && checksums != null) {
+            try {
+                checksums.close();
+            } catch (IOException e) {
+                Debug.log(1, "cannot close page checksums of %s: %s", dbFile, e);
+            }
+            checksums = null;
+        }
+    }
+
+    /** @return true if pages are checked against checksums when they are read */
+    public boolean isChecksummed() {
+        return checksums != null;
+    }
+
+    /** @return the checksums of the pages, or null if this file keeps none */
+    PageChecksums checksums() {
+        return checksums;
+    }
+
+    /**
+     * Returns the channel all reads and writes of this file go through,
+     * opening it if it is not open yet.
+     *
+     * @param write true if the channel is needed for writing; the file is
+     *   then created if it does not exist
+     */
+    synchronized FileChannel channel(boolean write) throws IOException {
+        if (channel != null && channel.isOpen() && (writable || !write)) {
+            return channel;
+        }
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+        if (write || dbFile.exists()) {
+            try {
+                channel = new RandomAccessFile(dbFile, "rw").getChannel();
+                writable = true;
+            } catch (FileNotFoundException e) {
+                // a file we may only read
+                if (write) {
+                    throw e;
+                }
+            }
+        }
+        if (channel == null) {
+            channel = new RandomAccessFile(dbFile, "r").getChannel();
+            writable = false;
+        }
+        return channel;
+    }
+
+    /**
+     * Makes reads copy pages out of a memory mapping of the file instead of
+     * reading them from the channel, leaving the caching of the file to
+     * the OS. Meant for tables that are mostly read.
+     *
+     * @see MappedFile
+     */
+    public void setMemoryMapped(boolean mapped) {
+        this.mapped = mapped ? new MappedFile(dbFile) : null;
+    }
+
+    /** @return true if pages are read from a memory mapping of the file */
+    public boolean isMemoryMapped() {
+        return mapped != null;
+    }
+
+    /**
+     * Closes the file handle of this HeapFile. It is opened again by the
+     * next read or write.
+     */
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+        if (freeSpace != null) {
+            freeSpace.close();
+        }
+        if (checksums != null) {
+            checksums.close();
+        }
+    }
+
+    /**
+     * Returns the map of pages with an empty slot, which is kept in a file
+     * next to this one with <tt>.fsm</tt> added to its name.
+     */
+    synchronized FreeSpaceMap freeSpaceMap() {
+        if (freeSpace == null) {
+            freeSpace = new FreeSpaceMap(new File(dbFile.getPath() + ".fsm"));
+        }
+        return freeSpace;
+    }
+
+    /**
+     * Adds an empty page to the end of the file.
+     *
+     * @return the number of the new page
+     */
+    private synchronized int appendEmptyPage() throws IOException {
+        int pgNo = numPages();
+        recordChecksums(new int[] { pgNo }, new byte[][] { HeapPage.createEmptyPageData() });
+        writeEmptyPage(pgNo);
+        freeSpaceMap().setFree(pgNo, true);
+        return pgNo;
+    }
+
+    /** Writes a page of zeros, which is an empty page, at the end of the file. */
+    void writeEmptyPage(int pgNo) throws IOException {
+        writeAt((long) pgNo * BufferPool.getPageSize(), ByteBuffer.wrap(HeapPage.createEmptyPageData()));
     }
 
     /**
@@ -103,61 +351,282 @@ public class HeapFile implements DbFile {
     }
 
     // see DbFile.java for javadocs
+    // The page to insert into comes from the free space map, so an insert
+    // reads one page however large the file is, and only appends a page
+    // when the map has no page with an empty slot.
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
-        return null;
         // not necessary for lab1
+        if (!tupleDesc.equals(t.getTupleDesc()))
+            throw new DbException("tupledesc is mismatched");
+        FreeSpaceMap fsm = freeSpaceMap();
+        while (true) {
+            int pgNo = fsm.findFree(numPages());
+            boolean appended = pgNo < 0;
+            if (appended)
+                pgNo = appendEmptyPage();
+            TuplePage page = (TuplePage) Database.getBufferPool().getPage(tid,
+                    new HeapPageId(getId(), pgNo), Permissions.READ_WRITE);
+            synchronized (page) {
+                if (!page.hasRoomFor(t)) {
+                    // appending again would not help a tuple no page holds
+                    if (appended && !fitsEmptyPage(t))
+                        throw new DbException("tuple does not fit on an empty page");
+                    // the map was out of date
+                    fsm.setFree(pgNo, false);
+                    continue;
+                }
+                page.insertTuple(t);
+                fsm.setFree(pgNo, page.hasRoom());
+            }
+            ArrayList<Page> modified = new ArrayList<Page>();
+            modified.add(page);
+            return modified;
+        }
+    }
+
+    /** @return true if the tuple fits on a page that holds nothing else */
+    private boolean fitsEmptyPage(Tuple t) {
+        TuplePage empty = (TuplePage) decodePage(new HeapPageId(getId(), numPages()),
+                HeapPage.createEmptyPageData());
+        return empty.hasRoomFor(t);
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
         // some code goes here
-        return null;
         // not necessary for lab1
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != getId())
+            throw new DbException("tuple is not in this table");
+        TuplePage page = (TuplePage) Database.getBufferPool().getPage(tid,
+                rid.getPageId(), Permissions.READ_WRITE);
+        synchronized (page) {
+            page.deleteTuple(t);
+            freeSpaceMap().setFree(rid.getPageId().getPageNumber(), page.hasRoom());
+        }
+        ArrayList<Page> modified = new ArrayList<Page>();
+        modified.add(page);
+        return modified;
+    }
+
+    /** Pages bulkLoad packs in memory before writing them with one call. */
+    static final int LOAD_CHUNK_PAGES = 256;
+    /** Largest number of bytes bulkLoad extends the file by at a time. */
+    static final long LOAD_MAX_EXTENT = 64L << 20;
+
+    /**
+     * Writes a new table from a stream of tuples and adds it to the catalog.
+     * The tuples are packed into full pages in memory and written in
+     * chunks of {@link #LOAD_CHUNK_PAGES} pages straight to the file,
+     * without going through the buffer pool or the log, so the load is
+     * bound by the writes rather than by the work done per tuple. The
+     * length of the file is set ahead of the writes in growing extents and
+     * cut to its final value at the end, and the file is forced before the
+     * table is added. Setting the length does not reserve disk blocks:
+     * Java cannot allocate space without writing it, so on most file
+     * systems the extent is sparse and the blocks are allocated by the
+     * writes that fill it, and a full disk is only noticed then. Writing
+     * zeros first would double the writes of the load.
+     * <p>
+     * The file is replaced if it exists and must not belong to a table
+     * that is in use.
+     *
+     * @param f the file to write the table to
+     * @param td the schema of the tuples
+     * @param tuples the tuples to load, in the order they are stored
+     * @param name the name of the table in the catalog
+     * @param countSizes if true, the numbers of pages and tuples of the
+     *   table are counted while it is written and registered under name as
+     *   its TableStats, so the table need not be scanned for them; no
+     *   histograms are built
+     * @return the new table
+     * @throws DbException if a tuple does not have the given schema
+     */
+    public static HeapFile bulkLoad(File f, TupleDesc td, Iterator<Tuple> tuples,
+            String name, boolean countSizes) throws IOException, DbException {
+        int pageSize = BufferPool.getPageSize();
+        int tupleSize = td.getSize();
+        int slots = (pageSize * 8) / (tupleSize * 8 + 1);
+        int headerSize = (slots + 7) / 8;
+
+        byte[] chunk = new byte[LOAD_CHUNK_PAGES * pageSize];
+        ChunkStream chunkStream = new ChunkStream(chunk);
+        DataOutputStream out = new DataOutputStream(chunkStream);
+        long written = 0;
+        long allocated = 0;
+        int numTuples = 0;
+        int page = 0;
+        int slot = 0;
+
+        // an old free space map or checksums would not describe the new file
+        new File(f.getPath() + ".fsm").delete();
+        PageChecksums.discard(f);
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            raf.setLength(0);
+            FileChannel ch = raf.getChannel();
+            while (tuples.hasNext()) {
+                Tuple t = tuples.next();
+                if (t.getTupleDesc() != td && !td.equals(t.getTupleDesc()))
+                    throw new DbException("tupledesc is mismatched");
+                if (slot == slots) {
+                    page++;
+                    slot = 0;
+                    if (page == LOAD_CHUNK_PAGES) {
+                        allocated = reserve(raf, allocated, written + chunk.length);
+                        written += writeChunk(ch, chunk, chunk.length, written);
+                        page = 0;
+                    }
+                }
+                int pageStart = page * pageSize;
+                if (slot == 0)
+                    Arrays.fill(chunk, pageStart, pageStart + pageSize, (byte) 0);
+                chunk[pageStart + slot / 8] |= (byte) (1 << (slot % 8));
+                int tupleStart = pageStart + headerSize + slot * tupleSize;
+                chunkStream.pos = tupleStart;
+                for (int i = 0; i < td.numFields(); i++)
+                    t.getField(i).serialize(out);
+                if (chunkStream.pos - tupleStart > tupleSize)
+                    throw new DbException("tuple is larger than its schema allows");
+                slot++;
+                numTuples++;
+            }
+            if (numTuples > 0) {
+                int length = (page + 1) * pageSize;
+                allocated = reserve(raf, allocated, written + length);
+                written += writeChunk(ch, chunk, length, written);
+            }
+            ch.truncate(written);
+            ch.force(true);
+        } finally {
+            raf.close();
+        }
+
+        HeapFile hf = new HeapFile(f, td);
+        Database.getCatalog().addTable(hf, name);
+        if (countSizes) {
+            TableStats.setTableStats(name, new TableStats(TableStats.IOCOSTPERPAGE,
+                    (int) (written / pageSize), numTuples));
+        }
+        return hf;
+    }
+
+    /**
+     * Makes the file at least needed bytes long, in extents that grow with
+     * the file, so its length is not changed by every write. Only the
+     * length is set; the extent is not written, so it may be sparse.
+     *
+     * @return the length of the file
+     */
+    private static long reserve(RandomAccessFile raf, long allocated, long needed) throws IOException {
+        if (needed <= allocated)
+            return allocated;
+        long length = needed + Math.min(needed / 4, LOAD_MAX_EXTENT);
+        raf.setLength(length);
+        return length;
+    }
+
+    /** @return the number of bytes written, always length */
+    private static int writeChunk(FileChannel ch, byte[] chunk, int length, long position) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(chunk, 0, length);
+        while (buf.hasRemaining())
+            ch.write(buf, position + buf.position());
+        return length;
+    }
+
+    /** An OutputStream writing into an array at a position that can be moved. */
+    private static final class ChunkStream extends OutputStream {
+        private final byte[] buf;
+        int pos;
+
+        ChunkStream(byte[] buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public void write(int b) {
+            buf[pos++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            System.arraycopy(b, off, buf, pos, len);
+            pos += len;
+        }
     }
 
     // see DbFile.java for javadocs
-    private class HeapFileIterator implements DbFileIterator {
+    class HeapFileIterator implements DbFileIterator {
 
         private Integer pageCursor;
+        private TuplePage page;
         private Iterator<Tuple> tupleIterator;
+        /** The slot of page that {@link #fillBatch} continues from, or -1 once it is done with the page. */
+        private int slot;
         private final TransactionId transactionId;
         private final int tableId;
         private final int numPages;
+        /** The fields the scan reads, or null if it may read any. */
+        private final int[] fields;
+        private ScanRing ring;
 
-        public HeapFileIterator(TransactionId tid) {
+        public HeapFileIterator(TransactionId tid, int[] fields) {
             this.pageCursor = null;
             this.tupleIterator = null;
             this.transactionId = tid;
+            this.fields = fields;
             this.tableId = getId();
             this.numPages = numPages();
         }
 
-        private Iterator<Tuple> getTupleIterator(int pageNumber) throws TransactionAbortedException, DbException {
+        /** Reads a page; its tuple iterator is made when the page is first read a tuple at a time. */
+        private void loadPage(int pageNumber) throws TransactionAbortedException, DbException {
             PageId pid = new HeapPageId(tableId, pageNumber);
-            return ((HeapPage) Database.getBufferPool().getPage(transactionId, pid, Permissions.READ_ONLY)).iterator();
+            if (ring != null) {
+                page = (TuplePage) ring.getPage(transactionId, pid);
+            } else {
+                page = (TuplePage) Database.getBufferPool().getPage(transactionId, pid, Permissions.READ_ONLY);
+            }
+            tupleIterator = null;
+            slot = 0;
+        }
+
+        private Iterator<Tuple> tupleIterator() {
+            if (tupleIterator == null)
+                tupleIterator = page.iterator();
+            return tupleIterator;
         }
 
         @Override
         public void open() throws DbException, TransactionAbortedException {
+            // a table too large to be cached is read through a ring of its
+            // own, which reads ahead into its frames rather than the pool
+            ring = Database.getBufferPool().scanRing(HeapFile.this, numPages);
+            if (ring == null) {
+                Database.getBufferPool().getReadAhead().hintSequential(tableId);
+            }
             pageCursor = 0;
-            tupleIterator = getTupleIterator(pageCursor);
+            loadPage(pageCursor);
         }
 
         @Override
         public boolean hasNext() throws DbException, TransactionAbortedException {
             if (pageCursor != null) {
                 while (pageCursor < numPages - 1) {
-                    if (tupleIterator.hasNext()) {
+                    if (tupleIterator().hasNext()) {
                         return true;
                     } else {
                         pageCursor += 1;
-                        tupleIterator = getTupleIterator(pageCursor);
+                        // the tuples of the page keep their values when its frame is recycled
+                        if (ring != null)
+                            ring.release();
+                        loadPage(pageCursor);
                     }
                 }
-                return tupleIterator.hasNext();
+                return tupleIterator().hasNext();
             } else {
                 return false;
             }
@@ -166,11 +635,35 @@ public class HeapFile implements DbFile {
         @Override
         public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
             if (hasNext()) {
-                return tupleIterator.next();
+                return tupleIterator().next();
             }
             throw new NoSuchElementException("HeapFileIterator error: no more elements");
         }
 
+        /**
+         * Adds the next tuples of the file to a batch, straight from the
+         * pages, until the batch is full or the file is read; a scan reads
+         * the iterator either this way or a tuple at a time, not both.
+         *
+         * @param batch the batch to add the tuples to; only the fields the
+         *   iterator was given are copied
+         */
+        void fillBatch(TupleBatch batch) throws DbException, TransactionAbortedException {
+            // the values of the last batch are no longer needed
+            if (ring != null)
+                ring.release();
+            while (pageCursor != null && !batch.isFull()) {
+                if (slot >= 0) {
+                    slot = page.fillBatch(batch, slot, fields);
+                } else if (pageCursor < numPages - 1) {
+                    pageCursor += 1;
+                    loadPage(pageCursor);
+                } else {
+                    break;
+                }
+            }
+        }
+
         @Override
         public void rewind() throws DbException, TransactionAbortedException {
             close();
@@ -180,7 +673,12 @@ public class HeapFile implements DbFile {
         @Override
         public void close() {
             pageCursor = null;
+            page = null;
             tupleIterator = null;
+            if (ring != null) {
+                ring.close();
+                ring = null;
+            }
         }
 
     }
@@ -188,7 +686,20 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
-        return new HeapFileIterator(tid);
+        return new HeapFileIterator(tid, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file for a scan that
+     * reads only some of their fields. Batches filled by the iterator hold
+     * only those fields; files whose pages store fields apart, such as a
+     * {@link PaxFile}, fill them from the bytes of those fields only.
+     * Tuples read one at a time decode any field that is read.
+     *
+     * @param fields the indexes of the fields the scan reads
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] fields) {
+        return new HeapFileIterator(tid, fields.clone());
     }
 
 }
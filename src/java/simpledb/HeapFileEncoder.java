@@ -1,7 +1,16 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -90,137 +99,345 @@ public class HeapFileEncoder {
   public static void convert(File inFile, File outFile, int npagebytes,
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
+      convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator,
+              Runtime.getRuntime().availableProcessors());
+  }
 
-      int nrecbytes = 0;
-      for (int i = 0; i < numFields ; i++) {
-          nrecbytes += typeAr[i].getLen();
-      }
-      int nrecords = (npagebytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
-      
-    //  per record, we need one bit; there are nrecords per page, so we need
-    // nrecords bits, i.e., ((nrecords/32)+1) integers.
-    int nheaderbytes = (nrecords / 8);
-    if (nheaderbytes * 8 < nrecords)
-        nheaderbytes++;  //ceiling
-    int nheaderbits = nheaderbytes * 8;
-
-    BufferedReader br = new BufferedReader(new FileReader(inFile));
-    FileOutputStream os = new FileOutputStream(outFile);
-
-    // our numbers probably won't be much larger than 1024 digits
-    char buf[] = new char[1024];
-
-    int curpos = 0;
-    int recordcount = 0;
-    int npages = 0;
-    int fieldNo = 0;
-
-    ByteArrayOutputStream headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-    DataOutputStream headerStream = new DataOutputStream(headerBAOS);
-    ByteArrayOutputStream pageBAOS = new ByteArrayOutputStream(npagebytes);
-    DataOutputStream pageStream = new DataOutputStream(pageBAOS);
-
-    boolean done = false;
-    boolean first = true;
-    while (!done) {
-        int c = br.read();
-        
-        // Ignore Windows/Notepad special line endings
-        if (c == '\r')
-            continue;
-
-        if (c == '\n') {
-            if (first)
-                continue;
-            recordcount++;
-            first = true;
-        } else
-            first = false;
-        if (c == fieldSeparator || c == '\n' || c == '\r') {
-            String s = new String(buf, 0, curpos);
-            if (typeAr[fieldNo] == Type.INT_TYPE) {
-                try {
-                    pageStream.writeInt(Integer.parseInt(s.trim()));
-                } catch (NumberFormatException e) {
-                    System.out.println ("BAD LINE : " + s);
-                }
-            }
-            else   if (typeAr[fieldNo] == Type.STRING_TYPE) {
-                s = s.trim();
-                int overflow = Type.STRING_LEN - s.length();
-                if (overflow < 0) {
-                    String news = s.substring(0,Type.STRING_LEN);
-                    s  = news;
+  /** Bytes of input handed to a parsing thread at a time. */
+  static final int CHUNK_SIZE = 4 << 20;
+
+  /**
+   * Convert the specified input text file into a binary page file, parsing
+   * it on a number of threads. The input is read in chunks of
+   * {@link #CHUNK_SIZE} bytes that end on a line boundary, each chunk is
+   * parsed and its tuples encoded by one of the threads, and the calling
+   * thread lays the encoded tuples out on pages and appends them to the
+   * output file in input order. The output is the same whatever the
+   * number of threads.
+   *
+   * @param threads the number of threads parsing the input; with 1, or an
+   *   input smaller than a chunk, it is parsed by the calling thread
+   * @see #convert(File, File, int, int, Type[], char)
+   */
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator, int threads)
+      throws IOException {
+      convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator, threads, CHUNK_SIZE, false);
+  }
+
+  /**
+   * Convert the specified input text file into a file of slotted pages, on
+   * which strings take only the bytes of their values, for a
+   * {@link SlottedFile}. The input is parsed as by
+   * {@link #convert(File, File, int, int, Type[], char)}.
+   *
+   * @see SlottedPage
+   */
+  public static void convertSlotted(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator,
+              Runtime.getRuntime().availableProcessors(), CHUNK_SIZE, true);
+  }
+
+  /**
+   * Converts with chunks of a given size, which tests make small.
+   *
+   * @param slotted true to write slotted pages rather than heap pages
+   */
+  static void convert(File inFile, File outFile, int npagebytes, int numFields,
+                 Type[] typeAr, char fieldSeparator, int threads, int chunkSize,
+                 boolean slotted)
+      throws IOException {
+    int nrecbytes = 0;
+    for (int i = 0; i < numFields ; i++) {
+        nrecbytes += typeAr[i].getLen();
+    }
+    PageWriter writer = slotted
+            ? new SlottedPageWriter(outFile, npagebytes, typeAr)
+            : new PageWriter(outFile, npagebytes, nrecbytes);
+    InputStream in = new FileInputStream(inFile);
+    ExecutorService workers = null;
+    try {
+        if (threads > 1 && inFile.length() > chunkSize) {
+            workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "HeapFileEncoder worker");
+                    t.setDaemon(true);
+                    return t;
                 }
-                pageStream.writeInt(s.length());
-                pageStream.writeBytes(s);
-                while (overflow-- > 0)
-                    pageStream.write((byte)0);
-            }
-            curpos = 0;
-            if (c == '\n')
-                fieldNo = 0;
-            else
-                fieldNo++;
-            
-        } else if (c == -1) {
-            done = true;
-            
-        } else {
-            buf[curpos++] = (char)c;
-            continue;
+            });
         }
-        
-        // if we wrote a full page of records, or if we're done altogether,
-        // write out the header of the page.
-        //
-        // in the header, write a 1 for bits that correspond to records we've
-        // written and 0 for empty slots.
-        //
-        // when we're done, also flush the page to disk, but only if it has
-        // records on it.  however, if this file is empty, do flush an empty
-        // page to disk.
-        if (recordcount >= nrecords
-            || done && recordcount > 0
-            || done && npages == 0) {
-            int i = 0;
-            byte headerbyte = 0;
-            
-            for (i=0; i<nheaderbits; i++) {
-                if (i < recordcount)
-                    headerbyte |= (1 << (i % 8));
-                
-                if (((i+1) % 8) == 0) {
-                    headerStream.writeByte(headerbyte);
-                    headerbyte = 0;
+        // chunks being parsed, oldest first; bounded so memory use is too
+        ArrayDeque<Future<ByteArrayOutputStream>> parsing = new ArrayDeque<Future<ByteArrayOutputStream>>();
+        byte[] chunk = new byte[chunkSize];
+        int carried = 0;
+        while (true) {
+            int n = readFully(in, chunk, carried);
+            boolean eof = carried + n < chunk.length;
+            int end = carried + n;
+            // a chunk ends after its last newline; the rest starts the next one
+            int split = end;
+            if (!eof) {
+                while (split > 0 && chunk[split - 1] != '\n')
+                    split--;
+                if (split == 0) {
+                    // a line longer than a chunk
+                    chunk = Arrays.copyOf(chunk, chunk.length * 2);
+                    carried = end;
+                    continue;
                 }
             }
-            
-            if (i % 8 > 0)
-                headerStream.writeByte(headerbyte);
-            
-            // pad the rest of the page with zeroes
-            
-            for (i=0; i<(npagebytes - (recordcount * nrecbytes + nheaderbytes)); i++)
-                pageStream.writeByte(0);
-            
-            // write header and body to file
-            headerStream.flush();
-            headerBAOS.writeTo(os);
-            pageStream.flush();
-            pageBAOS.writeTo(os);
-            
-            // reset header and body for next page
-            headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-            headerStream = new DataOutputStream(headerBAOS);
-            pageBAOS = new ByteArrayOutputStream(npagebytes);
-            pageStream = new DataOutputStream(pageBAOS);
-            
-            recordcount = 0;
-            npages++;
+            final byte[] lines = Arrays.copyOf(chunk, split);
+            if (workers == null) {
+                writer.write(encodeLines(lines, numFields, typeAr, fieldSeparator, nrecbytes));
+            } else {
+                final int nf = numFields, nrb = nrecbytes;
+                final Type[] types = typeAr;
+                final char sep = fieldSeparator;
+                parsing.add(workers.submit(new Callable<ByteArrayOutputStream>() {
+                    public ByteArrayOutputStream call() throws IOException {
+                        return encodeLines(lines, nf, types, sep, nrb);
+                    }
+                }));
+                if (parsing.size() > 2 * threads)
+                    writer.write(await(parsing.poll()));
+            }
+            carried = end - split;
+            System.arraycopy(chunk, split, chunk, 0, carried);
+            if (eof)
+                break;
         }
+        while (!parsing.isEmpty())
+            writer.write(await(parsing.poll()));
+        writer.finish();
+    } finally {
+        if (workers != null)
+            workers.shutdownNow();
+        in.close();
+        writer.close();
     }
-    br.close();
-    os.close();
+  }
+
+  /** Reads until buf is full or the input ends. @return the number of bytes read */
+  private static int readFully(InputStream in, byte[] buf, int off) throws IOException {
+      int total = 0;
+      while (off + total < buf.length) {
+          int n = in.read(buf, off + total, buf.length - off - total);
+          if (n < 0)
+              break;
+          total += n;
+      }
+      return total;
+  }
+
+  private static ByteArrayOutputStream await(Future<ByteArrayOutputStream> f) throws IOException {
+      try {
+          return f.get();
+      } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("interrupted while converting");
+      } catch (ExecutionException e) {
+          if (e.getCause() instanceof IOException)
+              throw (IOException) e.getCause();
+          throw new RuntimeException(e.getCause());
+      }
+  }
+
+  /**
+   * Parses whole lines of input and encodes each as a tuple of nrecbytes
+   * bytes. Carriage returns and empty lines are ignored; fields are
+   * trimmed, and strings longer than {@link Type#STRING_LEN} are cut.
+   *
+   * @return the encoded tuples, one after the other
+   * @throws IOException if a line does not have numFields fields
+   */
+  static ByteArrayOutputStream encodeLines(byte[] lines, int numFields, Type[] typeAr,
+                 char fieldSeparator, int nrecbytes) throws IOException {
+      String text = new String(lines, Charset.defaultCharset());
+      ByteArrayOutputStream baos = new ByteArrayOutputStream(lines.length / 2 + nrecbytes);
+      DataOutputStream dos = new DataOutputStream(baos);
+      StringBuilder field = new StringBuilder();
+      int fieldNo = 0;
+      boolean first = true;
+      int len = text.length();
+      for (int i = 0; i <= len; i++) {
+          char c;
+          if (i < len) {
+              c = text.charAt(i);
+          } else if (first) {
+              break;
+          } else {
+              // the last line lacks its newline
+              c = '\n';
+          }
+          if (c == '\r')
+              continue;
+          if (c == '\n' && first)
+              continue;
+          if (c != fieldSeparator && c != '\n') {
+              field.append(c);
+              first = false;
+              continue;
+          }
+          first = false;
+          if (fieldNo >= numFields)
+              throw new IOException("malformed input line: more than " + numFields + " fields");
+          String s = field.toString();
+          field.setLength(0);
+          if (typeAr[fieldNo] == Type.INT_TYPE) {
+              int v = 0;
+              try {
+                  v = Integer.parseInt(s.trim());
+              } catch (NumberFormatException e) {
+                  System.out.println ("BAD LINE : " + s);
+              }
+              dos.writeInt(v);
+          } else if (typeAr[fieldNo] == Type.STRING_TYPE) {
+              s = s.trim();
+              if (s.length() > Type.STRING_LEN)
+                  s = s.substring(0, Type.STRING_LEN);
+              dos.writeInt(s.length());
+              dos.writeBytes(s);
+              for (int overflow = Type.STRING_LEN - s.length(); overflow > 0; overflow--)
+                  dos.write((byte)0);
+          }
+          if (c == '\n') {
+              if (fieldNo != numFields - 1)
+                  throw new IOException("malformed input line: " + (fieldNo + 1) + " fields, expected " + numFields);
+              fieldNo = 0;
+              first = true;
+          } else {
+              fieldNo++;
+          }
+      }
+      return baos;
+  }
+
+  /**
+   * Lays encoded tuples out on heap pages in order and appends the pages
+   * to the output file.
+   */
+  private static class PageWriter {
+      private final OutputStream os;
+      final int nrecbytes;
+      private final int nrecords;
+      private final int nheaderbytes;
+      final byte[] page;
+      int recordcount = 0;
+      private int npages = 0;
+
+      PageWriter(File outFile, int npagebytes, int nrecbytes) throws IOException {
+          this.nrecbytes = nrecbytes;
+          this.nrecords = (npagebytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
+          //  per record, we need one bit; there are nrecords per page, so we need
+          // nrecords bits, i.e., ceiling(nrecords/8) bytes.
+          this.nheaderbytes = (nrecords + 7) / 8;
+          this.page = new byte[npagebytes];
+          // checksums of an old file would fail the new pages
+          PageChecksums.discard(outFile);
+          this.os = new BufferedOutputStream(new FileOutputStream(outFile), 1 << 20);
+      }
+
+      /** Adds encoded tuples to the pages, writing every page that fills up. */
+      void write(ByteArrayOutputStream tuples) throws IOException {
+          byte[] data = tuples.toByteArray();
+          for (int off = 0; off < data.length; off += nrecbytes) {
+              page[recordcount / 8] |= (byte) (1 << (recordcount % 8));
+              System.arraycopy(data, off, page, nheaderbytes + recordcount * nrecbytes, nrecbytes);
+              if (++recordcount == nrecords)
+                  flushPage();
+          }
+      }
+
+      // the last page is written only if it has records on it, unless the
+      // file would otherwise be empty
+      void finish() throws IOException {
+          if (recordcount > 0 || npages == 0)
+              flushPage();
+          os.flush();
+      }
+
+      void flushPage() throws IOException {
+          os.write(page);
+          Arrays.fill(page, (byte) 0);
+          recordcount = 0;
+          npages++;
+      }
+
+      void close() throws IOException {
+          os.close();
+      }
+  }
+
+  /**
+   * Lays encoded tuples out on slotted pages, in the format described in
+   * SlottedPage: strings lose the padding of the fixed encoding and their
+   * length shrinks to two bytes.
+   */
+  private static final class SlottedPageWriter extends PageWriter {
+      private final Type[] typeAr;
+      private final byte[] record;
+      private int dataStart;
+
+      SlottedPageWriter(File outFile, int npagebytes, Type[] typeAr) throws IOException {
+          super(outFile, npagebytes, recordBytes(typeAr));
+          if (npagebytes > 1 << 16)
+              throw new IllegalArgumentException("slotted pages can be at most 64 KB");
+          this.typeAr = typeAr;
+          this.record = new byte[nrecbytes];
+          this.dataStart = npagebytes;
+      }
+
+      private static int recordBytes(Type[] typeAr) {
+          int n = 0;
+          for (Type t : typeAr)
+              n += t.getLen();
+          return n;
+      }
+
+      @Override
+      void write(ByteArrayOutputStream tuples) throws IOException {
+          byte[] data = tuples.toByteArray();
+          for (int off = 0; off < data.length; off += nrecbytes) {
+              int size = 0;
+              int in = off;
+              for (Type t : typeAr) {
+                  if (t == Type.STRING_TYPE) {
+                      int len = Type.readInt(data, in);
+                      record[size] = (byte) (len >>> 8);
+                      record[size + 1] = (byte) len;
+                      System.arraycopy(data, in + 4, record, size + 2, len);
+                      size += 2 + len;
+                  } else {
+                      System.arraycopy(data, in, record, size, t.getLen());
+                      size += t.getLen();
+                  }
+                  in += t.getLen();
+              }
+              if (4 + 4 * (recordcount + 1) + size > dataStart)
+                  flushPage();
+              dataStart -= size;
+              System.arraycopy(record, 0, page, dataStart, size);
+              int slot = 4 + 4 * recordcount;
+              page[slot] = (byte) (dataStart >>> 8);
+              page[slot + 1] = (byte) dataStart;
+              page[slot + 2] = (byte) (size >>> 8);
+              page[slot + 3] = (byte) size;
+              recordcount++;
+          }
+      }
+
+      @Override
+      void flushPage() throws IOException {
+          page[0] = (byte) (recordcount >>> 8);
+          page[1] = (byte) recordcount;
+          // a page full to its last byte starts its data at 0 like an empty one
+          int start = dataStart == page.length ? 0 : dataStart;
+          page[2] = (byte) (start >>> 8);
+          page[3] = (byte) start;
+          super.flushPage();
+          dataStart = page.length;
+      }
   }
 }
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.io.*;
 
 /**
@@ -11,15 +12,18 @@ import java.io.*;
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements TuplePage {
 
     final HeapPageId pid;
     final TupleDesc td;
     final byte header[];
-    final Tuple tuples[];
+    /** The tuples decoded so far; a used slot that is null is decoded on access. */
+    final AtomicReferenceArray<Tuple> tuples;
     final int numSlots;
-    private boolean dirty;
-    private TransactionId dirtyby;
+    /** The bytes this page was read from, which tuples decode their fields from. Never modified. */
+    private final byte[] data;
+    private volatile boolean dirty;
+    private volatile TransactionId dirtyby;
 
     byte[] oldData;
     private final Byte oldDataLock=new Byte((byte)0);
@@ -44,24 +48,19 @@ public class HeapPage implements Page {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
+        this.data = data;
+
+        // only the header is read up front; tuples are decoded when they
+        // are asked for, and their fields when those are
+        header = Arrays.copyOf(data, getHeaderSize());
+        tuples = new AtomicReferenceArray<Tuple>(numSlots);
 
-        setBeforeImage();
+        // the bytes we were built from are the before image; there is no
+        // need to serialize the page again just to copy it
+        synchronized(oldDataLock)
+        {
+            oldData = data;
+        }
     }
 
     /** Retrieve the number of tuples on this page.
@@ -93,7 +92,7 @@ public class HeapPage implements Page {
             {
                 oldDataRef = oldData;
             }
-            return new HeapPage(pid,oldDataRef);
+            return decode(pid,oldDataRef);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -102,6 +101,11 @@ public class HeapPage implements Page {
         return null;
     }
 
+    /** Builds a page of the same layout as this one from the bytes of a page. */
+    HeapPage decode(HeapPageId id, byte[] data) throws IOException {
+        return new HeapPage(id, data);
+    }
+
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
@@ -118,36 +122,19 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Returns the tuple in a slot, creating it on first access. Its fields
+     * are decoded from the page bytes as they are read.
+     *
+     * @return the tuple, or null if the slot is empty
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
-
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+    Tuple getTuple(int slotId) {
+        Tuple t = tuples.get(slotId);
+        if (t == null && isSlotUsed(slotId)) {
+            t = new Tuple(td, data, header.length + slotId * td.getSize());
+            t.setRecordId(new RecordId(pid, slotId));
+            if (!tuples.compareAndSet(slotId, null, t))
+                t = tuples.get(slotId);
         }
-
         return t;
     }
 
@@ -163,64 +150,40 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
+        int tupleSize = td.getSize();
+        byte[] page = new byte[BufferPool.getPageSize()];
+        System.arraycopy(header, 0, page, 0, header.length);
+
+        // tuples never decoded are copied as they were read; the others may
+        // have changed and are serialized again. Empty slots and the
+        // padding stay zero.
+        ByteArrayOutputStream baos = null;
+        DataOutputStream dos = null;
+        for (int i=0; i<numSlots; i++) {
+            if (!isSlotUsed(i))
+                continue;
+            int offset = header.length + i * tupleSize;
+            Tuple t = tuples.get(i);
+            if (t == null) {
+                System.arraycopy(data, offset, page, offset, tupleSize);
                 continue;
             }
-
-            // non-empty slot
+            if (baos == null) {
+                baos = new ByteArrayOutputStream(tupleSize);
+                dos = new DataOutputStream(baos);
+            }
+            baos.reset();
             for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
                 try {
-                    f.serialize(dos);
-
+                    t.getField(j).serialize(dos);
                 } catch (IOException e) {
+                    // this really shouldn't happen
                     e.printStackTrace();
                 }
             }
+            System.arraycopy(baos.toByteArray(), 0, page, offset, Math.min(tupleSize, baos.size()));
         }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        return page;
     }
 
     /**
@@ -247,6 +210,14 @@ public class HeapPage implements Page {
     public void deleteTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("tuple is not on this page");
+        int slot = rid.getTupleNumber();
+        if (!isSlotUsed(slot))
+            throw new DbException("tuple slot is already empty");
+        markSlotUsed(slot, false);
+        tuples.set(slot, null);
     }
 
     /**
@@ -259,6 +230,14 @@ public class HeapPage implements Page {
     public void insertTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tupledesc is mismatched");
+        int slot = nextEmptySlot();
+        if (slot >= numSlots)
+            throw new DbException("page is full");
+        markSlotUsed(slot, true);
+        t.setRecordId(new RecordId(pid, slot));
+        tuples.set(slot, t);
     }
 
     /**
@@ -268,6 +247,8 @@ public class HeapPage implements Page {
     public void markDirty(boolean dirty, TransactionId tid) {
         // some code goes here
         // not necessary for lab1
+        this.dirtyby = dirty ? tid : null;
+        this.dirty = dirty;
     }
 
     /**
@@ -276,7 +257,7 @@ public class HeapPage implements Page {
     public TransactionId isDirty() {
         // some code goes here
         // Not necessary for lab1
-        return null;
+        return dirty ? dirtyby : null;
     }
 
     /**
@@ -284,11 +265,30 @@ public class HeapPage implements Page {
      */
     public int getNumEmptySlots() {
         // some code goes here
-        int emptySlots = 0;
-        for (int i = 0; i < numSlots; i++) {
-            if (!isSlotUsed(i)) emptySlots += 1;
+        int used = 0;
+        for (int i = 0; i < header.length; i++) {
+            used += Integer.bitCount(header[i] & 0xff);
+        }
+        return numSlots - used;
+    }
+
+    // see TuplePage.java for javadocs
+    public boolean hasRoomFor(Tuple t) {
+        return getNumEmptySlots() > 0;
+    }
+
+    // see TuplePage.java for javadocs
+    public void detachTuples() {
+        for (int i = 0; i < tuples.length(); i++) {
+            Tuple t = tuples.get(i);
+            if (t != null)
+                t.detachFromPage();
         }
-        return emptySlots;
+    }
+
+    // see TuplePage.java for javadocs
+    public boolean hasRoom() {
+        return getNumEmptySlots() > 0;
     }
 
     /**
@@ -310,24 +310,49 @@ public class HeapPage implements Page {
     private void markSlotUsed(int i, boolean value) {
         // some code goes here
         // not necessary for lab1
+        if (value)
+            header[i / 8] |= (byte) (1 << (i % 8));
+        else
+            header[i / 8] &= (byte) ~(1 << (i % 8));
     }
 
     /**
-     * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
-     * (note that this iterator shouldn't return tuples in empty slots!)
+     * @return the first empty slot, or numSlots if there is none. Full
+     *         header bytes are skipped whole.
      */
-    protected class HeapPageTupleIterator implements Iterator {
-        private final Iterator<Tuple> iter;
-
-        public HeapPageTupleIterator() {
-            ArrayList<Tuple> tupleArrayList = new ArrayList<>(tuples.length);
-            for (int i = 0; i < tuples.length; i++) {
-                if (isSlotUsed(i)) {
-                    tupleArrayList.add(i, tuples[i]);
-                }
+    private int nextEmptySlot() {
+        for (int b = 0; b < header.length; b++) {
+            int bits = ~header[b] & 0xff;
+            if (bits != 0)
+                return Math.min(b * 8 + Integer.numberOfTrailingZeros(bits), numSlots);
+        }
+        return numSlots;
+    }
+
+    /**
+     * @return the first used slot at or after the given one, or numSlots if
+     *         there is none. Header bytes with no bit set are skipped whole.
+     */
+    int nextUsedSlot(int from) {
+        int i = from;
+        while (i < numSlots) {
+            int bits = (header[i >> 3] & 0xff) >>> (i & 7);
+            if (bits == 0) {
+                i = (i & ~7) + 8;
+            } else {
+                i += Integer.numberOfTrailingZeros(bits);
+                break;
             }
-            iter = tupleArrayList.iterator();
         }
+        return Math.min(i, numSlots);
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+     * (note that this iterator shouldn't return tuples in empty slots!)
+     */
+    protected class HeapPageTupleIterator implements Iterator<Tuple> {
+        private int slot = nextUsedSlot(0);
 
         @Override
         public void remove() {
@@ -336,12 +361,16 @@ public class HeapPage implements Page {
 
         @Override
         public boolean hasNext() {
-            return iter.hasNext();
+            return slot < numSlots;
         }
 
         @Override
-        public Object next() {
-            return iter.next();
+        public Tuple next() {
+            if (slot >= numSlots)
+                throw new NoSuchElementException();
+            Tuple t = getTuple(slot);
+            slot = nextUsedSlot(slot + 1);
+            return t;
         }
     }
 
@@ -354,6 +383,68 @@ public class HeapPage implements Page {
         return new HeapPageTupleIterator();
     }
 
+    /**
+     * @return the offset within the page bytes of field i of the tuple in
+     *         slot 0; that of slot s is this plus s * {@link #fieldStride}
+     */
+    int fieldStart(int i) {
+        return header.length + td.getFieldOffset(i);
+    }
+
+    /** @return how far apart field i of the tuples in two adjacent slots is */
+    int fieldStride(int i) {
+        return td.getSize();
+    }
+
+    // see TuplePage.java for javadocs
+    public int fillBatch(TupleBatch batch, int slot, int[] fields) {
+        // where each field copied is read from and written to, worked out
+        // once per call rather than for every value
+        int n = fields == null ? td.numFields() : fields.length;
+        int[] start = new int[n];
+        int[] stride = new int[n];
+        int[][] intColumns = new int[n][];
+        StringField[][] stringColumns = new StringField[n][];
+        for (int j = 0; j < n; j++) {
+            int i = fields == null ? j : fields[j];
+            start[j] = fieldStart(i);
+            stride[j] = fieldStride(i);
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                intColumns[j] = batch.intColumn(i);
+            else
+                stringColumns[j] = batch.stringColumn(i);
+        }
+        // the used slots of each header byte, lowest first
+        for (int h = slot >> 3; h < header.length; h++) {
+            int bits = header[h] & 0xff;
+            if (h == slot >> 3)
+                bits &= 0xff << (slot & 7);
+            for (; bits != 0; bits &= bits - 1) {
+                int s = (h << 3) + Integer.numberOfTrailingZeros(bits);
+                if (s >= numSlots)
+                    return -1;
+                if (batch.isFull())
+                    return s;
+                Tuple t = tuples.get(s);
+                if (t != null && !t.readsFrom(data)) {
+                    batch.addTuple(t, fields);
+                    continue;
+                }
+                // values of tuples not changed since the page was read are
+                // copied straight from its bytes
+                int row = batch.addRow();
+                for (int j = 0; j < n; j++) {
+                    int offset = start[j] + s * stride[j];
+                    if (intColumns[j] != null)
+                        intColumns[j][row] = Type.readInt(data, offset);
+                    else
+                        stringColumns[j][row] = (StringField) Type.STRING_TYPE.parse(data, offset);
+                }
+            }
+        }
+        return -1;
+    }
+
 }
 
 
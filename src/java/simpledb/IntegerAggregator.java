@@ -2,6 +2,7 @@ package simpledb;
 
 
 
+import java.io.Serializable;
 import java.util.*;
 
 /**
@@ -16,9 +17,40 @@ public class IntegerAggregator implements Aggregator {
     private int afield;
     private Op what;
 
-    private HashMap<Field, ArrayList<Integer>> aggregateMap = new HashMap<>();
-    private HashMap<Field, Integer> aggregateResult = new HashMap<>();
+    /** The groups, in the order they were first seen. */
+    private ArrayList<Group> groups = new ArrayList<>();
+    /** The groups by their group-by value, unless it is an int. */
+    private HashMap<Field, Group> groupMap = new HashMap<>();
+    /**
+     * The groups by an int group-by value, by open addressing: the group
+     * of key k is at the first position from hash(k) on whose key is k.
+     */
+    private int[] intKeys = new int[16];
+    private Group[] intGroups = new Group[16];
 
+    /** The running aggregates of one group. */
+    private static class Group implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final Field key;
+        int count;
+        int sum;
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+
+        Group(Field key) {
+            this.key = key;
+        }
+
+        void add(int value) {
+            count++;
+            sum += value;
+            if (value < min)
+                min = value;
+            if (value > max)
+                max = value;
+        }
+    }
 
     /**
      * Aggregate constructor
@@ -51,65 +83,111 @@ public class IntegerAggregator implements Aggregator {
      *            the Tuple containing an aggregate field and a group-by field
      */
     public void mergeTupleIntoGroup(Tuple tup) {
-        // fetch the group by field.
-        Field field;
-        if (gbfield != NO_GROUPING){
-            field = tup.getField(gbfield);
+        Group group;
+        if (gbfield == NO_GROUPING)
+            group = group(null);
+        else if (gbfieldtype == Type.INT_TYPE)
+            group = intGroup(tup.getInt(gbfield));
+        else
+            group = group(tup.getField(gbfield));
+        group.add(tup.getInt(afield));
+    }
+
+    /**
+     * Merges every row of a batch into the aggregate, as
+     * {@link #mergeTupleIntoGroup} does for a tuple.
+     */
+    public void mergeBatch(TupleBatch batch) {
+        int[] values = batch.intColumn(afield);
+        int[] rows = batch.selection;
+        int n = batch.size();
+        if (gbfield == NO_GROUPING) {
+            Group group = group(null);
+            for (int k = 0; k < n; k++)
+                group.add(values[rows[k]]);
+        } else if (gbfieldtype == Type.INT_TYPE) {
+            int[] keys = batch.intColumn(gbfield);
+            // runs of rows of one group need one lookup
+            Group group = null;
+            int key = 0;
+            for (int k = 0; k < n; k++) {
+                int row = rows[k];
+                if (group == null || keys[row] != key) {
+                    key = keys[row];
+                    group = intGroup(key);
+                }
+                group.add(values[row]);
+            }
+        } else {
+            for (int k = 0; k < n; k++) {
+                int row = rows[k];
+                group(batch.getField(gbfield, row)).add(values[row]);
+            }
         }
-        else {
-            field = null;
+    }
+
+    private Group group(Field key) {
+        Group group = groupMap.get(key);
+        if (group == null) {
+            // a string key is kept, so it must not keep the page it is read from
+            key = StringField.copy(key);
+            group = new Group(key);
+            groupMap.put(key, group);
+            groups.add(group);
         }
-        // fetch the aggregating integer value.
-        IntField intField = (IntField) tup.getField(afield);
-        Integer intValue = intField.getValue();
-
-        // If the HashTable contains the group-by field, add the aggregating int to the list.
-        if (aggregateMap.containsKey(field)){
-            ArrayList<Integer> intList = aggregateMap.get(field);
-            intList.add(intValue);
+        return group;
+    }
+
+    private Group intGroup(int key) {
+        int mask = intGroups.length - 1;
+        int h = key * 0x9e3779b9;
+        for (int i = (h ^ (h >>> 16)) & mask; ; i = (i + 1) & mask) {
+            Group group = intGroups[i];
+            if (group == null) {
+                group = new Group(new IntField(key));
+                intKeys[i] = key;
+                intGroups[i] = group;
+                groups.add(group);
+                if (groups.size() * 2 > intGroups.length)
+                    growIntGroups();
+                return group;
+            }
+            if (intKeys[i] == key)
+                return group;
         }
-        // Else create new list and add new key-value pair.
-        else {
-            ArrayList<Integer> newList = new ArrayList<>();
-            newList.add(intValue);
-            aggregateMap.put(field, newList);
+    }
+
+    private void growIntGroups() {
+        intKeys = new int[intGroups.length * 2];
+        intGroups = new Group[intKeys.length];
+        int mask = intGroups.length - 1;
+        for (Group group : groups) {
+            int key = ((IntField) group.key).getValue();
+            int h = key * 0x9e3779b9;
+            int i = (h ^ (h >>> 16)) & mask;
+            while (intGroups[i] != null)
+                i = (i + 1) & mask;
+            intKeys[i] = key;
+            intGroups[i] = group;
         }
     }
 
-    private void aggregationOperation(){
-        // For every key-value pair in the aggragateTable.
-        aggregateMap.forEach((key, value) -> {
-            switch (this.what){
-                case MIN:
-                    aggregateResult.put(key, Collections.min(value));
-                    break;
-
-                case MAX:
-                    aggregateResult.put(key, Collections.max(value));
-                    break;
-
-                case AVG:
-                    int sum = 0;
-                    for(Integer term : value){
-                        sum += term;
-                    }
-                    int avg = sum / value.size();
-                    aggregateResult.put(key, avg);
-                    break;
-
-                case SUM:
-                    int tot = 0;
-                    for (Integer term : value){
-                        tot += term;
-                    }
-                    aggregateResult.put(key, tot);
-                    break;
-
-                case COUNT:
-                    aggregateResult.put(key, value.size());
-                    break;
-            }
-        });
+    /** @return the aggregate of a group, or null if there is none for the operator */
+    private Integer result(Group group) {
+        switch (this.what) {
+            case MIN:
+                return group.min;
+            case MAX:
+                return group.max;
+            case AVG:
+                return group.sum / group.count;
+            case SUM:
+                return group.sum;
+            case COUNT:
+                return group.count;
+            default:
+                return null;
+        }
     }
 
     /**
@@ -123,7 +201,6 @@ public class IntegerAggregator implements Aggregator {
     public OpIterator iterator() {
         // some code goes here
         // Creating the TupleDesc
-        this.aggregationOperation();
 
         Type[] types;
         String[] fields;
@@ -139,19 +216,22 @@ public class IntegerAggregator implements Aggregator {
         TupleDesc td = new TupleDesc(types, fields);
         ArrayList<Tuple> tupleList = new ArrayList<>();
 
-        aggregateResult.forEach((key, value) -> {
+        for (Group group : groups) {
+            Integer value = result(group);
+            if (value == null)
+                continue;
             Tuple tuple = new Tuple(td);
 
             if (this.gbfield == NO_GROUPING){
-                tuple.setField(0, new IntField(value));
+                tuple.setInt(0, value);
                 tupleList.add(tuple);
             }
             else{
-                tuple.setField(0, key);
-                tuple.setField(1, new IntField(value));
+                tuple.setField(0, group.key);
+                tuple.setInt(1, value);
                 tupleList.add(tuple);
             }
-        });
+        }
 
         return new TupleIterator(td, tupleList);
 
@@ -5,7 +5,7 @@ import java.util.*;
 /**
  * The Join operator implements the relational join operation.
  */
-public class Join extends Operator {
+public class Join extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -15,6 +15,13 @@ public class Join extends Operator {
 
     private Tuple currentOuterTuple = null;
 
+    private transient BatchIterator innerBatches;
+    private transient TupleBatch innerBatch;
+    private transient int innerPosition;
+    private transient TupleBatch joined;
+    /** The join operator compiled for int fields, used to compare batches. */
+    private transient PredicateCompiler.IntComparison compare;
+
     /**
      * Constructor. Accepts two children to join and the predicate to join them
      * on
@@ -96,6 +103,8 @@ public class Join extends Operator {
         // some code goes here
         child1.rewind();
         child2.rewind();
+        currentOuterTuple = null;
+        innerBatch = null;
     }
 
     /**
@@ -144,6 +153,60 @@ public class Join extends Operator {
 
    }
 
+    /**
+     * Returns the next joined tuples in a batch. Outer tuples are read one
+     * at a time and each is compared with the inner relation a batch at a
+     * time; the tuples are returned in the order {@link #fetchNext} returns
+     * them.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (joined == null) {
+            joined = new TupleBatch(getTupleDesc());
+            innerBatches = BatchingIterator.of(child2);
+        }
+        joined.clear();
+        int field1 = joinPredicate.getField1();
+        int field2 = joinPredicate.getField2();
+        boolean ints = child1.getTupleDesc().getFieldType(field1) == Type.INT_TYPE;
+        while (!joined.isFull()) {
+            if (currentOuterTuple == null) {
+                if (!child1.hasNext())
+                    break;
+                currentOuterTuple = child1.next();
+            }
+            if (innerBatch == null || innerPosition == innerBatch.size()) {
+                innerBatch = innerBatches.nextBatch();
+                innerPosition = 0;
+                if (innerBatch == null) {
+                    // done with this outer tuple
+                    currentOuterTuple = null;
+                    child2.rewind();
+                    continue;
+                }
+            }
+            Predicate.Op op = joinPredicate.getOperator();
+            if (ints) {
+                if (compare == null)
+                    compare = PredicateCompiler.compare(op);
+                int value = currentOuterTuple.getInt(field1);
+                int[] values = innerBatch.intColumn(field2);
+                for (; innerPosition < innerBatch.size() && !joined.isFull(); innerPosition++) {
+                    int row = innerBatch.row(innerPosition);
+                    if (compare.test(value, values[row]))
+                        joined.addJoined(currentOuterTuple, innerBatch, row);
+                }
+            } else {
+                Field value = currentOuterTuple.getField(field1);
+                for (; innerPosition < innerBatch.size() && !joined.isFull(); innerPosition++) {
+                    int row = innerBatch.row(innerPosition);
+                    if (value.compare(op, innerBatch.getField(field2, row)))
+                        joined.addJoined(currentOuterTuple, innerBatch, row);
+                }
+            }
+        }
+        return joined.size() > 0 ? joined : null;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
@@ -158,6 +221,8 @@ public class Join extends Operator {
         // some code goes here
         this.child1 = children[0];
         this.child2 = children[1];
+        this.innerBatches = null;
+        this.joined = null;
     }
 
     // Merging two tuples by appending t2 to t1.
@@ -167,11 +232,11 @@ public class Join extends Operator {
         Tuple mergedTuple = new Tuple(this.getTupleDesc());
 
         for (int i = 0; i < t1Length; i++){
-            mergedTuple.setField(i, t1.getField(i));
+            mergedTuple.setFieldFrom(i, t1, i);
         }
 
         for (int i = 0; i < t2Length; i++){
-            mergedTuple.setField(t1Length + i, t2.getField(i));
+            mergedTuple.setFieldFrom(t1Length + i, t2, i);
         }
 
         return mergedTuple;
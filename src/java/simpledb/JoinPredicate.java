@@ -13,6 +13,8 @@ public class JoinPredicate implements Serializable {
     private int field1;
     private Predicate.Op op;
     private int field2;
+    /** This predicate compiled for the type of its fields; built when first used. */
+    private transient PredicateCompiler.PairTest compiled;
 
     /**
      * Constructor -- create a new predicate over two fields of two tuples.
@@ -43,10 +45,13 @@ public class JoinPredicate implements Serializable {
      */
     public boolean filter(Tuple t1, Tuple t2) {
         // some code goes here
-        Field fieldTuple1 = t1.getField(getField1());
-        Field fieldTuple2 = t2.getField(getField2());
-
-        return fieldTuple1.compare(getOperator(), fieldTuple2);
+        PredicateCompiler.PairTest test = this.compiled;
+        if (test == null) {
+            // the type of the fields is only known once tuples are seen
+            test = PredicateCompiler.compile(this, t1.getTupleDesc().getFieldType(field1));
+            this.compiled = test;
+        }
+        return test.test(t1, t2);
     }
     
     public int getField1()
@@ -6,6 +6,7 @@ import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.NoSuchElementException;
+import java.util.TreeSet;
 
 /**
  * LogicalPlan represents a logical query plan that has been through
@@ -271,6 +272,52 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** Find the fields of a scanned table that the plan refers to, in its
+     *  select list, filters, joins, aggregate, GROUP BY or ORDER BY.
+     *  @return the indexes of the fields, or null if the plan may read all of them
+     */
+    private int[] neededFields(LogicalScanNode table) {
+        ArrayList<String> names = new ArrayList<String>();
+        for (LogicalSelectListNode si : selectList)
+            names.add(si.fname);
+        for (LogicalFilterNode lf : filters)
+            names.add(lf.fieldQuantifiedName);
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            names.add(lj.f2QuantifiedName);
+        }
+        names.add(aggField);
+        names.add(groupByField);
+        names.add(oByField);
+
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        TreeSet<Integer> fields = new TreeSet<Integer>();
+        for (String name : names) {
+            if (name == null)
+                continue;
+            int dot = name.indexOf('.');
+            String alias = dot < 0 ? null : name.substring(0, dot);
+            String field = name.substring(dot + 1);
+            if (field.equals("*") && (alias == null || alias.equals("null") || alias.equals(table.alias)))
+                return null;
+            if (!table.alias.equals(alias))
+                continue;
+            try {
+                fields.add(td.fieldNameToIndex(field));
+            } catch (NoSuchElementException e) {
+                // reported when the plan is built
+                return null;
+            }
+        }
+        if (fields.size() == td.numFields())
+            return null;
+        int[] needed = new int[fields.size()];
+        int i = 0;
+        for (int f : fields)
+            needed[i++] = f;
+        return needed;
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link OpIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned OpIterator will run as a part of
@@ -298,6 +345,9 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
+            int[] needed = neededFields(table);
+            if (needed != null)
+                ss.setNeededFields(needed);
             
             subplanMap.put(table.alias,ss);
             String baseTableName = Database.getCatalog().getTableName(table.t);
@@ -0,0 +1,235 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum). Each page remembers the
+ * times of its last K references; the victim is the page whose K-th most
+ * recent reference lies furthest in the past. Pages referenced fewer than K
+ * times have an infinite backward K-distance and are evicted first, oldest
+ * last reference first, so a single sequential scan only competes with
+ * other once-touched pages and leaves the hot working set alone.
+ * <p>
+ * Reference histories are retained for a while after a page is evicted, so
+ * a page that comes back quickly is recognized as being re-referenced. They
+ * are kept in a ring of as many slots as the pool has frames, found through
+ * an open-addressing index by page id, and the oldest is overwritten when
+ * the ring is full.
+ * <p>
+ * The eviction order is an indexed binary heap over frame numbers. Unlike
+ * the list based policies it cannot be kept in constant time, because a
+ * reference moves a page to the position of its previous reference rather
+ * than to the end, but it costs O(log n) per access. All storage, that of
+ * the retained histories included, is allocated up front, so neither
+ * references nor evictions allocate.
+ * <p>
+ * With K = 1 this is plain LRU.
+ */
+public class LruKPolicy extends AbstractReplacementPolicy {
+
+    private final int k;
+    private long clock = 0;
+
+    /** The last k reference times of each frame, most recent first; 0 if none. */
+    private final long[] times;
+    /** Min-heap of resident frames ordered by backward K-distance. */
+    private final int[] heap;
+    /** Position of each frame in the heap, -1 if the frame is free. */
+    private final int[] pos;
+    private int heapSize = 0;
+
+    /** The ids of the pages whose history is retained, by slot; null if the slot is empty. */
+    private final PageId[] retainedIds;
+    /** The last k reference times of each retained history, by slot. */
+    private final long[] retainedTimes;
+    /** The slot the next history is retained in, overwriting the oldest. */
+    private int nextRetained = 0;
+    /** Hash table from page id to retained slot + 1, linear probing; 0 if empty. */
+    private final int[] retainedIndex;
+
+    /**
+     * Constructor.
+     *
+     * @param k the number of references remembered per page; must be at least 1
+     * @param capacity the number of frames in the pool this policy serves;
+     *   this many evicted pages also keep their history
+     */
+    public LruKPolicy(int k, final int capacity) {
+        if (k < 1)
+            throw new IllegalArgumentException("LRU-K needs k >= 1");
+        this.k = k;
+        this.times = new long[capacity * k];
+        this.heap = new int[capacity];
+        this.pos = new int[capacity];
+        Arrays.fill(pos, -1);
+        this.retainedIds = new PageId[capacity];
+        this.retainedTimes = new long[capacity * k];
+        // at most half full, so probes stay short
+        this.retainedIndex = new int[Integer.highestOneBit(Math.max(1, capacity)) * 4];
+    }
+
+    /** @return the number of references remembered per page */
+    public int getK() {
+        return k;
+    }
+
+    public void pageHit(int frame) {
+        super.pageHit(frame);
+        if (pos[frame] < 0)
+            return;
+        reference(frame);
+        // a reference only ever moves a frame later in the order
+        siftDown(pos[frame]);
+    }
+
+    public void pageLoaded(int frame, PageId pid) {
+        super.pageLoaded(frame, pid);
+        if (pos[frame] >= 0)
+            return;
+        int slot = findRetained(pid);
+        if (slot >= 0) {
+            System.arraycopy(retainedTimes, slot * k, times, frame * k, k);
+            forget(slot);
+        } else {
+            Arrays.fill(times, frame * k, frame * k + k, 0L);
+        }
+        reference(frame);
+        heap[heapSize] = frame;
+        pos[frame] = heapSize;
+        siftUp(heapSize++);
+    }
+
+    public void pageRemoved(int frame, PageId pid) {
+        int i = pos[frame];
+        if (i < 0)
+            return;
+        retain(pid, frame);
+
+        pos[frame] = -1;
+        int last = heap[--heapSize];
+        if (i < heapSize) {
+            heap[i] = last;
+            pos[last] = i;
+            siftDown(i);
+            siftUp(pos[last]);
+        }
+    }
+
+    public int chooseVictim() {
+        return heapSize == 0 ? NO_FRAME : heap[0];
+    }
+
+    protected String getName() {
+        return k == 1 ? "lru" : "lru-" + k;
+    }
+
+    /** Copies the history of the page in a frame into the oldest retained slot. */
+    private void retain(PageId pid, int frame) {
+        if (retainedIds.length == 0)
+            return;
+        int old = findRetained(pid);
+        if (old >= 0)
+            forget(old);
+        int slot = nextRetained;
+        nextRetained = (slot + 1) % retainedIds.length;
+        if (retainedIds[slot] != null)
+            forget(slot);
+        retainedIds[slot] = pid;
+        System.arraycopy(times, frame * k, retainedTimes, slot * k, k);
+        int mask = retainedIndex.length - 1;
+        int i = hash(pid) & mask;
+        while (retainedIndex[i] != 0)
+            i = (i + 1) & mask;
+        retainedIndex[i] = slot + 1;
+    }
+
+    /** @return the slot retaining the history of a page, or -1 */
+    private int findRetained(PageId pid) {
+        int i = indexOf(pid);
+        return i < 0 ? -1 : retainedIndex[i] - 1;
+    }
+
+    /** @return the position of a page in the retained index, or -1 */
+    private int indexOf(PageId pid) {
+        int mask = retainedIndex.length - 1;
+        for (int i = hash(pid) & mask; ; i = (i + 1) & mask) {
+            int s = retainedIndex[i];
+            if (s == 0)
+                return -1;
+            if (pid.equals(retainedIds[s - 1]))
+                return i;
+        }
+    }
+
+    /**
+     * Empties a retained slot, closing the gap it leaves in the index by
+     * moving later entries of the same probe run back.
+     */
+    private void forget(int slot) {
+        int mask = retainedIndex.length - 1;
+        int i = indexOf(retainedIds[slot]);
+        for (int j = (i + 1) & mask; retainedIndex[j] != 0; j = (j + 1) & mask) {
+            int home = hash(retainedIds[retainedIndex[j] - 1]) & mask;
+            // an entry stays if its home lies cyclically in (i, j]
+            boolean stays = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+            if (!stays) {
+                retainedIndex[i] = retainedIndex[j];
+                i = j;
+            }
+        }
+        retainedIndex[i] = 0;
+        retainedIds[slot] = null;
+    }
+
+    private static int hash(PageId pid) {
+        int h = pid.hashCode() * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    private void reference(int frame) {
+        int base = frame * k;
+        System.arraycopy(times, base, times, base + 1, k - 1);
+        times[base] = ++clock;
+    }
+
+    /** @return true if frame a should be evicted before frame b */
+    private boolean before(int a, int b) {
+        long ka = times[a * k + k - 1];
+        long kb = times[b * k + k - 1];
+        if (ka != kb)
+            return ka < kb;
+        return times[a * k] < times[b * k];
+    }
+
+    private void siftUp(int i) {
+        int frame = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!before(frame, heap[parent]))
+                break;
+            heap[i] = heap[parent];
+            pos[heap[i]] = i;
+            i = parent;
+        }
+        heap[i] = frame;
+        pos[frame] = i;
+    }
+
+    private void siftDown(int i) {
+        int frame = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize)
+                break;
+            if (child + 1 < heapSize && before(heap[child + 1], heap[child]))
+                child++;
+            if (!before(heap[child], frame))
+                break;
+            heap[i] = heap[child];
+            pos[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = frame;
+        pos[frame] = i;
+    }
+}
@@ -0,0 +1,138 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * MappedFile maps a data file into memory, so that the pages of a table can
+ * be read from the OS page cache without a system call. The file is mapped
+ * read-only in segments of at most {@link #SEGMENT_SIZE} bytes, since a
+ * single mapping cannot exceed 2 GB; a page that straddles two segments is
+ * assembled from both. Writes still go through the DbFile's own channel and
+ * are seen through the mapping, which shares the page cache with them.
+ * <p>
+ * Only the part of the file that existed when it was mapped can be read.
+ * When a read goes past it the file is mapped again up to its new length,
+ * and reads past the end of the file are left to the caller. Files must not
+ * shrink while they are mapped.
+ * <p>
+ * Memory-mapped reads are meant for read-mostly tables and are off unless
+ * the {@link #PROPERTY} system property is <tt>true</tt> when the DbFile is
+ * created, or the DbFile is told to map its file.
+ *
+ * @see HeapFile#setMemoryMapped
+ * @see BTreeFile#setMemoryMapped
+ */
+public class MappedFile {
+
+    /** Name of the system property that makes new HeapFiles and BTreeFiles map their files. */
+    public static final String PROPERTY = "simpledb.dbfile.mmap";
+
+    /** Largest number of bytes mapped by one segment. */
+    static final long SEGMENT_SIZE = 1L << 30;
+
+    /** The segments mapped so far, and how many bytes of the file they cover. */
+    private static final class Mapping {
+        final MappedByteBuffer[] segments;
+        final long length;
+
+        Mapping(MappedByteBuffer[] segments, long length) {
+            this.segments = segments;
+            this.length = length;
+        }
+    }
+
+    private final File file;
+    private final long segmentSize;
+    private volatile Mapping mapping = new Mapping(new MappedByteBuffer[0], 0);
+
+    MappedFile(File file) {
+        this(file, SEGMENT_SIZE);
+    }
+
+    /** Constructor for tests, which need segments small enough to cross. */
+    MappedFile(File file, long segmentSize) {
+        this.file = file;
+        this.segmentSize = segmentSize;
+    }
+
+    /** @return true if new DbFiles should map their files, by the {@link #PROPERTY} system property */
+    static boolean enabledByDefault() {
+        return Boolean.getBoolean(PROPERTY);
+    }
+
+    /** @return the number of bytes of the file mapped so far */
+    long mappedLength() {
+        return mapping.length;
+    }
+
+    /**
+     * Copies bytes of the file into an array.
+     *
+     * @param offset the offset in the file of the first byte
+     * @param dst the array to fill
+     * @return false, leaving dst unchanged, if the file ends before dst is full
+     * @throws IOException if the file cannot be mapped
+     */
+    boolean read(long offset, byte[] dst) throws IOException {
+        Mapping m = mapping;
+        long end = offset + dst.length;
+        if (end > m.length) {
+            m = remap(end);
+            if (m == null) {
+                return false;
+            }
+        }
+        int done = 0;
+        while (done < dst.length) {
+            long pos = offset + done;
+            // duplicate, so concurrent readers don't share a buffer position
+            ByteBuffer segment = m.segments[(int) (pos / segmentSize)].duplicate();
+            segment.position((int) (pos % segmentSize));
+            int n = Math.min(dst.length - done, segment.remaining());
+            segment.get(dst, done, n);
+            done += n;
+        }
+        return true;
+    }
+
+    /**
+     * Maps the file again up to its current length.
+     *
+     * @param needed the number of bytes the caller needs mapped
+     * @return the new mapping, or null if the file is shorter than needed
+     */
+    private synchronized Mapping remap(long needed) throws IOException {
+        Mapping m = mapping;
+        if (needed <= m.length) {
+            return m;
+        }
+        long length = file.length();
+        if (length < needed) {
+            return null;
+        }
+        int count = (int) ((length + segmentSize - 1) / segmentSize);
+        MappedByteBuffer[] segments = new MappedByteBuffer[count];
+        // segments mapped in full can be kept; the last one has grown
+        int full = (int) (m.length / segmentSize);
+        System.arraycopy(m.segments, 0, segments, 0, Math.min(full, count));
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            for (int i = full; i < count; i++) {
+                long start = i * segmentSize;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(segmentSize, length - start));
+            }
+        } finally {
+            // the mappings stay valid after the channel is closed
+            raf.close();
+        }
+        mapping = new Mapping(segments, length);
+        return mapping;
+    }
+}
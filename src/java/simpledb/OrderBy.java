@@ -56,9 +56,10 @@ public class OrderBy extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
+        // load all the tuples in a collection, copied off the pages they
+        // are read from, and sort it
         while (child.hasNext())
-            childTups.add((Tuple) child.next());
+            childTups.add(child.next().copy());
         Collections.sort(childTups, new TupleComparator(orderByField, asc));
         it = childTups.iterator();
         super.open();
@@ -110,8 +111,16 @@ class TupleComparator implements Comparator<Tuple> {
     }
 
     public int compare(Tuple o1, Tuple o2) {
+        if (o1.getTupleDesc().getFieldType(field) == Type.INT_TYPE) {
+            int c = Integer.compare(o1.getInt(field), o2.getInt(field));
+            return asc ? c : -c;
+        }
         Field t1 = (o1).getField(field);
         Field t2 = (o2).getField(field);
+        if (t1 instanceof StringField) {
+            int c = Integer.signum(((StringField) t1).compareTo((StringField) t2));
+            return asc ? c : -c;
+        }
         if (t1.compare(Predicate.Op.EQUALS, t2))
             return 0;
         if (t1.compare(Predicate.Op.GREATER_THAN, t2))
@@ -0,0 +1,225 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * PageArena is a block of memory outside the Java heap that holds the bytes
+ * of the resident pages of an off-heap BufferPool, one page-sized slot per
+ * page. A frame takes a slot with {@link #allocate} when it is filled and
+ * gives it back when it is freed, so the partitions of a pool can share an
+ * arena no larger than the pool. The arena is either allocated with direct
+ * ByteBuffers or mapped from a scratch file, in which case the operating
+ * system may page cold frames out instead of the JVM holding them.
+ * <p>
+ * A single ByteBuffer cannot address more than 2 GB, so the arena is split
+ * into chunks of at most {@link #CHUNK_BYTES} bytes, each holding a whole
+ * number of slots.
+ * <p>
+ * Access to different slots may proceed concurrently; callers must not
+ * read and write the same slot at the same time. {@link #close} frees the
+ * memory at once rather than when the buffers are collected, and waits for
+ * reads and writes in progress to finish first.
+ *
+ * @see BufferPool
+ */
+public class PageArena {
+
+    /** Upper bound on the size of one chunk of the arena. */
+    static final int CHUNK_BYTES = 1 << 30;
+
+    private final int slotSize;
+    private final int frames;
+    private final int framesPerChunk;
+    private final ByteBuffer[] chunks;
+    /** Number of valid bytes in each slot; root pointer pages are shorter than a slot. */
+    private final int[] lengths;
+    private final File backingFile;
+    /** The slots not given to a frame, as a stack. */
+    private final int[] freeSlots;
+    private int freeCount;
+    /** Held shared by reads and writes and exclusively by close. */
+    private final ReentrantReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private boolean closed;
+
+    /**
+     * Creates an arena backed by direct ByteBuffers.
+     *
+     * @param frames the number of slots
+     * @param slotSize the size of each slot in bytes, normally the page size
+     */
+    public PageArena(int frames, int slotSize) {
+        this(frames, slotSize, null);
+    }
+
+    /**
+     * Creates an arena. If backingFile is not null the arena is a read-write
+     * mapping of that file, which is created or truncated as needed and
+     * deleted when the arena is closed.
+     *
+     * @param frames the number of slots
+     * @param slotSize the size of each slot in bytes, normally the page size
+     * @param backingFile the scratch file to map, or null for direct buffers
+     * @throws IllegalArgumentException if the arena cannot be created
+     */
+    public PageArena(int frames, int slotSize, File backingFile) {
+        if (slotSize > CHUNK_BYTES)
+            throw new IllegalArgumentException("Slot size " + slotSize + " is too large");
+        this.slotSize = slotSize;
+        this.frames = frames;
+        this.framesPerChunk = CHUNK_BYTES / slotSize;
+        this.chunks = new ByteBuffer[(frames + framesPerChunk - 1) / framesPerChunk];
+        this.lengths = new int[frames];
+        this.backingFile = backingFile;
+        this.freeSlots = new int[frames];
+        for (int i = 0; i < frames; i++)
+            freeSlots[i] = frames - 1 - i;
+        this.freeCount = frames;
+
+        if (backingFile == null) {
+            for (int i = 0; i < chunks.length; i++)
+                chunks[i] = ByteBuffer.allocateDirect(chunkFrames(i) * slotSize);
+            return;
+        }
+        try {
+            RandomAccessFile raf = new RandomAccessFile(backingFile, "rw");
+            try {
+                raf.setLength((long) frames * slotSize);
+                FileChannel channel = raf.getChannel();
+                for (int i = 0; i < chunks.length; i++) {
+                    long offset = (long) i * framesPerChunk * slotSize;
+                    chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, offset,
+                            (long) chunkFrames(i) * slotSize);
+                }
+            } finally {
+                // the mappings stay valid after the file is closed
+                raf.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to map " + backingFile, e);
+        }
+        backingFile.deleteOnExit();
+    }
+
+    private int chunkFrames(int chunk) {
+        return Math.min(framesPerChunk, frames - chunk * framesPerChunk);
+    }
+
+    /** @return the number of slots in this arena */
+    public int getFrames() {
+        return frames;
+    }
+
+    /** @return the size of a slot in bytes */
+    public int getSlotSize() {
+        return slotSize;
+    }
+
+    /** @return true if the arena is mapped from a file rather than allocated */
+    public boolean isMapped() {
+        return backingFile != null;
+    }
+
+    /** @return the number of slots not given to a frame */
+    public synchronized int getFreeSlots() {
+        return freeCount;
+    }
+
+    /** @return a free slot, or -1 if every slot is taken */
+    public synchronized int allocate() {
+        return freeCount == 0 ? -1 : freeSlots[--freeCount];
+    }
+
+    /** Gives back a slot taken with {@link #allocate}. */
+    public synchronized void free(int slot) {
+        freeSlots[freeCount++] = slot;
+    }
+
+    /** @return a buffer positioned at the start of a slot; the caller holds the read lock */
+    private ByteBuffer slot(int slot) {
+        if (closed)
+            throw new IllegalStateException("Arena is closed");
+        ByteBuffer b = chunks[slot / framesPerChunk].duplicate();
+        b.position((slot % framesPerChunk) * slotSize);
+        return b;
+    }
+
+    /**
+     * Stores page bytes in a slot.
+     *
+     * @throws IllegalArgumentException if the data does not fit in a slot
+     * @throws IllegalStateException if the arena is closed
+     */
+    public void write(int slot, byte[] data) {
+        if (data.length > slotSize)
+            throw new IllegalArgumentException("Page of " + data.length
+                    + " bytes does not fit in a slot of " + slotSize);
+        closeLock.readLock().lock();
+        try {
+            slot(slot).put(data);
+            lengths[slot] = data.length;
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return a copy of the bytes last written to a slot
+     * @throws IllegalStateException if the arena is closed
+     */
+    public byte[] read(int slot) {
+        closeLock.readLock().lock();
+        try {
+            byte[] data = new byte[lengths[slot]];
+            slot(slot).get(data);
+            return data;
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Frees the memory of the arena and deletes the backing file of a
+     * mapped one. Reads and writes fail afterwards; closing again does
+     * nothing.
+     */
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            if (closed)
+                return;
+            closed = true;
+            for (int i = 0; i < chunks.length; i++) {
+                release(chunks[i]);
+                chunks[i] = null;
+            }
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        if (backingFile != null)
+            backingFile.delete();
+    }
+
+    /**
+     * Unmaps or frees a direct buffer now. On JVMs without
+     * Unsafe.invokeCleaner (before Java 9) the memory is left to be freed
+     * when the buffer is collected.
+     */
+    private static void release(ByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(theUnsafe.get(null), buffer);
+        } catch (ReflectiveOperationException e) {
+            Debug.log("arena memory left to the garbage collector: %s", e);
+        } catch (RuntimeException e) {
+            Debug.log("arena memory left to the garbage collector: %s", e);
+        }
+    }
+}
@@ -0,0 +1,610 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The resident pages of a BufferPool. Pages live in a fixed array of frames
+ * allocated up front; a page table maps each resident PageId to its frame
+ * and free frames are kept on a stack, so looking up, loading, discarding
+ * and evicting a page all take constant time no matter how large the pool
+ * is. The replacement policy refers to pages by frame number and keeps its
+ * own links between frames.
+ * <p>
+ * In off-heap mode the bytes of every resident page are kept in a slot of
+ * a {@link PageArena}, which may be shared with the other partitions of
+ * the same BufferPool, and only a bounded window of recently used pages is
+ * kept decoded as Page objects. A page read from disk is stored in its slot
+ * as it was read, without being serialized again. A resident page that has
+ * fallen out of the window is decoded again from its arena slot when it is
+ * requested, which costs CPU but no I/O. Dirty pages are never dropped from
+ * the window, because their bytes in the arena are stale until the page is
+ * flushed.
+ * <p>
+ * Concurrency: a hit on a decoded page takes no lock at all apart from one
+ * of several striped hit buffers, which are applied to the replacement
+ * policy in batches. Every frame has a latch that is held while its page is
+ * being read from disk, decoded from the arena, replaced by a newer
+ * version, written back or evicted, so I/O on one frame never blocks
+ * requests for another. A page being read is
+ * already in the page table, which makes concurrent misses on the same page
+ * wait for the single read in progress instead of reading it again. The
+ * monitor of this object only guards the free list, the replacement policy
+ * and the decoded window, and is never held during I/O.
+ * <p>
+ * Lock order is hit stripe, then frame latch, then this object. A frame is
+ * unlatched before it goes back on the free list, so taking the latch of a
+ * free frame never blocks.
+ */
+class PageBufferPool {
+
+    /** Returned by {@link #reserve} when the page is already in the pool. */
+    static final int RESIDENT = -2;
+
+    private static final int HIT_STRIPES = 16;
+    private static final int HIT_BATCH = 32;
+
+    /** One slot of the pool. */
+    static final class Frame {
+        final int index;
+        final ReentrantLock latch = new ReentrantLock();
+        volatile PageId pid;
+        /** The arena slot holding the bytes of the page, off heap; -1 if the frame is free. */
+        int slot = -1;
+        /** The decoded page; null if the frame is free, loading or, off heap, not decoded. */
+        volatile Page page;
+        /** Bumped each time the frame is given to a page, so stale hits can be told apart. */
+        volatile int generation;
+        /** Set while the page was read ahead and has not been asked for yet. */
+        final AtomicBoolean prefetched = new AtomicBoolean();
+
+        Frame(int index) {
+            this.index = index;
+        }
+    }
+
+    /** Hits recorded by some of the threads, not yet applied to the policy. */
+    private static final class HitStripe {
+        final long[] hits = new long[HIT_BATCH];
+        int count;
+    }
+
+    private final Frame[] frames;
+    private final int[] freeFrames;
+    private int freeCount;
+    private int loadingCount;
+    private final ConcurrentHashMap<PageId, Frame> pageTable;
+    private final ReplacementPolicy policy;
+    private final HitStripe[] stripes;
+    private final AtomicLong prefetchUsed = new AtomicLong();
+    private final AtomicLong prefetchWasted = new AtomicLong();
+
+    /** Shared with the other partitions of the same BufferPool, or null. */
+    private final FrameBudget budget;
+
+    private final PageArena arena;
+    private final int decodedLimit;
+    /** Frames whose page is decoded, least recently used first; off heap only. */
+    private final FrameList decoded;
+    private final boolean[] isDecoded;
+
+    /**
+     * Creates a pool of the given number of frames that keeps every page
+     * decoded on the Java heap.
+     *
+     * @param capacity the number of frames
+     * @param policy the replacement policy; it must have been created for
+     *   at least capacity frames
+     */
+    PageBufferPool(int capacity, ReplacementPolicy policy) {
+        this(capacity, policy, null, capacity);
+    }
+
+    /**
+     * Creates a pool of the given number of frames.
+     *
+     * @param capacity the number of frames
+     * @param policy the replacement policy; it must have been created for
+     *   at least capacity frames
+     * @param arena the off-heap storage of the frames, or null to keep
+     *   pages on the Java heap; a frame is only filled while the arena has
+     *   a free slot
+     * @param decodedLimit off heap, the number of clean pages kept decoded
+     */
+    PageBufferPool(int capacity, ReplacementPolicy policy, PageArena arena, int decodedLimit) {
+        this(capacity, policy, arena, decodedLimit, null);
+    }
+
+    /**
+     * Creates a pool that is one partition of a BufferPool.
+     *
+     * @param capacity the number of frames
+     * @param policy the replacement policy; it must have been created for
+     *   at least capacity frames
+     * @param arena the off-heap storage of the frames, or null to keep
+     *   pages on the Java heap; a frame is only filled while the arena has
+     *   a free slot
+     * @param decodedLimit off heap, the number of clean pages kept decoded
+     * @param budget the frames shared by all partitions; a frame is only
+     *   filled if the budget allows it. Null for no limit beyond capacity
+     */
+    PageBufferPool(int capacity, ReplacementPolicy policy, PageArena arena, int decodedLimit,
+                   FrameBudget budget) {
+        this.budget = budget;
+        this.frames = new Frame[capacity];
+        this.freeFrames = new int[capacity];
+        for (int i = 0; i < capacity; i++) {
+            frames[i] = new Frame(i);
+            // hand out low frame numbers first
+            freeFrames[i] = capacity - 1 - i;
+        }
+        this.freeCount = capacity;
+        this.pageTable = new ConcurrentHashMap<>(capacity);
+        this.policy = policy;
+        this.stripes = new HitStripe[HIT_STRIPES];
+        for (int i = 0; i < HIT_STRIPES; i++)
+            stripes[i] = new HitStripe();
+        this.arena = arena;
+        this.decodedLimit = Math.max(1, decodedLimit);
+        this.decoded = arena != null ? new FrameList(capacity) : null;
+        this.isDecoded = arena != null ? new boolean[capacity] : null;
+    }
+
+    /** @return the replacement policy, after applying any hits still buffered */
+    ReplacementPolicy getPolicy() {
+        drainHits();
+        return policy;
+    }
+
+    int capacity() {
+        return frames.length;
+    }
+
+    int size() {
+        return pageTable.size();
+    }
+
+    /** @return the ids of the resident pages, including pages being read */
+    List<PageId> pageIds() {
+        return new ArrayList<PageId>(pageTable.keySet());
+    }
+
+    /** @return the number of frames whose page is being read from disk */
+    synchronized int loadingCount() {
+        return loadingCount;
+    }
+
+    /** @return the arena holding the frames, or null if pages live on the heap */
+    PageArena getArena() {
+        return arena;
+    }
+
+    /** @return the number of resident pages that are currently decoded */
+    synchronized int decodedCount() {
+        return arena != null ? decoded.size() : pageTable.size();
+    }
+
+    /** @return the number of prefetched pages that were later requested */
+    long getPrefetchUsed() {
+        return prefetchUsed.get();
+    }
+
+    /** @return the number of prefetched pages removed before being requested */
+    long getPrefetchWasted() {
+        return prefetchWasted.get();
+    }
+
+    void resetPrefetchStats() {
+        prefetchUsed.set(0);
+        prefetchWasted.set(0);
+    }
+
+    /** @return the frame with the given number */
+    Frame frame(int index) {
+        return frames[index];
+    }
+
+    /** @return the number of frames holding a dirty page */
+    int dirtyCount() {
+        int n = 0;
+        for (Frame f : frames) {
+            Page pg = f.page;
+            if (pg != null && pg.isDirty() != null)
+                n++;
+        }
+        return n;
+    }
+
+    /**
+     * @return the resident pages that are dirty, or only those dirtied by
+     *   the given transaction if it is not null
+     */
+    ArrayList<PageId> dirtyPages(TransactionId tid) {
+        ArrayList<PageId> dirty = new ArrayList<PageId>();
+        for (Frame f : frames) {
+            PageId pid = f.pid;
+            Page pg = f.page;
+            TransactionId dirtier = pg != null ? pg.isDirty() : null;
+            if (pid != null && dirtier != null && (tid == null || tid.equals(dirtier)))
+                dirty.add(pid);
+        }
+        return dirty;
+    }
+
+    boolean containsKey(PageId id) {
+        return pageTable.containsKey(id);
+    }
+
+    /**
+     * Looks up a page and counts the request as a hit if it is resident. If
+     * the page is being read by another thread, waits for that read to
+     * finish. Off heap, the page is decoded from its arena slot if necessary.
+     *
+     * @return the page, or null if it is not in the pool
+     */
+    Page get(PageId id) {
+        while (true) {
+            Frame f = pageTable.get(id);
+            if (f == null)
+                return null;
+            int generation = f.generation;
+            Page pg = f.page;
+            if (pg == null)
+                pg = waitOrDecode(f, id);
+            // the frame may have been recycled since the lookup; look again
+            if (pg != null && id.equals(f.pid)) {
+                // the read ahead already counted as the first reference
+                if (f.prefetched.get() && f.prefetched.compareAndSet(true, false))
+                    prefetchUsed.incrementAndGet();
+                else
+                    recordHit(f.index, generation);
+                return pg;
+            }
+        }
+    }
+
+    /**
+     * Handles a lookup that found a frame without a decoded page: the frame
+     * is either loading, in which case the latch makes us wait for the read,
+     * or off heap and out of the decoded window.
+     */
+    private Page waitOrDecode(Frame f, PageId id) {
+        f.latch.lock();
+        try {
+            if (!id.equals(f.pid) || f.page != null || arena == null)
+                return f.page;
+            // the latch keeps the slot from being rewritten while we decode
+            byte[] data = arena.read(f.slot);
+            Page pg = Database.getCatalog().getDatabaseFile(id.getTableId()).decodePage(id, data);
+            synchronized (this) {
+                f.page = pg;
+                markDecoded(f.index);
+            }
+            return pg;
+        } finally {
+            f.latch.unlock();
+        }
+    }
+
+    /**
+     * Buffers a hit for the replacement policy. The stripe is chosen by
+     * thread, and a full stripe is applied to the policy in one go, so hits
+     * from different threads rarely contend.
+     */
+    private void recordHit(int frame, int generation) {
+        HitStripe s = stripes[(int) Thread.currentThread().getId() & (HIT_STRIPES - 1)];
+        synchronized (s) {
+            s.hits[s.count++] = ((long) frame << 32) | (generation & 0xffffffffL);
+            if (s.count == HIT_BATCH)
+                applyHits(s);
+        }
+    }
+
+    /** Applies every buffered hit to the policy. Must not hold this object. */
+    private void drainHits() {
+        for (HitStripe s : stripes) {
+            synchronized (s) {
+                if (s.count > 0)
+                    applyHits(s);
+            }
+        }
+    }
+
+    /** Applies the hits of a stripe whose monitor the caller holds. */
+    private void applyHits(HitStripe s) {
+        synchronized (this) {
+            for (int i = 0; i < s.count; i++) {
+                int frame = (int) (s.hits[i] >>> 32);
+                Frame f = frames[frame];
+                // skip hits on pages that have left the frame since
+                if (f.generation != (int) s.hits[i] || f.pid == null)
+                    continue;
+                policy.pageHit(frame);
+                if (arena != null && isDecoded[frame])
+                    decoded.moveToLast(frame);
+            }
+            s.count = 0;
+        }
+    }
+
+    /**
+     * Looks up a page without affecting the replacement order. Off heap this
+     * does not decode the page either, so it returns null for a resident
+     * page that is only held as bytes; such a page is always clean.
+     */
+    Page peek(PageId id) {
+        Frame f = pageTable.get(id);
+        if (f == null)
+            return null;
+        Page pg = f.page;
+        return pg != null && id.equals(f.pid) ? pg : null;
+    }
+
+    /**
+     * Claims a free frame for a page that is about to be read from disk.
+     * The page is entered in the page table at once and the frame stays
+     * latched, so other requests for it wait until {@link #complete} or
+     * {@link #abort} is called by the same thread.
+     *
+     * @return the claimed frame, {@link #RESIDENT} if the page is already
+     *   in the pool or being read, or {@link ReplacementPolicy#NO_FRAME} if
+     *   there is no free frame
+     */
+    synchronized int reserve(PageId id) {
+        if (pageTable.containsKey(id))
+            return RESIDENT;
+        Frame f = claim();
+        if (f == null)
+            return ReplacementPolicy.NO_FRAME;
+        f.latch.lock();
+        f.pid = id;
+        f.generation++;
+        loadingCount++;
+        pageTable.put(id, f);
+        return f.index;
+    }
+
+    /**
+     * Takes a free frame, and off heap an arena slot for it, if the budget
+     * allows it.
+     *
+     * @return the frame, or null if there is none to take
+     */
+    private Frame claim() {
+        if (freeCount == 0 || (budget != null && !budget.tryAcquire()))
+            return null;
+        int slot = -1;
+        if (arena != null && (slot = arena.allocate()) < 0) {
+            if (budget != null)
+                budget.release();
+            return null;
+        }
+        Frame f = frames[freeFrames[--freeCount]];
+        f.slot = slot;
+        return f;
+    }
+
+    /**
+     * Installs the page read into a frame claimed by {@link #reserve} and
+     * unlatches the frame.
+     *
+     * @return the page
+     */
+    Page complete(int frame, Page page) {
+        return complete(frame, page, null, false);
+    }
+
+    /**
+     * Installs the page read into a frame claimed by {@link #reserve} and
+     * unlatches the frame.
+     *
+     * @param data off heap, the bytes the page was decoded from, which are
+     *   stored as they are; null to serialize the page instead
+     * @param prefetched true if the page was read ahead rather than asked for
+     * @return the page
+     */
+    Page complete(int frame, Page page, byte[] data, boolean prefetched) {
+        Frame f = frames[frame];
+        f.prefetched.set(prefetched);
+        try {
+            // the bytes of a dirty page are written when it is flushed
+            if (arena != null && (data != null || page.isDirty() == null))
+                arena.write(f.slot, data != null ? data : page.getPageData());
+            synchronized (this) {
+                loadingCount--;
+                if (prefetched)
+                    policy.pagePrefetched(frame, f.pid);
+                else
+                    policy.pageLoaded(frame, f.pid);
+                f.page = page;
+                if (arena != null)
+                    markDecoded(frame);
+                return page;
+            }
+        } finally {
+            f.latch.unlock();
+        }
+    }
+
+    /** Gives back a frame claimed by {@link #reserve} whose read failed. */
+    synchronized void abort(int frame) {
+        Frame f = frames[frame];
+        f.prefetched.set(false);
+        loadingCount--;
+        pageTable.remove(f.pid);
+        free(f);
+    }
+
+    /**
+     * Installs a page. A page that is already resident is replaced in its
+     * frame; otherwise the page takes a free frame.
+     *
+     * @throws IllegalStateException if the page is not resident and there
+     *   is no free frame
+     */
+    void put(PageId id, Page page) {
+        if (!install(id, page, null))
+            throw new IllegalStateException("no free frame for page " + id);
+    }
+
+    /**
+     * Installs a page under the latch of its frame, so that it waits for a
+     * read, flush or eviction of the page in progress. A page that is
+     * already resident is replaced in its frame; otherwise the page is
+     * given a free frame as if it had been read, and if there is none the
+     * caller must evict a page and try again.
+     * <p>
+     * The page is marked dirty under the latch too, so a flush that wrote
+     * the page before cannot mark it clean afterwards, and an eviction
+     * cannot drop it unwritten.
+     *
+     * @param dirtier the transaction to mark the page dirtied by, or null
+     *   to leave its dirty state alone
+     * @return false if the page is not resident and there is no free frame
+     */
+    boolean install(PageId id, Page page, TransactionId dirtier) {
+        while (true) {
+            Frame f = latch(id);
+            if (f == null) {
+                int frame = reserve(id);
+                if (frame == ReplacementPolicy.NO_FRAME)
+                    return false;
+                if (frame == RESIDENT) {
+                    // read by another thread since we looked; replace it
+                    continue;
+                }
+                if (dirtier != null)
+                    page.markDirty(true, dirtier);
+                complete(frame, page);
+                return true;
+            }
+            try {
+                if (dirtier != null)
+                    page.markDirty(true, dirtier);
+                if (arena != null && page.isDirty() == null)
+                    arena.write(f.slot, page.getPageData());
+                synchronized (this) {
+                    f.page = page;
+                    if (arena != null)
+                        markDecoded(f.index);
+                }
+            } finally {
+                f.latch.unlock();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Tells the pool that a page has just been written to disk, so that an
+     * off-heap pool can refresh the arena copy and let the page be dropped
+     * from the decoded window again.
+     */
+    synchronized void pageWritten(PageId id, Page page) {
+        Frame f = pageTable.get(id);
+        if (arena != null && f != null && f.page == page)
+            arena.write(f.slot, page.getPageData());
+    }
+
+    /** Puts a frame at the end of the decoded window and trims the window. */
+    private void markDecoded(int frame) {
+        if (isDecoded[frame]) {
+            decoded.moveToLast(frame);
+            return;
+        }
+        isDecoded[frame] = true;
+        decoded.addLast(frame);
+        // drop the least recently used clean pages; dirty ones go to the
+        // back of the line, at most one pass over the window
+        for (int n = decoded.size(); n > 0 && decoded.size() > decodedLimit; n--) {
+            int oldest = decoded.first();
+            Page pg = frames[oldest].page;
+            if (oldest == frame || (pg != null && pg.isDirty() != null)) {
+                decoded.moveToLast(oldest);
+                continue;
+            }
+            decoded.remove(oldest);
+            isDecoded[oldest] = false;
+            frames[oldest].page = null;
+        }
+    }
+
+    /**
+     * Latches the frame of a resident page, waiting for any read, flush or
+     * eviction in progress on it.
+     *
+     * @return the latched frame, or null if the page is not resident
+     */
+    Frame latch(PageId pid) {
+        while (true) {
+            Frame f = pageTable.get(pid);
+            if (f == null)
+                return null;
+            f.latch.lock();
+            if (pid.equals(f.pid))
+                return f;
+            f.latch.unlock();
+        }
+    }
+
+    /** Releases a frame latched with {@link #latch}. */
+    void unlatch(Frame f) {
+        f.latch.unlock();
+    }
+
+    /**
+     * Drops the page of a frame latched with {@link #latch} from the pool
+     * and frees the frame, which also releases the latch.
+     *
+     * @return the decoded page that was dropped, or null if there was none
+     */
+    synchronized Page remove(Frame f) {
+        Page pg = f.page;
+        if (f.prefetched.getAndSet(false))
+            prefetchWasted.incrementAndGet();
+        pageTable.remove(f.pid);
+        policy.pageRemoved(f.index, f.pid);
+        if (arena != null && isDecoded[f.index]) {
+            decoded.remove(f.index);
+            isDecoded[f.index] = false;
+        }
+        free(f);
+        return pg;
+    }
+
+    /** Drops a page from the pool and frees its frame. */
+    Page remove(PageId pid) {
+        Frame f = latch(pid);
+        return f == null ? null : remove(f);
+    }
+
+    /** Clears a latched frame, unlatches it and puts it and its slot on the free lists. */
+    private void free(Frame f) {
+        f.page = null;
+        f.pid = null;
+        if (f.slot >= 0) {
+            arena.free(f.slot);
+            f.slot = -1;
+        }
+        f.latch.unlock();
+        freeFrames[freeCount++] = f.index;
+        if (budget != null)
+            budget.release();
+    }
+
+    /**
+     * @return the page the replacement policy wants to evict, or null if no
+     *   page is resident apart from those being read
+     */
+    PageId evictPage() {
+        drainHits();
+        synchronized (this) {
+            int victim = policy.chooseVictim();
+            return victim == ReplacementPolicy.NO_FRAME ? null : frames[victim].pid;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * PageChecksums keeps a CRC32C checksum of every page of a DbFile, so that
+ * a page that was torn by a crash in the middle of its write, or damaged on
+ * disk, is caught when it is read instead of being parsed into garbage
+ * tuples. The checksums are kept in memory and in a file next to the data
+ * file, with <tt>.crc</tt> added to its name: a magic number, then two ints
+ * per page, the checksum of the page as last written and the one before.
+ * Keeping them outside the pages leaves the page formats, and the number of
+ * tuples a page holds, as they are.
+ * <p>
+ * The checksum of a page is written and forced to disk before the page
+ * itself is written, and a page passes if it matches either checksum: a
+ * crash between the two leaves the old page on disk, which matches the
+ * older checksum, while a page half written matches neither. Since the OS
+ * may write a page out as soon as it is written, a checksum that were not
+ * forced first could be lost in a crash that kept its page, and the page
+ * would fail. Pages written together share one force of their checksums.
+ * <p>
+ * Pages without a checksum, because they were written before checksums
+ * were turned on or by a tool that writes files directly, pass unchecked;
+ * a page whose two checksums are both 0 counts as such. Tools that replace
+ * a data file discard its checksums with {@link #discard}.
+ * <p>
+ * Checksums are off unless the {@link #PROPERTY} system property is
+ * <tt>true</tt> when the DbFile is created, or the DbFile is told to keep
+ * them.
+ *
+ * @see HeapFile#setChecksummed
+ * @see BTreeFile#setChecksummed
+ * @see PageScrubber
+ */
+class PageChecksums {
+
+    /** Name of the system property that makes new HeapFiles and BTreeFiles keep page checksums. */
+    static final String PROPERTY = "simpledb.dbfile.checksums";
+
+    static final int MAGIC = 0x5344424b;
+    private static final int HEADER_SIZE = 4;
+    private static final int ENTRY_SIZE = 8;
+
+    /** What {@link #verify} finds. */
+    enum Result {
+        /** the page matches its checksum */
+        OK,
+        /** the page has no checksum */
+        UNKNOWN,
+        /** the page matches neither checksum */
+        CORRUPT
+    }
+
+    private static final ThreadLocal<CRC32C> crcs = new ThreadLocal<CRC32C>() {
+        @Override
+        protected CRC32C initialValue() {
+            return new CRC32C();
+        }
+    };
+
+    private final File file;
+    /** The current and previous checksum of each page, interleaved; replaced when it grows. */
+    private volatile int[] entries = new int[0];
+    private RandomAccessFile raf;
+    private long forces;
+
+    /**
+     * Constructor. Reads the checksum file if there is one.
+     *
+     * @param file the file the checksums are kept in
+     */
+    PageChecksums(File file) {
+        this.file = file;
+        if (file.exists()) {
+            try {
+                RandomAccessFile in = new RandomAccessFile(file, "r");
+                try {
+                    if (in.length() >= HEADER_SIZE) {
+                        if (in.readInt() != MAGIC)
+                            throw new IOException("not a checksum file");
+                        byte[] bytes = new byte[(int) ((in.length() - HEADER_SIZE) / ENTRY_SIZE * ENTRY_SIZE)];
+                        in.readFully(bytes);
+                        int[] read = new int[bytes.length / 4];
+                        ByteBuffer.wrap(bytes).asIntBuffer().get(read);
+                        entries = read;
+                    }
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                // checking nothing is better than failing good pages
+                Debug.log(1, "cannot read page checksums %s: %s", file, e);
+                entries = new int[0];
+            }
+        }
+    }
+
+    /** @return the file the checksums of a data file are kept in */
+    static File fileFor(File dataFile) {
+        return new File(dataFile.getPath() + ".crc");
+    }
+
+    /** Deletes the checksums of a data file that is about to be replaced. */
+    static void discard(File dataFile) {
+        fileFor(dataFile).delete();
+    }
+
+    /** @return the CRC32C checksum of a page */
+    static int checksum(byte[] data) {
+        CRC32C crc = crcs.get();
+        crc.reset();
+        crc.update(data, 0, data.length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Checks a page read from disk against its checksums.
+     *
+     * @param index the position of the page in the file
+     * @param data the bytes of the page
+     */
+    Result verify(int index, byte[] data) {
+        int[] e = entries;
+        if (2 * index + 1 >= e.length)
+            return Result.UNKNOWN;
+        int current = e[2 * index];
+        int previous = e[2 * index + 1];
+        if (current == 0 && previous == 0)
+            return Result.UNKNOWN;
+        int crc = checksum(data);
+        return crc == current || crc == previous ? Result.OK : Result.CORRUPT;
+    }
+
+    /**
+     * Checks a page read from disk against its checksums.
+     *
+     * @throws IOException if the page matches neither checksum
+     */
+    void check(int index, byte[] data) throws IOException {
+        if (verify(index, data) == Result.CORRUPT)
+            throw new IOException("page " + index + " fails its checksum; it was torn or damaged");
+    }
+
+    /**
+     * Records the checksums of pages about to be written and writes them
+     * to the checksum file, forcing it to disk. Pages whose checksums do
+     * not change cost no write.
+     *
+     * @param indexes the positions of the pages in the file
+     * @param pages the bytes of the pages, as they will be written
+     */
+    synchronized void update(int[] indexes, byte[][] pages) throws IOException {
+        if (indexes.length == 0)
+            return;
+        int[] e = entries;
+        int max = 0;
+        for (int index : indexes)
+            max = Math.max(max, index);
+        if (2 * max + 1 >= e.length)
+            e = Arrays.copyOf(e, Math.max(2 * max + 2, e.length * 2));
+        int lo = Integer.MAX_VALUE;
+        int hi = -1;
+        for (int i = 0; i < indexes.length; i++) {
+            int index = indexes[i];
+            int crc = checksum(pages[i]);
+            if (crc != e[2 * index]) {
+                e[2 * index + 1] = e[2 * index];
+                e[2 * index] = crc;
+                lo = Math.min(lo, index);
+                hi = Math.max(hi, index);
+            }
+        }
+        entries = e;
+        if (hi < 0)
+            return;
+
+        if (raf == null) {
+            raf = new RandomAccessFile(file, "rw");
+            if (raf.length() < HEADER_SIZE)
+                raf.writeInt(MAGIC);
+        }
+        // one write covering every page written
+        ByteBuffer buf = ByteBuffer.allocate((hi - lo + 1) * ENTRY_SIZE);
+        buf.asIntBuffer().put(e, 2 * lo, 2 * (hi - lo + 1));
+        raf.seek(HEADER_SIZE + (long) lo * ENTRY_SIZE);
+        raf.write(buf.array());
+        raf.getChannel().force(false);
+        forces++;
+    }
+
+    /** Records the checksum of one page about to be written. */
+    void update(int index, byte[] page) throws IOException {
+        update(new int[] { index }, new byte[][] { page });
+    }
+
+    /** @return the number of times the checksum file was forced to disk */
+    synchronized long getForceCount() {
+        return forces;
+    }
+
+    /** Closes the checksum file. It is opened again by the next update. */
+    synchronized void close() throws IOException {
+        if (raf != null) {
+            raf.close();
+            raf = null;
+        }
+    }
+
+    /** @return true if new DbFiles keep page checksums */
+    static boolean enabledByDefault() {
+        return Boolean.getBoolean(PROPERTY);
+    }
+}
@@ -0,0 +1,137 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PageScrubber reads every page of a HeapFile or BTreeFile straight from
+ * disk and checks it against its checksum, so that damaged pages of data
+ * that is seldom read are found before a query needs them. A scrub can run
+ * on the calling thread with {@link #scrub} or in the background with
+ * {@link #start}, on a daemon thread of low priority.
+ * <p>
+ * Pages are read without going through the buffer pool or taking locks. A
+ * page that fails its checksum is read again before it is reported, since
+ * it may have been read while it was being written. A page that cannot be
+ * read is reported with the pages that fail.
+ *
+ * @see PageChecksums
+ */
+public class PageScrubber implements Runnable {
+
+    private final DbFile file;
+    private final PageChecksums checksums;
+    private Thread thread;
+
+    private final AtomicLong pagesChecked = new AtomicLong();
+    private final AtomicLong pagesUnchecked = new AtomicLong();
+    private final List<Integer> corrupt = new ArrayList<Integer>();
+
+    /**
+     * Constructor.
+     *
+     * @param file the file to scrub, which must keep page checksums
+     * @throws IllegalArgumentException if the file keeps no checksums
+     */
+    public PageScrubber(DbFile file) {
+        PageChecksums c = null;
+        if (file instanceof HeapFile)
+            c = ((HeapFile) file).checksums();
+        else if (file instanceof BTreeFile)
+            c = ((BTreeFile) file).checksums();
+        if (c == null)
+            throw new IllegalArgumentException("file keeps no page checksums");
+        this.file = file;
+        this.checksums = c;
+    }
+
+    /** Starts scrubbing the file on a background thread. */
+    public synchronized void start() {
+        if (thread != null)
+            throw new IllegalStateException("scrub already started");
+        thread = new Thread(this, "simpledb-scrub");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /** Waits for a scrub started with {@link #start} to finish. */
+    public void await() throws InterruptedException {
+        Thread t;
+        synchronized (this) {
+            t = thread;
+        }
+        if (t != null)
+            t.join();
+    }
+
+    public void run() {
+        scrub();
+    }
+
+    /**
+     * Checks every page of the file.
+     *
+     * @return the positions of the pages that fail their checksums or
+     *   cannot be read: page numbers, with 0 the root pointer page of a
+     *   BTreeFile
+     */
+    public List<Integer> scrub() {
+        int n = file instanceof BTreeFile
+                ? ((BTreeFile) file).numPages() + 1
+                : ((HeapFile) file).numPages();
+        for (int i = 0; i < n; i++) {
+            PageChecksums.Result r = check(i);
+            if (r == PageChecksums.Result.CORRUPT)
+                r = check(i);
+            if (r == PageChecksums.Result.UNKNOWN) {
+                pagesUnchecked.incrementAndGet();
+                continue;
+            }
+            pagesChecked.incrementAndGet();
+            if (r == PageChecksums.Result.CORRUPT) {
+                Debug.log(1, "page %d of table %d fails its checksum", i, file.getId());
+                synchronized (corrupt) {
+                    corrupt.add(i);
+                }
+            }
+        }
+        return getCorruptPages();
+    }
+
+    private PageChecksums.Result check(int index) {
+        byte[] data;
+        try {
+            if (file instanceof BTreeFile) {
+                data = ((BTreeFile) file).readPageBytes(index);
+            } else {
+                data = HeapPage.createEmptyPageData();
+                ((HeapFile) file).readPageData(index, data);
+            }
+        } catch (IOException e) {
+            // for instance a compressed page that does not inflate
+            Debug.log(1, "cannot read page %d of table %d: %s", index, file.getId(), e);
+            return PageChecksums.Result.CORRUPT;
+        }
+        return checksums.verify(index, data);
+    }
+
+    /** @return the number of pages checked against a checksum */
+    public long getPagesChecked() {
+        return pagesChecked.get();
+    }
+
+    /** @return the number of pages that have no checksum */
+    public long getPagesUnchecked() {
+        return pagesUnchecked.get();
+    }
+
+    /** @return the positions of the pages found to fail their checksums so far */
+    public List<Integer> getCorruptPages() {
+        synchronized (corrupt) {
+            return new ArrayList<Integer>(corrupt);
+        }
+    }
+}
@@ -315,6 +315,8 @@ public class Parser {
             } catch (InstantiationException e) {
                 e.printStackTrace();
             }
+            if (QueryCompiler.isEnabled())
+                query.setPhysicalPlan(QueryCompiler.compile(physicalPlan));
         }
 
         return query;
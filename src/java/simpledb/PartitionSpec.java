@@ -0,0 +1,208 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * PartitionSpec describes one partition of a BufferPool: which pages belong
+ * to it, how many frames it is guaranteed and how many it may use at most,
+ * and which replacement policy it runs. Pages of a partition only ever
+ * evict each other, except that a partition holding more than its minimum
+ * may lose frames to another partition that needs them. Pages that match no
+ * partition go to a default partition that may use any frame.
+ * <p>
+ * A page matches a partition if it satisfies every kind of criterion the
+ * partition has, and any one value of each kind: the table id, the simple
+ * class name of the table's DbFile, and for B+ tree pages the page
+ * category. With no criteria at all a partition matches nothing.
+ * <p>
+ * Partitions of a new Database are read from the {@link #PROPERTY} system
+ * property, for example
+ * <pre>
+ * hot:class=BTreeFile,category=internal|root_ptr,min=64,max=64;cold:table=42,max=16,policy=fifo
+ * </pre>
+ * pins B+ tree internal pages into 64 frames of their own and confines
+ * table 42 to a 16 frame FIFO ring. Partitions are matched in order.
+ *
+ * @see BufferPool#BufferPool(int, List)
+ */
+public class PartitionSpec {
+
+    /** Name of the system property listing the partitions of a new Database. */
+    public static final String PROPERTY = "simpledb.bufferpool.partitions";
+
+    private final String name;
+    private final int minPages;
+    private final int maxPages;
+    private final String policy;
+    private final Set<Integer> tables = new HashSet<Integer>();
+    private final Set<String> fileClasses = new HashSet<String>();
+    private final Set<Integer> categories = new HashSet<Integer>();
+    /** Whether the DbFile of a table is of one of the classes; filled lazily. */
+    private final ConcurrentHashMap<Integer, Boolean> classOfTable = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     *
+     * @param name the name of the partition
+     * @param minPages the number of frames the partition never loses to others
+     * @param maxPages the most frames the partition may use
+     * @param policy the name of its replacement policy, as accepted by
+     *   {@link ReplacementPolicy#forName}
+     */
+    public PartitionSpec(String name, int minPages, int maxPages, String policy) {
+        if (minPages < 0 || maxPages < 1 || minPages > maxPages)
+            throw new IllegalArgumentException("Bad quota for partition " + name
+                    + ": min " + minPages + ", max " + maxPages);
+        this.name = name;
+        this.minPages = minPages;
+        this.maxPages = maxPages;
+        this.policy = policy;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMinPages() {
+        return minPages;
+    }
+
+    public int getMaxPages() {
+        return maxPages;
+    }
+
+    public String getPolicy() {
+        return policy;
+    }
+
+    /** Adds the pages of a table to this partition. @return this */
+    public PartitionSpec addTable(int tableId) {
+        tables.add(tableId);
+        return this;
+    }
+
+    /** Adds the pages of every table stored in a DbFile of the given simple class name. @return this */
+    public PartitionSpec addFileClass(String simpleName) {
+        fileClasses.add(simpleName);
+        return this;
+    }
+
+    /**
+     * Adds B+ tree pages of a category to this partition.
+     *
+     * @param category one of the BTreePageId categories
+     * @return this
+     */
+    public PartitionSpec addCategory(int category) {
+        categories.add(category);
+        return this;
+    }
+
+    /** @return true if the page belongs to this partition */
+    public boolean matches(PageId pid) {
+        if (tables.isEmpty() && fileClasses.isEmpty() && categories.isEmpty())
+            return false;
+        if (!tables.isEmpty() && !tables.contains(pid.getTableId()))
+            return false;
+        if (!categories.isEmpty() && !(pid instanceof BTreePageId
+                && categories.contains(((BTreePageId) pid).pgcateg())))
+            return false;
+        if (!fileClasses.isEmpty()) {
+            Boolean match = classOfTable.get(pid.getTableId());
+            if (match == null) {
+                DbFile f = Database.getCatalog().getDatabaseFile(pid.getTableId());
+                match = fileClasses.contains(f.getClass().getSimpleName());
+                classOfTable.put(pid.getTableId(), match);
+            }
+            if (!match)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Parses a list of partitions separated by semicolons. Each partition is
+     * <tt>name:key=value,...</tt> with the keys <tt>min</tt> (default 0),
+     * <tt>max</tt> (required), <tt>policy</tt> (default
+     * {@link ReplacementPolicy#DEFAULT_POLICY}), <tt>table</tt>,
+     * <tt>class</tt> and <tt>category</tt>; the last three take several
+     * values separated by <tt>|</tt>.
+     *
+     * @throws IllegalArgumentException if the list cannot be parsed
+     */
+    public static List<PartitionSpec> parseAll(String specs) {
+        List<PartitionSpec> result = new ArrayList<PartitionSpec>();
+        for (String spec : specs.split(";")) {
+            spec = spec.trim();
+            if (spec.length() == 0)
+                continue;
+            int colon = spec.indexOf(':');
+            if (colon <= 0)
+                throw new IllegalArgumentException("Partition without a name: " + spec);
+            String name = spec.substring(0, colon).trim();
+            int min = 0;
+            int max = -1;
+            String policy = ReplacementPolicy.DEFAULT_POLICY;
+            List<String[]> criteria = new ArrayList<String[]>();
+            for (String option : spec.substring(colon + 1).split(",")) {
+                String[] kv = option.split("=", 2);
+                if (kv.length != 2)
+                    throw new IllegalArgumentException("Bad option for partition " + name + ": " + option);
+                String key = kv[0].trim().toLowerCase();
+                String value = kv[1].trim();
+                try {
+                    if (key.equals("min"))
+                        min = Integer.parseInt(value);
+                    else if (key.equals("max"))
+                        max = Integer.parseInt(value);
+                    else if (key.equals("policy"))
+                        policy = value;
+                    else if (key.equals("table") || key.equals("class") || key.equals("category"))
+                        criteria.add(kv);
+                    else
+                        throw new IllegalArgumentException("Unknown option for partition " + name + ": " + key);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Bad number for partition " + name + ": " + option);
+                }
+            }
+            if (max < 0)
+                throw new IllegalArgumentException("Partition " + name + " needs a max");
+            PartitionSpec p = new PartitionSpec(name, min, max, policy);
+            for (String[] kv : criteria) {
+                String key = kv[0].trim().toLowerCase();
+                for (String value : kv[1].split("\\|")) {
+                    value = value.trim();
+                    if (key.equals("table"))
+                        p.addTable(Integer.parseInt(value));
+                    else if (key.equals("class"))
+                        p.addFileClass(value);
+                    else
+                        p.addCategory(parseCategory(value));
+                }
+            }
+            result.add(p);
+        }
+        return result;
+    }
+
+    private static int parseCategory(String category) {
+        String c = category.toLowerCase();
+        if (c.equals("root_ptr"))
+            return BTreePageId.ROOT_PTR;
+        if (c.equals("internal"))
+            return BTreePageId.INTERNAL;
+        if (c.equals("leaf"))
+            return BTreePageId.LEAF;
+        if (c.equals("header"))
+            return BTreePageId.HEADER;
+        throw new IllegalArgumentException("Unknown B+ tree page category " + category);
+    }
+
+    public String toString() {
+        return name + "[" + minPages + ".." + maxPages + ", " + policy + "]";
+    }
+}
@@ -0,0 +1,74 @@
+package simpledb;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * PaxFile is a HeapFile whose pages are {@link PaxPage}s, which store their
+ * tuples column by column. It is meant for wide tables whose queries read
+ * a few of the columns: a scan told which fields it reads, through
+ * {@link HeapFile#iterator(TransactionId, int[])}, fills its batches from
+ * the mini-pages of those only.
+ * {@link SeqScan} is told by {@link LogicalPlan}, so queries need no
+ * change. The catalog stores a table in a PaxFile when its schema is
+ * followed by <tt>columnar</tt>.
+ * <p>
+ * Pages hold as many tuples as HeapPages do, and inserts, deletes and the
+ * free space map work as for a HeapFile.
+ *
+ * @see Catalog#loadSchema
+ * @see #convert
+ */
+public class PaxFile extends HeapFile {
+
+    /**
+     * Constructs a PAX file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this file
+     * @param td the schema of the tuples stored in the file
+     */
+    public PaxFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    /**
+     * Writes a copy of a heap file with its pages stored column by column.
+     * Each tuple keeps its page and slot.
+     *
+     * @param source the heap file to copy
+     * @param f the file to write the pages to; it is replaced if it exists
+     * @return the copy, which is not added to the catalog
+     */
+    public static PaxFile convert(HeapFile source, File f) throws IOException {
+        if (source instanceof SlottedFile || source instanceof PaxFile)
+            throw new IllegalArgumentException(source.getFile() + " does not hold heap pages");
+        new File(f.getPath() + ".fsm").delete();
+        PageChecksums.discard(f);
+        TupleDesc td = source.getTupleDesc();
+        byte[] rows = HeapPage.createEmptyPageData();
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(f), 1 << 20);
+        try {
+            int n = source.numPages();
+            for (int pgNo = 0; pgNo < n; pgNo++) {
+                source.readPageData(pgNo, rows);
+                out.write(PaxPage.fromRows(rows, td));
+            }
+        } finally {
+            out.close();
+        }
+        return new PaxFile(f, td);
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public Page decodePage(PageId pid, byte[] data) {
+        try {
+            return new PaxPage((HeapPageId) pid, data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("PAX page " + pid.getPageNumber() + " cannot be parsed");
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package simpledb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * PaxPage is a page of a {@link PaxFile}, which holds the same tuples as a
+ * HeapPage but stores them column by column. The page starts with the same
+ * header bitmap of used slots, followed by one mini-page per field: the
+ * values of the field for every slot, in slot order. The mini-page of
+ * field i starts at header size + number of slots * the offset of field i
+ * within a tuple, so a page holds exactly as many tuples as a HeapPage.
+ * <p>
+ * A scan that reads a few fields of a wide table fills its batches with
+ * those fields one mini-page at a time and never touches the bytes of the
+ * others. Tuples read one at a time decode each field when it is read.
+ *
+ * @see PaxFile
+ */
+public class PaxPage extends HeapPage {
+
+    /** The bytes this page was read from. Never modified. */
+    private final byte[] data;
+    /** Where the mini-page of each field starts. */
+    private final int[] columns;
+
+    /**
+     * Create a PaxPage from the bytes of a page read from disk.
+     */
+    public PaxPage(HeapPageId id, byte[] data) throws IOException {
+        super(id, data);
+        this.data = data;
+        this.columns = columnOffsets(td, numSlots, header.length);
+    }
+
+    /** @return where the mini-page of each field of the schema starts */
+    private static int[] columnOffsets(TupleDesc td, int numSlots, int headerSize) {
+        int[] columns = new int[td.numFields()];
+        for (int i = 0; i < columns.length; i++)
+            columns[i] = headerSize + numSlots * td.getFieldOffset(i);
+        return columns;
+    }
+
+    /**
+     * Converts the bytes of a HeapPage to those of a PaxPage holding the
+     * same tuples in the same slots.
+     *
+     * @param rows the bytes of a HeapPage
+     * @param td the schema of the tuples on the page
+     * @return the bytes of the PaxPage
+     */
+    static byte[] fromRows(byte[] rows, TupleDesc td) {
+        int tupleSize = td.getSize();
+        int numSlots = (rows.length * 8) / (tupleSize * 8 + 1);
+        int headerSize = (numSlots + 7) / 8;
+        int[] columns = columnOffsets(td, numSlots, headerSize);
+        byte[] page = new byte[rows.length];
+        System.arraycopy(rows, 0, page, 0, headerSize);
+        for (int slot = 0; slot < numSlots; slot++) {
+            if ((rows[slot / 8] & (1 << (slot % 8))) != 0)
+                scatter(td, columns, rows, headerSize + slot * tupleSize, page, slot);
+        }
+        return page;
+    }
+
+    /** Copies a tuple stored as a row into the mini-pages of a slot. */
+    private static void scatter(TupleDesc td, int[] columns, byte[] row, int rowOffset, byte[] page, int slot) {
+        for (int i = 0; i < columns.length; i++) {
+            int len = td.getFieldType(i).getLen();
+            System.arraycopy(row, rowOffset + td.getFieldOffset(i), page, columns[i] + slot * len, len);
+        }
+    }
+
+    @Override
+    Tuple getTuple(int slotId) {
+        Tuple t = tuples.get(slotId);
+        if (t == null && isSlotUsed(slotId)) {
+            t = new Tuple(td, data, columns, slotId);
+            t.setRecordId(new RecordId(pid, slotId));
+            if (!tuples.compareAndSet(slotId, null, t))
+                t = tuples.get(slotId);
+        }
+        return t;
+    }
+
+    @Override
+    public byte[] getPageData() {
+        byte[] page = new byte[BufferPool.getPageSize()];
+        System.arraycopy(header, 0, page, 0, header.length);
+
+        // values of tuples never decoded are copied as they were read; the
+        // others may have changed and are serialized again
+        byte[] row = new byte[td.getSize()];
+        ByteArrayOutputStream baos = null;
+        DataOutputStream dos = null;
+        for (int slot = 0; slot < numSlots; slot++) {
+            if (!isSlotUsed(slot))
+                continue;
+            Tuple t = tuples.get(slot);
+            if (t == null) {
+                for (int i = 0; i < columns.length; i++) {
+                    int len = td.getFieldType(i).getLen();
+                    int offset = columns[i] + slot * len;
+                    System.arraycopy(data, offset, page, offset, len);
+                }
+                continue;
+            }
+            if (baos == null) {
+                baos = new ByteArrayOutputStream(row.length);
+                dos = new DataOutputStream(baos);
+            }
+            baos.reset();
+            for (int i = 0; i < columns.length; i++) {
+                try {
+                    t.getField(i).serialize(dos);
+                } catch (IOException e) {
+                    // this really shouldn't happen
+                    e.printStackTrace();
+                }
+            }
+            System.arraycopy(baos.toByteArray(), 0, row, 0, Math.min(row.length, baos.size()));
+            scatter(td, columns, row, 0, page, slot);
+        }
+        return page;
+    }
+
+    @Override
+    int fieldStart(int i) {
+        return columns[i];
+    }
+
+    @Override
+    int fieldStride(int i) {
+        return td.getFieldType(i).getLen();
+    }
+
+    @Override
+    HeapPage decode(HeapPageId id, byte[] data) throws IOException {
+        return new PaxPage(id, data);
+    }
+
+    /**
+     * Fills the batch a mini-page at a time: the used slots that go into
+     * the batch are picked first, then each field asked for is copied from
+     * its mini-page for all of them in one pass, so a scan never touches
+     * the mini-pages of the fields it does not read. Strings are not
+     * decoded; the batch gets fields that refer to the page.
+     */
+    @Override
+    public int fillBatch(TupleBatch batch, int slot, int[] fields) {
+        int[] slots = new int[TupleBatch.CAPACITY];
+        int[] rows = new int[TupleBatch.CAPACITY];
+        int n = 0;
+        int next = -1;
+        for (int s = nextUsedSlot(slot); s < numSlots; s = nextUsedSlot(s + 1)) {
+            if (batch.isFull()) {
+                next = s;
+                break;
+            }
+            Tuple t = tuples.get(s);
+            if (t != null && !t.readsFrom(data)) {
+                // changed since the page was read
+                batch.addTuple(t, fields);
+                continue;
+            }
+            slots[n] = s;
+            rows[n] = batch.addRow();
+            n++;
+        }
+        int count = fields == null ? td.numFields() : fields.length;
+        for (int j = 0; j < count; j++) {
+            int i = fields == null ? j : fields[j];
+            int start = columns[i];
+            int len = td.getFieldType(i).getLen();
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                int[] column = batch.intColumn(i);
+                for (int k = 0; k < n; k++)
+                    column[rows[k]] = Type.readInt(data, start + slots[k] * len);
+            } else {
+                StringField[] column = batch.stringColumn(i);
+                for (int k = 0; k < n; k++)
+                    column[rows[k]] = (StringField) Type.STRING_TYPE.parse(data, start + slots[k] * len);
+            }
+        }
+        return next;
+    }
+}
@@ -12,6 +12,8 @@ public class Predicate implements Serializable {
     private int field;
     private Field operand;
     private Op op;
+    /** This predicate compiled for its operand type and operator; built when first used. */
+    private transient PredicateCompiler.TupleTest compiled;
 
     /** Constants used for return codes in Field.compare */
     public enum Op implements Serializable {
@@ -104,9 +106,74 @@ public class Predicate implements Serializable {
      */
     public boolean filter(Tuple t) {
         // some code goes here
-        Field field = t.getField(this.getField());
-        field.compare(this.op, this.operand);
-        return field.compare(this.op, this.operand);
+        return compile().test(t);
+    }
+
+    /**
+     * @return an evaluator specialized for the operand type and operator of
+     *         this predicate, which returns what {@link #filter(Tuple)} does
+     */
+    PredicateCompiler.TupleTest compile() {
+        PredicateCompiler.TupleTest test = this.compiled;
+        if (test == null) {
+            // compiling twice in a race is harmless; the evaluators are equivalent
+            test = PredicateCompiler.compile(this);
+            this.compiled = test;
+        }
+        return test;
+    }
+
+    /**
+     * Applies the predicate to every row of a batch, leaving in the batch
+     * only the rows for which {@link #filter(Tuple)} would return true.
+     */
+    void filter(TupleBatch batch) {
+        int[] rows = batch.selection;
+        int n = batch.size();
+        int kept = 0;
+        if (this.operand instanceof IntField) {
+            // one loop per operator, so the comparison is not a switch per row
+            int[] values = batch.intColumn(this.field);
+            int v = ((IntField) this.operand).getValue();
+            switch (this.op) {
+            case EQUALS:
+            case LIKE:
+                for (int k = 0; k < n; k++)
+                    if (values[rows[k]] == v)
+                        rows[kept++] = rows[k];
+                break;
+            case NOT_EQUALS:
+                for (int k = 0; k < n; k++)
+                    if (values[rows[k]] != v)
+                        rows[kept++] = rows[k];
+                break;
+            case GREATER_THAN:
+                for (int k = 0; k < n; k++)
+                    if (values[rows[k]] > v)
+                        rows[kept++] = rows[k];
+                break;
+            case GREATER_THAN_OR_EQ:
+                for (int k = 0; k < n; k++)
+                    if (values[rows[k]] >= v)
+                        rows[kept++] = rows[k];
+                break;
+            case LESS_THAN:
+                for (int k = 0; k < n; k++)
+                    if (values[rows[k]] < v)
+                        rows[kept++] = rows[k];
+                break;
+            case LESS_THAN_OR_EQ:
+                for (int k = 0; k < n; k++)
+                    if (values[rows[k]] <= v)
+                        rows[kept++] = rows[k];
+                break;
+            }
+        } else {
+            for (int k = 0; k < n; k++)
+                if (batch.getField(this.field, rows[k]).compare(this.op, this.operand))
+                    rows[kept++] = rows[k];
+        }
+        batch.setSize(kept);
     }
 
     /**
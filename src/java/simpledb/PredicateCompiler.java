@@ -0,0 +1,170 @@
+package simpledb;
+
+/**
+ * PredicateCompiler turns Predicates and JoinPredicates into evaluators
+ * specialized for the type of the fields they compare and for their
+ * operator. Each evaluator is a lambda that reads the field with
+ * {@link Tuple#getInt} or {@link Tuple#getStringField} and compares it with a
+ * single comparison, so evaluating a predicate neither builds Fields nor
+ * switches on the operator, and the JIT sees one type and one comparison
+ * in the body of each evaluator.
+ *
+ * @see Predicate#filter(Tuple)
+ * @see JoinPredicate#filter
+ */
+class PredicateCompiler {
+
+    /** A compiled {@link Predicate}, or conjunction of Predicates. */
+    interface TupleTest {
+        /** @return true if t passes the test */
+        boolean test(Tuple t);
+    }
+
+    /** A compiled {@link JoinPredicate}. */
+    interface PairTest {
+        /** @return true if t1 and t2 satisfy the predicate */
+        boolean test(Tuple t1, Tuple t2);
+    }
+
+    /** A comparison of two ints by a {@link Predicate.Op}. */
+    interface IntComparison {
+        /** @return true if value op operand holds */
+        boolean test(int value, int operand);
+    }
+
+    private PredicateCompiler() {
+    }
+
+    /**
+     * @return an evaluator that returns what {@link Predicate#filter} would
+     *         for a tuple, without being told the operator or the type of
+     *         the operand again
+     */
+    static TupleTest compile(Predicate p) {
+        final int f = p.getField();
+        Field operand = p.getOperand();
+        if (operand instanceof IntField) {
+            final int v = ((IntField) operand).getValue();
+            switch (p.getOp()) {
+            case EQUALS:
+            case LIKE:
+                return t -> t.getInt(f) == v;
+            case NOT_EQUALS:
+                return t -> t.getInt(f) != v;
+            case GREATER_THAN:
+                return t -> t.getInt(f) > v;
+            case GREATER_THAN_OR_EQ:
+                return t -> t.getInt(f) >= v;
+            case LESS_THAN:
+                return t -> t.getInt(f) < v;
+            case LESS_THAN_OR_EQ:
+                return t -> t.getInt(f) <= v;
+            }
+        } else if (operand instanceof StringField) {
+            // string fields compare their bytes, without building Strings
+            final StringField v = (StringField) operand;
+            switch (p.getOp()) {
+            case EQUALS:
+                return t -> v.equals(t.getStringField(f));
+            case NOT_EQUALS:
+                return t -> !v.equals(t.getStringField(f));
+            case GREATER_THAN:
+                return t -> t.getStringField(f).compareTo(v) > 0;
+            case GREATER_THAN_OR_EQ:
+                return t -> t.getStringField(f).compareTo(v) >= 0;
+            case LESS_THAN:
+                return t -> t.getStringField(f).compareTo(v) < 0;
+            case LESS_THAN_OR_EQ:
+                return t -> t.getStringField(f).compareTo(v) <= 0;
+            case LIKE:
+                return t -> t.getStringField(f).contains(v);
+            }
+        }
+        // a Field of another kind is compared as it compares itself
+        final Predicate.Op op = p.getOp();
+        return t -> t.getField(f).compare(op, operand);
+    }
+
+    /**
+     * @return an evaluator that is true for the tuples all the given
+     *         evaluators are true for, trying them in order
+     */
+    static TupleTest and(final TupleTest[] tests) {
+        switch (tests.length) {
+        case 1:
+            return tests[0];
+        case 2: {
+            final TupleTest a = tests[0];
+            final TupleTest b = tests[1];
+            return t -> a.test(t) && b.test(t);
+        }
+        case 3: {
+            final TupleTest a = tests[0];
+            final TupleTest b = tests[1];
+            final TupleTest c = tests[2];
+            return t -> a.test(t) && b.test(t) && c.test(t);
+        }
+        default:
+            return t -> {
+                for (TupleTest test : tests)
+                    if (!test.test(t))
+                        return false;
+                return true;
+            };
+        }
+    }
+
+    /**
+     * @return the comparison of two ints by op, as {@link IntField#compare}
+     *         makes it
+     */
+    static IntComparison compare(Predicate.Op op) {
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return (a, b) -> a == b;
+        case NOT_EQUALS:
+            return (a, b) -> a != b;
+        case GREATER_THAN:
+            return (a, b) -> a > b;
+        case GREATER_THAN_OR_EQ:
+            return (a, b) -> a >= b;
+        case LESS_THAN:
+            return (a, b) -> a < b;
+        case LESS_THAN_OR_EQ:
+            return (a, b) -> a <= b;
+        }
+        throw new IllegalArgumentException("unknown operator " + op);
+    }
+
+    /**
+     * @param type the type of the fields compared
+     * @return an evaluator that returns what {@link JoinPredicate#filter}
+     *         would for two tuples
+     */
+    static PairTest compile(JoinPredicate p, Type type) {
+        final int f1 = p.getField1();
+        final int f2 = p.getField2();
+        final Predicate.Op op = p.getOperator();
+        if (type == Type.INT_TYPE) {
+            switch (op) {
+            case EQUALS:
+            case LIKE:
+                return (t1, t2) -> t1.getInt(f1) == t2.getInt(f2);
+            case NOT_EQUALS:
+                return (t1, t2) -> t1.getInt(f1) != t2.getInt(f2);
+            case GREATER_THAN:
+                return (t1, t2) -> t1.getInt(f1) > t2.getInt(f2);
+            case GREATER_THAN_OR_EQ:
+                return (t1, t2) -> t1.getInt(f1) >= t2.getInt(f2);
+            case LESS_THAN:
+                return (t1, t2) -> t1.getInt(f1) < t2.getInt(f2);
+            case LESS_THAN_OR_EQ:
+                return (t1, t2) -> t1.getInt(f1) <= t2.getInt(f2);
+            }
+        } else if (type == Type.STRING_TYPE && op == Predicate.Op.EQUALS) {
+            return (t1, t2) -> t1.getStringField(f1).equals(t2.getStringField(f2));
+        }
+        return (t1, t2) -> t1.getField(f1).compare(op, t2.getField(f2));
+    }
+}
@@ -5,12 +5,15 @@ import java.util.*;
 /**
  * Project is an operator that implements a relational projection.
  */
-public class Project extends Operator {
+public class Project extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
     private OpIterator child;
     private TupleDesc td;
     private ArrayList<Integer> outFieldIds;
+    private transient BatchIterator batches;
+    private transient TupleBatch view;
+    private transient int[] viewFields;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -45,6 +48,11 @@ public class Project extends Operator {
         return td;
     }
 
+    /** @return the field of the child projected as each field */
+    List<Integer> getOutFieldIds() {
+        return outFieldIds;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
@@ -73,13 +81,33 @@ public class Project extends Operator {
             Tuple newTuple = new Tuple(td);
             newTuple.setRecordId(t.getRecordId());
             for (int i = 0; i < td.numFields(); i++) {
-                newTuple.setField(i, t.getField(outFieldIds.get(i)));
+                newTuple.setFieldFrom(i, t, outFieldIds.get(i));
             }
             return newTuple;
         }
         return null;
     }
 
+    /**
+     * Returns the next batch of the child with only the projected fields.
+     * The values are not copied: the batch returned shows the columns of
+     * the child's batch.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batches == null) {
+            batches = BatchingIterator.of(child);
+            view = TupleBatch.view(td);
+            viewFields = new int[outFieldIds.size()];
+            for (int i = 0; i < viewFields.length; i++)
+                viewFields[i] = outFieldIds.get(i);
+        }
+        TupleBatch batch = batches.nextBatch();
+        if (batch == null)
+            return null;
+        view.project(batch, viewFields);
+        return view;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[] { this.child };
@@ -90,6 +118,7 @@ public class Project extends Operator {
 	if (this.child!=children[0])
 	{
 	    this.child = children[0];
+	    this.batches = null;
 	}
     }
     
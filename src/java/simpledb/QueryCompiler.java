@@ -0,0 +1,445 @@
+package simpledb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.*;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * QueryCompiler replaces the pipelines of a physical plan with
+ * {@link CompiledPipeline}s, each running one class generated for it.
+ * <p>
+ * A pipeline is a SeqScan followed by any number of Filters, Projects and
+ * HashEquiJoins on its probe side, ending in an Aggregate or in the last
+ * of those operators. Every tuple along it must have only int fields, each
+ * Filter must compare with an int, and each Aggregate must compute MIN,
+ * MAX, SUM, AVG or COUNT. The generated class is Java source compiled in
+ * memory by the compiler of the JDK; the constants of the plan are passed
+ * to it when it is run, so plans of one shape share one class.
+ * <p>
+ * Parts of the plan that are not pipelines stay interpreted, and
+ * pipelines below them, including the build sides of joins, are compiled
+ * on their own. When the Java compiler is missing, as on a JRE, or fails,
+ * the plan is returned as it is.
+ * <p>
+ * Parser compiles the plans of queries when the {@link #PROPERTY} system
+ * property is true.
+ */
+public class QueryCompiler {
+
+    /** The system property that turns compilation of query plans on. */
+    public static final String PROPERTY = "simpledb.compile";
+
+    /** The generated classes, by their source with the class name left out. */
+    private static final HashMap<String, Class<? extends CompiledPipeline.Code>> classes =
+            new HashMap<String, Class<? extends CompiledPipeline.Code>>();
+    private static int classCount;
+
+    private QueryCompiler() {
+    }
+
+    /** @return true if Parser should compile the plans of queries */
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(PROPERTY);
+    }
+
+    /** @return true if pipelines can be compiled in this JVM */
+    public static boolean isAvailable() {
+        return ToolProvider.getSystemJavaCompiler() != null;
+    }
+
+    /**
+     * Compiles the pipelines of a plan that is not open yet. The plan may be
+     * changed in place.
+     *
+     * @return the plan to run in place of plan, which returns the same
+     *         tuples; plan itself if nothing could be compiled
+     */
+    public static OpIterator compile(OpIterator plan) {
+        if (!isAvailable())
+            return plan;
+        return compileTree(plan);
+    }
+
+    private static OpIterator compileTree(OpIterator plan) {
+        OpIterator compiled = compilePipeline(plan);
+        if (compiled != null)
+            return compiled;
+        if (plan instanceof Operator) {
+            Operator op = (Operator) plan;
+            OpIterator[] children = op.getChildren();
+            boolean changed = false;
+            for (int i = 0; i < children.length; i++) {
+                OpIterator child = compileTree(children[i]);
+                changed |= child != children[i];
+                children[i] = child;
+            }
+            if (changed)
+                op.setChildren(children);
+        }
+        return plan;
+    }
+
+    /** @return true if every field of td is an int */
+    private static boolean allInts(TupleDesc td) {
+        for (int i = 0; i < td.numFields(); i++)
+            if (td.getFieldType(i) != Type.INT_TYPE)
+                return false;
+        return true;
+    }
+
+    /** @return a CompiledPipeline for plan, or null if it is not a pipeline */
+    private static CompiledPipeline compilePipeline(OpIterator plan) {
+        // a compiled pipeline is not compiled again; compileTree goes on
+        // with its scan and build sides
+        if (plan instanceof SeqScan || plan instanceof CompiledPipeline || !allInts(plan.getTupleDesc()))
+            return null;
+        Generator gen = new Generator();
+        if (!gen.generate(plan))
+            return null;
+        Class<? extends CompiledPipeline.Code> code;
+        try {
+            code = define(gen.source());
+        } catch (Exception e) {
+            Debug.log("not compiling pipeline: %s", e);
+            return null;
+        }
+        int[] buildKeys = new int[gen.buildKeys.size()];
+        OpIterator[] builds = new OpIterator[buildKeys.length];
+        for (int i = 0; i < buildKeys.length; i++) {
+            builds[i] = compileTree(gen.builds.get(i));
+            buildKeys[i] = gen.buildKeys.get(i);
+        }
+        int[] used = new int[gen.used.size()];
+        int n = 0;
+        for (int i : gen.used)
+            used[n++] = i;
+        int[] constants = new int[gen.constants.size()];
+        for (int i = 0; i < constants.length; i++)
+            constants[i] = gen.constants.get(i);
+        return new CompiledPipeline(plan, gen.scan, used, builds, buildKeys, code, constants);
+    }
+
+    /** A value of a tuple in the generated code. */
+    private static class Column {
+        /** The Java expression of the value. */
+        String expr;
+        /** The field of the scan the value is read from, or -1. */
+        final int field;
+
+        Column(String expr, int field) {
+            this.expr = expr;
+            this.field = field;
+        }
+    }
+
+    /**
+     * Writes the source of the class of a pipeline: its loop over the rows
+     * of a batch is written from the scan up, each operator adding its
+     * statements inside those of the operator below it.
+     */
+    private static class Generator {
+        SeqScan scan;
+        final TreeSet<Integer> used = new TreeSet<Integer>();
+        final ArrayList<Integer> constants = new ArrayList<Integer>();
+        final ArrayList<OpIterator> builds = new ArrayList<OpIterator>();
+        final ArrayList<Integer> buildKeys = new ArrayList<Integer>();
+        final StringBuilder fields = new StringBuilder();
+        final StringBuilder before = new StringBuilder();
+        final StringBuilder loop = new StringBuilder();
+        final StringBuilder after = new StringBuilder();
+        final StringBuilder finish = new StringBuilder();
+        private int depth;
+        private int vars;
+
+        private void line(String format, Object... args) {
+            for (int i = 0; i < depth + 3; i++)
+                loop.append("    ");
+            loop.append(String.format(format, args)).append('\n');
+        }
+
+        /** @return the name of a local holding a column, declaring it if needed */
+        private String load(Column c) {
+            if (c.field >= 0)
+                used.add(c.field);
+            if (!c.expr.matches("v\\d+")) {
+                String v = "v" + vars++;
+                line("int %s = %s;", v, c.expr);
+                c.expr = v;
+            }
+            return c.expr;
+        }
+
+        private String constant(int value) {
+            constants.add(value);
+            return "k" + (constants.size() - 1);
+        }
+
+        /**
+         * Writes the code of a pipeline ending in plan.
+         *
+         * @return false if plan is not a pipeline
+         */
+        boolean generate(OpIterator plan) {
+            if (plan instanceof Aggregate) {
+                Aggregate agg = (Aggregate) plan;
+                OpIterator child = agg.getChildren()[0];
+                Column[] cols = chain(child);
+                if (cols == null)
+                    return false;
+                return aggregate(agg, cols);
+            }
+            Column[] cols = chain(plan);
+            if (cols == null)
+                return false;
+            StringBuilder row = new StringBuilder();
+            for (Column c : cols)
+                row.append(row.length() == 0 ? "" : ", ").append(load(c));
+            line("emit(new int[] { %s });", row);
+            return true;
+        }
+
+        /**
+         * Writes the code of the operators from the scan up to plan.
+         *
+         * @return the values of the tuples of plan, or null if it is not
+         *         part of a pipeline
+         */
+        private Column[] chain(OpIterator plan) {
+            if (!allInts(plan.getTupleDesc()))
+                return null;
+            if (plan instanceof SeqScan) {
+                scan = (SeqScan) plan;
+                Column[] cols = new Column[plan.getTupleDesc().numFields()];
+                for (int i = 0; i < cols.length; i++)
+                    cols[i] = new Column("c" + i + "[row]", i);
+                return cols;
+            }
+            if (plan instanceof Filter) {
+                Predicate p = ((Filter) plan).getPredicate();
+                if (!(p.getOperand() instanceof IntField))
+                    return null;
+                Column[] cols = chain(((Filter) plan).getChildren()[0]);
+                if (cols == null)
+                    return null;
+                String op = p.getOp() == Predicate.Op.LIKE || p.getOp() == Predicate.Op.EQUALS
+                        ? "==" : p.getOp().toString().replace("<>", "!=");
+                String v = load(cols[p.getField()]);
+                line("if (!(%s %s %s)) continue;", v, op, constant(((IntField) p.getOperand()).getValue()));
+                return cols;
+            }
+            if (plan instanceof Project) {
+                Column[] cols = chain(((Project) plan).getChildren()[0]);
+                if (cols == null)
+                    return null;
+                List<Integer> out = ((Project) plan).getOutFieldIds();
+                Column[] projected = new Column[out.size()];
+                for (int i = 0; i < projected.length; i++)
+                    projected[i] = cols[out.get(i)];
+                return projected;
+            }
+            if (plan instanceof HashEquiJoin) {
+                HashEquiJoin join = (HashEquiJoin) plan;
+                JoinPredicate p = join.getJoinPredicate();
+                OpIterator[] children = join.getChildren();
+                if (p.getOperator() != Predicate.Op.EQUALS)
+                    return null;
+                Column[] probe = chain(children[1]);
+                if (probe == null)
+                    return null;
+                int j = builds.size();
+                builds.add(children[0]);
+                buildKeys.add(p.getField1());
+                fields.append(String.format("    private final simpledb.CompiledPipeline.JoinTable j%d;%n", j));
+                String key = load(probe[p.getField2()]);
+                line("int[][] m%d = j%d.get(%s);", j, j, key);
+                line("if (m%d == null) continue;", j);
+                line("for (int[] r%d : m%d) {", j, j);
+                depth++;
+                int n = children[0].getTupleDesc().numFields();
+                Column[] cols = new Column[n + probe.length];
+                for (int i = 0; i < n; i++)
+                    cols[i] = new Column("r" + j + "[" + i + "]", -1);
+                System.arraycopy(probe, 0, cols, n, probe.length);
+                return cols;
+            }
+            return null;
+        }
+
+        private boolean aggregate(Aggregate agg, Column[] cols) {
+            Aggregator.Op op = agg.aggregateOp();
+            String result;
+            switch (op) {
+            case MIN:
+                result = "min";
+                break;
+            case MAX:
+                result = "max";
+                break;
+            case SUM:
+                result = "sum";
+                break;
+            case COUNT:
+                result = "count";
+                break;
+            case AVG:
+                result = "avg";
+                break;
+            default:
+                return false;
+            }
+            String value = load(cols[agg.aggregateField()]);
+            if (agg.groupField() == Aggregator.NO_GROUPING) {
+                // the aggregates are kept in locals while a batch is read
+                fields.append("    private int count, sum, min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;\n");
+                before.append("        int count = this.count, sum = this.sum, min = this.min, max = this.max;\n");
+                line("count++;");
+                line("sum += %s;", value);
+                line("if (%s < min) min = %s;", value, value);
+                line("if (%s > max) max = %s;", value, value);
+                after.append("        this.count = count; this.sum = sum; this.min = min; this.max = max;\n");
+                finish.append("        if (count > 0)\n");
+                finish.append(String.format("            emit(new int[] { %s });%n",
+                        result.equals("avg") ? "sum / count" : result));
+            } else {
+                String key = load(cols[agg.groupField()]);
+                fields.append("    private final simpledb.CompiledPipeline.GroupTable groups = new simpledb.CompiledPipeline.GroupTable();\n");
+                line("groups.add(%s, %s);", key, value);
+                finish.append("        for (int g = 0; g < groups.size(); g++)\n");
+                finish.append(String.format("            emit(new int[] { groups.key(g), %s });%n",
+                        result.equals("avg") ? "groups.sum(g) / groups.count(g)" : "groups." + result + "(g)"));
+            }
+            return true;
+        }
+
+        /** @return the source of the class, named NAME */
+        String source() {
+            StringBuilder s = new StringBuilder();
+            s.append("package simpledb.generated;\n\n");
+            s.append("public final class NAME extends simpledb.CompiledPipeline.Code {\n");
+            for (int i = 0; i < constants.size(); i++)
+                s.append(String.format("    private final int k%d;%n", i));
+            s.append(fields);
+            s.append("\n    public NAME(int[] k, simpledb.CompiledPipeline.JoinTable[] j) {\n");
+            for (int i = 0; i < constants.size(); i++)
+                s.append(String.format("        k%d = k[%d];%n", i, i));
+            for (int i = 0; i < builds.size(); i++)
+                s.append(String.format("        j%d = j[%d];%n", i, i));
+            s.append("    }\n\n");
+            s.append("    public void consume(simpledb.TupleBatch b) {\n");
+            for (int i : used)
+                s.append(String.format("        int[] c%d = b.intColumn(%d);%n", i, i));
+            s.append(before);
+            s.append("        int n = b.size();\n");
+            s.append("        for (int p = 0; p < n; p++) {\n");
+            s.append("            int row = b.row(p);\n");
+            s.append(loop);
+            for (int i = depth; i > 0; i--) {
+                for (int d = 0; d < i + 2; d++)
+                    s.append("    ");
+                s.append("}\n");
+            }
+            s.append("        }\n");
+            s.append(after);
+            s.append("    }\n");
+            if (finish.length() > 0) {
+                s.append("\n    public void finish() {\n");
+                s.append(finish);
+                s.append("    }\n");
+            }
+            s.append("}\n");
+            return s.toString();
+        }
+    }
+
+    /**
+     * @return the class compiled from source, whose class name is NAME,
+     *         reusing the class compiled from the same source before
+     */
+    private static synchronized Class<? extends CompiledPipeline.Code> define(String source) throws Exception {
+        Class<? extends CompiledPipeline.Code> c = classes.get(source);
+        if (c == null) {
+            String name = "Pipeline" + classCount++;
+            c = javac("simpledb.generated." + name, source.replace("NAME", name))
+                    .asSubclass(CompiledPipeline.Code.class);
+            classes.put(source, c);
+        }
+        return c;
+    }
+
+    /** Compiles the source of one class in memory and loads it. */
+    private static Class<?> javac(final String className, final String source) throws Exception {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null)
+            throw new IllegalStateException("no Java compiler");
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JavaFileObject input = new SimpleJavaFileObject(
+                URI.create("string:///" + className.replace('.', '/') + ".java"), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+        StandardJavaFileManager standard = compiler.getStandardFileManager(null, null, null);
+        JavaFileManager files = new ForwardingJavaFileManager<StandardJavaFileManager>(standard) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, String name,
+                    JavaFileObject.Kind kind, FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("bytes:///" + name.replace('.', '/') + ".class"), kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        return bytes;
+                    }
+                };
+            }
+        };
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+        List<String> options = Arrays.asList("-classpath", classPath(), "-proc:none", "-g:none");
+        boolean ok = compiler.getTask(null, files, diagnostics, options, null, Collections.singletonList(input)).call();
+        try {
+            files.close();
+        } catch (IOException e) {
+        }
+        if (!ok) {
+            StringBuilder sb = new StringBuilder("cannot compile " + className);
+            for (Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics())
+                sb.append('\n').append(d.getMessage(null));
+            throw new IllegalStateException(sb.toString());
+        }
+        final byte[] code = bytes.toByteArray();
+        // a loader per class lets the class be collected with its loader
+        ClassLoader loader = new ClassLoader(QueryCompiler.class.getClassLoader()) {
+            @Override
+            protected Class<?> findClass(String name) throws ClassNotFoundException {
+                if (!name.equals(className))
+                    throw new ClassNotFoundException(name);
+                return defineClass(name, code, 0, code.length);
+            }
+        };
+        return loader.loadClass(className);
+    }
+
+    /** @return the class path the generated classes are compiled against */
+    private static String classPath() {
+        String path = System.getProperty("java.class.path");
+        try {
+            File simpledb = new File(QueryCompiler.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            return simpledb.getPath() + File.pathSeparator + path;
+        } catch (Exception e) {
+            return path;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ReadAhead prefetches heap file pages for sequential scans. The BufferPool
+ * reports every page request to it; once a table has been read in page
+ * order for a couple of pages in a row (or a scan has announced that it is
+ * going to read the table in order) the next pages, up to the configured
+ * depth, are read into the pool on background threads, so that the disk
+ * reads of a scan overlap with the processing of the pages before them.
+ * <p>
+ * The depth is taken from the {@link #PROPERTY} system property when the
+ * BufferPool is created and can be changed with {@link #setDepth}. A depth
+ * of 0, the default, turns read-ahead off. No more than a quarter of the
+ * pool partition holding the table is ever prefetched ahead of a scan, so
+ * that prefetched pages are not evicted again before the scan gets to them.
+ * <p>
+ * Effectiveness is reported by four counters: pages requested, pages
+ * actually read (requests for resident pages are dropped), prefetched pages
+ * that were later used and prefetched pages evicted without being used.
+ * A prefetched page counts as a miss of the pool when it is read, and its
+ * first use does not count again as a hit, so a scan sees the same hit and
+ * miss counts with or without read-ahead.
+ *
+ * @see BufferPool#getReadAhead()
+ */
+public class ReadAhead {
+
+    /** Name of the system property holding the read-ahead depth of a new Database. */
+    public static final String PROPERTY = "simpledb.bufferpool.readahead";
+
+    /** Number of consecutive page requests that make a table count as scanned in order. */
+    static final int TRIGGER = 2;
+
+    /** Number of background threads reading pages. */
+    private static final int IO_THREADS = 2;
+
+    /** The sequential access state of one table. */
+    private static final class Stream {
+        int last = -1;
+        int run = 0;
+        /** The highest page number prefetched so far. */
+        int issued = -1;
+    }
+
+    private final BufferPool bufferPool;
+    private volatile int depth;
+    private final ConcurrentHashMap<Integer, Stream> streams = new ConcurrentHashMap<>();
+    private ThreadPoolExecutor executor;
+    /** Set once the pool is closed. */
+    private boolean stopped;
+
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicLong read = new AtomicLong();
+    private final AtomicLong finished = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param bufferPool the pool pages are prefetched into
+     * @param depth the number of pages to read ahead of a scan
+     */
+    ReadAhead(BufferPool bufferPool, int depth) {
+        this.bufferPool = bufferPool;
+        setDepth(depth);
+    }
+
+    /** @return the number of pages read ahead of a scan; 0 if read-ahead is off */
+    public int getDepth() {
+        return depth;
+    }
+
+    /** Sets the number of pages read ahead of a scan; 0 turns read-ahead off. */
+    public void setDepth(int depth) {
+        if (depth < 0)
+            throw new IllegalArgumentException("Read-ahead depth must not be negative");
+        this.depth = depth;
+    }
+
+    /** @return the number of pages handed to the background threads */
+    public long getRequestedCount() {
+        return requested.get();
+    }
+
+    /** @return the number of prefetched pages that had to be read from disk */
+    public long getReadCount() {
+        return read.get();
+    }
+
+    /** @return the number of requested pages the background threads have not got to yet */
+    public long getPendingCount() {
+        return requested.get() - finished.get();
+    }
+
+    /** @return the number of prefetched pages later requested through getPage */
+    public long getUsedCount() {
+        return bufferPool.prefetchUsed();
+    }
+
+    /** @return the number of prefetched pages evicted before anyone asked for them */
+    public long getWastedCount() {
+        return bufferPool.prefetchWasted();
+    }
+
+    /** Resets the counters to zero. */
+    public void resetStats() {
+        requested.addAndGet(-finished.getAndSet(0));
+        read.set(0);
+        bufferPool.resetPrefetchStats();
+    }
+
+    /**
+     * Announces that a table is about to be read from its first page on, so
+     * read-ahead can start with the first page instead of waiting to detect
+     * the pattern.
+     */
+    public void hintSequential(int tableId) {
+        if (depth == 0)
+            return;
+        Stream s = stream(tableId);
+        synchronized (s) {
+            s.last = -1;
+            s.run = TRIGGER - 1;
+            s.issued = -1;
+        }
+    }
+
+    private Stream stream(int tableId) {
+        Stream s = streams.get(tableId);
+        if (s == null) {
+            Stream created = new Stream();
+            s = streams.putIfAbsent(tableId, created);
+            if (s == null)
+                s = created;
+        }
+        return s;
+    }
+
+    /**
+     * Records a page request and prefetches the following pages if the
+     * table is being read in order.
+     */
+    void accessed(PageId pid) {
+        if (depth == 0 || !(pid instanceof HeapPageId))
+            return;
+        int d = Math.min(depth, bufferPool.partition(pid).capacity() / 4);
+        if (d == 0)
+            return;
+        int pgNo = pid.getPageNumber();
+        int from, to;
+        Stream s = stream(pid.getTableId());
+        synchronized (s) {
+            if (pgNo == s.last + 1) {
+                s.run++;
+            } else if (pgNo != s.last) {
+                s.run = 1;
+                s.issued = pgNo;
+            }
+            s.last = pgNo;
+            if (s.run < TRIGGER)
+                return;
+            from = Math.max(s.issued, pgNo) + 1;
+            to = pgNo + d;
+            // top the window up in batches rather than one page at a time
+            if (to - from + 1 < (d + 1) / 2)
+                return;
+            s.issued = to;
+        }
+        DbFile f = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        if (!(f instanceof HeapFile))
+            return;
+        to = Math.min(to, ((HeapFile) f).numPages() - 1);
+        for (int n = from; n <= to; n++)
+            submit(new HeapPageId(pid.getTableId(), n));
+    }
+
+    private void submit(final PageId pid) {
+        if (bufferPool.partition(pid).containsKey(pid))
+            return;
+        ThreadPoolExecutor e = executor();
+        if (e == null)
+            return;
+        requested.incrementAndGet();
+        e.execute(new Runnable() {
+            public void run() {
+                try {
+                    if (bufferPool.prefetchPage(pid))
+                        read.incrementAndGet();
+                } catch (Exception e) {
+                    // a failed prefetch is harmless; the scan reads the page itself
+                    Debug.log(1, "read-ahead of %s failed: %s", pid, e);
+                } finally {
+                    finished.incrementAndGet();
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs a read on the read-ahead threads, for a scan that reads ahead
+     * into a {@link ScanRing} rather than into the pool. It is not counted
+     * as a prefetch.
+     *
+     * @return the outcome of the read
+     */
+    <T> Future<T> submit(Callable<T> read) {
+        ThreadPoolExecutor e = executor();
+        if (e == null)
+            throw new RejectedExecutionException("the pool is closed");
+        return e.submit(read);
+    }
+
+    /**
+     * Stops read-ahead for good: prefetches not started yet are dropped, so
+     * none is installed in the pool once it is closed, and this waits for
+     * those under way. Reads a scan is waiting for are cancelled, and the
+     * scan reads the page itself.
+     */
+    void stop() {
+        ThreadPoolExecutor e;
+        synchronized (this) {
+            stopped = true;
+            e = executor;
+        }
+        if (e == null)
+            return;
+        e.shutdown();
+        ArrayList<Runnable> dropped = new ArrayList<Runnable>();
+        e.getQueue().drainTo(dropped);
+        for (Runnable r : dropped) {
+            if (r instanceof Future)
+                ((Future<?>) r).cancel(false);
+            else
+                finished.incrementAndGet();
+        }
+        try {
+            e.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** @return the executor of the read-ahead threads, or null once read-ahead is stopped */
+    private synchronized ThreadPoolExecutor executor() {
+        if (stopped)
+            return null;
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(IO_THREADS, IO_THREADS, 5, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "simpledb-readahead");
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+}
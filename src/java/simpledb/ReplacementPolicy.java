@@ -0,0 +1,107 @@
+package simpledb;
+
+/**
+ * ReplacementPolicy decides which resident page the BufferPool gives up when
+ * it needs room for a new one. Pages are identified by the number of the
+ * buffer pool frame holding them, between 0 and the capacity the policy was
+ * created with. The BufferPool reports every hit, every page it loads and
+ * every page it drops; the policy keeps whatever bookkeeping it needs to
+ * answer {@link #chooseVictim()}.
+ * <p>
+ * Implementations are not thread safe; the BufferPool serializes all calls
+ * into a policy.
+ *
+ * @see BufferPool
+ */
+public interface ReplacementPolicy {
+
+    /** Name of the system property used to pick the policy of a new Database. */
+    public static final String PROPERTY = "simpledb.bufferpool.policy";
+
+    /** Policy used when the system property is not set. */
+    public static final String DEFAULT_POLICY = "lru-2";
+
+    /** Returned by {@link #chooseVictim()} when no page is resident. */
+    public static final int NO_FRAME = FrameList.NIL;
+
+    /**
+     * Called when a resident page is requested again.
+     *
+     * @param frame the frame holding the page that was hit
+     */
+    public void pageHit(int frame);
+
+    /**
+     * Called when a page has been read from disk into a free frame.
+     *
+     * @param frame the frame the page was loaded into
+     * @param pid the page that was loaded
+     */
+    public void pageLoaded(int frame, PageId pid);
+
+    /**
+     * Called when a page has been read ahead into a free frame, before it
+     * was requested. The page is tracked as a loaded one, but the read is
+     * not counted as a miss, and the first request for the page is not a
+     * hit; read-ahead keeps its own counts of those.
+     *
+     * @param frame the frame the page was loaded into
+     * @param pid the page that was loaded
+     * @see ReadAhead
+     */
+    public void pagePrefetched(int frame, PageId pid);
+
+    /**
+     * Called when a page leaves the buffer pool, whether it was chosen by
+     * this policy or discarded by somebody else. The frame is free afterwards.
+     *
+     * @param frame the frame that held the page
+     * @param pid the page that is no longer resident
+     */
+    public void pageRemoved(int frame, PageId pid);
+
+    /**
+     * Picks the frame whose page should be evicted next. The frame stays
+     * tracked until {@link #pageRemoved(int, PageId)} is called for it.
+     *
+     * @return the frame to evict, or {@link #NO_FRAME} if no page is resident
+     */
+    public int chooseVictim();
+
+    /** @return the number of requests served from the buffer pool */
+    public long getHits();
+
+    /** @return the number of requests that had to read the page from disk */
+    public long getMisses();
+
+    /** Resets the hit and miss counters to zero. */
+    public void resetStats();
+
+    /**
+     * Creates a policy from its name, as given in the
+     * {@link #PROPERTY simpledb.bufferpool.policy} system property.
+     * Recognized names are <tt>fifo</tt>, <tt>lru</tt>, <tt>lru-k</tt>
+     * (e.g. <tt>lru-2</tt>) and <tt>2q</tt>.
+     *
+     * @param name the name of the policy
+     * @param capacity the number of frames of the pool the policy serves
+     * @throws IllegalArgumentException if the name is not recognized
+     */
+    public static ReplacementPolicy forName(String name, int capacity) {
+        String n = name.trim().toLowerCase();
+        if (n.equals("fifo"))
+            return new FifoPolicy(capacity);
+        if (n.equals("lru"))
+            return new LruKPolicy(1, capacity);
+        if (n.startsWith("lru-")) {
+            try {
+                return new LruKPolicy(Integer.parseInt(n.substring(4)), capacity);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Unknown replacement policy " + name);
+            }
+        }
+        if (n.equals("2q"))
+            return new TwoQueuePolicy(capacity);
+        throw new IllegalArgumentException("Unknown replacement policy " + name);
+    }
+}
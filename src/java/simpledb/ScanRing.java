@@ -0,0 +1,250 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * ScanRing is the access strategy of a sequential scan over a heap file too
+ * large to be cached. Instead of going through the BufferPool, where every
+ * page of the scan would evict a page someone else may still need, the scan
+ * reads the pages it does not find in the pool into a small ring of frames
+ * of its own and recycles them in turn, so the pool keeps its contents no
+ * matter how large the table is.
+ * <p>
+ * The scan locks every page through the BufferPool, as
+ * {@link BufferPool#getPage} does, before it looks at it. Pages that are
+ * resident in the pool are taken from the pool, so a scan sees the changes
+ * of pages that are dirty there. The pool is looked at again once a page
+ * has been read into the ring, and a page that was read into the pool in
+ * the meantime is taken from there instead, since it may have been changed
+ * since it was read.
+ * <p>
+ * With read-ahead on, the ring reads up to the read-ahead depth of pages
+ * ahead of the scan into its free frames on the read-ahead threads, at most
+ * half the ring.
+ * <p>
+ * Tuples decode their fields from the bytes of their page, so a frame is
+ * only recycled once the scan is past its page and has released it: the
+ * tuples the page handed out are then given copies of their values, and
+ * the page is not used again. A tuple read from a ring is thus good for as
+ * long as it is kept, but a field taken from it is only good until the
+ * scan has moved a ring's worth of pages on; operators that keep fields
+ * copy them. A page read in a batch stays in its frame until
+ * {@link #release} is called for the next batch, and when every frame is
+ * taken the page gets a buffer of its own instead.
+ *
+ * @see BufferPool#scanRing
+ */
+class ScanRing {
+
+    /** Number of frames in a ring. */
+    static final int SIZE = 32;
+
+    /** A buffer of the ring and the page read into it. */
+    private static final class Frame {
+        final byte[] data = HeapPage.createEmptyPageData();
+        /** The number of the page in data, or -1 if the frame is free. */
+        int pgNo = -1;
+        /** The read of the page into data, or null once it is known to be done. */
+        Future<?> read;
+        /** The page decoded from data and handed out, or null. */
+        TuplePage page;
+        /** True while a batch may still refer to the page. */
+        boolean pinned;
+    }
+
+    private final BufferPool bufferPool;
+    private final HeapFile file;
+    private final int numPages;
+    private final Frame[] frames = new Frame[SIZE];
+    /** The number of the page last handed out; frames of earlier pages may be recycled. */
+    private int current = -1;
+    /** The frame free looks at first. */
+    private int next = 0;
+    private boolean readingAhead = true;
+
+    ScanRing(BufferPool bufferPool, HeapFile file, int numPages) {
+        this.bufferPool = bufferPool;
+        this.file = file;
+        this.numPages = numPages;
+    }
+
+    /**
+     * Retrieves a page of the file on behalf of a transaction, from the
+     * pool if it is resident there and through the ring otherwise.
+     */
+    Page getPage(TransactionId tid, PageId pid) throws TransactionAbortedException, DbException {
+        bufferPool.lockPage(tid, pid, Permissions.READ_ONLY);
+        int pgNo = pid.getPageNumber();
+        current = pgNo;
+        PageBufferPool pool = bufferPool.partition(pid);
+        Page page = pool.get(pid);
+        if (page == null) {
+            Frame f = find(pgNo);
+            if (f == null) {
+                f = claim();
+                f.pgNo = pgNo;
+                read(f);
+            } else {
+                await(f);
+            }
+            // read into the pool, and possibly dirtied there, while we read it;
+            // a resident page that is not decoded is clean, so ours is as good
+            page = pool.peek(pid);
+            if (page != null) {
+                f.pgNo = -1;
+            } else {
+                f.page = (TuplePage) file.decodePage(pid, f.data);
+                f.pinned = true;
+                page = f.page;
+                bufferPool.ringRead();
+            }
+        }
+        readAhead(pgNo);
+        return page;
+    }
+
+    /**
+     * Lets the frames of the pages handed out before the current one be
+     * recycled once the scan is past them; called when the values read
+     * from them are no longer needed, i.e. before the next batch or the
+     * next page. The current page stays pinned, since the next batch may
+     * start with its remaining tuples.
+     */
+    void release() {
+        for (Frame f : frames)
+            if (f != null && f.pgNo != current)
+                f.pinned = false;
+    }
+
+    /** Waits for the reads the ring started, so they do not outlive the scan. */
+    void close() {
+        readingAhead = false;
+        for (Frame f : frames) {
+            if (f != null && f.read != null) {
+                try {
+                    await(f);
+                } catch (DbException e) {
+                    // the page is not wanted any more
+                }
+            }
+        }
+    }
+
+    /** @return the number of frames of the ring in use so far, at most {@link #SIZE} */
+    int frameCount() {
+        int n = 0;
+        for (Frame f : frames)
+            if (f != null)
+                n++;
+        return n;
+    }
+
+    /** @return the frame holding or reading page pgNo, or null */
+    private Frame find(int pgNo) {
+        for (Frame f : frames)
+            if (f != null && f.pgNo == pgNo)
+                return f;
+        return null;
+    }
+
+    /**
+     * @return a frame that may be recycled, after detaching the tuples of
+     *   its page, or a new frame outside the ring if every one is taken
+     */
+    private Frame claim() throws DbException {
+        Frame f = free();
+        return f != null ? f : new Frame();
+    }
+
+    /**
+     * @return a free frame of the ring, ready for a new page, or null; the
+     *   frames are taken in turn, so a page stays in its frame as long as
+     *   the ring allows
+     */
+    private Frame free() throws DbException {
+        for (int k = 0; k < frames.length; k++) {
+            int i = next;
+            next = (next + 1) % frames.length;
+            Frame f = frames[i];
+            if (f == null) {
+                f = new Frame();
+                frames[i] = f;
+                return f;
+            }
+            if (f.pinned || f.pgNo >= current)
+                continue;
+            if (f.read != null)
+                await(f);
+            if (f.page != null) {
+                f.page.detachTuples();
+                f.page = null;
+            }
+            f.pgNo = -1;
+            return f;
+        }
+        return null;
+    }
+
+    /** Reads the page of a frame on the calling thread. */
+    private void read(Frame f) throws DbException {
+        try {
+            file.readCheckedPageData(f.pgNo, f.data);
+        } catch (IOException e) {
+            int pgNo = f.pgNo;
+            f.pgNo = -1;
+            throw new DbException("cannot read page " + pgNo + " of " + file.getFile() + ": " + e);
+        }
+    }
+
+    /** Waits for the read of the page of a frame, if one is under way. */
+    private void await(Frame f) throws DbException {
+        Future<?> r = f.read;
+        if (r == null)
+            return;
+        f.read = null;
+        try {
+            r.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DbException("interrupted while reading page " + f.pgNo);
+        } catch (ExecutionException | CancellationException e) {
+            // read it again here, to report the error the scan would get, or
+            // because the pool was closed before the read started
+            read(f);
+        }
+    }
+
+    /** Starts reading the pages after pgNo into free frames, up to the read-ahead depth. */
+    private void readAhead(int pgNo) throws DbException {
+        int depth = Math.min(bufferPool.getReadAhead().getDepth(), SIZE / 2);
+        if (depth == 0 || !readingAhead)
+            return;
+        int last = Math.min(pgNo + depth, numPages - 1);
+        for (int n = pgNo + 1; n <= last; n++) {
+            PageId pid = new HeapPageId(file.getId(), n);
+            if (find(n) != null || bufferPool.partition(pid).containsKey(pid))
+                continue;
+            final Frame f = free();
+            if (f == null)
+                return;
+            final int next = n;
+            f.pgNo = next;
+            try {
+                f.read = bufferPool.getReadAhead().submit(() -> {
+                    file.readCheckedPageData(next, f.data);
+                    return null;
+                });
+                bufferPool.ringReadAhead();
+            } catch (RejectedExecutionException e) {
+                // the pool is closed; the scan reads its pages itself
+                f.pgNo = -1;
+                readingAhead = false;
+                return;
+            }
+        }
+    }
+}
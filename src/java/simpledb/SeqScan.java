@@ -8,12 +8,16 @@ import java.util.*;
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
  */
-public class SeqScan implements OpIterator {
+public class SeqScan implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
     String tableAlias;
     int tableid;
     DbFileIterator it;
+    private final TransactionId tid;
+    /** The fields the query reads, or null for all of them. */
+    private int[] neededFields;
+    private transient TupleBatch batch;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -33,6 +37,7 @@ public class SeqScan implements OpIterator {
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
         this.tableid = tableid;
+        this.tid = tid;
         DbFile dbfile = Database.getCatalog().getDatabaseFile(tableid);
         this.it = dbfile.iterator(tid);
         this.tableAlias = tableAlias;
@@ -69,13 +74,31 @@ public class SeqScan implements OpIterator {
     public void reset(int tableid, String tableAlias) {
         this.tableid = tableid;
         this.tableAlias = tableAlias;
-
+        this.batch = null;
     }
 
     public SeqScan(TransactionId tid, int tableId) {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
 
+    /**
+     * Tells the scan which fields of the table the query reads. Batches
+     * returned by {@link #nextBatch} hold only these fields, and a table
+     * stored column by column reads only their mini-pages to fill them.
+     * Tuples returned by {@link #next} still decode any field that is read.
+     * Must be called before the scan is opened.
+     *
+     * @param fields the indexes of the fields read
+     * @see PaxFile
+     */
+    public void setNeededFields(int[] fields) {
+        DbFile dbfile = Database.getCatalog().getDatabaseFile(this.tableid);
+        if (dbfile instanceof HeapFile) {
+            this.it = ((HeapFile) dbfile).iterator(this.tid, fields);
+        }
+        this.neededFields = fields;
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         this.it.open();
     }
@@ -113,6 +136,25 @@ public class SeqScan implements OpIterator {
         return this.it.next();
     }
 
+    /**
+     * Returns the next tuples of the table in a batch, copying only the
+     * fields the query reads if it was told which those are.
+     *
+     * @see #setNeededFields
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (batch == null)
+            batch = new TupleBatch(getTupleDesc());
+        batch.clear();
+        if (this.it instanceof HeapFile.HeapFileIterator) {
+            ((HeapFile.HeapFileIterator) this.it).fillBatch(batch);
+        } else {
+            while (!batch.isFull() && this.it.hasNext())
+                batch.addTuple(this.it.next(), neededFields);
+        }
+        return batch.size() > 0 ? batch : null;
+    }
+
     public void close() {
         this.it.close();
     }
@@ -16,6 +16,7 @@ public class SimpleDb {
             int numOfAttributes=Integer.parseInt(args[2]);
             Type[] ts = new Type[numOfAttributes];
             char fieldSeparator=',';
+            boolean slotted=false;
 
             if (args.length == 3) 
                 for (int i=0;i<numOfAttributes;i++)
@@ -34,6 +35,10 @@ public class SimpleDb {
                             ts[index++]=Type.INT_TYPE;
                         else if (s.toLowerCase().equals("string"))
                                 ts[index++]=Type.STRING_TYPE;
+                        else if (s.toLowerCase().equals("varchar")) {
+                                ts[index++]=Type.STRING_TYPE;
+                                slotted=true;
+                            }
                             else {
                                 System.err.println("Unknown type " + s);
                                 return;
@@ -43,7 +48,11 @@ public class SimpleDb {
                     fieldSeparator=args[4].charAt(0);
             }
 
-            HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
+            if (slotted)
+                HeapFileEncoder.convertSlotted(sourceTxtFile,targetDatFile,
+                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
+            else
+                HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
                         BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
 
         } catch (IOException e) {
@@ -67,6 +76,18 @@ public class SimpleDb {
                it.close();
             }
         }
+        else if (args[0].equals("scrub")) {
+            File tableFile = new File(args[1]);
+            int columns = Integer.parseInt(args[2]);
+            HeapFile table = Utility.openHeapFile(columns, tableFile);
+            table.setChecksummed(true);
+            PageScrubber scrubber = new PageScrubber(table);
+            java.util.List<Integer> corrupt = scrubber.scrub();
+            System.out.println(scrubber.getPagesChecked() + " pages checked, "
+                    + scrubber.getPagesUnchecked() + " without a checksum");
+            for (int pgNo : corrupt)
+                System.out.println("page " + pgNo + " fails its checksum");
+        }
         else if (args[0].equals("parser")) {
             // Strip the first argument and call the parser
             String[] newargs = new String[args.length-1];
@@ -0,0 +1,37 @@
+package simpledb;
+
+import java.io.File;
+
+/**
+ * SlottedFile is a HeapFile whose pages are {@link SlottedPage}s, on which
+ * string fields take only the bytes of their values. It is meant for
+ * tables with strings much shorter than {@link Type#STRING_LEN}, which it
+ * stores on a fraction of the pages a HeapFile needs, so scans of them
+ * read that much less. The catalog stores a table in a SlottedFile when one
+ * of its columns is declared <tt>varchar</tt>.
+ * <p>
+ * Reads, writes, scans and the free space map work as for a HeapFile; a
+ * page is shown as free in the map while a tuple of the largest possible
+ * size still fits on it.
+ *
+ * @see Catalog#loadSchema
+ * @see HeapFileEncoder#convertSlotted
+ */
+public class SlottedFile extends HeapFile {
+
+    /**
+     * Constructs a slotted file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this file
+     * @param td the schema of the tuples stored in the file
+     */
+    public SlottedFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public Page decodePage(PageId pid, byte[] data) {
+        return new SlottedPage((HeapPageId) pid, data);
+    }
+}
@@ -0,0 +1,388 @@
+package simpledb;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * SlottedPage stores tuples of varying size on a page of a
+ * {@link SlottedFile}. A string field takes two bytes of length and one
+ * byte per character rather than the fixed {@link Type#STRING_LEN} + 4
+ * bytes of a HeapPage, so tables of short strings need far fewer pages.
+ * Strings are still at most {@link Type#STRING_LEN} characters long, as
+ * everywhere else: longer values are cut to that length, as StringField
+ * cuts them, though the two-byte length would allow more.
+ * <p>
+ * The page starts with two unsigned shorts, the number of slots and the
+ * offset where the tuple data starts, followed by the slot directory: an
+ * unsigned short offset and an unsigned short length for each slot. An
+ * empty slot has offset 0. Tuples are stored at the end of the page,
+ * growing towards the directory. A page of zeros is an empty page, and
+ * pages can be at most 64 KB.
+ * <p>
+ * Deleting a tuple empties its slot but leaves its bytes in place; the
+ * space is reclaimed by compacting the tuple data when an insert needs it.
+ * Slots keep their numbers, so RecordIds stay valid.
+ *
+ * @see SlottedFile
+ */
+public class SlottedPage implements TuplePage {
+
+    private static final int HEADER_SIZE = 4;
+    private static final int SLOT_SIZE = 4;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    /** The page as it would be written; changed in place by inserts and deletes. */
+    private final byte[] data;
+    /** The tuples decoded so far, by slot; replaced when slots are added. */
+    private volatile AtomicReferenceArray<Tuple> tuples;
+    private volatile boolean dirty;
+    private volatile TransactionId dirtyby;
+
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a SlottedPage from the bytes of a page read from disk.
+     */
+    public SlottedPage(HeapPageId id, byte[] data) {
+        if (data.length > 1 << 16)
+            throw new IllegalArgumentException("slotted pages can be at most 64 KB");
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.data = data.clone();
+        this.tuples = new AtomicReferenceArray<Tuple>(numSlots());
+        synchronized (oldDataLock) {
+            oldData = data;
+        }
+    }
+
+    /**
+     * @return the number of bytes a tuple takes on a slotted page, not
+     *   counting its slot
+     */
+    static int recordSize(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.STRING_TYPE)
+                size += 2 + Math.min(((StringField) t.getField(i)).byteLength(), Type.STRING_LEN);
+            else
+                size += td.getFieldType(i).getLen();
+        }
+        return size;
+    }
+
+    /** @return the largest number of bytes a tuple of the schema takes, not counting its slot */
+    static int maxRecordSize(TupleDesc td) {
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.STRING_TYPE)
+                size += 2 + Type.STRING_LEN;
+            else
+                size += td.getFieldType(i).getLen();
+        }
+        return size;
+    }
+
+    /**
+     * Writes a tuple in the format of a slotted page.
+     *
+     * @return the offset after the tuple
+     */
+    static int writeRecord(Tuple t, byte[] dst, int offset) {
+        TupleDesc td = t.getTupleDesc();
+        for (int i = 0; i < td.numFields(); i++) {
+            Field f = t.getField(i);
+            if (td.getFieldType(i) == Type.STRING_TYPE) {
+                // the bytes of the field, which are those of its page if it was read from one
+                StringField sf = (StringField) f;
+                int len = Math.min(sf.byteLength(), Type.STRING_LEN);
+                putShort(dst, offset, len);
+                sf.getBytes(len, dst, offset + 2);
+                offset += 2 + len;
+            } else {
+                int v = ((IntField) f).getValue();
+                dst[offset] = (byte) (v >>> 24);
+                dst[offset + 1] = (byte) (v >>> 16);
+                dst[offset + 2] = (byte) (v >>> 8);
+                dst[offset + 3] = (byte) v;
+                offset += 4;
+            }
+        }
+        return offset;
+    }
+
+    private static int getShort(byte[] b, int offset) {
+        return ((b[offset] & 0xff) << 8) | (b[offset + 1] & 0xff);
+    }
+
+    private static void putShort(byte[] b, int offset, int v) {
+        b[offset] = (byte) (v >>> 8);
+        b[offset + 1] = (byte) v;
+    }
+
+    private int numSlots() {
+        return getShort(data, 0);
+    }
+
+    /** @return the offset where the tuple data starts */
+    private int dataStart() {
+        int start = getShort(data, 2);
+        return start == 0 ? data.length : start;
+    }
+
+    private void setDataStart(int start) {
+        putShort(data, 2, start == data.length ? 0 : start);
+    }
+
+    private int slotOffset(int slot) {
+        return getShort(data, HEADER_SIZE + slot * SLOT_SIZE);
+    }
+
+    private int slotLength(int slot) {
+        return getShort(data, HEADER_SIZE + slot * SLOT_SIZE + 2);
+    }
+
+    private void setSlot(int slot, int offset, int length) {
+        putShort(data, HEADER_SIZE + slot * SLOT_SIZE, offset);
+        putShort(data, HEADER_SIZE + slot * SLOT_SIZE + 2, length);
+    }
+
+    /** @return the bytes between the slot directory and the tuple data */
+    private int contiguousFree() {
+        return dataStart() - HEADER_SIZE - numSlots() * SLOT_SIZE;
+    }
+
+    /** @return the free bytes, counting those of deleted tuples not reclaimed yet */
+    public int getFreeSpace() {
+        int used = 0;
+        int n = numSlots();
+        for (int i = 0; i < n; i++)
+            used += slotLength(i);
+        return data.length - HEADER_SIZE - n * SLOT_SIZE - used;
+    }
+
+    /** @return the number of tuples on this page */
+    public int getNumTuples() {
+        int count = 0;
+        int n = numSlots();
+        for (int i = 0; i < n; i++) {
+            if (slotOffset(i) != 0)
+                count++;
+        }
+        return count;
+    }
+
+    /** @return the first empty slot, or the number of slots if there is none */
+    private int emptySlot() {
+        int n = numSlots();
+        for (int i = 0; i < n; i++) {
+            if (slotOffset(i) == 0)
+                return i;
+        }
+        return n;
+    }
+
+    // see TuplePage.java for javadocs
+    public boolean hasRoomFor(Tuple t) {
+        int slotCost = emptySlot() < numSlots() ? 0 : SLOT_SIZE;
+        return getFreeSpace() >= recordSize(t) + slotCost;
+    }
+
+    // see TuplePage.java for javadocs
+    public void detachTuples() {
+        // the tuples are given copies of their values when they are decoded
+    }
+
+    // see TuplePage.java for javadocs
+    public boolean hasRoom() {
+        return getFreeSpace() >= maxRecordSize(td) + SLOT_SIZE;
+    }
+
+    /**
+     * Adds a tuple to the page, compacting the tuple data if the free space
+     * is split up by deleted tuples.
+     *
+     * @throws DbException if the tuple does not fit or has another schema
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tupledesc is mismatched");
+        if (!hasRoomFor(t))
+            throw new DbException("page is full");
+        int slot = emptySlot();
+        int n = numSlots();
+        int size = recordSize(t);
+        int needed = size + (slot == n ? SLOT_SIZE : 0);
+        if (contiguousFree() < needed)
+            compact();
+        if (slot == n) {
+            putShort(data, 0, n + 1);
+            // the new slot is empty until the tuple is written
+            setSlot(slot, 0, 0);
+            AtomicReferenceArray<Tuple> grown = new AtomicReferenceArray<Tuple>(n + 1);
+            for (int i = 0; i < n; i++)
+                grown.set(i, tuples.get(i));
+            tuples = grown;
+        }
+        int start = dataStart() - size;
+        writeRecord(t, data, start);
+        setDataStart(start);
+        setSlot(slot, start, size);
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /**
+     * Deletes a tuple from the page. Its bytes are reclaimed at once if
+     * they are at the start of the tuple data, and otherwise by the next
+     * compaction.
+     *
+     * @throws DbException if the tuple is not on this page
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("tuple is not on this page");
+        int slot = rid.getTupleNumber();
+        if (slot < 0 || slot >= numSlots() || slotOffset(slot) == 0)
+            throw new DbException("tuple slot is already empty");
+        if (slotOffset(slot) == dataStart())
+            setDataStart(dataStart() + slotLength(slot));
+        setSlot(slot, 0, 0);
+        tuples.set(slot, null);
+        // empty slots at the end of the directory are given back
+        int n = numSlots();
+        while (n > 0 && slotOffset(n - 1) == 0)
+            n--;
+        putShort(data, 0, n);
+    }
+
+    /** Moves the tuples to the end of the page, leaving no gaps between them. */
+    private void compact() {
+        int n = numSlots();
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++)
+            order[i] = i;
+        // highest offset first, so no tuple is overwritten before it moves
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return slotOffset(b) - slotOffset(a);
+            }
+        });
+        int end = data.length;
+        for (int slot : order) {
+            int offset = slotOffset(slot);
+            if (offset == 0)
+                break;
+            int length = slotLength(slot);
+            end -= length;
+            System.arraycopy(data, offset, data, end, length);
+            setSlot(slot, end, length);
+        }
+        Arrays.fill(data, HEADER_SIZE + n * SLOT_SIZE, end, (byte) 0);
+        setDataStart(end);
+    }
+
+    /** @return the tuple in a slot, decoding it on first use, or null if the slot is empty */
+    Tuple getTuple(int slot) {
+        AtomicReferenceArray<Tuple> decoded = tuples;
+        Tuple t = slot < decoded.length() ? decoded.get(slot) : null;
+        if (t != null)
+            return t;
+        int offset = slotOffset(slot);
+        if (offset == 0)
+            return null;
+        t = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.STRING_TYPE) {
+                int len = getShort(data, offset);
+                // the page moves its records when it compacts, so the field gets a copy
+                t.setField(i, new StringField(Arrays.copyOfRange(data, offset + 2, offset + 2 + len), 0, len,
+                        Type.STRING_LEN));
+                offset += 2 + len;
+            } else {
+                t.setField(i, Type.INT_TYPE.parse(data, offset));
+                offset += 4;
+            }
+        }
+        t.setRecordId(new RecordId(pid, slot));
+        if (slot < decoded.length() && !decoded.compareAndSet(slot, null, t))
+            t = decoded.get(slot);
+        return t;
+    }
+
+    // see TuplePage.java for javadocs
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            private final int n = numSlots();
+            private int slot = next(0);
+
+            private int next(int from) {
+                while (from < n && slotOffset(from) == 0)
+                    from++;
+                return from;
+            }
+
+            public boolean hasNext() {
+                return slot < n;
+            }
+
+            public Tuple next() {
+                if (slot >= n)
+                    throw new NoSuchElementException();
+                Tuple t = getTuple(slot);
+                slot = next(slot + 1);
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException("Remove not supported");
+            }
+        };
+    }
+
+    // see TuplePage.java for javadocs
+    public int fillBatch(TupleBatch batch, int slot, int[] fields) {
+        for (int n = numSlots(); slot < n; slot++) {
+            if (slotOffset(slot) == 0)
+                continue;
+            if (batch.isFull())
+                return slot;
+            batch.addTuple(getTuple(slot), fields);
+        }
+        return -1;
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtyby = dirty ? tid : null;
+        this.dirty = dirty;
+    }
+
+    public TransactionId isDirty() {
+        return dirty ? dirtyby : null;
+    }
+
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    public SlottedPage getBeforeImage() {
+        synchronized (oldDataLock) {
+            return new SlottedPage(pid, oldData);
+        }
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData();
+        }
+    }
+}
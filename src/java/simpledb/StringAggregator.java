@@ -17,8 +17,8 @@ public class StringAggregator implements Aggregator {
     private int afield;
     private Op what;
 
-    private HashMap<Field, ArrayList<String>> aggregateMap = new HashMap<>();
-    private HashMap<Field, String> aggregateResult = new HashMap<>();
+    private HashMap<Field, ArrayList<StringField>> aggregateMap = new HashMap<>();
+    private HashMap<Field, StringField> aggregateResult = new HashMap<>();
     private HashMap<Field, Integer> countResult = new HashMap<>();
 
     /**
@@ -47,20 +47,20 @@ public class StringAggregator implements Aggregator {
         // fetch the group by field.
         Field field = tup.getField(gbfield);
 
-        // fetch the aggregating string value.
-        StringField stringField = (StringField) tup.getField(afield);
-        String stringValue = stringField.getValue();
+        // fetch the aggregating string field; fields compare without building
+        // Strings, and are copied so they do not keep the page they are read from.
+        StringField stringField = ((StringField) tup.getField(afield)).copy();
 
         // If the HashTable contains the group-by field, add the aggregating string to the list.
         if (aggregateMap.containsKey(field)){
-            ArrayList<String> stringsList = aggregateMap.get(field);
-            stringsList.add(stringValue);
+            ArrayList<StringField> stringsList = aggregateMap.get(field);
+            stringsList.add(stringField);
         }
         // Else create new list and add new key-value pair.
         else {
-            ArrayList<String> newList = new ArrayList<>();
-            newList.add(stringValue);
-            aggregateMap.put(field, newList);
+            ArrayList<StringField> newList = new ArrayList<>();
+            newList.add(stringField);
+            aggregateMap.put(StringField.copy(field), newList);
         }
     }
 
@@ -150,12 +150,12 @@ public class StringAggregator implements Aggregator {
                 Tuple tuple = new Tuple(td);
 
                 if (this.gbfield == NO_GROUPING){
-                    tuple.setField(0, new StringField(value,64));
+                    tuple.setField(0, new StringField(value.getValue(), 64));
                     tupleList.add(tuple);
                 }
                 else{
                     tuple.setField(0, key);
-                    tuple.setField(1, new StringField(value, 64));
+                    tuple.setField(1, new StringField(value.getValue(), 64));
                     tupleList.add(tuple);
                 }
             });
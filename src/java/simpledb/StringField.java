@@ -1,24 +1,48 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 /**
  * Instance of Field that stores a single String of a fixed length.
+ * <p>
+ * The value is kept as bytes, one per character, as it is stored on
+ * pages. A field read from a page refers to the bytes of the page rather
+ * than copying them, and only builds a String when {@link #getValue} or
+ * {@link #toString} is called, so comparing, hashing and writing fields
+ * read from pages allocates nothing. Fields compare byte by byte, which
+ * orders them as their Strings. A character above U+00FF does not fit in a
+ * byte and is stored as '?', and the value of the field is then the String
+ * as stored, so equals, hashCode and compareTo always agree with getValue.
  */
-public class StringField implements Field {
+public class StringField implements Field, Comparable<StringField> {
 
 	private static final long serialVersionUID = 1L;
 
-	private final String value;
+	/** The value, or null until it is asked for if the field was read from a page. */
+	private String value;
 	private final int maxSize;
+	/** The bytes holding the value; part of a page for a field read from one. */
+	private transient byte[] bytes;
+	private transient int offset;
+	private transient int length;
+	/** The hash of the value, or 0 if it has not been computed. */
+	private transient int hash;
 
 	public String getValue() {
-		return value;
+		String s = value;
+		if (s == null) {
+			// building it twice in a race is harmless; Strings are immutable
+			s = new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+			value = s;
+		}
+		return s;
 	}
 
 	/**
 	 * Constructor.
-	 * 
+	 *
 	 * @param s
 	 *            The value of this field.
 	 * @param maxSize
@@ -31,45 +55,171 @@ public class StringField implements Field {
 			value = s.substring(0, maxSize);
 		else
 			value = s;
+		setBytes();
+	}
+
+	/**
+	 * Creates a field whose value is held by bytes that must not change
+	 * while the field is in use, such as those of a page.
+	 *
+	 * @param data the bytes holding the value, one per character
+	 * @param offset the offset of the value within data
+	 * @param length the number of characters of the value, at most maxSize
+	 * @param maxSize the maximum size of this string
+	 */
+	StringField(byte[] data, int offset, int length, int maxSize) {
+		this.maxSize = maxSize;
+		this.bytes = data;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	/**
+	 * Keeps the value as bytes, one per character, as serialize writes it,
+	 * and replaces the value by what the bytes hold if a character does not
+	 * fit in one.
+	 */
+	private void setBytes() {
+		String s = value;
+		byte[] b = new byte[s.length()];
+		boolean replaced = false;
+		for (int i = 0; i < b.length; i++) {
+			char c = s.charAt(i);
+			if (c > 0xff) {
+				c = '?';
+				replaced = true;
+			}
+			b[i] = (byte) c;
+		}
+		this.bytes = b;
+		this.offset = 0;
+		this.length = b.length;
+		if (replaced)
+			value = new String(b, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * @return a field with the value of this one that holds its own bytes,
+	 *         for keeping in a structure that outlives the page the field
+	 *         may be read from; this field if it already does
+	 */
+	StringField copy() {
+		if (ownsBytes())
+			return this;
+		return new StringField(Arrays.copyOfRange(bytes, offset, offset + length), 0, length, maxSize);
+	}
+
+	/** @return true if the bytes of this field hold its value and nothing else */
+	boolean ownsBytes() {
+		return offset == 0 && length == bytes.length;
+	}
+
+	/** @return the number of bytes of the value, one per character */
+	int byteLength() {
+		return length;
+	}
+
+	/** Copies the first n bytes of the value to dst, starting at dstOffset. */
+	void getBytes(int n, byte[] dst, int dstOffset) {
+		System.arraycopy(bytes, offset, dst, dstOffset, n);
+	}
+
+	/** @return f, or a copy of it holding its own bytes if it is a StringField */
+	static Field copy(Field f) {
+		return f instanceof StringField ? ((StringField) f).copy() : f;
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		// the value is written, not the page it may be read from
+		getValue();
+		out.defaultWriteObject();
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		setBytes();
 	}
 
 	public String toString() {
-		return value;
+		return getValue();
 	}
 
+	/** @return the hash of the value, which is that of its String */
 	public int hashCode() {
-		return value.hashCode();
+		int h = hash;
+		if (h == 0) {
+			byte[] b = bytes;
+			for (int i = offset; i < offset + length; i++)
+				h = 31 * h + (b[i] & 0xff);
+			hash = h;
+		}
+		return h;
 	}
 
 	public boolean equals(Object field) {
-		return ((StringField) field).value.equals(value);
+		if (!(field instanceof StringField))
+			return false;
+		StringField other = (StringField) field;
+		if (other.length != length)
+			return false;
+		byte[] a = bytes;
+		byte[] b = other.bytes;
+		for (int i = 0; i < length; i++)
+			if (a[offset + i] != b[other.offset + i])
+				return false;
+		return true;
+	}
+
+	/**
+	 * Compares the values of two fields byte by byte, as
+	 * {@link String#compareTo} compares their Strings.
+	 */
+	public int compareTo(StringField other) {
+		byte[] a = bytes;
+		byte[] b = other.bytes;
+		int n = Math.min(length, other.length);
+		for (int i = 0; i < n; i++) {
+			int c = (a[offset + i] & 0xff) - (b[other.offset + i] & 0xff);
+			if (c != 0)
+				return c;
+		}
+		return length - other.length;
+	}
+
+	/** @return true if the value of other occurs in the value of this field */
+	public boolean contains(StringField other) {
+		byte[] a = bytes;
+		byte[] b = other.bytes;
+		int n = other.length;
+		search: for (int i = 0; i <= length - n; i++) {
+			for (int j = 0; j < n; j++)
+				if (a[offset + i + j] != b[other.offset + j])
+					continue search;
+			return true;
+		}
+		return false;
 	}
 
 	/**
 	 * Write this string to dos. Always writes maxSize + 4 bytes to the passed
 	 * in dos. First four bytes are string length, next bytes are string, with
 	 * remainder padded with 0 to maxSize.
-	 * 
+	 *
 	 * @param dos
 	 *            Where the string is written
 	 */
 	public void serialize(DataOutputStream dos) throws IOException {
-		String s = value;
-		int overflow = maxSize - s.length();
-		if (overflow < 0) {
-			String news = s.substring(0, maxSize);
-			s = news;
-		}
-		dos.writeInt(s.length());
-		dos.writeBytes(s);
-		while (overflow-- > 0)
+		int n = Math.min(length, maxSize);
+		dos.writeInt(n);
+		dos.write(bytes, offset, n);
+		for (int overflow = maxSize - n; overflow > 0; overflow--)
 			dos.write((byte) 0);
 	}
 
 	/**
 	 * Compare the specified field to the value of this Field. Return semantics
 	 * are as specified by Field.compare
-	 * 
+	 *
 	 * @throws IllegalCastException
 	 *             if val is not a StringField
 	 * @see Field#compare
@@ -77,29 +227,28 @@ public class StringField implements Field {
 	public boolean compare(Predicate.Op op, Field val) {
 
 		StringField iVal = (StringField) val;
-		int cmpVal = value.compareTo(iVal.value);
 
 		switch (op) {
 		case EQUALS:
-			return cmpVal == 0;
+			return equals(iVal);
 
 		case NOT_EQUALS:
-			return cmpVal != 0;
+			return !equals(iVal);
 
 		case GREATER_THAN:
-			return cmpVal > 0;
+			return compareTo(iVal) > 0;
 
 		case GREATER_THAN_OR_EQ:
-			return cmpVal >= 0;
+			return compareTo(iVal) >= 0;
 
 		case LESS_THAN:
-			return cmpVal < 0;
+			return compareTo(iVal) < 0;
 
 		case LESS_THAN_OR_EQ:
-			return cmpVal <= 0;
+			return compareTo(iVal) <= 0;
 
 		case LIKE:
-			return value.indexOf(iVal.value) >= 0;
+			return contains(iVal);
 		}
 
 		return false;
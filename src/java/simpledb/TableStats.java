@@ -66,6 +66,10 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
+    private int ioCostPerPage;
+    private int numPages;
+    private int numTuples;
+
     /**
      * Create a new TableStats object, that keeps track of statistics on each
      * column of a table
@@ -87,6 +91,20 @@ public class TableStats {
         // some code goes here
     }
 
+    /**
+     * Creates statistics holding only the numbers of pages and tuples of a
+     * table, counted while it was written, without scanning it. There are
+     * no histograms, so selectivities are estimated as for a table whose
+     * fields are unknown.
+     *
+     * @see HeapFile#bulkLoad
+     */
+    TableStats(int ioCostPerPage, int numPages, int numTuples) {
+        this.ioCostPerPage = ioCostPerPage;
+        this.numPages = numPages;
+        this.numTuples = numTuples;
+    }
+
     /**
      * Estimates the cost of sequentially scanning the file, given that the cost
      * to read a page is costPerPageIO. You can assume that there are no seeks
@@ -101,7 +119,7 @@ public class TableStats {
      */
     public double estimateScanCost() {
         // some code goes here
-        return 0;
+        return (double) numPages * ioCostPerPage;
     }
 
     /**
@@ -115,7 +133,7 @@ public class TableStats {
      */
     public int estimateTableCardinality(double selectivityFactor) {
         // some code goes here
-        return 0;
+        return (int) (numTuples * selectivityFactor);
     }
 
     /**
@@ -156,7 +174,7 @@ public class TableStats {
      * */
     public int totalTuples() {
         // some code goes here
-        return 0;
+        return numTuples;
     }
 
 }
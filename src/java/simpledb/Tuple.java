@@ -1,49 +1,196 @@
 package simpledb;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * The values are not kept as Field objects: int fields are kept in an int
+ * array and string fields as StringFields, at the positions given by
+ * {@link TupleDesc#getTupleLayout}. Operators read them with
+ * {@link #getInt} and {@link #getString}, which build no objects;
+ * {@link #getField} builds an IntField for an int field each time it is
+ * called.
  */
 public class Tuple implements Serializable {
     TupleDesc description;
-    Field[] fields;
     int numberOfFields;
     RecordId rid;
+    /** Where each field is kept; see TupleDesc.getTupleLayout. */
+    private transient int[] layout;
+    /** The values of the int fields; null for a tuple read from a page until it is changed. */
+    private int[] ints;
+    /** Which of the first 64 int fields have been set, one bit each. */
+    private long intsSet;
+    /** Which of the int fields after the first 64 have been set; null if there are none. */
+    private long[] moreIntsSet;
+    /** The values of the string fields; null for those not set or not decoded yet. */
+    private StringField[] strings;
+    /**
+     * The bytes of the page this tuple is stored on, from which int fields
+     * are read and string fields are decoded; null once the tuple has been
+     * changed, or for a tuple built field by field.
+     */
+    private transient byte[] source;
+    private int sourceOffset;
+    /**
+     * Where each column starts in source, for a tuple stored column by
+     * column; sourceOffset is then its slot. Null for a tuple stored as a row.
+     */
+    private transient int[] columns;
 
+    private static final int[] NO_INTS = new int[0];
+    private static final StringField[] NO_STRINGS = new StringField[0];
 
     private static final long serialVersionUID = 1L;
 
     /**
-     * Create a new tuple with the specified schema (type).
+     * Create a new tuple with the specified schema (type). No field is set.
      *
      * @param td
      *            the schema of this tuple. It must be a valid TupleDesc
      *            instance with at least one field.
      */
     public Tuple(TupleDesc td) {
+        init(td);
+        int numInts = layout[numberOfFields];
+        this.ints = numInts == 0 ? NO_INTS : new int[numInts];
+    }
+
+    /**
+     * Creates a tuple whose fields are read from the bytes of a page when
+     * they are asked for, so fields nobody looks at are never decoded.
+     * The bytes must not change while the tuple is in use.
+     *
+     * @param td the schema of this tuple
+     * @param data the bytes of the page the tuple is stored on
+     * @param offset the offset of the tuple within data
+     */
+    Tuple(TupleDesc td, byte[] data, int offset) {
+        init(td);
+        this.source = data;
+        this.sourceOffset = offset;
+    }
+
+    /**
+     * Creates a tuple whose fields are read when asked for from a page
+     * that stores its tuples column by column, as a {@link PaxPage} does:
+     * field i of the tuple is at columns[i] + slot * its length.
+     *
+     * @param td the schema of this tuple
+     * @param data the bytes of the page the tuple is stored on
+     * @param columns the offset of the values of each field within data
+     * @param slot the slot of the tuple on the page
+     */
+    Tuple(TupleDesc td, byte[] data, int[] columns, int slot) {
+        this(td, data, slot);
+        this.columns = columns;
+    }
+
+    private void init(TupleDesc td) {
         this.description = td;
         this.numberOfFields = td.numFields();
-        Field[] myTuple = new Field[this.numberOfFields];
-        int counter = 0;
-        for (TupleDesc.TDItem item : td.TDArray)
-        {
-            if (item.fieldType.equals(Type.INT_TYPE)) {
-                myTuple[counter] = new IntField(0);
-            }
-            else if (item.fieldType.equals(Type.STRING_TYPE)) {
-                myTuple[counter] = new StringField("null",64);
-            }
-            else{
-                System.out.println("You need to have either strings or ints as type");
+        this.layout = td.getTupleLayout();
+        int numInts = layout[numberOfFields];
+        int numStrings = layout[numberOfFields + 1];
+        this.strings = numStrings == 0 ? NO_STRINGS : new StringField[numStrings];
+        if (numInts > 64)
+            this.moreIntsSet = new long[(numInts - 1) / 64];
+    }
+
+    /** @return where field i is kept, after checking that i is a valid index */
+    private int slot(int i) {
+        if (i < 0 || i >= numberOfFields)
+            throw new ArrayIndexOutOfBoundsException("no field " + i + " in a tuple of " + numberOfFields);
+        return layout[i];
+    }
+
+    /** @return the offset of field i within source */
+    private int sourceOffset(int i) {
+        int[] cols = columns;
+        return cols == null
+                ? sourceOffset + description.getFieldOffset(i)
+                : cols[i] + sourceOffset * description.getFieldType(i).getLen();
+    }
+
+    private boolean isIntSet(int slot) {
+        if (slot < 64)
+            return (intsSet & (1L << slot)) != 0;
+        return (moreIntsSet[slot / 64 - 1] & (1L << slot)) != 0;
+    }
+
+    private void markInt(int slot, boolean set) {
+        if (slot < 64)
+            intsSet = set ? intsSet | (1L << slot) : intsSet & ~(1L << slot);
+        else if (set)
+            moreIntsSet[slot / 64 - 1] |= 1L << slot;
+        else
+            moreIntsSet[slot / 64 - 1] &= ~(1L << slot);
+    }
+
+    /**
+     * Copies every field of a tuple read from a page into this tuple,
+     * which still reads them from the page until {@link #detach} is called.
+     */
+    private void decodeAll() {
+        byte[] data = source;
+        if (data == null)
+            return;
+        int[] values = ints;
+        if (values == null)
+            values = layout[numberOfFields] == 0 ? NO_INTS : new int[layout[numberOfFields]];
+        for (int i = 0; i < numberOfFields; i++) {
+            int slot = layout[i];
+            if (slot >= 0) {
+                values[slot] = Type.readInt(data, sourceOffset(i));
+                markInt(slot, true);
+            } else {
+                getStringField(i);
             }
-            counter++;
         }
-        this.fields = myTuple;
+        ints = values;
+    }
+
+    /** Lets go of the page this tuple was read from, before it is changed. */
+    private void detach() {
+        if (source != null) {
+            decodeAll();
+            source = null;
+            columns = null;
+        }
+    }
+
+    /**
+     * Copies the values this tuple reads from its page into the tuple, so
+     * it keeps them when the page bytes are reused.
+     */
+    void detachFromPage() {
+        if (source == null)
+            return;
+        decodeAll();
+        for (int i = 0; i < strings.length; i++)
+            if (strings[i] != null)
+                strings[i] = strings[i].copy();
+        source = null;
+        columns = null;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        decodeAll();
+        out.defaultWriteObject();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        layout = description.getTupleLayout();
     }
 
     /**
@@ -77,16 +224,74 @@ public class Tuple implements Serializable {
      * @param i
      *            index of the field to change. It must be a valid index.
      * @param f
-     *            new value for the field.
+     *            new value for the field, of the type of the field, or null
+     *            to unset it.
      */
     public void setField(int i, Field f) {
-        if (fields.length>i && i>=0){
-            this.fields[i] = f;
+        int slot = slot(i);
+        detach();
+        if (slot >= 0) {
+            if (f != null)
+                ints[slot] = ((IntField) f).getValue();
+            markInt(slot, f != null);
+        } else {
+            strings[-1 - slot] = (StringField) f;
         }
-        else {
-            throw new ArrayIndexOutOfBoundsException("This index is to high:");
+    }
+
+    /**
+     * Change the value of the ith field of this tuple, which must be an int
+     * field.
+     */
+    public void setInt(int i, int value) {
+        int slot = slot(i);
+        if (slot < 0)
+            throw new IllegalArgumentException("field " + i + " is not an int");
+        detach();
+        ints[slot] = value;
+        markInt(slot, true);
+    }
+
+    /**
+     * Sets the ith field of this tuple to field j of another tuple, without
+     * building a Field for it. The two fields must be of the same type.
+     */
+    void setFieldFrom(int i, Tuple src, int j) {
+        int slot = slot(i);
+        if (slot < 0) {
+            setField(i, src.getStringField(j));
+        } else if (src.isSet(j)) {
+            setInt(i, src.getInt(j));
+        } else {
+            setField(i, null);
         }
+    }
 
+    /**
+     * @return a tuple with the values and RecordId of this one that refers
+     *         to no page bytes, for keeping in a structure that outlives
+     *         the page it may be read from; this tuple if it refers to none
+     */
+    Tuple copy() {
+        if (source == null) {
+            boolean owned = true;
+            for (StringField f : strings)
+                owned &= f == null || f.ownsBytes();
+            if (owned)
+                return this;
+        }
+        Tuple t = new Tuple(description);
+        for (int i = 0; i < numberOfFields; i++) {
+            int slot = layout[i];
+            if (slot < 0) {
+                StringField f = getStringField(i);
+                t.strings[-1 - slot] = f == null ? null : f.copy();
+            } else if (isSet(i)) {
+                t.setInt(i, getInt(i));
+            }
+        }
+        t.rid = rid;
+        return t;
     }
 
     /**
@@ -96,15 +301,77 @@ public class Tuple implements Serializable {
      *            field index to return. Must be a valid index.
      */
     public Field getField(int i) {
-        if (fields.length > i && i >= 0){
-            return this.fields[i];
-        }
-        else {
-            System.out.println("Fields.len = " + fields.length);
-            System.out.println("i = "+ i);
-            throw new ArrayIndexOutOfBoundsException("This index is to high or to low:");
+        int slot = slot(i);
+        if (slot < 0)
+            return getStringField(i);
+        return isSet(i) ? new IntField(getInt(i)) : null;
+    }
+
+    /**
+     * @return the value of the ith field, which must be an int field
+     * @throws NoSuchElementException if the field has not been set
+     */
+    public int getInt(int i) {
+        int slot = slot(i);
+        if (slot < 0)
+            throw new IllegalArgumentException("field " + i + " is not an int");
+        byte[] data = source;
+        if (data != null)
+            return Type.readInt(data, sourceOffset(i));
+        if (!isIntSet(slot))
+            throw new NoSuchElementException("field " + i + " has not been set");
+        return ints[slot];
+    }
+
+    /**
+     * @return the value of the ith field, which must be a string field
+     * @throws NoSuchElementException if the field has not been set
+     */
+    public String getString(int i) {
+        StringField f = getStringField(i);
+        if (f == null)
+            throw new NoSuchElementException("field " + i + " has not been set");
+        return f.getValue();
+    }
+
+    /** @return the ith field, which must be a string field, or null if it has not been set */
+    StringField getStringField(int i) {
+        int slot = slot(i);
+        if (slot >= 0)
+            throw new IllegalArgumentException("field " + i + " is not a string");
+        slot = -1 - slot;
+        StringField f = strings[slot];
+        byte[] data = source;
+        if (f == null && data != null) {
+            // decoding twice in a race is harmless; fields are immutable
+            f = (StringField) Type.STRING_TYPE.parse(data, sourceOffset(i));
+            strings[slot] = f;
         }
+        return f;
+    }
+
+    /** @return true if this tuple reads its fields from the given page bytes */
+    boolean readsFrom(byte[] data) {
+        return source == data;
+    }
 
+    /** @return true if the ith field has a value */
+    boolean isSet(int i) {
+        int slot = slot(i);
+        if (slot < 0)
+            return getStringField(i) != null;
+        return source != null || isIntSet(slot);
+    }
+
+    /**
+     * @return true if the value of the ith field is held by this tuple,
+     *         rather than still to be read from the page it is stored on
+     */
+    boolean isDecoded(int i) {
+        int slot = slot(i);
+        if (slot < 0)
+            return strings[-1 - slot] != null;
+        return source == null && isIntSet(slot);
     }
 
     /**
@@ -117,11 +384,15 @@ public class Tuple implements Serializable {
      */
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        String prefix = "";
-        for (Field f : this.fields){
-            sb.append(prefix);
-            sb.append(f.toString());
-            prefix = " ";
+        for (int i = 0; i < numberOfFields; i++) {
+            if (i > 0)
+                sb.append(' ');
+            if (!isSet(i))
+                sb.append("null");
+            else if (layout[i] >= 0)
+                sb.append(getInt(i));
+            else
+                sb.append(getString(i));
         }
         return sb.toString();
     }
@@ -132,14 +403,19 @@ public class Tuple implements Serializable {
      * */
     public Iterator<Field> fields()
     {
+        Field[] fields = new Field[numberOfFields];
+        for (int i = 0; i < fields.length; i++)
+            fields[i] = getField(i);
         return Arrays.stream(fields).iterator();
     }
 
     /**
-     * reset the TupleDesc of this tuple (only affecting the TupleDesc)
+     * reset the TupleDesc of this tuple (only affecting the TupleDesc); the
+     * new TupleDesc must have the same types as the old one
      * */
     public void resetTupleDesc(TupleDesc td)
     {
         this.description = td;
+        this.layout = td.getTupleLayout();
     }
 }
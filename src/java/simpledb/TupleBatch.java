@@ -0,0 +1,243 @@
+package simpledb;
+
+/**
+ * TupleBatch holds up to {@link #CAPACITY} tuples of one schema column by
+ * column: the values of each int field in an int array and those of each
+ * string field in a StringField array, at the positions given by
+ * {@link TupleDesc#getTupleLayout}. A selection vector lists the rows that
+ * are part of the batch, in order, so an operator that drops rows, such as
+ * a Filter, only rewrites the selection and never moves values.
+ * <p>
+ * Batches are passed between {@link BatchIterator}s. The iterator that
+ * returns a batch owns it and may reuse it on its next call; callers that
+ * keep rows past that copy them out, for instance with {@link #getTuple}.
+ *
+ * @see BatchIterator
+ */
+public class TupleBatch {
+
+    /** The number of rows a batch holds. */
+    public static final int CAPACITY = 1024;
+
+    private final TupleDesc td;
+    private final int[] layout;
+    /** The values of each int field, by row; the arrays may be shared with other batches. */
+    final int[][] ints;
+    /** The values of each string field, by row; the arrays may be shared with other batches. */
+    final StringField[][] strings;
+    /** The rows of the batch, in order; the first {@link #size} entries are used. */
+    int[] selection;
+    private int size;
+    /** The number of rows values have been written to. */
+    private int rows;
+
+    /**
+     * Creates an empty batch.
+     *
+     * @param td the schema of the tuples of the batch
+     */
+    public TupleBatch(TupleDesc td) {
+        this(td, true);
+    }
+
+    private TupleBatch(TupleDesc td, boolean allocate) {
+        this.td = td;
+        this.layout = td.getTupleLayout();
+        int n = td.numFields();
+        this.ints = new int[layout[n]][];
+        this.strings = new StringField[layout[n + 1]][];
+        if (allocate) {
+            for (int i = 0; i < ints.length; i++)
+                ints[i] = new int[CAPACITY];
+            for (int i = 0; i < strings.length; i++)
+                strings[i] = new StringField[CAPACITY];
+            this.selection = new int[CAPACITY];
+        }
+    }
+
+    /**
+     * Creates a batch that shows some fields of the batches of another
+     * schema, without copying them; see {@link #project}.
+     *
+     * @param td the schema of the projected tuples
+     */
+    static TupleBatch view(TupleDesc td) {
+        return new TupleBatch(td, false);
+    }
+
+    /** @return the schema of the tuples of this batch */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of rows in this batch */
+    public int size() {
+        return size;
+    }
+
+    /** @return true if no more rows can be added to this batch */
+    public boolean isFull() {
+        return rows == CAPACITY;
+    }
+
+    /**
+     * @return the position of the kth row of this batch, by which its
+     *         values are read
+     */
+    public int row(int k) {
+        return selection[k];
+    }
+
+    /** @return the value of int field i of the row at position row */
+    public int getInt(int i, int row) {
+        return ints[layout[i]][row];
+    }
+
+    /**
+     * @return the values of int field i, by row position. The array is the
+     *         batch's own and must not be changed.
+     */
+    public int[] intColumn(int i) {
+        return ints[layout[i]];
+    }
+
+    /** @return the values of string field i, by row position */
+    StringField[] stringColumn(int i) {
+        return strings[-1 - layout[i]];
+    }
+
+    /** @return the value of string field i of the row at position row */
+    public StringField getStringField(int i, int row) {
+        return strings[-1 - layout[i]][row];
+    }
+
+    /** @return the value of field i of the row at position row, as a Field */
+    public Field getField(int i, int row) {
+        int slot = layout[i];
+        return slot >= 0 ? new IntField(ints[slot][row]) : strings[-1 - slot][row];
+    }
+
+    /** @return the kth row of this batch as a new Tuple */
+    public Tuple getTuple(int k) {
+        int row = selection[k];
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < layout.length - 2; i++) {
+            int slot = layout[i];
+            if (slot >= 0)
+                t.setInt(i, ints[slot][row]);
+            else
+                t.setField(i, strings[-1 - slot][row]);
+        }
+        return t;
+    }
+
+    /** Empties this batch so it can be filled again. */
+    public void clear() {
+        size = 0;
+        rows = 0;
+    }
+
+    /**
+     * Adds a row to the end of this batch, whose values are then set with
+     * {@link #setInt} and {@link #setStringField}.
+     *
+     * @return the position of the new row
+     * @throws IllegalStateException if the batch is full
+     */
+    public int addRow() {
+        if (rows == CAPACITY)
+            throw new IllegalStateException("batch is full");
+        int row = rows++;
+        selection[size++] = row;
+        return row;
+    }
+
+    /**
+     * Adds a tuple to the end of this batch, copying the given fields of
+     * it. Fields not copied are left undefined in the batch.
+     *
+     * @param fields the fields to copy, or null for all of them
+     * @throws IllegalStateException if the batch is full
+     */
+    public void addTuple(Tuple t, int[] fields) {
+        int row = addRow();
+        int n = fields == null ? layout.length - 2 : fields.length;
+        for (int j = 0; j < n; j++) {
+            int i = fields == null ? j : fields[j];
+            int slot = layout[i];
+            if (slot >= 0)
+                ints[slot][row] = t.getInt(i);
+            else
+                strings[-1 - slot][row] = t.getStringField(i);
+        }
+    }
+
+    /** Sets int field i of the row at position row. */
+    public void setInt(int i, int row, int value) {
+        ints[layout[i]][row] = value;
+    }
+
+    /** Sets string field i of the row at position row. */
+    public void setStringField(int i, int row, StringField value) {
+        strings[-1 - layout[i]][row] = value;
+    }
+
+    /**
+     * Adds a row to the end of this batch that joins a tuple with a row of
+     * another batch: the fields of t, then those of the row.
+     *
+     * @param t the tuple whose fields come first
+     * @param from the batch holding the row
+     * @param fromRow the position of the row in from
+     */
+    void addJoined(Tuple t, TupleBatch from, int fromRow) {
+        int row = addRow();
+        int n1 = t.numberOfFields;
+        for (int i = 0; i < n1; i++) {
+            int slot = layout[i];
+            if (slot >= 0)
+                ints[slot][row] = t.getInt(i);
+            else
+                strings[-1 - slot][row] = t.getStringField(i);
+        }
+        int n2 = from.layout.length - 2;
+        for (int j = 0; j < n2; j++) {
+            int slot = layout[n1 + j];
+            int fromSlot = from.layout[j];
+            if (slot >= 0)
+                ints[slot][row] = from.ints[fromSlot][fromRow];
+            else
+                strings[-1 - slot][row] = from.strings[-1 - fromSlot][fromRow];
+        }
+    }
+
+    /**
+     * Keeps only the first n rows listed in the selection vector, which the
+     * caller has rewritten to list the rows that remain, in order.
+     */
+    void setSize(int n) {
+        size = n;
+    }
+
+    /**
+     * Makes this batch, created with {@link #view}, show the given fields
+     * of another batch and the same rows. Only references to the columns
+     * are copied, so the view is valid while the other batch is.
+     *
+     * @param from the batch to show
+     * @param fields the field of from shown as each field of this batch
+     */
+    void project(TupleBatch from, int[] fields) {
+        for (int i = 0; i < fields.length; i++) {
+            int slot = layout[i];
+            int fromSlot = from.layout[fields[i]];
+            if (slot >= 0)
+                ints[slot] = from.ints[fromSlot];
+            else
+                strings[-1 - slot] = from.strings[-1 - fromSlot];
+        }
+        selection = from.selection;
+        size = from.size;
+        rows = CAPACITY;
+    }
+}
@@ -10,6 +10,10 @@ public class TupleDesc implements Serializable {
 
     TDItem TDArray[];
     Type[] typeAr;
+    /** The byte offset of each field within a serialized tuple; computed on first use. */
+    private transient volatile int[] offsets;
+    /** Where a Tuple of this TupleDesc keeps each field; computed on first use. */
+    private transient volatile int[] layout;
     /**
      * A help class to facilitate organizing the information of each field
      * */
@@ -178,6 +182,50 @@ public class TupleDesc implements Serializable {
         return (integerCounter*Type.INT_TYPE.getLen() + stringCounter*Type.STRING_TYPE.getLen());
     }
 
+    /**
+     * @return the offset of the ith field within a tuple of this TupleDesc
+     *         as it is stored on a page
+     */
+    int getFieldOffset(int i) {
+        int[] o = offsets;
+        if (o == null) {
+            o = new int[TDArray.length];
+            int offset = 0;
+            for (int j = 0; j < o.length; j++) {
+                o[j] = offset;
+                offset += TDArray[j].fieldType.getLen();
+            }
+            offsets = o;
+        }
+        return o[i];
+    }
+
+    /**
+     * @return where a Tuple of this TupleDesc keeps each of its fields: for
+     *         field i, its index among the int fields if it is an int,
+     *         otherwise -1 minus its index among the string fields. The two
+     *         entries after the last field are the number of int fields and
+     *         the number of string fields. The array must not be modified.
+     */
+    int[] getTupleLayout() {
+        int[] l = layout;
+        if (l == null) {
+            l = new int[TDArray.length + 2];
+            int ints = 0;
+            int strings = 0;
+            for (int j = 0; j < TDArray.length; j++) {
+                if (TDArray[j].fieldType == Type.INT_TYPE)
+                    l[j] = ints++;
+                else
+                    l[j] = -1 - strings++;
+            }
+            l[TDArray.length] = ints;
+            l[TDArray.length + 1] = strings;
+            layout = l;
+        }
+        return l;
+    }
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
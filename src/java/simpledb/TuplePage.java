@@ -0,0 +1,56 @@
+package simpledb;
+
+import java.util.Iterator;
+
+/**
+ * TuplePage is a page of a HeapFile that holds tuples: a {@link HeapPage},
+ * whose tuples have a fixed size, or a {@link SlottedPage}, whose tuples
+ * take only the bytes their values need.
+ */
+interface TuplePage extends Page {
+
+    /**
+     * @return an iterator over the tuples on this page, which does not
+     *   support remove
+     */
+    Iterator<Tuple> iterator();
+
+    /**
+     * Adds the tuples of this page, from the given slot on, to a batch
+     * until the batch is full.
+     *
+     * @param batch the batch to add the tuples to
+     * @param slot the slot to start from
+     * @param fields the fields to copy, or null for all of them
+     * @return the slot to continue from once the batch has been read, or
+     *   -1 if every tuple from slot on was added
+     */
+    int fillBatch(TupleBatch batch, int slot, int[] fields);
+
+    /**
+     * Adds a tuple to the page and sets its RecordId.
+     *
+     * @throws DbException if the tuple does not fit or has another schema
+     */
+    void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Deletes a tuple from the page.
+     *
+     * @throws DbException if the tuple is not on this page
+     */
+    void deleteTuple(Tuple t) throws DbException;
+
+    /**
+     * Gives the tuples this page has handed out copies of the values they
+     * read from its bytes, before the bytes are reused for another page.
+     * The page is not used afterwards.
+     */
+    void detachTuples();
+
+    /** @return true if the given tuple fits on this page */
+    boolean hasRoomFor(Tuple t);
+
+    /** @return true if every tuple of the page's schema fits on this page */
+    boolean hasRoom();
+}
@@ -0,0 +1,159 @@
+package simpledb;
+
+/**
+ * The full 2Q replacement policy (Johnson and Shasha). Newly loaded pages go
+ * to a FIFO queue, A1in. Pages pushed out of A1in are remembered by id only
+ * in a ghost queue, A1out; a page that is loaded again while its id is still
+ * in A1out has proven to be hot and goes to the main LRU queue, Am. Pages
+ * that are only touched once, such as those of a large sequential scan,
+ * therefore never displace the pages in Am.
+ * <p>
+ * A1in and Am thread through the same frame links; every operation takes
+ * constant time. A1out is a ring of page ids, found through an
+ * open-addressing index as the retained histories of {@link LruKPolicy}
+ * are, and the oldest id is overwritten when the ring is full. All of it
+ * is allocated up front, so neither loads nor evictions allocate.
+ */
+public class TwoQueuePolicy extends AbstractReplacementPolicy {
+
+    /** Fraction of the pool reserved for A1in, as recommended in the paper. */
+    private static final double KIN_FRACTION = 0.25;
+    /** Size of A1out relative to the pool, as recommended in the paper. */
+    private static final double KOUT_FRACTION = 0.5;
+
+    private static final byte FREE = 0;
+    private static final byte IN_A1IN = 1;
+    private static final byte IN_AM = 2;
+
+    private final int kin;
+    private final int kout;
+
+    private final byte[] queueOf;
+    private final FrameList a1in;
+    private final FrameList am;
+    /** The ids in A1out, by slot; null if the slot is empty. */
+    private final PageId[] a1out;
+    /** The slot the next id goes to, overwriting the oldest. */
+    private int nextOut = 0;
+    /** Hash table from page id to A1out slot + 1, linear probing; 0 if empty. */
+    private final int[] a1outIndex;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity the number of frames in the pool this policy serves
+     */
+    public TwoQueuePolicy(int capacity) {
+        this.kin = Math.max(1, (int) (capacity * KIN_FRACTION));
+        this.kout = Math.max(1, (int) (capacity * KOUT_FRACTION));
+        this.queueOf = new byte[capacity];
+        int[] prev = new int[capacity];
+        int[] next = new int[capacity];
+        this.a1in = new FrameList(prev, next);
+        this.am = new FrameList(prev, next);
+        this.a1out = new PageId[kout];
+        // at most half full, so probes stay short
+        this.a1outIndex = new int[Integer.highestOneBit(kout) * 4];
+    }
+
+    public void pageHit(int frame) {
+        super.pageHit(frame);
+        // hits in A1in are deliberately ignored: they are most likely
+        // correlated references from the access that loaded the page
+        if (queueOf[frame] == IN_AM)
+            am.moveToLast(frame);
+    }
+
+    public void pageLoaded(int frame, PageId pid) {
+        super.pageLoaded(frame, pid);
+        int slot = findOut(pid);
+        if (slot >= 0) {
+            forget(slot);
+            am.addLast(frame);
+            queueOf[frame] = IN_AM;
+        } else {
+            a1in.addLast(frame);
+            queueOf[frame] = IN_A1IN;
+        }
+    }
+
+    public void pageRemoved(int frame, PageId pid) {
+        if (queueOf[frame] == IN_A1IN) {
+            a1in.remove(frame);
+            addOut(pid);
+        } else if (queueOf[frame] == IN_AM) {
+            am.remove(frame);
+        }
+        queueOf[frame] = FREE;
+    }
+
+    public int chooseVictim() {
+        if (a1in.size() > kin || am.isEmpty())
+            return a1in.first();
+        return am.first();
+    }
+
+    protected String getName() {
+        return "2q";
+    }
+
+    /** Puts a page id in the oldest slot of A1out. */
+    private void addOut(PageId pid) {
+        int old = findOut(pid);
+        if (old >= 0)
+            forget(old);
+        int slot = nextOut;
+        nextOut = (slot + 1) % a1out.length;
+        if (a1out[slot] != null)
+            forget(slot);
+        a1out[slot] = pid;
+        int mask = a1outIndex.length - 1;
+        int i = hash(pid) & mask;
+        while (a1outIndex[i] != 0)
+            i = (i + 1) & mask;
+        a1outIndex[i] = slot + 1;
+    }
+
+    /** @return the slot of a page id in A1out, or -1 */
+    private int findOut(PageId pid) {
+        int i = indexOf(pid);
+        return i < 0 ? -1 : a1outIndex[i] - 1;
+    }
+
+    /** @return the position of a page id in the A1out index, or -1 */
+    private int indexOf(PageId pid) {
+        int mask = a1outIndex.length - 1;
+        for (int i = hash(pid) & mask; ; i = (i + 1) & mask) {
+            int s = a1outIndex[i];
+            if (s == 0)
+                return -1;
+            if (pid.equals(a1out[s - 1]))
+                return i;
+        }
+    }
+
+    /**
+     * Empties a slot of A1out, closing the gap it leaves in the index by
+     * moving later entries of the same probe run back.
+     */
+    private void forget(int slot) {
+        int mask = a1outIndex.length - 1;
+        int i = indexOf(a1out[slot]);
+        for (int j = (i + 1) & mask; a1outIndex[j] != 0; j = (j + 1) & mask) {
+            int home = hash(a1out[a1outIndex[j] - 1]) & mask;
+            // an entry stays if its home lies cyclically in (i, j]
+            boolean stays = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+            if (!stays) {
+                a1outIndex[i] = a1outIndex[j];
+                i = j;
+            }
+        }
+        a1outIndex[i] = 0;
+        a1out[slot] = null;
+    }
+
+    private static int hash(PageId pid) {
+        int h = pid.hashCode() * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+}
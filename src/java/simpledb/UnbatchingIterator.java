@@ -0,0 +1,64 @@
+package simpledb;
+
+/**
+ * UnbatchingIterator reads a BatchIterator a batch at a time and returns
+ * its tuples one by one, so an operator that reads tuples can sit on top of
+ * a plan whose operators pass batches to each other.
+ */
+public class UnbatchingIterator extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private BatchIterator child;
+    private transient TupleBatch batch;
+    private transient int k;
+
+    /**
+     * Constructor.
+     *
+     * @param child the iterator whose batches to return as tuples
+     */
+    public UnbatchingIterator(BatchIterator child) {
+        this.child = child;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (batch == null || k == batch.size()) {
+            batch = child.nextBatch();
+            k = 0;
+            if (batch == null)
+                return null;
+        }
+        return batch.getTuple(k++);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = BatchingIterator.of(children[0]);
+    }
+}
@@ -0,0 +1,98 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Writes a batch of pages to one file. The pages are sorted by offset and
+ * every run of pages that are adjacent on disk is written with a single
+ * gather write, so flushing many pages costs a few large sequential writes
+ * instead of one small random write per page. The file is forced to disk
+ * once, after the whole batch has been written.
+ *
+ * @see DbFile#writePages
+ */
+class VectoredWriter {
+
+    /** Most pages passed to a single gather write. */
+    static final int MAX_RUN = 64;
+
+    private long[] offsets;
+    private byte[][] pages;
+    private int count = 0;
+
+    VectoredWriter(int expectedPages) {
+        this.offsets = new long[Math.max(1, expectedPages)];
+        this.pages = new byte[offsets.length][];
+    }
+
+    /** Adds a page to be written at the given byte offset of the file. */
+    void add(long offset, byte[] data) {
+        if (count == offsets.length) {
+            offsets = Arrays.copyOf(offsets, count * 2);
+            pages = Arrays.copyOf(pages, count * 2);
+        }
+        offsets[count] = offset;
+        pages[count] = data;
+        count++;
+    }
+
+    /** @return the number of pages added so far */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Writes every page added through a channel of the file and forces the
+     * file to disk. The channel stays open; it is the file's own, so no
+     * file is opened per batch.
+     * <p>
+     * FileChannel has no positional gather write, so every run sets the
+     * position of the channel and writes from there while holding the
+     * channel's lock. Everything else writes and reads the files with
+     * positional calls, which leave the position alone.
+     *
+     * @return the number of gather writes issued
+     * @throws IOException if the file cannot be written
+     */
+    int writeAndForce(FileChannel channel) throws IOException {
+        if (count == 0)
+            return 0;
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++)
+            order[i] = i;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Long.compare(offsets[a], offsets[b]);
+            }
+        });
+
+        int writes = 0;
+        ByteBuffer[] run = new ByteBuffer[Math.min(count, MAX_RUN)];
+        int i = 0;
+        while (i < count) {
+            long start = offsets[order[i]];
+            long end = start;
+            int n = 0;
+            // extend the run while the next page starts where this one ends
+            while (i < count && n < run.length && offsets[order[i]] == end) {
+                byte[] data = pages[order[i]];
+                run[n++] = ByteBuffer.wrap(data);
+                end += data.length;
+                i++;
+            }
+            synchronized (channel) {
+                channel.position(start);
+                long remaining = end - start;
+                while (remaining > 0)
+                    remaining -= channel.write(run, 0, n);
+            }
+            writes++;
+        }
+        channel.force(false);
+        return writes;
+    }
+}
@@ -0,0 +1,293 @@
+package simpledb;
+
+import java.io.*;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * WarmUp saves the ids of the pages resident in a BufferPool to a snapshot
+ * file, and reads those pages back after a restart, so a new Database
+ * starts with the pages the old one was using instead of a cold pool. Only
+ * the ids are saved, never the contents, so the snapshot is small and
+ * cannot go stale: pages are always read from their DbFile.
+ * <p>
+ * The snapshot file is named by the {@link #PROPERTY} system property. A
+ * BufferPool created with it set reads the snapshot left by the last run.
+ * Once the pool is installed in the Database it saves a new one every
+ * {@link #INTERVAL_PROPERTY} seconds on a daemon thread, until the pool is
+ * closed. Since the catalog of a new Database is still empty, the
+ * pages of a table are only restored once the table is added to the
+ * catalog; they are read on a background thread in file offset order, and
+ * restoring stops when the pool is full, so it never evicts pages that a
+ * query has already asked for.
+ *
+ * @see BufferPool#getWarmUp()
+ */
+public class WarmUp {
+
+    /** Name of the system property naming the snapshot file of a new Database. */
+    public static final String PROPERTY = "simpledb.bufferpool.warmup";
+
+    /** Name of the system property holding the seconds between two snapshots. */
+    public static final String INTERVAL_PROPERTY = "simpledb.bufferpool.warmup.interval";
+
+    /** Seconds between two snapshots when the interval is not set. */
+    static final int DEFAULT_INTERVAL = 30;
+
+    private static final int MAGIC = 0x5344424d;
+
+    private final BufferPool bufferPool;
+    private final File file;
+    /** The pages of the snapshot whose tables are not in the catalog yet, by table id. */
+    private final Map<Integer, List<PageId>> pending = new HashMap<Integer, List<PageId>>();
+    private ThreadPoolExecutor loader;
+    private Thread snapshotter;
+    private volatile boolean stopped;
+
+    private final AtomicLong snapshots = new AtomicLong();
+    private final AtomicLong restored = new AtomicLong();
+
+    /**
+     * Constructor. Reads the snapshot file, if there is one.
+     *
+     * @param bufferPool the pool whose pages are saved and restored
+     * @param file the snapshot file, or null to do neither
+     */
+    WarmUp(BufferPool bufferPool, File file) {
+        this.bufferPool = bufferPool;
+        this.file = file;
+        if (file != null && file.exists()) {
+            try {
+                for (PageId pid : read(file)) {
+                    List<PageId> pages = pending.get(pid.getTableId());
+                    if (pages == null) {
+                        pages = new ArrayList<PageId>();
+                        pending.put(pid.getTableId(), pages);
+                    }
+                    pages.add(pid);
+                }
+            } catch (IOException e) {
+                // a damaged snapshot only costs the warm-up
+                Debug.log(1, "cannot read warm-up snapshot %s: %s", file, e);
+            }
+        }
+    }
+
+    /** @return the snapshot file, or null if warm-up is off */
+    public File getFile() {
+        return file;
+    }
+
+    /** @return the number of snapshots saved */
+    public long getSnapshotCount() {
+        return snapshots.get();
+    }
+
+    /** @return the number of pages read back into the pool from the snapshot */
+    public long getRestoredCount() {
+        return restored.get();
+    }
+
+    /** @return the number of pages of the snapshot still waiting for their table */
+    public synchronized int getPendingCount() {
+        int n = 0;
+        for (List<PageId> pages : pending.values())
+            n += pages.size();
+        return n;
+    }
+
+    /**
+     * Starts the thread saving a snapshot every interval, if warm-up is on.
+     * Called once the pool is the pool of the Database; the thread runs
+     * until {@link #stop} is called.
+     */
+    synchronized void start(int intervalSeconds) {
+        if (file == null || snapshotter != null || stopped)
+            return;
+        final long millis = TimeUnit.SECONDS.toMillis(intervalSeconds);
+        snapshotter = new Thread(new Runnable() {
+            public void run() {
+                while (!stopped) {
+                    try {
+                        Thread.sleep(millis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    try {
+                        snapshot();
+                    } catch (IOException e) {
+                        Debug.log(1, "cannot write warm-up snapshot %s: %s", file, e);
+                    }
+                }
+            }
+        }, "simpledb-snapshot");
+        snapshotter.setDaemon(true);
+        snapshotter.start();
+    }
+
+    /**
+     * Stops the snapshot thread and any restore still running, and waits
+     * for them. No snapshot is saved after this returns.
+     */
+    void stop() {
+        Thread t;
+        ThreadPoolExecutor l;
+        synchronized (this) {
+            stopped = true;
+            t = snapshotter;
+            l = loader;
+        }
+        try {
+            if (t != null) {
+                t.interrupt();
+                t.join();
+            }
+            if (l != null) {
+                l.shutdownNow();
+                l.awaitTermination(1, TimeUnit.MINUTES);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** @return true while the snapshot thread is running */
+    synchronized boolean isRunning() {
+        return snapshotter != null && snapshotter.isAlive();
+    }
+
+    /**
+     * Saves the ids of the resident pages, and of the pages still waiting to
+     * be restored, to the snapshot file. The file is replaced atomically, so
+     * a crash while saving leaves the previous snapshot in place.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    public void snapshot() throws IOException {
+        if (file == null)
+            return;
+        List<PageId> pages = bufferPool.residentPages();
+        synchronized (this) {
+            for (List<PageId> p : pending.values())
+                pages.addAll(p);
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(pages.size());
+            for (PageId pid : pages) {
+                int[] data = pid.serialize();
+                out.writeUTF(pid.getClass().getName());
+                out.writeInt(data.length);
+                for (int d : data)
+                    out.writeInt(d);
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file))
+                throw new IOException("cannot replace " + file);
+        }
+        snapshots.incrementAndGet();
+    }
+
+    /** Reads the page ids saved in a snapshot file. */
+    static List<PageId> read(File f) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+        try {
+            if (in.readInt() != MAGIC)
+                throw new IOException("not a warm-up snapshot");
+            int n = in.readInt();
+            List<PageId> pages = new ArrayList<PageId>(n);
+            for (int i = 0; i < n; i++) {
+                String className = in.readUTF();
+                Object[] args = new Object[in.readInt()];
+                for (int j = 0; j < args.length; j++)
+                    args[j] = in.readInt();
+                try {
+                    Constructor<?> c = Class.forName(className).getDeclaredConstructors()[0];
+                    pages.add((PageId) c.newInstance(args));
+                } catch (Exception e) {
+                    throw new IOException("cannot create page id " + className, e);
+                }
+            }
+            return pages;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Restores the pages of a table that has just been added to the catalog,
+     * in the order they are stored in its file.
+     */
+    void tableAdded(int tableId) {
+        final List<PageId> pages;
+        synchronized (this) {
+            pages = stopped ? null : pending.remove(tableId);
+        }
+        if (pages == null)
+            return;
+        Collections.sort(pages, new Comparator<PageId>() {
+            public int compare(PageId a, PageId b) {
+                return Integer.compare(a.getPageNumber(), b.getPageNumber());
+            }
+        });
+        loader().execute(new Runnable() {
+            public void run() {
+                for (PageId pid : pages) {
+                    if (stopped)
+                        return;
+                    // never evict a page to make room for a guess
+                    if (bufferPool.partition(pid).size() >= bufferPool.partition(pid).capacity()
+                            || bufferPool.size() >= bufferPool.getNumPages())
+                        return;
+                    try {
+                        if (bufferPool.prefetchPage(pid))
+                            restored.incrementAndGet();
+                    } catch (Exception e) {
+                        // the page may be gone since the snapshot was taken
+                        Debug.log(1, "cannot restore %s: %s", pid, e);
+                    }
+                }
+            }
+        });
+    }
+
+    /** @return true once every restore handed to the background thread is done */
+    boolean isIdle() {
+        ThreadPoolExecutor l;
+        synchronized (this) {
+            l = loader;
+        }
+        return l == null || l.getCompletedTaskCount() == l.getTaskCount();
+    }
+
+    private synchronized ThreadPoolExecutor loader() {
+        if (loader == null) {
+            loader = new ThreadPoolExecutor(1, 1, 5, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "simpledb-warmup");
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            loader.allowCoreThreadTimeOut(true);
+        }
+        return loader;
+    }
+}
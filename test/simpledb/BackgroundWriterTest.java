@@ -0,0 +1,131 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BackgroundWriterTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 16;
+
+    private HeapFile hf;
+    private BufferPool bp;
+    private BackgroundWriter writer;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        // about 20 pages
+        hf = SystemTestUtil.createRandomHeapFile(2, 10000, null, new ArrayList<ArrayList<Integer>>());
+        bp = Database.resetBufferPool(POOL_PAGES, new FifoPolicy(POOL_PAGES));
+        writer = bp.getBackgroundWriter();
+        tid = new TransactionId();
+    }
+
+    @After public void stopWriter() {
+        writer.setTargetCleanFraction(0);
+    }
+
+    /** Reads pages 0 to n - 1 into the pool and marks them dirty. */
+    private ArrayList<Page> dirty(int n) throws Exception {
+        ArrayList<Page> pages = new ArrayList<Page>();
+        for (int i = 0; i < n; i++) {
+            Page pg = bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_WRITE);
+            pg.markDirty(true, tid);
+            pages.add(pg);
+        }
+        return pages;
+    }
+
+    private static int countDirty(ArrayList<Page> pages) {
+        int n = 0;
+        for (Page pg : pages)
+            if (pg.isDirty() != null)
+                n++;
+        return n;
+    }
+
+    /**
+     * The writer is off unless a target is set
+     */
+    @Test public void offByDefault() throws Exception {
+        assertEquals(0.0, writer.getTargetCleanFraction(), 0.0);
+        ArrayList<Page> pages = dirty(8);
+        Thread.sleep(2 * BackgroundWriter.INTERVAL_MS);
+        assertEquals(8, countDirty(pages));
+        assertEquals(0, writer.getRoundCount());
+    }
+
+    /**
+     * A round writes just enough pages to meet the target, logging each one
+     */
+    @Test public void round() throws Exception {
+        ArrayList<Page> pages = dirty(12);
+        int records = Database.getLogFile().getTotalRecords();
+        writer.setTargetCleanFraction(0.5);
+        for (int i = 0; i < 100 && countDirty(pages) > POOL_PAGES / 2; i++)
+            Thread.sleep(10);
+        assertEquals(POOL_PAGES / 2, countDirty(pages));
+        assertEquals(12 - POOL_PAGES / 2, writer.getPagesWritten());
+        assertEquals(records + writer.getPagesWritten(), Database.getLogFile().getTotalRecords());
+    }
+
+    /**
+     * Evicting a dirty page writes it in the foreground and wakes the writer
+     */
+    @Test public void foregroundWrite() throws Exception {
+        ArrayList<Page> pages = dirty(POOL_PAGES);
+        bp.getPage(tid, new HeapPageId(hf.getId(), POOL_PAGES), Permissions.READ_ONLY);
+        assertEquals(1, writer.getForegroundWrites());
+        assertNull(pages.get(0).isDirty());
+        assertEquals(POOL_PAGES - 1, countDirty(pages));
+    }
+
+    /**
+     * With the writer keeping frames clean, evictions find clean victims
+     */
+    @Test public void cleanVictims() throws Exception {
+        ArrayList<Page> pages = dirty(POOL_PAGES);
+        writer.setTargetCleanFraction(1.0);
+        for (int i = 0; i < 100 && countDirty(pages) > 0; i++)
+            Thread.sleep(10);
+        assertEquals(0, countDirty(pages));
+        for (int i = POOL_PAGES; i < hf.numPages(); i++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        assertEquals(0, writer.getForegroundWrites());
+    }
+
+    /**
+     * Closing the pool stops the writer, and it does not start again
+     */
+    @Test public void stopsWithPool() throws Exception {
+        ArrayList<Page> pages = dirty(POOL_PAGES);
+        writer.setTargetCleanFraction(1.0);
+        for (int i = 0; i < 100 && writer.getRoundCount() == 0; i++)
+            Thread.sleep(10);
+        Database.resetBufferPool(POOL_PAGES, new FifoPolicy(POOL_PAGES));
+        long rounds = writer.getRoundCount();
+        assertEquals(0.0, writer.getTargetCleanFraction(), 0.0);
+        writer.setTargetCleanFraction(1.0);
+        for (Page pg : pages)
+            pg.markDirty(true, tid);
+        Thread.sleep(2 * BackgroundWriter.INTERVAL_MS);
+        assertEquals(rounds, writer.getRoundCount());
+        assertEquals(POOL_PAGES, countDirty(pages));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BackgroundWriterTest.class);
+    }
+}
@@ -0,0 +1,136 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Compares aggregation queries run a tuple at a time with the same plans
+ * run in batches. Each query scans a table of three int columns that the
+ * buffer pool holds in full, filters it and aggregates it, with and
+ * without grouping. In the tuple at a time plans the aggregate reads its
+ * child through {@link TupleAtATime}, which hides that the child can
+ * return batches; otherwise the plans are the same.
+ * <p>
+ * Not a unit test; run it with
+ * <pre>
+ * java -cp bin/src:bin/test simpledb.BatchExecutionBenchmark [rows] [runs]
+ * </pre>
+ */
+public class BatchExecutionBenchmark {
+
+    /** Passes on the tuples of an iterator, and only its tuples. */
+    private static class TupleAtATime implements OpIterator {
+        private static final long serialVersionUID = 1L;
+        private final OpIterator child;
+
+        TupleAtATime(OpIterator child) {
+            this.child = child;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            return child.hasNext();
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            return child.next();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return child.getTupleDesc();
+        }
+
+        public void close() {
+            child.close();
+        }
+    }
+
+    private interface Query {
+        OpIterator plan(boolean batched);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        File f = File.createTempFile("batchbench", ".dat");
+        f.deleteOnExit();
+        Random r = new Random(1);
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Integer> t = new ArrayList<Integer>();
+            t.add(r.nextInt(1000));
+            t.add(r.nextInt(1000));
+            t.add(r.nextInt(1000000));
+            tuples.add(t);
+        }
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 3);
+        tuples = null;
+        final HeapFile hf = Utility.openHeapFile(3, f);
+        Database.resetBufferPool(hf.numPages() + 16);
+        final TransactionId tid = new TransactionId();
+
+        Query grouped = new Query() {
+            public OpIterator plan(boolean batched) {
+                // SELECT f0, SUM(f2) FROM t WHERE f1 > 100 GROUP BY f0
+                OpIterator child = new Filter(new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(100)),
+                        new SeqScan(tid, hf.getId()));
+                return new Aggregate(batched ? child : new TupleAtATime(child), 2, 0, Aggregator.Op.SUM);
+            }
+        };
+        Query ungrouped = new Query() {
+            public OpIterator plan(boolean batched) {
+                // SELECT AVG(f2) FROM t WHERE f1 < 500 AND f0 <> 7
+                OpIterator child = new Filter(new Predicate(0, Predicate.Op.NOT_EQUALS, new IntField(7)),
+                        new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(500)),
+                                new SeqScan(tid, hf.getId())));
+                return new Aggregate(batched ? child : new TupleAtATime(child), 2,
+                        Aggregator.NO_GROUPING, Aggregator.Op.AVG);
+            }
+        };
+
+        System.out.printf("%d rows in %d pages, best of %d runs%n", rows, hf.numPages(), runs);
+        System.out.printf("%-10s %14s %14s %9s%n", "query", "tuples ms", "batches ms", "speedup");
+        // the first round only reads the table into the buffer pool and warms up the JIT
+        run(grouped, false, 3);
+        run(grouped, true, 3);
+        run(ungrouped, false, 3);
+        run(ungrouped, true, 3);
+        for (int round = 0; round < 2; round++) {
+            report("grouped", run(grouped, false, runs), run(grouped, true, runs));
+            report("ungrouped", run(ungrouped, false, runs), run(ungrouped, true, runs));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static void report(String name, double tuples, double batches) {
+        System.out.printf("%-10s %14.1f %14.1f %8.1fx%n", name, tuples, batches, tuples / batches);
+    }
+
+    /** @return the fastest of some runs of a query, in milliseconds */
+    private static double run(Query query, boolean batched, int runs) throws Exception {
+        double best = Double.MAX_VALUE;
+        long check = 0;
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            OpIterator plan = query.plan(batched);
+            plan.open();
+            while (plan.hasNext())
+                check += plan.next().getInt(plan.getTupleDesc().numFields() - 1);
+            plan.close();
+            best = Math.min(best, (System.nanoTime() - start) / 1e6);
+        }
+        if (check == 42)
+            System.out.println();
+        return best;
+    }
+}
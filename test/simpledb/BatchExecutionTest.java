@@ -0,0 +1,165 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BatchExecutionTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+    private HeapFile small;
+    private HeapFile large;
+    private ArrayList<ArrayList<Integer>> largeTuples;
+
+    @Before public void setUp() throws Exception {
+        tid = new TransactionId();
+        small = SystemTestUtil.createRandomHeapFile(2, 300, 100, null, new ArrayList<ArrayList<Integer>>());
+        largeTuples = new ArrayList<ArrayList<Integer>>();
+        large = SystemTestUtil.createRandomHeapFile(3, 5000, 100, null, largeTuples);
+    }
+
+    /** @return the tuples of an iterator read a tuple at a time */
+    private static ArrayList<ArrayList<Integer>> rows(OpIterator it) throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        while (it.hasNext())
+            rows.add(SystemTestUtil.tupleToList(it.next()));
+        it.close();
+        return rows;
+    }
+
+    /** Checks that an iterator returns the given tuples, in any order. */
+    private static void matchTuples(OpIterator it, ArrayList<ArrayList<Integer>> expected) throws Exception {
+        ArrayList<String> want = new ArrayList<String>();
+        for (ArrayList<Integer> t : expected)
+            want.add(t.toString());
+        ArrayList<String> got = new ArrayList<String>();
+        for (ArrayList<Integer> t : rows(it))
+            got.add(t.toString());
+        Collections.sort(want);
+        Collections.sort(got);
+        assertEquals(want, got);
+    }
+
+    private OpIterator scanFilterProject() {
+        Filter filter = new Filter(new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(40)),
+                new SeqScan(tid, large.getId(), "l"));
+        return new Project(new ArrayList<Integer>(Arrays.asList(2, 0)),
+                new Type[] { Type.INT_TYPE, Type.INT_TYPE }, filter);
+    }
+
+    private OpIterator smallFiltered() {
+        return new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(10)),
+                new SeqScan(tid, small.getId(), "s"));
+    }
+
+    /**
+     * Scans, filters and projections return the same tuples in batches as
+     * a tuple at a time
+     */
+    @Test public void filterProject() throws Exception {
+        ArrayList<ArrayList<Integer>> expected = rows(scanFilterProject());
+        int n = 0;
+        for (ArrayList<Integer> t : largeTuples)
+            if (t.get(1) > 40)
+                n++;
+        assertEquals(n, expected.size());
+
+        BatchIterator plan = (BatchIterator) scanFilterProject();
+        plan.open();
+        TupleBatch batch;
+        int batched = 0;
+        while ((batch = plan.nextBatch()) != null) {
+            assertTrue(batch.size() > 0 && batch.size() <= TupleBatch.CAPACITY);
+            batched += batch.size();
+        }
+        plan.close();
+        assertEquals(n, batched);
+        matchTuples(new UnbatchingIterator((BatchIterator) scanFilterProject()), expected);
+    }
+
+    /**
+     * Both joins return the same tuples in batches as a tuple at a time,
+     * including when a batch fills up in the middle of the matches of a
+     * tuple
+     */
+    @Test public void joins() throws Exception {
+        JoinPredicate eq = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        ArrayList<ArrayList<Integer>> expected = rows(new Join(eq,
+                new SeqScan(tid, small.getId(), "s"), new SeqScan(tid, large.getId(), "l")));
+        assertTrue(expected.size() > TupleBatch.CAPACITY);
+        matchTuples(new UnbatchingIterator(new Join(eq,
+                new SeqScan(tid, small.getId(), "s"), new SeqScan(tid, large.getId(), "l"))), expected);
+        matchTuples(new UnbatchingIterator(new HashEquiJoin(eq,
+                new SeqScan(tid, small.getId(), "s"), new SeqScan(tid, large.getId(), "l"))), expected);
+
+        JoinPredicate lt = new JoinPredicate(1, Predicate.Op.LESS_THAN, 1);
+        expected = rows(new Join(lt, smallFiltered(), scanFilterProject()));
+        assertTrue(expected.size() > TupleBatch.CAPACITY);
+        matchTuples(new UnbatchingIterator(new Join(lt, smallFiltered(), scanFilterProject())), expected);
+    }
+
+    /**
+     * An aggregate over a plan of batch operators gives the same result as
+     * over a plan read a tuple at a time
+     */
+    @Test public void aggregate() throws Exception {
+        for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.MIN,
+                Aggregator.Op.MAX, Aggregator.Op.AVG, Aggregator.Op.COUNT }) {
+            // an OrderBy returns tuples only, so the aggregate reads them one at a time
+            ArrayList<ArrayList<Integer>> expected = rows(new Aggregate(
+                    new OrderBy(0, true, scanFilterProject()), 0, 1, op));
+            assertTrue(expected.size() > 50);
+            Aggregate batched = new Aggregate(scanFilterProject(), 0, 1, op);
+            matchTuples(batched, expected);
+            matchTuples(new UnbatchingIterator(new Aggregate(scanFilterProject(), 0, 1, op)), expected);
+
+            expected = rows(new Aggregate(new OrderBy(0, true, scanFilterProject()), 0, Aggregator.NO_GROUPING, op));
+            matchTuples(new Aggregate(scanFilterProject(), 0, Aggregator.NO_GROUPING, op), expected);
+        }
+    }
+
+    /**
+     * A batch operator reads a child that only returns tuples one at a
+     * time in batches, in order
+     */
+    @Test public void mixed() throws Exception {
+        Filter filter = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(30)),
+                new OrderBy(0, false, new SeqScan(tid, large.getId(), "l")));
+        filter.open();
+        int last = Integer.MAX_VALUE;
+        int n = 0;
+        TupleBatch batch;
+        while ((batch = filter.nextBatch()) != null) {
+            for (int k = 0; k < batch.size(); k++) {
+                int value = batch.getInt(0, batch.row(k));
+                assertTrue(value < 30 && value <= last);
+                last = value;
+                n++;
+            }
+        }
+        filter.close();
+        int expected = 0;
+        for (ArrayList<Integer> t : largeTuples)
+            if (t.get(0) < 30)
+                expected++;
+        assertEquals(expected, n);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BatchExecutionTest.class);
+    }
+}
@@ -0,0 +1,164 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolPartitionTest extends SimpleDbTestBase {
+
+    private HeapFile hot;
+    private HeapFile cold;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        // about 20 pages each
+        hot = SystemTestUtil.createRandomHeapFile(2, 10000, null, new ArrayList<ArrayList<Integer>>());
+        cold = SystemTestUtil.createRandomHeapFile(2, 10000, null, new ArrayList<ArrayList<Integer>>());
+        tid = new TransactionId();
+    }
+
+    private BufferPool pool(int pages, PartitionSpec... specs) {
+        return Database.resetBufferPool(new BufferPool(pages, Arrays.asList(specs)));
+    }
+
+    private void read(BufferPool bp, HeapFile f, int from, int to) throws Exception {
+        for (int i = from; i < to; i++)
+            bp.getPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+    }
+
+    /**
+     * A scan confined to a small partition leaves the rest of the pool alone
+     */
+    @Test public void ring() throws Exception {
+        BufferPool bp = pool(20, new PartitionSpec("cold", 0, 4, "fifo").addTable(cold.getId()));
+        assertEquals("cold", bp.getPartitionName(new HeapPageId(cold.getId(), 0)));
+        assertEquals("default", bp.getPartitionName(new HeapPageId(hot.getId(), 0)));
+
+        read(bp, hot, 0, 10);
+        read(bp, cold, 0, cold.numPages());
+        assertEquals(4, bp.getPartitionSize("cold"));
+        assertEquals(10, bp.getPartitionSize("default"));
+
+        long misses = bp.getMissCount();
+        read(bp, hot, 0, 10);
+        assertEquals(misses, bp.getMissCount());
+    }
+
+    /**
+     * Frames beyond the minimum are shared out evenly; the minimum is never lost
+     */
+    @Test public void minimum() throws Exception {
+        BufferPool bp = pool(10, new PartitionSpec("hot", 6, 10, "lru").addTable(hot.getId()));
+        read(bp, hot, 0, 10);
+        read(bp, cold, 0, cold.numPages());
+        // two pages beyond the minimum each
+        assertEquals(8, bp.getPartitionSize("hot"));
+        assertEquals(2, bp.getPartitionSize("default"));
+        assertEquals(10, bp.size());
+
+        bp = pool(10, new PartitionSpec("hot", 6, 10, "lru").addTable(hot.getId()),
+                new PartitionSpec("cold", 4, 10, "lru").addTable(cold.getId()));
+        read(bp, hot, 0, 10);
+        read(bp, cold, 0, cold.numPages());
+        assertEquals(6, bp.getPartitionSize("hot"));
+        assertEquals(4, bp.getPartitionSize("cold"));
+    }
+
+    /**
+     * A partition below its maximum borrows frames from partitions above their minimum
+     */
+    @Test public void borrow() throws Exception {
+        BufferPool bp = pool(10, new PartitionSpec("hot", 2, 10, "lru").addTable(hot.getId()));
+        read(bp, cold, 0, 10);
+        assertEquals(10, bp.getPartitionSize("default"));
+        read(bp, hot, 0, 5);
+        assertEquals(5, bp.getPartitionSize("hot"));
+        assertEquals(5, bp.getPartitionSize("default"));
+        assertEquals(-1, bp.getPartitionSize("none"));
+    }
+
+    /**
+     * Quotas must fit in the pool
+     */
+    @Test public void badQuotas() {
+        try {
+            pool(10, new PartitionSpec("a", 6, 6, "lru").addTable(1),
+                    new PartitionSpec("b", 6, 6, "lru").addTable(2));
+            fail("expected exception");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            pool(10, new PartitionSpec("a", 0, 11, "lru").addTable(1));
+            fail("expected exception");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            new PartitionSpec("a", 5, 4, "lru");
+            fail("expected exception");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    /**
+     * Criteria of different kinds must all match
+     */
+    @Test public void matching() {
+        PartitionSpec internal = new PartitionSpec("idx", 0, 1, "lru").addCategory(BTreePageId.INTERNAL);
+        assertTrue(internal.matches(new BTreePageId(7, 3, BTreePageId.INTERNAL)));
+        assertFalse(internal.matches(new BTreePageId(7, 3, BTreePageId.LEAF)));
+        assertFalse(internal.matches(new HeapPageId(7, 3)));
+        internal.addTable(8);
+        assertFalse(internal.matches(new BTreePageId(7, 3, BTreePageId.INTERNAL)));
+        assertTrue(internal.matches(new BTreePageId(8, 3, BTreePageId.INTERNAL)));
+        assertFalse(new PartitionSpec("empty", 0, 1, "lru").matches(new HeapPageId(7, 3)));
+
+        PartitionSpec heaps = new PartitionSpec("heaps", 0, 1, "lru").addFileClass("HeapFile");
+        assertTrue(heaps.matches(new HeapPageId(hot.getId(), 0)));
+    }
+
+    /**
+     * The system property syntax
+     */
+    @Test public void parse() {
+        List<PartitionSpec> specs = PartitionSpec.parseAll(
+                "hot:class=BTreeFile,category=internal|root_ptr,min=64,max=64; cold:table=42|43,max=16,policy=fifo");
+        assertEquals(2, specs.size());
+        PartitionSpec hotSpec = specs.get(0);
+        assertEquals("hot", hotSpec.getName());
+        assertEquals(64, hotSpec.getMinPages());
+        assertEquals(64, hotSpec.getMaxPages());
+        assertEquals(ReplacementPolicy.DEFAULT_POLICY, hotSpec.getPolicy());
+        PartitionSpec coldSpec = specs.get(1);
+        assertEquals(0, coldSpec.getMinPages());
+        assertEquals("fifo", coldSpec.getPolicy());
+        assertTrue(coldSpec.matches(new HeapPageId(43, 1)));
+        assertFalse(coldSpec.matches(new HeapPageId(44, 1)));
+        assertTrue(PartitionSpec.parseAll("").isEmpty());
+
+        String[] bad = { "nomax:table=1", ":max=1", "x:max=1,color=red", "x:max=one", "x:max=1,category=leafy" };
+        for (String spec : bad) {
+            try {
+                PartitionSpec.parseAll(spec);
+                fail("expected exception for " + spec);
+            } catch (IllegalArgumentException e) {
+            }
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolPartitionTest.class);
+    }
+}
@@ -0,0 +1,126 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares queries run by the interpreted operators with the same plans
+ * compiled by {@link QueryCompiler}. The tables are held in full by the
+ * buffer pool: a fact table of three int columns and a dimension table of
+ * two. The time to compile a plan is reported apart; plans of one shape
+ * are compiled once.
+ * <p>
+ * Not a unit test; run it with
+ * <pre>
+ * java -cp bin/src:bin/test simpledb.CompiledQueryBenchmark [rows] [runs]
+ * </pre>
+ */
+public class CompiledQueryBenchmark {
+
+    private interface Query {
+        OpIterator plan();
+    }
+
+    private static HeapFile table(int rows, int[] bounds) throws Exception {
+        File f = File.createTempFile("compilebench", ".dat");
+        f.deleteOnExit();
+        Random r = new Random(rows);
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Integer> t = new ArrayList<Integer>();
+            for (int bound : bounds)
+                t.add(r.nextInt(bound));
+            tuples.add(t);
+        }
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), bounds.length);
+        return Utility.openHeapFile(bounds.length, f);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        if (!QueryCompiler.isAvailable()) {
+            System.out.println("no Java compiler in this JVM; run it on a JDK");
+            return;
+        }
+
+        final HeapFile fact = table(rows, new int[] { 1000, 1000, 1000000 });
+        final HeapFile dim = table(1000, new int[] { 1000, 10 });
+        Database.resetBufferPool(fact.numPages() + dim.numPages() + 16);
+        final TransactionId tid = new TransactionId();
+
+        Query grouped = new Query() {
+            public OpIterator plan() {
+                // SELECT f0, SUM(f2) FROM fact WHERE f1 > 100 GROUP BY f0
+                return new Aggregate(new Filter(new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(100)),
+                        new SeqScan(tid, fact.getId(), "f")), 2, 0, Aggregator.Op.SUM);
+            }
+        };
+        Query join = new Query() {
+            public OpIterator plan() {
+                // SELECT d.f1, AVG(f.f2) FROM dim d, fact f
+                // WHERE d.f0 = f.f0 AND f.f1 < 500 GROUP BY d.f1
+                return new Aggregate(new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                        new SeqScan(tid, dim.getId(), "d"),
+                        new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(500)),
+                                new SeqScan(tid, fact.getId(), "f"))),
+                        4, 1, Aggregator.Op.AVG);
+            }
+        };
+        Query select = new Query() {
+            public OpIterator plan() {
+                // SELECT f2, f0 FROM fact WHERE f1 >= 990 AND f0 <> 7
+                return new Project(new ArrayList<Integer>(Arrays.asList(2, 0)),
+                        new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+                        new Filter(new Predicate(0, Predicate.Op.NOT_EQUALS, new IntField(7)),
+                                new Filter(new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(990)),
+                                        new SeqScan(tid, fact.getId(), "f"))));
+            }
+        };
+
+        System.out.printf("%d rows in %d pages, best of %d runs%n", rows, fact.numPages(), runs);
+        for (Query q : new Query[] { grouped, join, select }) {
+            long start = System.nanoTime();
+            QueryCompiler.compile(q.plan());
+            System.out.printf("compiled a plan in %.1f ms%n", (System.nanoTime() - start) / 1e6);
+        }
+        System.out.printf("%-10s %16s %16s %9s%n", "query", "interpreted ms", "compiled ms", "speedup");
+        // the first round only reads the tables into the buffer pool and warms up the JIT
+        for (Query q : new Query[] { grouped, join, select }) {
+            run(q, false, 3);
+            run(q, true, 3);
+        }
+        for (int round = 0; round < 2; round++) {
+            report("grouped", run(grouped, false, runs), run(grouped, true, runs));
+            report("join", run(join, false, runs), run(join, true, runs));
+            report("select", run(select, false, runs), run(select, true, runs));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static void report(String name, double interpreted, double compiled) {
+        System.out.printf("%-10s %16.1f %16.1f %8.1fx%n", name, interpreted, compiled, interpreted / compiled);
+    }
+
+    /** @return the fastest of some runs of a query, in milliseconds */
+    private static double run(Query query, boolean compiled, int runs) throws Exception {
+        double best = Double.MAX_VALUE;
+        long check = 0;
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            OpIterator plan = query.plan();
+            if (compiled)
+                plan = QueryCompiler.compile(plan);
+            plan.open();
+            while (plan.hasNext())
+                check += plan.next().getInt(0);
+            plan.close();
+            best = Math.min(best, (System.nanoTime() - start) / 1e6);
+        }
+        if (check == 42)
+            System.out.println();
+        return best;
+    }
+}
@@ -0,0 +1,163 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+
+    private File f;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        f = File.createTempFile("compressed", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".pmap").deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        tid = new TransactionId();
+    }
+
+    /**
+     * A compressed copy has the same pages in a fraction of the bytes, and
+     * scans the same tuples
+     */
+    @Test public void compress() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile source = SystemTestUtil.createRandomHeapFile(3, 5000, 1000, null, tuples);
+        CompressedHeapFile c = CompressedHeapFile.compress(source, f);
+        assertEquals(source.numPages(), c.numPages());
+        assertTrue(c.compressedLength() * 3 < (long) c.numPages() * BufferPool.getPageSize() * 2);
+        assertEquals(c.compressedLength(), f.length());
+        for (int i = 0; i < c.numPages(); i++) {
+            HeapPageId pid = new HeapPageId(source.getId(), i);
+            assertArrayEquals(source.readPage(pid).getPageData(), c.readPage(pid).getPageData());
+        }
+
+        // a new instance reads the map back
+        c.close();
+        CompressedHeapFile reopened = new CompressedHeapFile(f, source.getTupleDesc());
+        Database.getCatalog().addTable(reopened);
+        SystemTestUtil.matchTuples(reopened, tuples);
+    }
+
+    /**
+     * Inserts and deletes go through the buffer pool; rewritten pages get
+     * new extents and leave the old ones as they were
+     */
+    @Test public void insertDelete() throws Exception {
+        TupleDesc td = Utility.getTupleDesc(2);
+        CompressedHeapFile c = new CompressedHeapFile(f, td);
+        Database.getCatalog().addTable(c);
+        BufferPool bp = Database.getBufferPool();
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+        for (int i = 0; i < 1200; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] { i % 10, 7 });
+            bp.insertTuple(tid, c.getId(), t);
+            inserted.add(t);
+        }
+        assertEquals(3, c.numPages());
+        bp.flushAllPages();
+        long length = c.compressedLength();
+        assertTrue(length < BufferPool.getPageSize());
+        byte[] before = Files.readAllBytes(f.toPath());
+
+        // deleting the tail makes pages smaller, but they are not written in place
+        for (int i = 0; i < 1200; i++) {
+            if (i >= 700) {
+                bp.deleteTuple(tid, inserted.get(i));
+            } else {
+                ArrayList<Integer> row = new ArrayList<Integer>();
+                row.add(i % 10);
+                row.add(7);
+                rows.add(row);
+            }
+        }
+        bp.flushAllPages();
+        assertTrue(c.compressedLength() > length);
+        assertArrayEquals(before, Arrays.copyOf(Files.readAllBytes(f.toPath()), (int) length));
+
+        c.close();
+        CompressedHeapFile reopened = new CompressedHeapFile(f, td);
+        Database.getCatalog().addTable(reopened);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(3, reopened.numPages());
+        SystemTestUtil.matchTuples(reopened, rows);
+    }
+
+    /**
+     * Writing a page writes its own map entry, not those after it
+     */
+    @Test public void mapEntries() throws Exception {
+        HeapFile source = SystemTestUtil.createRandomHeapFile(3, 5000, 1000, null,
+                new ArrayList<ArrayList<Integer>>());
+        CompressedHeapFile c = CompressedHeapFile.compress(source, f);
+        Database.getCatalog().addTable(c);
+        int n = c.numPages();
+        assertTrue(n > 4);
+        assertEquals(n, c.getMapEntryWrites());
+        HeapPageId pid = new HeapPageId(c.getId(), 1);
+        HeapPage page = (HeapPage) c.readPage(pid);
+        page.deleteTuple(page.iterator().next());
+        c.writePage(page);
+        assertEquals(n + 1, c.getMapEntryWrites());
+        assertArrayEquals(page.getPageData(), c.readPage(pid).getPageData());
+
+        // appending past the end writes the pages skipped over too
+        c.writePage(new HeapPage(new HeapPageId(c.getId(), n + 2), HeapPage.createEmptyPageData()));
+        assertEquals(n + 4, c.getMapEntryWrites());
+        assertEquals(n + 3, c.numPages());
+
+        c.close();
+        CompressedHeapFile reopened = new CompressedHeapFile(f, source.getTupleDesc());
+        Database.getCatalog().addTable(reopened);
+        assertEquals(n + 3, reopened.numPages());
+        assertArrayEquals(page.getPageData(), reopened.readPage(pid).getPageData());
+    }
+
+    /**
+     * Pages that do not compress are stored as they are, and pages never
+     * written read back empty
+     */
+    @Test public void incompressibleAndEmpty() throws Exception {
+        TupleDesc td = Utility.getTupleDesc(2);
+        CompressedHeapFile c = new CompressedHeapFile(f, td);
+        Database.getCatalog().addTable(c);
+        byte[] noise = new byte[BufferPool.getPageSize()];
+        new Random(4).nextBytes(noise);
+        // every slot used, so the page keeps all of the noise
+        Arrays.fill(noise, 0, 63, (byte) -1);
+        HeapPage page = new HeapPage(new HeapPageId(c.getId(), 2), noise);
+        c.writePage(page);
+        assertEquals(3, c.numPages());
+        assertEquals(BufferPool.getPageSize(), c.compressedLength());
+
+        byte[] read = HeapPage.createEmptyPageData();
+        c.readPageData(2, read);
+        assertArrayEquals(page.getPageData(), read);
+        for (int i = 0; i < 2; i++) {
+            new Random(5).nextBytes(read);
+            c.readPageData(i, read);
+            assertArrayEquals(HeapPage.createEmptyPageData(), read);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
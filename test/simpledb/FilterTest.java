@@ -2,6 +2,7 @@ package simpledb;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
@@ -120,6 +121,29 @@ public class FilterTest extends SimpleDbTestBase {
     op.close();
   }
 
+  /**
+   * Unit test for a stack of Filters, which the topmost one evaluates as a
+   * whole, a tuple at a time and in batches
+   */
+  @Test public void filterStacked() throws Exception {
+    Filter op = new Filter(new Predicate(0, Predicate.Op.NOT_EQUALS, TestUtil.getField(0)),
+        new Filter(new Predicate(0, Predicate.Op.LESS_THAN, TestUtil.getField(3)),
+            new Filter(new Predicate(0, Predicate.Op.GREATER_THAN, TestUtil.getField(-3)), scan)));
+    int[] values = new int[] { -2, -1, 1, 2 };
+    int[] tuples = new int[values.length * testWidth];
+    for (int i = 0; i < tuples.length; i++)
+      tuples[i] = values[i / testWidth];
+    op.open();
+    TestUtil.compareDbIterators(op, TestUtil.createTupleList(testWidth, tuples));
+    op.rewind();
+    TupleBatch batch = op.nextBatch();
+    assertEquals(values.length, batch.size());
+    for (int k = 0; k < batch.size(); k++)
+      assertEquals(values[k], batch.getInt(0, batch.row(k)));
+    assertNull(op.nextBatch());
+    op.close();
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,100 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+
+    private static final int SLOTS = 504;
+    private static final int FULL_PAGES = 20;
+
+    private HeapFile hf;
+    private TransactionId tid;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        // twenty full pages and one with ten tuples on it
+        hf = SystemTestUtil.createRandomHeapFile(2, FULL_PAGES * SLOTS + 10, null,
+                new ArrayList<ArrayList<Integer>>());
+        new File(hf.getFile().getPath() + ".fsm").deleteOnExit();
+        bp = Database.resetBufferPool(50);
+        tid = new TransactionId();
+    }
+
+    private void insert(int n) throws Exception {
+        for (int i = 0; i < n; i++)
+            bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(i, 2));
+    }
+
+    private HeapPage page(int pgNo) throws Exception {
+        return (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), pgNo), Permissions.READ_ONLY);
+    }
+
+    /**
+     * Inserts go to the page with room on it without reading the full ones
+     */
+    @Test public void insertReadsOnePage() throws Exception {
+        assertEquals(FULL_PAGES + 1, hf.numPages());
+        insert(100);
+        assertEquals(1, bp.getMissCount());
+        assertEquals(SLOTS - 110, page(FULL_PAGES).getNumEmptySlots());
+
+        // fill the last page; the next insert adds a page
+        insert(SLOTS - 110 + 1);
+        assertEquals(FULL_PAGES + 2, hf.numPages());
+        assertEquals(0, page(FULL_PAGES).getNumEmptySlots());
+        assertEquals(SLOTS - 1, page(FULL_PAGES + 1).getNumEmptySlots());
+        assertEquals(2, bp.getMissCount());
+    }
+
+    /**
+     * A slot freed by a delete is used by the next insert
+     */
+    @Test public void deleteFreesPage() throws Exception {
+        Tuple victim = page(3).iterator().next();
+        bp.deleteTuple(tid, victim);
+        assertEquals(1, page(3).getNumEmptySlots());
+
+        insert(1);
+        assertEquals(0, page(3).getNumEmptySlots());
+        assertEquals(10, SLOTS - page(FULL_PAGES).getNumEmptySlots());
+    }
+
+    /**
+     * The map is kept on disk, and a wrong entry in it is corrected
+     */
+    @Test public void persistentHint() throws Exception {
+        insert(1);
+        File file = new File(hf.getFile().getPath() + ".fsm");
+        assertTrue(file.exists());
+        FreeSpaceMap reread = new FreeSpaceMap(file);
+        assertEquals(FULL_PAGES, reread.findFree(hf.numPages()));
+        assertFalse(reread.isFree(0));
+
+        // claim a full page has room; the insert finds out and moves on
+        hf.freeSpaceMap().setFree(5, true);
+        insert(1);
+        assertFalse(hf.freeSpaceMap().isFree(5));
+        assertEquals(SLOTS - 12, page(FULL_PAGES).getNumEmptySlots());
+        reread = new FreeSpaceMap(file);
+        assertFalse(reread.isFree(5));
+        assertEquals(FULL_PAGES, reread.findFree(hf.numPages()));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
@@ -0,0 +1,110 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HeapFileEncoderTest extends SimpleDbTestBase {
+
+    private static final Type[] MIXED = { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE };
+
+    private static File write(String text) throws IOException {
+        File f = File.createTempFile("encoder", ".txt");
+        f.deleteOnExit();
+        FileWriter w = new FileWriter(f);
+        w.write(text);
+        w.close();
+        return f;
+    }
+
+    private static byte[] convert(File in, Type[] types, char sep, int threads, int chunkSize) throws IOException {
+        File out = File.createTempFile("encoder", ".dat");
+        out.deleteOnExit();
+        HeapFileEncoder.convert(in, out, BufferPool.getPageSize(), types.length, types, sep, threads, chunkSize, false);
+        return Files.readAllBytes(out.toPath());
+    }
+
+    /**
+     * Chunks parsed on several threads give the same file as one thread,
+     * including lines longer than a chunk
+     */
+    @Test public void parallelSameAsSerial() throws Exception {
+        Random r = new Random(7);
+        StringBuilder text = new StringBuilder("\n");
+        for (int i = 0; i < 3000; i++) {
+            StringBuilder s = new StringBuilder();
+            for (int j = r.nextInt(300); j > 0; j--)
+                s.append((char) ('a' + r.nextInt(26)));
+            text.append(' ').append(i).append(" |").append(s).append("| ").append(-i).append("\r\n");
+            if (i % 50 == 0)
+                text.append('\n');
+        }
+        File in = write(text.toString());
+        byte[] serial = convert(in, MIXED, '|', 1, HeapFileEncoder.CHUNK_SIZE);
+        assertArrayEquals(serial, convert(in, MIXED, '|', 4, 200));
+        assertArrayEquals(serial, convert(in, MIXED, '|', 3, 4096));
+        assertArrayEquals(serial, convert(in, MIXED, '|', 1, 100));
+        assertEquals(0, serial.length % BufferPool.getPageSize());
+    }
+
+    /**
+     * The tuples come out in input order, packed on full pages
+     */
+    @Test public void tuplesInOrder() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            ArrayList<Integer> t = new ArrayList<Integer>();
+            t.add(i);
+            t.add(i * 7);
+            tuples.add(t);
+            text.append(i).append(',').append(i * 7).append('\n');
+        }
+        File in = write(text.toString());
+        File out = File.createTempFile("encoder", ".dat");
+        out.deleteOnExit();
+        HeapFileEncoder.convert(in, out, BufferPool.getPageSize(), 2,
+                new Type[] { Type.INT_TYPE, Type.INT_TYPE }, ',', 4, 1000, false);
+        HeapFile hf = Utility.openHeapFile(2, out);
+        assertEquals(10, hf.numPages());
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * The last line need not end with a newline, and an empty input gives
+     * one empty page
+     */
+    @Test public void edges() throws Exception {
+        Type[] ints = { Type.INT_TYPE, Type.INT_TYPE };
+        assertArrayEquals(convert(write("1,2\n3,4\n"), ints, ',', 1, 1000),
+                convert(write("1,2\n3,4"), ints, ',', 1, 1000));
+        assertArrayEquals(new byte[BufferPool.getPageSize()], convert(write(""), ints, ',', 1, 1000));
+    }
+
+    /**
+     * A line with the wrong number of fields is an error
+     */
+    @Test(expected = IOException.class) public void malformedLine() throws Exception {
+        Type[] ints = { Type.INT_TYPE, Type.INT_TYPE };
+        convert(write("1,2\n3\n5,6\n"), ints, ',', 1, 1000);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileEncoderTest.class);
+    }
+}
@@ -0,0 +1,132 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HeapFileLoadTest extends SimpleDbTestBase {
+
+    private static final int SLOTS = 504;
+
+    private File f;
+    private TupleDesc td;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        f = File.createTempFile("bulkload", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        td = Utility.getTupleDesc(2);
+        tid = new TransactionId();
+    }
+
+    /** Tuples 0..n-1 with both fields set to the tuple number. */
+    private Iterator<Tuple> tuples(final int n) {
+        return new Iterator<Tuple>() {
+            int i = 0;
+
+            public boolean hasNext() {
+                return i < n;
+            }
+
+            public Tuple next() {
+                Tuple t = new Tuple(td);
+                t.setField(0, new IntField(i));
+                t.setField(1, new IntField(i));
+                i++;
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * The loaded file has the pages HeapFileEncoder would write for the same
+     * tuples, and is added to the catalog
+     */
+    @Test public void sameAsEncoder() throws Exception {
+        // more than one chunk, ending on a part-full page
+        int n = (HeapFile.LOAD_CHUNK_PAGES + 3) * SLOTS + 17;
+        HeapFile hf = HeapFile.bulkLoad(f, td, tuples(n), "loaded", false);
+        assertEquals(HeapFile.LOAD_CHUNK_PAGES + 4, hf.numPages());
+        assertEquals((long) hf.numPages() * BufferPool.getPageSize(), f.length());
+        assertSame(hf, Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId("loaded")));
+        assertNull(TableStats.getTableStats("loaded"));
+
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < n; i++) {
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(i);
+            row.add(i);
+            rows.add(row);
+        }
+        HeapFile encoded = Utility.createEmptyHeapFile(File.createTempFile("encoded", ".dat").getPath(), 2);
+        encoded.getFile().deleteOnExit();
+        HeapFileEncoder.convert(rows, encoded.getFile(), BufferPool.getPageSize(), 2);
+        assertEquals(encoded.numPages(), hf.numPages());
+        for (int i = 0; i < hf.numPages(); i++) {
+            assertArrayEquals(encoded.readPage(new HeapPageId(encoded.getId(), i)).getPageData(),
+                    hf.readPage(new HeapPageId(hf.getId(), i)).getPageData());
+        }
+        SystemTestUtil.matchTuples(hf, rows);
+    }
+
+    /**
+     * The numbers of pages and tuples are counted during the load
+     */
+    @Test public void sizes() throws Exception {
+        HeapFile hf = HeapFile.bulkLoad(f, td, tuples(2000), "counted", true);
+        TableStats stats = TableStats.getTableStats("counted");
+        assertEquals(2000, stats.totalTuples());
+        assertEquals(1000, stats.estimateTableCardinality(0.5));
+        assertEquals(hf.numPages() * TableStats.IOCOSTPERPAGE, stats.estimateScanCost(), 0.0);
+    }
+
+    /**
+     * A file is replaced, and inserts after the load go to its last page
+     */
+    @Test public void replaceAndInsert() throws Exception {
+        FileOutputStream out = new FileOutputStream(f);
+        out.write(new byte[BufferPool.getPageSize() * 10]);
+        out.close();
+        HeapFile.bulkLoad(f, td, tuples(SLOTS * 10), "old", false).insertTuple(tid, tuples(1).next());
+
+        HeapFile hf = HeapFile.bulkLoad(f, td, tuples(SLOTS + 1), "replaced", false);
+        assertEquals(2, hf.numPages());
+        Database.getBufferPool().insertTuple(tid, hf.getId(), tuples(1).next());
+        HeapPage last = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(hf.getId(), 1), Permissions.READ_ONLY);
+        assertEquals(SLOTS - 2, last.getNumEmptySlots());
+        assertEquals(2, hf.numPages());
+    }
+
+    /**
+     * Tuples must have the schema of the table
+     */
+    @Test(expected = DbException.class) public void wrongSchema() throws Exception {
+        ArrayList<Tuple> bad = new ArrayList<Tuple>();
+        bad.add(Utility.getHeapTuple(1, 3));
+        HeapFile.bulkLoad(f, td, bad.iterator(), "bad", false);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileLoadTest.class);
+    }
+}
@@ -0,0 +1,116 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares the page read path of HeapFile, a positional read on a channel
+ * that stays open, with the path it replaced, which opened a stream, skipped
+ * to the page and read it for every page. Pages are read in random order by
+ * a number of threads, from a file that the OS has cached after the first
+ * round, so the numbers show the cost of the read path itself rather than
+ * of the disk. Pages are not decoded, which costs the same on both paths.
+ * Reads copying pages out of a memory mapping of the file are measured
+ * alongside.
+ * <p>
+ * Not a unit test; run it with
+ * <pre>
+ * java -cp bin/src:bin/test simpledb.HeapFileReadBenchmark [pages] [threads] [seconds]
+ * </pre>
+ */
+public class HeapFileReadBenchmark {
+
+    private interface Reader {
+        void read(int pgNo) throws IOException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        double seconds = args.length > 2 ? Double.parseDouble(args[2]) : 2;
+
+        final File f = File.createTempFile("readbench", ".dat");
+        f.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(f);
+        byte[] empty = HeapPage.createEmptyPageData();
+        for (int i = 0; i < pages; i++)
+            out.write(empty);
+        out.close();
+
+        final HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2));
+        Reader stream = new Reader() {
+            public void read(int pgNo) throws IOException {
+                byte[] data = HeapPage.createEmptyPageData();
+                FileInputStream in = new FileInputStream(f);
+                try {
+                    in.skip((long) pgNo * BufferPool.getPageSize());
+                    in.read(data);
+                } finally {
+                    in.close();
+                }
+            }
+        };
+        Reader channel = new Reader() {
+            public void read(int pgNo) throws IOException {
+                hf.readPageData(pgNo, HeapPage.createEmptyPageData());
+            }
+        };
+
+        final HeapFile mappedFile = new HeapFile(f, Utility.getTupleDesc(2));
+        mappedFile.setMemoryMapped(true);
+        Reader mapped = new Reader() {
+            public void read(int pgNo) throws IOException {
+                mappedFile.readPageData(pgNo, HeapPage.createEmptyPageData());
+            }
+        };
+
+        System.out.printf("%d pages of %d bytes, %.1f s per run%n", pages, BufferPool.getPageSize(), seconds);
+        System.out.printf("%8s %14s %14s %14s%n", "threads", "stream pg/s", "channel pg/s", "mapped pg/s");
+        // the first round only warms up the JIT and the page cache
+        run(stream, pages, 1, seconds / 4);
+        run(channel, pages, 1, seconds / 4);
+        run(mapped, pages, 1, seconds / 4);
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            double s = run(stream, pages, threads, seconds);
+            double c = run(channel, pages, threads, seconds);
+            double m = run(mapped, pages, threads, seconds);
+            System.out.printf("%8d %14.0f %14.0f %14.0f%n", threads, s, c, m);
+        }
+        hf.close();
+    }
+
+    /** @return pages read per second by all threads together */
+    private static double run(final Reader reader, final int pages, int threads, double seconds)
+            throws InterruptedException {
+        final AtomicLong reads = new AtomicLong();
+        final long deadline = System.nanoTime() + (long) (seconds * 1e9);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final Random random = new Random(t);
+            workers[t] = new Thread(new Runnable() {
+                public void run() {
+                    long n = 0;
+                    try {
+                        while (System.nanoTime() < deadline) {
+                            reader.read(random.nextInt(pages));
+                            n++;
+                        }
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                    reads.addAndGet(n);
+                }
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread w : workers)
+            w.start();
+        for (Thread w : workers)
+            w.join();
+        return reads.get() / ((System.nanoTime() - start) / 1e9);
+    }
+}
@@ -77,6 +77,23 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Pages read the same after the file handle is closed, and past the
+     * end of the file come back empty
+     */
+    @Test
+    public void readPageAfterClose() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        byte[] before = hf.readPage(pid).getPageData();
+        hf.close();
+        assertArrayEquals(before, hf.readPage(pid).getPageData());
+        hf.close();
+        hf.close();
+
+        HeapPage beyond = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 5));
+        assertEquals(504, beyond.getNumEmptySlots());
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -4,14 +4,21 @@ import simpledb.TestUtil.SkeletonFile;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.*;
 
 import org.junit.Before;
 import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
@@ -120,6 +127,75 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Tuples and their fields are only decoded when they are read
+     */
+    @Test public void lazyDecoding() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        assertNull(page.tuples.get(0));
+
+        Tuple tup = page.iterator().next();
+        assertSame(tup, page.tuples.get(0));
+        assertNull(page.tuples.get(1));
+        assertFalse(tup.isDecoded(1));
+        assertEquals(EXAMPLE_VALUES[0][1], ((IntField) tup.getField(1)).getValue());
+        assertEquals(EXAMPLE_VALUES[0][1], tup.getInt(1));
+        // ints are read from the page each time, never copied out
+        assertFalse(tup.isDecoded(0));
+        assertFalse(tup.isDecoded(1));
+        assertEquals(EXAMPLE_VALUES[0][0] + " " + EXAMPLE_VALUES[0][1], tup.toString());
+
+        // a serialized tuple takes all of its fields along (page ids are
+        // not serializable, so leave the record id behind)
+        Tuple lazy = page.getTuple(2);
+        lazy.setRecordId(null);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(lazy);
+        out.close();
+        Tuple copy = (Tuple) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        assertEquals(EXAMPLE_VALUES[2][1], ((IntField) copy.getField(1)).getValue());
+    }
+
+    /**
+     * The iterator skips empty slots by the header alone
+     */
+    @Test public void sparseIterator() throws Exception {
+        byte[] data = EXAMPLE_DATA.clone();
+        // only slots 3 and 17 are used
+        data[0] = 0x08;
+        data[1] = 0x00;
+        data[2] = 0x02;
+        HeapPage page = new HeapPage(pid, data);
+        assertEquals(502, page.getNumEmptySlots());
+
+        Iterator<Tuple> it = page.iterator();
+        Tuple tup = it.next();
+        assertEquals(3, tup.getRecordId().getTupleNumber());
+        assertEquals(EXAMPLE_VALUES[3][0], ((IntField) tup.getField(0)).getValue());
+        tup = it.next();
+        assertEquals(17, tup.getRecordId().getTupleNumber());
+        assertEquals(EXAMPLE_VALUES[17][1], ((IntField) tup.getField(1)).getValue());
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Pages serialize the same whether or not their tuples were decoded,
+     * and changed tuples are serialized again
+     */
+    @Test public void getPageData() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        assertArrayEquals(EXAMPLE_DATA, page.getPageData());
+        page.getTuple(5).getField(0);
+        assertArrayEquals(EXAMPLE_DATA, page.getPageData());
+
+        page.getTuple(7).setField(1, new IntField(42));
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        assertEquals(42, ((IntField) copy.getTuple(7).getField(1)).getValue());
+        assertEquals(EXAMPLE_VALUES[7][0], ((IntField) copy.getTuple(7).getField(0)).getValue());
+        assertEquals(EXAMPLE_VALUES[8][1], ((IntField) copy.getTuple(8).getField(1)).getValue());
+    }
+
     /**
      * JUnit suite target
      */
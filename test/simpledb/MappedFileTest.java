@@ -0,0 +1,133 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class MappedFileTest extends SimpleDbTestBase {
+
+    private static byte[] randomBytes(int n, long seed) {
+        byte[] data = new byte[n];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * Reads across segments, and past the mapped part once the file grows
+     */
+    @Test public void segments() throws Exception {
+        File f = File.createTempFile("mapped", ".dat");
+        f.deleteOnExit();
+        byte[] data = randomBytes(10000, 1);
+        FileOutputStream out = new FileOutputStream(f);
+        out.write(data);
+        out.close();
+
+        MappedFile m = new MappedFile(f, 1000);
+        byte[] page = new byte[4096];
+        assertTrue(m.read(995, page));
+        assertArrayEquals(Arrays.copyOfRange(data, 995, 995 + 4096), page);
+        assertEquals(10000, m.mappedLength());
+
+        // past the end of the file
+        byte[] beyond = new byte[4096];
+        assertFalse(m.read(8000, beyond));
+        assertArrayEquals(new byte[4096], beyond);
+
+        byte[] more = randomBytes(3000, 2);
+        out = new FileOutputStream(f, true);
+        out.write(more);
+        out.close();
+        assertTrue(m.read(8000, beyond));
+        assertArrayEquals(Arrays.copyOfRange(data, 8000, 10000), Arrays.copyOfRange(beyond, 0, 2000));
+        assertArrayEquals(Arrays.copyOfRange(more, 0, 2096), Arrays.copyOfRange(beyond, 2000, 4096));
+        assertEquals(13000, m.mappedLength());
+    }
+
+    /**
+     * A mapped HeapFile reads the same pages, and sees its own writes
+     */
+    @Test public void heapFile() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1500, null, new ArrayList<ArrayList<Integer>>());
+        byte[][] pages = new byte[hf.numPages()][];
+        for (int i = 0; i < pages.length; i++)
+            pages[i] = hf.readPage(new HeapPageId(hf.getId(), i)).getPageData();
+
+        assertFalse(hf.isMemoryMapped());
+        hf.setMemoryMapped(true);
+        assertTrue(hf.isMemoryMapped());
+        for (int i = 0; i < pages.length; i++)
+            assertArrayEquals(pages[i], hf.readPage(new HeapPageId(hf.getId(), i)).getPageData());
+
+        // a page written through the channel is seen through the mapping
+        HeapPage empty = new HeapPage(new HeapPageId(hf.getId(), 0), HeapPage.createEmptyPageData());
+        hf.writePage(empty);
+        assertArrayEquals(empty.getPageData(), hf.readPage(new HeapPageId(hf.getId(), 0)).getPageData());
+
+        // past the end of the file the page is empty
+        HeapPage beyond = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), pages.length));
+        assertEquals(504, beyond.getNumEmptySlots());
+    }
+
+    /**
+     * A mapped BTreeFile reads the same pages, whose offsets are not aligned
+     */
+    @Test public void btreeFile() throws Exception {
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 5000, null, null, 0);
+        BTreePageId rootPtr = BTreeRootPtrPage.getId(bf.getId());
+        BTreeRootPtrPage root = (BTreeRootPtrPage) bf.readPage(rootPtr);
+        BTreeInternalPage top = (BTreeInternalPage) bf.readPage(root.getRootId());
+        ArrayList<BTreePageId> children = new ArrayList<BTreePageId>();
+        ArrayList<byte[]> childData = new ArrayList<byte[]>();
+        Iterator<BTreeEntry> entries = top.iterator();
+        while (entries.hasNext()) {
+            BTreeEntry e = entries.next();
+            children.add(e.getLeftChild());
+            children.add(e.getRightChild());
+        }
+        for (BTreePageId child : children)
+            childData.add(bf.readPage(child).getPageData());
+        assertTrue(children.size() > 2);
+
+        bf.setMemoryMapped(true);
+        assertArrayEquals(root.getPageData(), bf.readPage(rootPtr).getPageData());
+        assertArrayEquals(top.getPageData(), bf.readPage(root.getRootId()).getPageData());
+        for (int i = 0; i < children.size(); i++)
+            assertArrayEquals(childData.get(i), bf.readPage(children.get(i)).getPageData());
+    }
+
+    /**
+     * The system property maps new files by default
+     */
+    @Test public void property() throws Exception {
+        File f = File.createTempFile("mapped", ".dat");
+        f.deleteOnExit();
+        System.setProperty(MappedFile.PROPERTY, "true");
+        try {
+            assertTrue(new HeapFile(f, Utility.getTupleDesc(2)).isMemoryMapped());
+            assertTrue(new BTreeFile(f, 0, Utility.getTupleDesc(2)).isMemoryMapped());
+        } finally {
+            System.clearProperty(MappedFile.PROPERTY);
+        }
+        assertFalse(new HeapFile(f, Utility.getTupleDesc(2)).isMemoryMapped());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MappedFileTest.class);
+    }
+}
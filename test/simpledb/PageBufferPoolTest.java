@@ -0,0 +1,187 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PageBufferPoolTest extends SimpleDbTestBase {
+
+    private static final int CAPACITY = 4;
+    private static final int TABLE = 1;
+
+    private PageBufferPool pool;
+
+    /** A page that only needs to carry its id. */
+    private static Page page(final PageId pid) {
+        return new Page() {
+            public PageId getId() { return pid; }
+            public TransactionId isDirty() { return null; }
+            public void markDirty(boolean dirty, TransactionId tid) { }
+            public byte[] getPageData() { return new byte[0]; }
+            public Page getBeforeImage() { return this; }
+            public void setBeforeImage() { }
+        };
+    }
+
+    @Before public void createPool() {
+        pool = new PageBufferPool(CAPACITY, new FifoPolicy(CAPACITY));
+    }
+
+    /**
+     * Unit test for PageBufferPool.put() and get()
+     */
+    @Test public void putGet() {
+        for (int i = 0; i < CAPACITY; i++) {
+            PageId pid = new HeapPageId(TABLE, i);
+            pool.put(pid, page(pid));
+        }
+        assertEquals(CAPACITY, pool.size());
+        for (int i = 0; i < CAPACITY; i++) {
+            PageId pid = new HeapPageId(TABLE, i);
+            assertEquals(pid, pool.get(pid).getId());
+        }
+        assertNull(pool.get(new HeapPageId(TABLE, CAPACITY)));
+        assertEquals(CAPACITY, pool.getPolicy().getHits());
+        assertEquals(CAPACITY, pool.getPolicy().getMisses());
+    }
+
+    /**
+     * Putting a page into a full pool fails; removing one frees its frame
+     */
+    @Test public void frameReuse() {
+        for (int i = 0; i < CAPACITY; i++) {
+            PageId pid = new HeapPageId(TABLE, i);
+            pool.put(pid, page(pid));
+        }
+        PageId extra = new HeapPageId(TABLE, CAPACITY);
+        try {
+            pool.put(extra, page(extra));
+            fail("expected exception");
+        } catch (IllegalStateException e) {
+        }
+
+        PageId victim = pool.evictPage();
+        assertEquals(new HeapPageId(TABLE, 0), victim);
+        assertNotNull(pool.remove(victim));
+        assertNull(pool.remove(victim));
+        assertNull(pool.peek(victim));
+
+        pool.put(extra, page(extra));
+        assertEquals(extra, pool.peek(extra).getId());
+        assertEquals(new HeapPageId(TABLE, 1), pool.evictPage());
+    }
+
+    /**
+     * Replacing a resident page keeps its frame and its place in line
+     */
+    @Test public void replace() {
+        PageId p0 = new HeapPageId(TABLE, 0);
+        PageId p1 = new HeapPageId(TABLE, 1);
+        pool.put(p0, page(p0));
+        pool.put(p1, page(p1));
+        Page newer = page(p0);
+        pool.put(p0, newer);
+        assertSame(newer, pool.peek(p0));
+        assertEquals(2, pool.size());
+        assertEquals(p0, pool.evictPage());
+    }
+
+    /**
+     * An empty pool has nothing to evict
+     */
+    @Test public void evictEmpty() {
+        assertNull(pool.evictPage());
+    }
+
+    /**
+     * A page being read is resident for reserve(), and get() waits for the read
+     */
+    @Test public void singleFlight() throws Exception {
+        final PageId pid = new HeapPageId(TABLE, 0);
+        int frame = pool.reserve(pid);
+        assertTrue(frame >= 0);
+        assertEquals(PageBufferPool.RESIDENT, pool.reserve(pid));
+
+        final Page[] seen = new Page[1];
+        Thread waiter = new Thread() {
+            public void run() {
+                seen[0] = pool.get(pid);
+            }
+        };
+        waiter.start();
+        waiter.join(100);
+        assertTrue(waiter.isAlive());
+
+        Page pg = page(pid);
+        assertSame(pg, pool.complete(frame, pg));
+        waiter.join();
+        assertSame(pg, seen[0]);
+        assertEquals(1, pool.getPolicy().getMisses());
+        assertEquals(1, pool.getPolicy().getHits());
+    }
+
+    /**
+     * Installing a page waits for an eviction of it in progress, and then
+     * gives it a frame of its own, dirty, instead of being dropped with the
+     * frame it was evicted from
+     */
+    @Test public void installDuringEviction() throws Exception {
+        final PageId pid = new HeapPageId(TABLE, 0);
+        pool.put(pid, page(pid));
+        PageBufferPool.Frame f = pool.latch(pid);
+
+        final TransactionId tid = new TransactionId();
+        final TransactionId[] dirtier = new TransactionId[1];
+        final Page newer = new Page() {
+            public PageId getId() { return pid; }
+            public TransactionId isDirty() { return dirtier[0]; }
+            public void markDirty(boolean dirty, TransactionId t) { dirtier[0] = dirty ? t : null; }
+            public byte[] getPageData() { return new byte[0]; }
+            public Page getBeforeImage() { return this; }
+            public void setBeforeImage() { }
+        };
+        Thread installer = new Thread() {
+            public void run() {
+                pool.install(pid, newer, tid);
+            }
+        };
+        installer.start();
+        installer.join(100);
+        assertTrue(installer.isAlive());
+        assertNull(dirtier[0]);
+
+        pool.remove(f);
+        installer.join();
+        assertSame(newer, pool.peek(pid));
+        assertEquals(tid, pool.peek(pid).isDirty());
+        assertEquals(1, pool.size());
+    }
+
+    /**
+     * A failed read gives its frame back
+     */
+    @Test public void abort() {
+        PageId pid = new HeapPageId(TABLE, 0);
+        for (int i = 0; i < CAPACITY; i++)
+            pool.abort(pool.reserve(pid));
+        assertEquals(0, pool.size());
+        assertNull(pool.get(pid));
+        assertNull(pool.evictPage());
+        for (int i = 0; i < CAPACITY; i++)
+            assertTrue(pool.reserve(new HeapPageId(TABLE, i)) >= 0);
+        assertEquals(ReplacementPolicy.NO_FRAME, pool.reserve(new HeapPageId(TABLE, CAPACITY)));
+        assertEquals(CAPACITY, pool.loadingCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageBufferPoolTest.class);
+    }
+}
@@ -0,0 +1,115 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures what page checksums add to the read path of HeapFile: pages are
+ * read with {@link HeapFile#readPage}, which reads and decodes them, from a
+ * file without checksums and from the same file with checksums, which are
+ * then computed and compared for every page. Pages are read in random
+ * order by a number of threads from a file the OS has cached, so the
+ * difference is the cost of the checksum rather than of the disk. The rate
+ * of computing bare checksums is shown alongside.
+ * <p>
+ * Not a unit test; run it with
+ * <pre>
+ * java -cp bin/src:bin/test simpledb.PageChecksumBenchmark [pages] [threads] [seconds]
+ * </pre>
+ */
+public class PageChecksumBenchmark {
+
+    private interface Reader {
+        void read(int pgNo);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        double seconds = args.length > 2 ? Double.parseDouble(args[2]) : 2;
+
+        File f = File.createTempFile("crcbench", ".dat");
+        f.deleteOnExit();
+        PageChecksums.fileFor(f).deleteOnExit();
+        TupleDesc td = Utility.getTupleDesc(2);
+
+        // full pages of random tuples, written with their checksums
+        final HeapFile checked = new HeapFile(f, td);
+        checked.setChecksummed(true);
+        Database.getCatalog().addTable(checked);
+        Random r = new Random(1);
+        List<Page> written = new ArrayList<Page>();
+        for (int i = 0; i < pages; i++) {
+            HeapPage page = new HeapPage(new HeapPageId(checked.getId(), i), HeapPage.createEmptyPageData());
+            while (page.getNumEmptySlots() > 0)
+                page.insertTuple(Utility.getHeapTuple(new int[] { r.nextInt(), r.nextInt() }));
+            written.add(page);
+        }
+        checked.writePages(written);
+
+        final HeapFile unchecked = new HeapFile(f, td);
+        unchecked.setChecksummed(false);
+        final int tableId = checked.getId();
+        Reader plain = new Reader() {
+            public void read(int pgNo) {
+                unchecked.readPage(new HeapPageId(tableId, pgNo));
+            }
+        };
+        Reader verified = new Reader() {
+            public void read(int pgNo) {
+                checked.readPage(new HeapPageId(tableId, pgNo));
+            }
+        };
+        final byte[] data = written.get(0).getPageData();
+        Reader bare = new Reader() {
+            public void read(int pgNo) {
+                PageChecksums.checksum(data);
+            }
+        };
+
+        System.out.printf("%d pages of %d bytes, %.1f s per run%n", pages, BufferPool.getPageSize(), seconds);
+        System.out.printf("%8s %14s %14s %10s %14s%n", "threads", "plain pg/s", "checked pg/s", "overhead", "crc32c pg/s");
+        // the first round only warms up the JIT and the page cache
+        run(plain, pages, 1, seconds / 4);
+        run(verified, pages, 1, seconds / 4);
+        run(bare, pages, 1, seconds / 4);
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            double p = run(plain, pages, threads, seconds);
+            double c = run(verified, pages, threads, seconds);
+            double b = run(bare, pages, threads, seconds);
+            System.out.printf("%8d %14.0f %14.0f %9.1f%% %14.0f%n", threads, p, c, 100 * (p / c - 1), b);
+        }
+        checked.close();
+        unchecked.close();
+    }
+
+    /** @return pages read per second by all threads together */
+    private static double run(final Reader reader, final int pages, int threads, double seconds)
+            throws InterruptedException {
+        final AtomicLong reads = new AtomicLong();
+        final long deadline = System.nanoTime() + (long) (seconds * 1e9);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final Random random = new Random(t);
+            workers[t] = new Thread(new Runnable() {
+                public void run() {
+                    long n = 0;
+                    while (System.nanoTime() < deadline) {
+                        reader.read(random.nextInt(pages));
+                        n++;
+                    }
+                    reads.addAndGet(n);
+                }
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread w : workers)
+            w.start();
+        for (Thread w : workers)
+            w.join();
+        return reads.get() / ((System.nanoTime() - start) / 1e9);
+    }
+}
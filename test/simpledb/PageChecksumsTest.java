@@ -0,0 +1,198 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageChecksumsTest extends SimpleDbTestBase {
+
+    private File f;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        f = File.createTempFile("checksums", ".dat");
+        f.deleteOnExit();
+        PageChecksums.fileFor(f).deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() {
+        System.clearProperty(PageChecksums.PROPERTY);
+    }
+
+    /** Overwrites the second half of a page of the file with zeros, as a torn write would leave it. */
+    private static void tear(File f, long pageOffset) throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        raf.seek(pageOffset + BufferPool.getPageSize() / 2);
+        raf.write(new byte[BufferPool.getPageSize() / 2]);
+        raf.close();
+    }
+
+    /** Fills a checksummed heap file with three pages of tuples through the buffer pool. */
+    private HeapFile fill(ArrayList<ArrayList<Integer>> rows) throws Exception {
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2));
+        hf.setChecksummed(true);
+        Database.getCatalog().addTable(hf);
+        for (int i = 0; i < 1300; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] { i, i * i });
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+            rows.add(SystemTestUtil.tupleToList(t));
+        }
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(3, hf.numPages());
+        return hf;
+    }
+
+    /**
+     * Pages written with checksums read back; a torn page fails its read
+     * and is found by a scrub
+     */
+    @Test public void tornHeapPage() throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = fill(rows);
+        SystemTestUtil.matchTuples(hf, rows);
+        PageScrubber scrubber = new PageScrubber(hf);
+        assertEquals(Collections.<Integer>emptyList(), scrubber.scrub());
+        assertEquals(3, scrubber.getPagesChecked());
+
+        tear(f, BufferPool.getPageSize());
+        try {
+            hf.readPage(new HeapPageId(hf.getId(), 1));
+            fail("expected exception");
+        } catch (IllegalArgumentException e) {
+        }
+        // the checksums are read back by a new instance
+        hf.close();
+        HeapFile reopened = new HeapFile(f, hf.getTupleDesc());
+        reopened.setChecksummed(true);
+        Database.getCatalog().addTable(reopened);
+        assertEquals(Arrays.asList(1), new PageScrubber(reopened).scrub());
+        reopened.readPage(new HeapPageId(reopened.getId(), 2));
+    }
+
+    /**
+     * A page whose new checksum was written but whose new bytes were not,
+     * as after a crash between the two writes, still reads
+     */
+    @Test public void oldPageAfterCrash() throws Exception {
+        HeapFile hf = fill(new ArrayList<ArrayList<Integer>>());
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        page.deleteTuple(page.iterator().next());
+        hf.checksums().update(0, page.getPageData());
+
+        HeapPage old = (HeapPage) hf.readPage(pid);
+        assertEquals(0, old.getNumEmptySlots());
+        hf.writePage(page);
+        assertEquals(1, ((HeapPage) hf.readPage(pid)).getNumEmptySlots());
+    }
+
+    /**
+     * A page whose new bytes reached the disk reads after a crash that lost
+     * whatever was not forced: its checksum was forced before the page was
+     * written, whether the page was written alone or appended
+     */
+    @Test public void newPageAfterCrash() throws Exception {
+        fill(new ArrayList<ArrayList<Integer>>());
+        final File crc = PageChecksums.fileFor(f);
+        final ArrayList<byte[]> durable = new ArrayList<byte[]>();
+        final long[] forces = new long[1];
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2)) {
+            void writeAt(long offset, ByteBuffer buf) throws IOException {
+                // what a crash right after this write would leave of the
+                // checksums: nothing written since they were last forced
+                assertTrue(checksums().getForceCount() > forces[0]);
+                forces[0] = checksums().getForceCount();
+                durable.add(Files.readAllBytes(crc.toPath()));
+                super.writeAt(offset, buf);
+            }
+        };
+        hf.setChecksummed(true);
+        Database.getCatalog().addTable(hf);
+        HeapPageId pid = new HeapPageId(hf.getId(), 1);
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        page.deleteTuple(page.iterator().next());
+        hf.writePage(page);
+        while (hf.numPages() < 4)
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { 1, 2 }));
+        assertEquals(2, durable.size());
+
+        hf.close();
+        Files.write(crc.toPath(), durable.get(durable.size() - 1));
+        HeapFile reopened = new HeapFile(f, hf.getTupleDesc());
+        reopened.setChecksummed(true);
+        Database.getCatalog().addTable(reopened);
+        assertArrayEquals(page.getPageData(), reopened.readPage(pid).getPageData());
+        assertEquals(Collections.<Integer>emptyList(), new PageScrubber(reopened).scrub());
+    }
+
+    /**
+     * Files written without checksums read unchecked, and writing a file
+     * again with the encoder drops its old checksums
+     */
+    @Test public void unchecked() throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        fill(rows);
+        assertTrue(PageChecksums.fileFor(f).exists());
+        HeapFileEncoder.convert(rows, f, BufferPool.getPageSize(), 2);
+        assertFalse(PageChecksums.fileFor(f).exists());
+
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2));
+        hf.setChecksummed(true);
+        Database.getCatalog().addTable(hf);
+        SystemTestUtil.matchTuples(hf, rows);
+        PageScrubber scrubber = new PageScrubber(hf);
+        scrubber.start();
+        scrubber.await();
+        assertEquals(0, scrubber.getPagesChecked());
+        assertEquals(hf.numPages(), scrubber.getPagesUnchecked());
+        assertEquals(Collections.<Integer>emptyList(), scrubber.getCorruptPages());
+    }
+
+    /**
+     * B+ tree pages, including the root pointer page, are checked too
+     */
+    @Test public void btree() throws Exception {
+        System.setProperty(PageChecksums.PROPERTY, "true");
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 3000, null, tuples, 0);
+        PageChecksums.fileFor(bf.getFile()).deleteOnExit();
+        assertTrue(bf.isChecksummed());
+        PageScrubber scrubber = new PageScrubber(bf);
+        assertEquals(Collections.<Integer>emptyList(), scrubber.scrub());
+        assertEquals(bf.numPages() + 1, scrubber.getPagesChecked());
+
+        tear(bf.getFile(), BTreeRootPtrPage.getPageSize() + BufferPool.getPageSize());
+        assertEquals(Arrays.asList(2), new PageScrubber(bf).scrub());
+        try {
+            bf.readPage(new BTreePageId(bf.getId(), 2, BTreePageId.LEAF));
+            fail("expected exception");
+        } catch (RuntimeException e) {
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageChecksumsTest.class);
+    }
+}
@@ -0,0 +1,185 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PaxFileTest extends SimpleDbTestBase {
+
+    private File dir;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        dir = File.createTempFile("pax", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        tid = new TransactionId();
+    }
+
+    private File temp(String name) {
+        File f = new File(dir, name);
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        return f;
+    }
+
+    /**
+     * A converted file has as many pages as the heap file, each page holds
+     * the same tuples, and reads back the same bytes it was built from
+     */
+    @Test public void convert() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile source = SystemTestUtil.createRandomHeapFile(6, 3000, null, tuples);
+        PaxFile pax = PaxFile.convert(source, temp("convert.dat"));
+        Database.getCatalog().addTable(pax);
+        assertEquals(source.numPages(), pax.numPages());
+        SystemTestUtil.matchTuples(pax, tuples);
+
+        HeapPageId pid = new HeapPageId(pax.getId(), 1);
+        PaxPage page = (PaxPage) pax.readPage(pid);
+        assertArrayEquals(page.getPageData(), new PaxPage(pid, page.getPageData()).getPageData());
+        assertEquals(((HeapPage) source.readPage(new HeapPageId(source.getId(), 1))).getNumEmptySlots(),
+                page.getNumEmptySlots());
+    }
+
+    /**
+     * A scan told which fields it reads fills its batches with those,
+     * column by column; its tuples decode fields only when they are read
+     */
+    @Test public void neededFields() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1000; i++)
+            text.append(i).append(",s").append(i).append(',').append(i * 2).append(",t").append(i).append('\n');
+        File txt = temp("needed.txt");
+        FileWriter w = new FileWriter(txt);
+        w.write(text.toString());
+        w.close();
+        Type[] types = new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE, Type.STRING_TYPE };
+        File rows = temp("needed_rows.dat");
+        HeapFileEncoder.convert(txt, rows, BufferPool.getPageSize(), 4, types);
+        HeapFile source = new HeapFile(rows, new TupleDesc(types));
+        Database.getCatalog().addTable(source);
+        PaxFile pax = PaxFile.convert(source, temp("needed.dat"));
+        Database.getCatalog().addTable(pax);
+
+        SeqScan scan = new SeqScan(tid, pax.getId());
+        scan.setNeededFields(new int[] { 1, 2 });
+        scan.open();
+        int i = 0;
+        TupleBatch batch;
+        while ((batch = scan.nextBatch()) != null) {
+            for (int k = 0; k < batch.size(); k++) {
+                int row = batch.row(k);
+                assertEquals("s" + i, batch.getStringField(1, row).getValue());
+                assertEquals(i * 2, batch.getInt(2, row));
+                i++;
+            }
+        }
+        scan.close();
+        assertEquals(1000, i);
+
+        DbFileIterator it = pax.iterator(tid, new int[] { 1, 2 });
+        it.open();
+        i = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertFalse(t.isDecoded(1));
+            assertFalse(t.isDecoded(3));
+            assertEquals(i * 2, t.getInt(2));
+            assertEquals("s" + i, t.getString(1));
+            assertEquals("t" + i, t.getString(3));
+            assertEquals(i, t.getInt(0));
+            i++;
+        }
+        it.close();
+        assertEquals(1000, i);
+    }
+
+    /**
+     * Inserts and deletes go through the buffer pool and are written back
+     * column by column
+     */
+    @Test public void insertDelete() throws Exception {
+        TupleDesc td = Utility.getTupleDesc(3);
+        PaxFile pax = new PaxFile(temp("insert.dat"), td);
+        Database.getCatalog().addTable(pax);
+        BufferPool bp = Database.getBufferPool();
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+        for (int i = 0; i < 1000; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] { i, i * 2, -i });
+            bp.insertTuple(tid, pax.getId(), t);
+            inserted.add(t);
+        }
+        for (int i = 0; i < 1000; i++) {
+            if (i % 3 == 0)
+                bp.deleteTuple(tid, inserted.get(i));
+            else
+                rows.add(SystemTestUtil.tupleToList(inserted.get(i)));
+        }
+        bp.flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(pax, rows);
+    }
+
+    /**
+     * A table declared columnar in the catalog is a PaxFile, and a query
+     * reading some of its columns returns them
+     */
+    @Test public void query() throws Exception {
+        StringBuilder text = new StringBuilder();
+        HashMap<Integer, Integer> expected = new HashMap<Integer, Integer>();
+        for (int i = 0; i < 2000; i++) {
+            text.append(i).append(',').append(i * 3).append(',').append(i % 7).append(',').append(-i).append('\n');
+            expected.put(i * 3, -i);
+        }
+        File txt = temp("wide.txt");
+        FileWriter w = new FileWriter(txt);
+        w.write(text.toString());
+        w.close();
+        File rows = temp("wide_rows.dat");
+        HeapFileEncoder.convert(txt, rows, BufferPool.getPageSize(), 4);
+        PaxFile.convert(Utility.openHeapFile(4, rows), temp("wide.dat"));
+
+        File schema = temp("catalog.txt");
+        w = new FileWriter(schema);
+        w.write("wide (a int, b int, c int, d int) columnar\n");
+        w.close();
+        Database.getCatalog().loadSchema(schema.getPath());
+        int tableId = Database.getCatalog().getTableId("wide");
+        assertTrue(Database.getCatalog().getDatabaseFile(tableId) instanceof PaxFile);
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(tableId, "w");
+        lp.addProjectField("w.b", null);
+        lp.addProjectField("d", null);
+        OpIterator plan = lp.physicalPlan(tid, new HashMap<String, TableStats>(), false);
+        plan.open();
+        HashMap<Integer, Integer> got = new HashMap<Integer, Integer>();
+        while (plan.hasNext()) {
+            Tuple t = plan.next();
+            got.put(((IntField) t.getField(0)).getValue(), ((IntField) t.getField(1)).getValue());
+        }
+        plan.close();
+        assertEquals(expected, got);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxFileTest.class);
+    }
+}
@@ -3,6 +3,7 @@ package simpledb;
 import org.junit.Test;
 
 import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
 import junit.framework.JUnit4TestAdapter;
@@ -55,6 +56,26 @@ public class PredicateTest extends SimpleDbTestBase{
     }
   }
 
+  /**
+   * Unit test for Predicate.filter() on string fields, which agrees with
+   * StringField.compare()
+   */
+  @Test public void filterStrings() {
+    TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE });
+    String[] vals = new String[] { "", "a", "ab", "abc", "b", "ba" };
+    for (Predicate.Op op : Predicate.Op.values()) {
+      for (String operand : vals) {
+        StringField f = new StringField(operand, Type.STRING_LEN);
+        Predicate p = new Predicate(0, op, f);
+        for (String value : vals) {
+          Tuple t = new Tuple(td);
+          t.setField(0, new StringField(value, Type.STRING_LEN));
+          assertEquals(op + " " + value + " " + operand, t.getField(0).compare(op, f), p.filter(t));
+        }
+      }
+    }
+  }
+
   /**
    * JUnit suite target
    */
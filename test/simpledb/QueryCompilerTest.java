@@ -0,0 +1,179 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class QueryCompilerTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+    private HeapFile small;
+    private HeapFile large;
+
+    /** Builds the same plan each time it is asked for one. */
+    private interface Plan {
+        OpIterator plan();
+    }
+
+    @Before public void setUp() throws Exception {
+        assumeTrue(QueryCompiler.isAvailable());
+        tid = new TransactionId();
+        small = SystemTestUtil.createRandomHeapFile(2, 300, 100, null, new ArrayList<ArrayList<Integer>>());
+        large = SystemTestUtil.createRandomHeapFile(3, 5000, 100, null, new ArrayList<ArrayList<Integer>>());
+    }
+
+    private static ArrayList<String> rows(OpIterator it) throws Exception {
+        ArrayList<String> rows = new ArrayList<String>();
+        it.open();
+        while (it.hasNext())
+            rows.add(SystemTestUtil.tupleToList(it.next()).toString());
+        it.close();
+        return rows;
+    }
+
+    /**
+     * Checks that a plan compiles to a CompiledPipeline that returns the
+     * tuples the plan does, in the same order.
+     */
+    private static void checkCompiled(Plan p) throws Exception {
+        ArrayList<String> expected = rows(p.plan());
+        OpIterator compiled = QueryCompiler.compile(p.plan());
+        assertTrue(compiled instanceof CompiledPipeline);
+        assertEquals(expected, rows(compiled));
+    }
+
+    private OpIterator filtered() {
+        return new Filter(new Predicate(0, Predicate.Op.NOT_EQUALS, new IntField(7)),
+                new Filter(new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(40)),
+                        new SeqScan(tid, large.getId(), "l")));
+    }
+
+    private OpIterator joined() {
+        return new HashEquiJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, small.getId(), "s"), filtered());
+    }
+
+    /**
+     * Scans, filters, projections, hash joins and aggregates compile and
+     * return the same tuples as interpreted
+     */
+    @Test public void pipelines() throws Exception {
+        checkCompiled(new Plan() {
+            public OpIterator plan() {
+                return new Project(new ArrayList<Integer>(Arrays.asList(2, 0)),
+                        new Type[] { Type.INT_TYPE, Type.INT_TYPE }, filtered());
+            }
+        });
+        checkCompiled(new Plan() {
+            public OpIterator plan() {
+                return joined();
+            }
+        });
+        for (final Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.MIN,
+                Aggregator.Op.MAX, Aggregator.Op.AVG, Aggregator.Op.COUNT }) {
+            checkCompiled(new Plan() {
+                public OpIterator plan() {
+                    return new Aggregate(joined(), 4, 0, op);
+                }
+            });
+            checkCompiled(new Plan() {
+                public OpIterator plan() {
+                    return new Aggregate(filtered(), 2, Aggregator.NO_GROUPING, op);
+                }
+            });
+        }
+        // no rows pass, so an ungrouped aggregate returns nothing, as interpreted
+        checkCompiled(new Plan() {
+            public OpIterator plan() {
+                return new Aggregate(new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(-1)),
+                        new SeqScan(tid, large.getId(), "l")), 2, Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+            }
+        });
+    }
+
+    /** A compiled pipeline returns its tuples again after a rewind */
+    @Test public void rewind() throws Exception {
+        OpIterator compiled = QueryCompiler.compile(joined());
+        ArrayList<String> first = rows(compiled);
+        compiled.open();
+        while (compiled.hasNext())
+            compiled.next();
+        compiled.rewind();
+        ArrayList<String> again = new ArrayList<String>();
+        while (compiled.hasNext())
+            again.add(SystemTestUtil.tupleToList(compiled.next()).toString());
+        compiled.close();
+        assertEquals(first, again);
+    }
+
+    /**
+     * The children of a pipeline are its scan and build sides; compiling it
+     * again leaves it as it is, and its scan can be replaced
+     */
+    @Test public void children() throws Exception {
+        ArrayList<String> expected = rows(joined());
+        CompiledPipeline compiled = (CompiledPipeline) QueryCompiler.compile(joined());
+        OpIterator[] children = compiled.getChildren();
+        assertEquals(2, children.length);
+        assertTrue(children[0] instanceof SeqScan);
+        assertSame(compiled, QueryCompiler.compile(compiled));
+        assertEquals(expected, rows(compiled));
+
+        children[0] = new SeqScan(tid, large.getId(), "l");
+        compiled.setChildren(children);
+        assertEquals(expected, rows(compiled));
+        try {
+            compiled.setChildren(new OpIterator[] { filtered(), children[1] });
+            fail("expected exception");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    /**
+     * Operators that cannot be compiled stay interpreted, with the
+     * pipelines under them compiled
+     */
+    @Test public void fallback() throws Exception {
+        OrderBy orderBy = new OrderBy(1, false, new Aggregate(filtered(), 2, 0, Aggregator.Op.SUM));
+        ArrayList<String> expected = rows(new OrderBy(1, false, new Aggregate(filtered(), 2, 0, Aggregator.Op.SUM)));
+        assertSame(orderBy, QueryCompiler.compile(orderBy));
+        assertTrue(orderBy.getChildren()[0] instanceof CompiledPipeline);
+        assertEquals(expected, rows(orderBy));
+
+        Join join = new Join(new JoinPredicate(0, Predicate.Op.LESS_THAN, 0),
+                new SeqScan(tid, small.getId(), "s"), filtered());
+        expected = rows(new Join(new JoinPredicate(0, Predicate.Op.LESS_THAN, 0),
+                new SeqScan(tid, small.getId(), "s"), filtered()));
+        assertSame(join, QueryCompiler.compile(join));
+        assertTrue(join.getChildren()[0] instanceof SeqScan);
+        assertTrue(join.getChildren()[1] instanceof CompiledPipeline);
+        ArrayList<String> got = rows(join);
+        Collections.sort(expected);
+        Collections.sort(got);
+        assertEquals(expected, got);
+
+        // string fields are not compiled
+        Filter strings = new Filter(new Predicate(0, Predicate.Op.EQUALS, new StringField("b", Type.STRING_LEN)),
+                TestUtil.createTupleList(2, new Object[] { "a", 1, "b", 2 }));
+        assertSame(strings, QueryCompiler.compile(strings));
+        assertTrue(strings.getChildren()[0] instanceof TupleIterator);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(QueryCompilerTest.class);
+    }
+}
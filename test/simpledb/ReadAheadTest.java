@@ -0,0 +1,148 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 64;
+    private static final int DEPTH = 8;
+
+    private HeapFile hf;
+    private BufferPool bp;
+    private ReadAhead ra;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        // about 20 pages
+        hf = SystemTestUtil.createRandomHeapFile(2, 10000, null, new ArrayList<ArrayList<Integer>>());
+        bp = Database.resetBufferPool(POOL_PAGES, new LruKPolicy(2, POOL_PAGES));
+        ra = bp.getReadAhead();
+        tid = new TransactionId();
+    }
+
+    private Page get(int pgNo) throws Exception {
+        return bp.getPage(tid, new HeapPageId(hf.getId(), pgNo), Permissions.READ_ONLY);
+    }
+
+    /** Waits for the background threads to finish the requested pages. */
+    private void awaitReads() throws InterruptedException {
+        for (int i = 0; i < 500 && ra.getPendingCount() > 0; i++)
+            Thread.sleep(10);
+        assertEquals(0, ra.getPendingCount());
+    }
+
+    /**
+     * Read-ahead is off unless a depth is set
+     */
+    @Test public void offByDefault() throws Exception {
+        assertEquals(0, ra.getDepth());
+        for (int i = 0; i < hf.numPages(); i++)
+            get(i);
+        assertEquals(0, ra.getRequestedCount());
+    }
+
+    /**
+     * Sequential requests start prefetching once the pattern is detected
+     */
+    @Test public void detectSequential() throws Exception {
+        ra.setDepth(DEPTH);
+        get(5);
+        assertEquals(0, ra.getRequestedCount());
+        get(6);
+        assertEquals(DEPTH, ra.getRequestedCount());
+        awaitReads();
+        assertEquals(DEPTH, ra.getReadCount());
+
+        // using the prefetched pages does not count them a second time
+        for (int i = 7; i <= 6 + DEPTH; i++)
+            get(i);
+        awaitReads();
+        assertEquals(DEPTH, ra.getUsedCount());
+        // prefetches are neither misses nor, once used, hits
+        assertEquals(2, bp.getMissCount());
+        assertEquals(0, bp.getHitCount());
+    }
+
+    /**
+     * A random access pattern does not prefetch anything
+     */
+    @Test public void randomAccess() throws Exception {
+        ra.setDepth(DEPTH);
+        get(3);
+        get(10);
+        get(1);
+        get(7);
+        assertEquals(0, ra.getRequestedCount());
+    }
+
+    /**
+     * A hinted scan reads every page once and uses what was prefetched
+     */
+    @Test public void hintedScan() throws Exception {
+        ra.setDepth(DEPTH);
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        assertTrue(ra.getRequestedCount() > 0);
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(10000, count);
+        awaitReads();
+        assertEquals(hf.numPages(), bp.getMissCount() + ra.getReadCount());
+        assertEquals(ra.getReadCount(), ra.getUsedCount());
+        assertEquals(0, ra.getWastedCount());
+    }
+
+    /**
+     * Prefetched pages evicted before use are counted as wasted
+     */
+    @Test public void wasted() throws Exception {
+        bp = Database.resetBufferPool(4 * 2, new FifoPolicy(4 * 2));
+        ra = bp.getReadAhead();
+        ra.setDepth(2);
+        get(0);
+        get(1);
+        awaitReads();
+        assertEquals(2, ra.getReadCount());
+        // fill the pool with other pages so the prefetched ones are evicted
+        for (int i = 10; i < 18; i++)
+            get(i);
+        awaitReads();
+        assertTrue(ra.getWastedCount() >= 2);
+    }
+
+    /**
+     * A closed pool does not prefetch any more
+     */
+    @Test public void stopsWithPool() throws Exception {
+        ra.setDepth(DEPTH);
+        get(0);
+        get(1);
+        Database.resetBufferPool(POOL_PAGES, new LruKPolicy(2, POOL_PAGES));
+        assertEquals(0, ra.getPendingCount());
+        long requested = ra.getRequestedCount();
+        ra.accessed(new HeapPageId(hf.getId(), 2));
+        ra.accessed(new HeapPageId(hf.getId(), 3));
+        assertEquals(requested, ra.getRequestedCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
@@ -0,0 +1,232 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static final int TABLE = 1;
+    private static final int SCAN_TABLE = 2;
+
+    /**
+     * Simulates a pool of the given capacity driven by the given policy:
+     * a point-lookup workload repeatedly touches the hot pages while small
+     * scans go by, then one large scan of scanPages once-touched pages runs
+     * through the pool.
+     *
+     * @return the set of hot pages still resident after the large scan
+     */
+    private HashSet<PageId> hotPagesAfterScan(ReplacementPolicy policy, int capacity,
+                                              int hotPages, int scanPages) {
+        HashMap<PageId, Integer> resident = new HashMap<PageId, Integer>();
+        ArrayList<PageId> hot = new ArrayList<PageId>();
+        for (int i = 0; i < hotPages; i++)
+            hot.add(new HeapPageId(TABLE, i));
+
+        int scanned = 0;
+        for (int round = 0; round < 3; round++) {
+            for (PageId pid : hot)
+                access(policy, resident, capacity, pid);
+            for (int i = 0; i < capacity; i++)
+                access(policy, resident, capacity, new HeapPageId(SCAN_TABLE, scanned++));
+        }
+        for (PageId pid : hot)
+            access(policy, resident, capacity, pid);
+        for (int i = scanned; i < scanned + scanPages; i++)
+            access(policy, resident, capacity, new HeapPageId(SCAN_TABLE, i));
+
+        HashSet<PageId> result = new HashSet<PageId>(hot);
+        result.retainAll(resident.keySet());
+        return result;
+    }
+
+    private void access(ReplacementPolicy policy, HashMap<PageId, Integer> resident, int capacity, PageId pid) {
+        Integer frame = resident.get(pid);
+        if (frame != null) {
+            policy.pageHit(frame);
+            return;
+        }
+        int free = resident.size();
+        if (resident.size() == capacity) {
+            free = policy.chooseVictim();
+            assertTrue(free != ReplacementPolicy.NO_FRAME);
+            PageId victim = null;
+            for (PageId p : resident.keySet())
+                if (resident.get(p) == free)
+                    victim = p;
+            assertNotNull(victim);
+            resident.remove(victim);
+            policy.pageRemoved(free, victim);
+        }
+        resident.put(pid, free);
+        policy.pageLoaded(free, pid);
+    }
+
+    /**
+     * Unit test for ReplacementPolicy.forName()
+     */
+    @Test public void forName() {
+        assertTrue(ReplacementPolicy.forName("fifo", 10) instanceof FifoPolicy);
+        assertTrue(ReplacementPolicy.forName("2Q", 10) instanceof TwoQueuePolicy);
+        assertEquals(1, ((LruKPolicy) ReplacementPolicy.forName("lru", 10)).getK());
+        assertEquals(3, ((LruKPolicy) ReplacementPolicy.forName("lru-3", 10)).getK());
+        try {
+            ReplacementPolicy.forName("clock", 10);
+            fail("expected exception");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    /**
+     * FIFO evicts in load order, so a scan flushes the whole pool
+     */
+    @Test public void fifoIsNotScanResistant() {
+        assertEquals(0, hotPagesAfterScan(new FifoPolicy(50), 50, 20, 500).size());
+    }
+
+    /**
+     * LRU-2 keeps every page that has been referenced twice
+     */
+    @Test public void lruKIsScanResistant() {
+        assertEquals(20, hotPagesAfterScan(new LruKPolicy(2, 50), 50, 20, 500).size());
+    }
+
+    /**
+     * With K = 1, LRU-K degrades into LRU and is flushed by the scan
+     */
+    @Test public void lruIsNotScanResistant() {
+        assertEquals(0, hotPagesAfterScan(new LruKPolicy(1, 50), 50, 20, 500).size());
+    }
+
+    /**
+     * 2Q keeps pages that were re-loaded from its ghost queue
+     */
+    @Test public void twoQueueIsScanResistant() {
+        // the small scans push the hot pages out of A1in; they are loaded
+        // again while still in A1out and end up in Am
+        assertEquals(20, hotPagesAfterScan(new TwoQueuePolicy(50), 50, 20, 500).size());
+    }
+
+    /**
+     * 2Q remembers the last kout pages pushed out of A1in, and forgets
+     * older ones as the ring wraps
+     */
+    @Test public void twoQueueGhosts() {
+        // kin = 2, kout = 4
+        TwoQueuePolicy policy = new TwoQueuePolicy(8);
+        PageId[] p = new PageId[5];
+        for (int i = 0; i < p.length; i++)
+            p[i] = new HeapPageId(TABLE, i);
+
+        // p0 comes back from A1out into Am, ahead of p1 in A1in
+        policy.pageLoaded(0, p[0]);
+        policy.pageRemoved(0, p[0]);
+        policy.pageLoaded(1, p[1]);
+        policy.pageLoaded(0, p[0]);
+        assertEquals(0, policy.chooseVictim());
+
+        // p0 to p4 pass through A1in; p4 takes the slot of p0 in the ring
+        policy = new TwoQueuePolicy(8);
+        for (int i = 0; i < 5; i++) {
+            policy.pageLoaded(0, p[i]);
+            policy.pageRemoved(0, p[i]);
+        }
+        // p0 was forgotten and goes to A1in, p4 is remembered and goes to
+        // Am; were p0 in Am it would be its victim
+        policy.pageLoaded(0, p[0]);
+        policy.pageLoaded(1, p[4]);
+        assertEquals(1, policy.chooseVictim());
+    }
+
+    /**
+     * LRU-K evicts the page with the oldest K-th reference
+     */
+    @Test public void lruKVictim() {
+        LruKPolicy policy = new LruKPolicy(2, 10);
+        PageId p0 = new HeapPageId(TABLE, 0);
+        PageId p1 = new HeapPageId(TABLE, 1);
+        PageId p2 = new HeapPageId(TABLE, 2);
+        policy.pageLoaded(0, p0);
+        policy.pageLoaded(1, p1);
+        policy.pageHit(0);
+        policy.pageHit(1);
+        policy.pageLoaded(2, p2);
+        // p2 has a single reference, so it goes first
+        assertEquals(2, policy.chooseVictim());
+        policy.pageRemoved(2, p2);
+        // p0's second-to-last reference is older than p1's
+        assertEquals(0, policy.chooseVictim());
+        policy.pageHit(0);
+        assertEquals(1, policy.chooseVictim());
+        // p2 comes back with its history, so it is no longer a first-timer
+        policy.pageLoaded(2, p2);
+        assertEquals(1, policy.chooseVictim());
+        policy.pageRemoved(1, p1);
+        policy.pageRemoved(0, p0);
+        assertEquals(2, policy.chooseVictim());
+        policy.pageRemoved(2, p2);
+        assertEquals(ReplacementPolicy.NO_FRAME, policy.chooseVictim());
+    }
+
+    /**
+     * LRU-K keeps the histories of the pages it evicted last, as many as it
+     * has frames, and forgets older ones
+     */
+    @Test public void lruKRetainsRecentHistories() {
+        LruKPolicy policy = new LruKPolicy(2, 4);
+        // pages 0..99 each get two references and are evicted in turn
+        for (int i = 0; i < 100; i++) {
+            PageId pid = new HeapPageId(TABLE, i);
+            policy.pageLoaded(0, pid);
+            policy.pageHit(0);
+            policy.pageRemoved(0, pid);
+        }
+        // a first-timer in frame 1 goes before a page back with its history
+        policy.pageLoaded(0, new HeapPageId(TABLE, 99));
+        policy.pageLoaded(1, new HeapPageId(TABLE, 1000));
+        assertEquals(1, policy.chooseVictim());
+        policy.pageRemoved(1, new HeapPageId(TABLE, 1000));
+        policy.pageRemoved(0, new HeapPageId(TABLE, 99));
+
+        // the history of page 0 was overwritten long ago
+        policy.pageLoaded(0, new HeapPageId(TABLE, 0));
+        policy.pageLoaded(1, new HeapPageId(TABLE, 98));
+        assertEquals(0, policy.chooseVictim());
+    }
+
+    /**
+     * Hit and miss counters as seen through the BufferPool
+     */
+    @Test public void bufferPoolCounters() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 2000, null, null);
+        BufferPool bp = Database.resetBufferPool(2, new LruKPolicy(2, 2));
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < hf.numPages(); i++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        assertEquals(hf.numPages(), bp.getMissCount());
+        assertEquals(0, bp.getHitCount());
+
+        bp.getPage(tid, new HeapPageId(hf.getId(), hf.numPages() - 1), Permissions.READ_ONLY);
+        assertEquals(1, bp.getHitCount());
+        bp.getReplacementPolicy().resetStats();
+        assertEquals(0, bp.getHitCount());
+        assertEquals(0, bp.getMissCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
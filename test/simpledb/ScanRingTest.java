@@ -0,0 +1,286 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ScanRingTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 8;
+    private static final int ROWS = 10000;
+
+    private HeapFile big;
+    private HeapFile hot;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        // about 20 pages, more than the whole pool
+        big = SystemTestUtil.createRandomHeapFile(2, ROWS, null, new ArrayList<ArrayList<Integer>>());
+        hot = SystemTestUtil.createRandomHeapFile(2, 1000, null, new ArrayList<ArrayList<Integer>>());
+        tid = new TransactionId();
+    }
+
+    private int scan(HeapFile f) throws Exception {
+        SeqScan scan = new SeqScan(tid, f.getId(), "");
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            n++;
+        }
+        scan.close();
+        return n;
+    }
+
+    private void readAll(BufferPool bp, HeapFile f) throws Exception {
+        for (int i = 0; i < f.numPages(); i++)
+            bp.getPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+    }
+
+    /**
+     * A table larger than the pool is scanned without evicting anything
+     */
+    @Test public void largeScanKeepsPool() throws Exception {
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES, new LruKPolicy(1, POOL_PAGES));
+        assertTrue(big.numPages() > POOL_PAGES);
+        readAll(bp, hot);
+        int resident = bp.size();
+        long misses = bp.getMissCount();
+
+        assertEquals(ROWS, scan(big));
+        assertEquals(big.numPages(), bp.getRingReadCount());
+        assertEquals(resident, bp.size());
+        assertEquals(misses, bp.getMissCount());
+
+        // the hot pages are all still there
+        readAll(bp, hot);
+        assertEquals(misses, bp.getMissCount());
+    }
+
+    /**
+     * Pages resident in the pool are taken from the pool, not read again
+     */
+    @Test public void residentPagesFromPool() throws Exception {
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES, new LruKPolicy(1, POOL_PAGES));
+        for (int i = 0; i < 3; i++)
+            bp.getPage(tid, new HeapPageId(big.getId(), i), Permissions.READ_ONLY);
+        long hits = bp.getHitCount();
+
+        assertEquals(ROWS, scan(big));
+        assertEquals(big.numPages() - 3, bp.getRingReadCount());
+        assertEquals(hits + 3, bp.getHitCount());
+    }
+
+    /**
+     * A scan through a ring locks every page it reads, as getPage does
+     */
+    @Test public void ringScanLocksPages() throws Exception {
+        final ArrayList<PageId> locked = new ArrayList<PageId>();
+        Database.resetBufferPool(new BufferPool(POOL_PAGES, new LruKPolicy(1, POOL_PAGES)) {
+            void lockPage(TransactionId t, PageId pid, Permissions perm) {
+                assertEquals(tid, t);
+                assertEquals(Permissions.READ_ONLY, perm);
+                locked.add(pid);
+            }
+        });
+        assertEquals(ROWS, scan(big));
+        assertEquals(big.numPages(), locked.size());
+        for (int i = 0; i < big.numPages(); i++)
+            assertEquals(new HeapPageId(big.getId(), i), locked.get(i));
+    }
+
+    /**
+     * A page read into the pool and changed there while the ring reads it
+     * from disk is taken from the pool
+     */
+    @Test public void pageLoadedDuringRingRead() throws Exception {
+        final BufferPool bp = Database.resetBufferPool(POOL_PAGES, new LruKPolicy(1, POOL_PAGES));
+        final boolean[] changed = new boolean[1];
+        HeapFile f = new HeapFile(big.getFile(), big.getTupleDesc()) {
+            void readCheckedPageData(int pgNo, byte[] data) throws IOException {
+                super.readCheckedPageData(pgNo, data);
+                if (pgNo == 0 && !changed[0]) {
+                    changed[0] = true;
+                    try {
+                        PageId pid = new HeapPageId(getId(), 0);
+                        HeapPage resident = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+                        resident.deleteTuple(resident.iterator().next());
+                        resident.markDirty(true, tid);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }
+        };
+        Database.getCatalog().addTable(f, "big");
+        assertEquals(ROWS - 1, scan(f));
+        assertEquals(big.numPages() - 1, bp.getRingReadCount());
+    }
+
+    /** @return a table of about 80 pages, more than a ring holds */
+    private HeapFile huge(ArrayList<ArrayList<Integer>> rows) throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 4 * ROWS, null, rows);
+        assertTrue(f.numPages() > 2 * ScanRing.SIZE);
+        return f;
+    }
+
+    /**
+     * The ring recycles its frames, and tuples kept from pages whose frames
+     * were recycled keep their values
+     */
+    @Test public void framesRecycled() throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = huge(rows);
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES, new LruKPolicy(1, POOL_PAGES));
+        ScanRing ring = bp.scanRing(f, f.numPages());
+        ArrayList<Tuple> kept = new ArrayList<Tuple>();
+        for (int i = 0; i < f.numPages(); i++) {
+            ring.release();
+            Iterator<Tuple> it = ((HeapPage) ring.getPage(tid, new HeapPageId(f.getId(), i))).iterator();
+            while (it.hasNext())
+                kept.add(it.next());
+        }
+        ring.close();
+        assertEquals(ScanRing.SIZE, ring.frameCount());
+        assertEquals(f.numPages(), bp.getRingReadCount());
+        assertEquals(0, bp.size());
+        ArrayList<ArrayList<Integer>> read = new ArrayList<ArrayList<Integer>>();
+        for (Tuple t : kept)
+            read.add(SystemTestUtil.tupleToList(t));
+        assertEquals(rows, read);
+    }
+
+    /**
+     * Batches read through a ring hold the values of their pages until the
+     * next batch is read
+     */
+    @Test public void batchesThroughRing() throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = huge(rows);
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES, new LruKPolicy(1, POOL_PAGES));
+        SeqScan scan = new SeqScan(tid, f.getId(), "");
+        scan.open();
+        ArrayList<ArrayList<Integer>> read = new ArrayList<ArrayList<Integer>>();
+        TupleBatch batch;
+        while ((batch = scan.nextBatch()) != null)
+            for (int k = 0; k < batch.size(); k++)
+                read.add(SystemTestUtil.tupleToList(batch.getTuple(k)));
+        scan.close();
+        assertEquals(rows, read);
+        assertEquals(f.numPages(), bp.getRingReadCount());
+    }
+
+    /**
+     * Strings of a batch refer to the bytes of their pages, which stay in
+     * their frames until the next batch, the page a batch starts on included
+     */
+    @Test public void stringBatchesThroughRing() throws Exception {
+        StringBuilder text = new StringBuilder();
+        int n = 3000;
+        for (int i = 0; i < n; i++)
+            text.append(i).append(",s").append(i).append('\n');
+        File txt = File.createTempFile("ring", ".txt");
+        txt.deleteOnExit();
+        FileWriter w = new FileWriter(txt);
+        w.write(text.toString());
+        w.close();
+        File dat = File.createTempFile("ring", ".dat");
+        dat.deleteOnExit();
+        Type[] types = new Type[] { Type.INT_TYPE, Type.STRING_TYPE };
+        HeapFileEncoder.convert(txt, dat, BufferPool.getPageSize(), 2, types);
+        HeapFile f = new HeapFile(dat, new TupleDesc(types));
+        Database.getCatalog().addTable(f);
+        assertTrue(f.numPages() > 2 * ScanRing.SIZE);
+
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES, new LruKPolicy(1, POOL_PAGES));
+        bp.getReadAhead().setDepth(8);
+        SeqScan scan = new SeqScan(tid, f.getId(), "");
+        scan.open();
+        int i = 0;
+        TupleBatch batch;
+        while ((batch = scan.nextBatch()) != null) {
+            for (int k = 0; k < batch.size(); k++) {
+                int row = batch.row(k);
+                assertEquals(i, batch.getInt(0, row));
+                assertEquals("s" + i, batch.getStringField(1, row).getValue());
+                i++;
+            }
+        }
+        scan.close();
+        assertEquals(n, i);
+        assertEquals(f.numPages(), bp.getRingReadCount());
+    }
+
+    /**
+     * With read-ahead on, the ring reads the next pages into its frames on
+     * the read-ahead threads, and still keeps them out of the pool
+     */
+    @Test public void readAheadIntoRing() throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = huge(rows);
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES, new LruKPolicy(1, POOL_PAGES));
+        bp.getReadAhead().setDepth(8);
+        readAll(bp, hot);
+        int resident = bp.size();
+        assertEquals(4 * ROWS, scan(f));
+        assertEquals(f.numPages(), bp.getRingReadCount());
+        assertTrue(bp.getRingReadAheadCount() > f.numPages() / 2);
+        assertEquals(0, bp.getReadAhead().getRequestedCount());
+        assertEquals(resident, bp.size());
+    }
+
+    /**
+     * A table that fits in the pool is scanned through the pool
+     */
+    @Test public void smallScanUsesPool() throws Exception {
+        BufferPool bp = Database.resetBufferPool(4 * POOL_PAGES, new LruKPolicy(1, 4 * POOL_PAGES));
+        assertTrue(big.numPages() <= 4 * POOL_PAGES);
+        assertEquals(ROWS, scan(big));
+        assertEquals(0, bp.getRingReadCount());
+        assertEquals(big.numPages(), bp.size());
+    }
+
+    /**
+     * The threshold can be lowered, or rings turned off
+     */
+    @Test public void fraction() throws Exception {
+        BufferPool bp = Database.resetBufferPool(4 * POOL_PAGES, new LruKPolicy(1, 4 * POOL_PAGES));
+        bp.setScanRingFraction(0.25);
+        assertEquals(ROWS, scan(big));
+        assertEquals(big.numPages(), bp.getRingReadCount());
+        assertEquals(0, bp.size());
+
+        bp = Database.resetBufferPool(POOL_PAGES, new LruKPolicy(1, POOL_PAGES));
+        bp.setScanRingFraction(0);
+        readAll(bp, hot);
+        long misses = bp.getMissCount();
+        assertEquals(ROWS, scan(big));
+        assertEquals(0, bp.getRingReadCount());
+        assertEquals(misses + big.numPages(), bp.getMissCount());
+        assertEquals(POOL_PAGES, bp.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeFraction() throws Exception {
+        Database.resetBufferPool(POOL_PAGES).setScanRingFraction(-1);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ScanRingTest.class);
+    }
+}
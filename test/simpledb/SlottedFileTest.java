@@ -0,0 +1,270 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SlottedFileTest extends SimpleDbTestBase {
+
+    private static final Type[] TYPES = { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE };
+
+    private TupleDesc td;
+    private TransactionId tid;
+    private File dir;
+
+    @Before public void setUp() throws Exception {
+        td = new TupleDesc(TYPES, new String[] { "id", "name", "n" });
+        tid = new TransactionId();
+        dir = File.createTempFile("slotted", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+    }
+
+    private File temp(String name) {
+        File f = new File(dir, name);
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        return f;
+    }
+
+    private Tuple tuple(int id, String name) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN));
+        t.setField(2, new IntField(-id));
+        return t;
+    }
+
+    private static String name(Random r) {
+        StringBuilder s = new StringBuilder();
+        for (int i = 4 + r.nextInt(12); i > 0; i--)
+            s.append((char) ('a' + r.nextInt(26)));
+        return s.toString();
+    }
+
+    private static HashMap<Integer, String> contents(HeapFile f, TransactionId tid) throws Exception {
+        HashMap<Integer, String> rows = new HashMap<Integer, String>();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int id = ((IntField) t.getField(0)).getValue();
+            assertEquals(-id, ((IntField) t.getField(2)).getValue());
+            assertNull(rows.put(id, ((StringField) t.getField(1)).getValue()));
+        }
+        it.close();
+        return rows;
+    }
+
+    /**
+     * Tuples are added and deleted, and space freed in the middle of the page
+     * is reused after compacting; the page reads back from its bytes
+     */
+    @Test public void pageInsertDelete() throws Exception {
+        SlottedFile f = new SlottedFile(temp("page.dat"), td);
+        Database.getCatalog().addTable(f);
+        HeapPageId pid = new HeapPageId(f.getId(), 0);
+        SlottedPage page = new SlottedPage(pid, new byte[BufferPool.getPageSize()]);
+        assertEquals(0, page.getNumTuples());
+
+        ArrayList<Tuple> added = new ArrayList<Tuple>();
+        Random r = new Random(1);
+        Tuple t = tuple(0, name(r));
+        while (page.hasRoomFor(t)) {
+            page.insertTuple(t);
+            added.add(t);
+            t = tuple(added.size(), name(r));
+        }
+        // far more than the 30 tuples of this schema a HeapPage holds
+        assertTrue(added.size() > 150);
+        try {
+            page.insertTuple(t);
+            fail("expected exception");
+        } catch (DbException e) {
+        }
+
+        // free the room of a long tuple in pieces, then use it
+        for (int i = 10; i < 20; i++)
+            page.deleteTuple(added.get(i));
+        Tuple big = tuple(1000, "x" + new String(new char[100]).replace('\0', 'y'));
+        assertTrue(page.hasRoomFor(big));
+        page.insertTuple(big);
+        assertEquals(10, big.getRecordId().getTupleNumber());
+
+        SlottedPage reread = new SlottedPage(pid, page.getPageData());
+        assertEquals(added.size() - 9, reread.getNumTuples());
+        Iterator<Tuple> it = reread.iterator();
+        int seen = 0;
+        while (it.hasNext()) {
+            Tuple u = it.next();
+            int id = ((IntField) u.getField(0)).getValue();
+            Tuple expected = id == 1000 ? big : added.get(id);
+            assertEquals(pid, u.getRecordId().getPageId());
+            assertEquals(expected.getRecordId().getTupleNumber(), u.getRecordId().getTupleNumber());
+            assertEquals(expected.getField(1), u.getField(1));
+            seen++;
+        }
+        assertEquals(added.size() - 9, seen);
+
+        // a deleted tuple cannot be deleted again
+        try {
+            reread.deleteTuple(added.get(12));
+            fail("expected exception");
+        } catch (DbException e) {
+        }
+    }
+
+    /**
+     * Strings are cut to STRING_LEN characters, however long the field
+     * allows them to be, and a tuple read from a page is written back as is
+     */
+    @Test public void stringLength() throws Exception {
+        SlottedFile f = new SlottedFile(temp("length.dat"), td);
+        Database.getCatalog().addTable(f);
+        HeapPageId pid = new HeapPageId(f.getId(), 0);
+        SlottedPage page = new SlottedPage(pid, new byte[BufferPool.getPageSize()]);
+        String lng = new String(new char[2 * Type.STRING_LEN]).replace('\0', 'z');
+        Tuple t = tuple(1, "a");
+        t.setField(1, new StringField(lng, 2 * Type.STRING_LEN));
+        assertEquals(4 + 2 + Type.STRING_LEN + 4, SlottedPage.recordSize(t));
+        page.insertTuple(t);
+
+        Tuple read = new SlottedPage(pid, page.getPageData()).iterator().next();
+        assertEquals(lng.substring(0, Type.STRING_LEN), ((StringField) read.getField(1)).getValue());
+        byte[] a = new byte[SlottedPage.recordSize(t)];
+        byte[] b = new byte[a.length];
+        assertEquals(a.length, SlottedPage.writeRecord(t, a, 0));
+        assertEquals(a.length, SlottedPage.writeRecord(read, b, 0));
+        assertArrayEquals(a, b);
+    }
+
+    /**
+     * A string-heavy table converted to slotted pages needs a fraction of
+     * the pages, and reads back the same tuples
+     */
+    @Test public void fewerPages() throws Exception {
+        Random r = new Random(2);
+        File text = temp("names.txt");
+        FileWriter w = new FileWriter(text);
+        HashMap<Integer, String> rows = new HashMap<Integer, String>();
+        for (int i = 0; i < 5000; i++) {
+            String name = name(r);
+            rows.put(i, name);
+            w.write(i + "," + name + "," + (-i) + "\n");
+        }
+        w.close();
+
+        File heapData = temp("names.dat");
+        HeapFileEncoder.convert(text, heapData, BufferPool.getPageSize(), 3, TYPES, ',');
+        File slottedData = temp("names_slotted.dat");
+        HeapFileEncoder.convertSlotted(text, slottedData, BufferPool.getPageSize(), 3, TYPES, ',');
+        HeapFile heap = new HeapFile(heapData, td);
+        SlottedFile slotted = new SlottedFile(slottedData, td);
+        Database.getCatalog().addTable(heap);
+        Database.getCatalog().addTable(slotted);
+
+        assertTrue(slotted.numPages() * 5 < heap.numPages());
+        assertEquals(rows, contents(heap, tid));
+        assertEquals(rows, contents(slotted, tid));
+    }
+
+    /**
+     * Inserts and deletes go through the buffer pool and the free space map
+     */
+    @Test public void insertDelete() throws Exception {
+        SlottedFile f = new SlottedFile(temp("insert.dat"), td);
+        Database.getCatalog().addTable(f);
+        BufferPool bp = Database.getBufferPool();
+        Random r = new Random(3);
+        HashMap<Integer, String> rows = new HashMap<Integer, String>();
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 1000; i++) {
+            Tuple t = tuple(i, name(r));
+            bp.insertTuple(tid, f.getId(), t);
+            rows.put(i, ((StringField) t.getField(1)).getValue());
+            tuples.add(t);
+        }
+        int pages = f.numPages();
+        assertTrue(pages > 1 && pages < 10);
+        for (int i = 0; i < 1000; i += 2) {
+            bp.deleteTuple(tid, tuples.get(i));
+            rows.remove(i);
+        }
+        bp.flushAllPages();
+        assertEquals(rows, contents(f, tid));
+
+        for (int i = 1000; i < 1400; i++) {
+            Tuple t = tuple(i, name(r));
+            bp.insertTuple(tid, f.getId(), t);
+            rows.put(i, ((StringField) t.getField(1)).getValue());
+        }
+        assertEquals(pages, f.numPages());
+        assertEquals(rows, contents(f, tid));
+    }
+
+    /**
+     * A tuple that does not fit on an empty page is refused, rather than
+     * appending pages for it forever
+     */
+    @Test(timeout = 10000) public void tooWide() throws Exception {
+        Type[] types = new Type[40];
+        Arrays.fill(types, Type.STRING_TYPE);
+        TupleDesc wide = new TupleDesc(types);
+        Tuple t = new Tuple(wide);
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < Type.STRING_LEN; i++)
+            s.append('w');
+        for (int i = 0; i < types.length; i++)
+            t.setField(i, new StringField(s.toString(), Type.STRING_LEN));
+
+        HeapFile[] files = { new SlottedFile(temp("wide.dat"), wide), new HeapFile(temp("wide.heap"), wide) };
+        for (HeapFile f : files) {
+            Database.getCatalog().addTable(f);
+            try {
+                Database.getBufferPool().insertTuple(tid, f.getId(), t);
+                fail("expected DbException");
+            } catch (DbException e) {
+                // expected
+            }
+            assertEquals(1, f.numPages());
+        }
+    }
+
+    /**
+     * A varchar column in the catalog file makes the table a SlottedFile
+     */
+    @Test public void catalog() throws Exception {
+        File schema = temp("catalog.txt");
+        FileWriter w = new FileWriter(schema);
+        w.write("people (id int pk, name varchar, n int)\n");
+        w.write("fixed (id int, name string)\n");
+        w.close();
+        Database.getCatalog().loadSchema(schema.getPath());
+        DbFile people = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId("people"));
+        assertTrue(people instanceof SlottedFile);
+        assertEquals(Type.STRING_TYPE, people.getTupleDesc().getFieldType(1));
+        DbFile fixed = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId("fixed"));
+        assertFalse(fixed instanceof SlottedFile);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedFileTest.class);
+    }
+}
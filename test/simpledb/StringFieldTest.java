@@ -0,0 +1,111 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class StringFieldTest extends SimpleDbTestBase {
+
+    private static final String[] VALUES = new String[] { "", "a", "ab", "abc", "b", "ba", "B", "zz" };
+
+    /** @return the bytes a field is stored as */
+    private static byte[] serialize(Field f) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        f.serialize(new DataOutputStream(baos));
+        return baos.toByteArray();
+    }
+
+    /** @return a field read from the bytes of a page holding other values around it */
+    private static StringField onPage(String s) throws Exception {
+        byte[] page = new byte[Type.STRING_TYPE.getLen() + 20];
+        Arrays.fill(page, (byte) 'x');
+        byte[] stored = serialize(new StringField(s, Type.STRING_LEN));
+        System.arraycopy(stored, 0, page, 10, stored.length);
+        return (StringField) Type.STRING_TYPE.parse(page, 10);
+    }
+
+    /**
+     * Fields read from page bytes are equal, hash, compare and serialize
+     * as fields built from Strings do
+     */
+    @Test public void pageFields() throws Exception {
+        for (String s : VALUES) {
+            StringField built = new StringField(s, Type.STRING_LEN);
+            StringField read = onPage(s);
+            assertEquals(s, read.getValue());
+            assertEquals(built, read);
+            assertEquals(read, built);
+            assertEquals(s.hashCode(), read.hashCode());
+            assertEquals(built.hashCode(), read.hashCode());
+            assertArrayEquals(serialize(built), serialize(read));
+            for (String t : VALUES) {
+                StringField other = onPage(t);
+                assertEquals(s + " " + t, Integer.signum(s.compareTo(t)), Integer.signum(read.compareTo(other)));
+                assertEquals(s.equals(t), read.equals(other));
+                assertEquals(s.contains(t), read.contains(new StringField(t, Type.STRING_LEN)));
+            }
+        }
+    }
+
+    /** A field read from a page is written by Java serialization without the page */
+    @Test public void javaSerialization() throws Exception {
+        StringField read = onPage("abc");
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(baos);
+        out.writeObject(read);
+        out.close();
+        assertTrue(baos.size() < Type.STRING_LEN);
+        StringField copy = (StringField) new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray())).readObject();
+        assertEquals(read, copy);
+        assertEquals("abc", copy.getValue());
+        assertTrue(copy.compare(Predicate.Op.LIKE, new StringField("bc", Type.STRING_LEN)));
+    }
+
+    /**
+     * Characters a byte cannot hold are stored as '?', and the value of the
+     * field is what is stored, so it agrees with equals, hashCode and
+     * compareTo
+     */
+    @Test public void wideChars() throws Exception {
+        StringField wide = new StringField("a\u0100b", Type.STRING_LEN);
+        StringField low = new StringField("a\u0000b", Type.STRING_LEN);
+        assertEquals("a?b", wide.getValue());
+        assertFalse(wide.equals(low));
+        assertEquals(new StringField("a?b", Type.STRING_LEN), wide);
+        assertEquals("a?b".hashCode(), wide.hashCode());
+        assertTrue(wide.compareTo(low) > 0);
+        assertEquals(wide, onPage("a\u0100b"));
+        assertEquals("a\u00ffb", new StringField("a\u00ffb", Type.STRING_LEN).getValue());
+    }
+
+    /** A copy of a field read from a page holds its own bytes */
+    @Test public void copy() throws Exception {
+        byte[] page = serialize(new StringField("abc", Type.STRING_LEN));
+        StringField read = (StringField) Type.STRING_TYPE.parse(page, 0);
+        StringField copy = read.copy();
+        assertTrue(copy.ownsBytes());
+        assertFalse(read.ownsBytes());
+        assertSame(copy, copy.copy());
+        Arrays.fill(page, (byte) 'x');
+        assertEquals("abc", copy.getValue());
+        assertEquals(new StringField("abc", Type.STRING_LEN), copy);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(StringFieldTest.class);
+    }
+}
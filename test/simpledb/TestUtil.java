@@ -206,6 +206,10 @@ public class TestUtil {
             throw new RuntimeException("not implemented");
         }
 
+        public Page decodePage(PageId id, byte[] data) {
+            throw new RuntimeException("not implemented");
+        }
+
         public int numPages() {
             throw new RuntimeException("not implemented");
         }
@@ -214,6 +218,10 @@ public class TestUtil {
             throw new RuntimeException("not implemented");
         }
 
+        public void writePages(List<Page> pages) throws IOException {
+            throw new RuntimeException("not implemented");
+        }
+
         public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
             throw new RuntimeException("not implemented");
@@ -1,6 +1,16 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Test;
@@ -29,6 +39,71 @@ public class TupleTest extends SimpleDbTestBase {
         assertEquals(new IntField(37), tup.getField(1));
     }
 
+    /**
+     * Fields are read and written without Field objects through the typed
+     * accessors, and getField still returns them as Fields; a new tuple has
+     * no field set
+     */
+    @Test public void typedFields() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE, Type.INT_TYPE });
+        Tuple tup = new Tuple(td);
+        assertNull(tup.getField(0));
+        assertNull(tup.getField(1));
+        try {
+            tup.getInt(1);
+            fail("expected exception");
+        } catch (NoSuchElementException e) {
+        }
+
+        tup.setField(0, new StringField("abc", Type.STRING_LEN));
+        tup.setInt(1, 42);
+        tup.setField(2, new IntField(-7));
+        assertEquals("abc", tup.getString(0));
+        assertEquals(42, tup.getInt(1));
+        assertEquals(new IntField(-7), tup.getField(2));
+        assertEquals("abc 42 -7", tup.toString());
+        try {
+            tup.getInt(0);
+            fail("expected exception");
+        } catch (IllegalArgumentException e) {
+        }
+
+        Tuple copy = new Tuple(new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE }));
+        copy.setFieldFrom(0, tup, 2);
+        copy.setFieldFrom(1, tup, 0);
+        assertEquals("-7 abc", copy.toString());
+        tup.setField(1, null);
+        assertNull(tup.getField(1));
+    }
+
+    /**
+     * A copy of a tuple read from a page keeps its values and RecordId
+     * once the page bytes change; a tuple that refers to no page is its
+     * own copy
+     */
+    @Test public void copy() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        Tuple built = new Tuple(td);
+        built.setInt(0, 5);
+        built.setField(1, new StringField("abc", Type.STRING_LEN));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int i = 0; i < 2; i++)
+            built.getField(i).serialize(out);
+        byte[] page = bytes.toByteArray();
+
+        Tuple read = new Tuple(td, page, 0);
+        read.setRecordId(new RecordId(new HeapPageId(1, 2), 3));
+        Tuple copy = read.copy();
+        assertFalse(copy.readsFrom(page));
+        assertSame(copy, copy.copy());
+        Arrays.fill(page, (byte) 0);
+        assertEquals(5, copy.getInt(0));
+        assertEquals("abc", copy.getString(1));
+        assertEquals(read.getRecordId(), copy.getRecordId());
+        assertSame(built, built.copy());
+    }
+
     /**
      * Unit test for Tuple.getTupleDesc()
      */
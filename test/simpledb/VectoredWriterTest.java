@@ -0,0 +1,136 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class VectoredWriterTest extends SimpleDbTestBase {
+
+    private static byte[] block(int size, int value) {
+        byte[] b = new byte[size];
+        for (int i = 0; i < size; i++)
+            b[i] = (byte) (value + i);
+        return b;
+    }
+
+    private static byte[] readAt(File f, long offset, int size) throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            byte[] b = new byte[size];
+            raf.seek(offset);
+            raf.readFully(b);
+            return b;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /** Writes the pages of w to f through a channel of its own. */
+    private static int write(VectoredWriter w, File f) throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            return w.writeAndForce(raf.getChannel());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Adjacent pages go out in one write whatever order they were added in
+     */
+    @Test public void coalesce() throws Exception {
+        File f = File.createTempFile("vectored", ".dat");
+        f.deleteOnExit();
+        VectoredWriter w = new VectoredWriter(1);
+        // two runs: 0-2 and 5-6, added out of order
+        int[] pages = {6, 1, 0, 5, 2};
+        for (int p : pages)
+            w.add(p * 100L, block(100, p));
+        assertEquals(5, w.size());
+        assertEquals(2, write(w, f));
+
+        assertEquals(700, f.length());
+        for (int p : pages)
+            assertArrayEquals(block(100, p), readAt(f, p * 100L, 100));
+        assertArrayEquals(new byte[100], readAt(f, 300, 100));
+    }
+
+    /**
+     * Runs are split at MAX_RUN pages; pages of different sizes still chain
+     */
+    @Test public void longRun() throws Exception {
+        File f = File.createTempFile("vectored", ".dat");
+        f.deleteOnExit();
+        VectoredWriter w = new VectoredWriter(4);
+        w.add(0, block(10, 0));
+        for (int p = 0; p < VectoredWriter.MAX_RUN; p++)
+            w.add(10 + p * 50L, block(50, p));
+        assertEquals(2, write(w, f));
+        assertArrayEquals(block(10, 0), readAt(f, 0, 10));
+        assertArrayEquals(block(50, 7), readAt(f, 10 + 7 * 50, 50));
+        assertEquals(0, write(new VectoredWriter(0), f));
+    }
+
+    /**
+     * flushAllPages() and flushPages() log and write only the pages asked for
+     */
+    @Test public void flushPages() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 5000, null, new ArrayList<ArrayList<Integer>>());
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        ArrayList<Page> pages = new ArrayList<Page>();
+        for (int i = 0; i < hf.numPages(); i++) {
+            Page pg = bp.getPage(t1, new HeapPageId(hf.getId(), i), Permissions.READ_WRITE);
+            pg.markDirty(true, i % 2 == 0 ? t1 : t2);
+            pages.add(pg);
+        }
+        int records = Database.getLogFile().getTotalRecords();
+
+        bp.flushPages(t2);
+        for (int i = 0; i < pages.size(); i++)
+            assertEquals(i % 2 == 0 ? t1 : null, pages.get(i).isDirty());
+        assertEquals(records + pages.size() / 2, Database.getLogFile().getTotalRecords());
+
+        bp.flushAllPages();
+        for (Page pg : pages)
+            assertNull(pg.isDirty());
+        assertEquals(records + pages.size(), Database.getLogFile().getTotalRecords());
+        for (Page pg : pages)
+            assertArrayEquals(pg.getPageData(), hf.readPage(pg.getId()).getPageData());
+    }
+
+    /**
+     * A heap file writes its batches through its own channel and keeps it open
+     */
+    @Test public void heapFileChannel() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 2000, null, new ArrayList<ArrayList<Integer>>());
+        FileChannel ch = hf.channel(true);
+        ArrayList<Page> pages = new ArrayList<Page>();
+        for (int i = 0; i < hf.numPages(); i++)
+            pages.add(hf.readPage(new HeapPageId(hf.getId(), i)));
+        hf.writePages(pages);
+        hf.writePages(pages);
+        assertSame(ch, hf.channel(true));
+        assertTrue(ch.isOpen());
+        for (Page pg : pages)
+            assertArrayEquals(pg.getPageData(), hf.readPage(pg.getId()).getPageData());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(VectoredWriterTest.class);
+    }
+}
@@ -0,0 +1,195 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class WarmUpTest extends SimpleDbTestBase {
+
+    private File snapshot;
+    private HeapFile hf;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        snapshot = File.createTempFile("warmup", ".snap");
+        snapshot.delete();
+        snapshot.deleteOnExit();
+        System.setProperty(WarmUp.PROPERTY, snapshot.getPath());
+        // about 20 pages
+        hf = SystemTestUtil.createRandomHeapFile(2, 10000, null, new ArrayList<ArrayList<Integer>>());
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() {
+        System.clearProperty(WarmUp.PROPERTY);
+        System.clearProperty(WarmUp.INTERVAL_PROPERTY);
+        snapshot.delete();
+    }
+
+    private PageId pid(int pgNo) {
+        return new HeapPageId(hf.getId(), pgNo);
+    }
+
+    /** Restarts the Database and adds the table back to its catalog. */
+    private BufferPool restart() throws Exception {
+        Database.reset();
+        Database.getCatalog().addTable(hf);
+        BufferPool bp = Database.getBufferPool();
+        for (int i = 0; i < 500 && !bp.getWarmUp().isIdle(); i++)
+            Thread.sleep(10);
+        assertTrue(bp.getWarmUp().isIdle());
+        return bp;
+    }
+
+    /**
+     * Off unless the property names a snapshot file
+     */
+    @Test public void offByDefault() throws Exception {
+        System.clearProperty(WarmUp.PROPERTY);
+        BufferPool bp = Database.resetBufferPool(16);
+        assertNull(bp.getWarmUp().getFile());
+        bp.getWarmUp().snapshot();
+        assertFalse(snapshot.exists());
+    }
+
+    /**
+     * The resident pages of the last run are read back after a restart
+     */
+    @Test public void restore() throws Exception {
+        BufferPool bp = Database.resetBufferPool(16);
+        for (int pgNo : new int[] { 9, 3, 12 })
+            bp.getPage(tid, pid(pgNo), Permissions.READ_ONLY);
+        bp.getWarmUp().snapshot();
+        assertEquals(1, bp.getWarmUp().getSnapshotCount());
+        assertEquals(new HashSet<PageId>(Arrays.asList(pid(3), pid(9), pid(12))),
+                new HashSet<PageId>(WarmUp.read(snapshot)));
+
+        bp = restart();
+        assertEquals(3, bp.getWarmUp().getRestoredCount());
+        assertEquals(0, bp.getWarmUp().getPendingCount());
+        assertEquals(new HashSet<PageId>(Arrays.asList(pid(3), pid(9), pid(12))),
+                new HashSet<PageId>(bp.residentPages()));
+
+        // using a restored page costs no further read
+        long misses = bp.getMissCount();
+        bp.getPage(tid, pid(9), Permissions.READ_ONLY);
+        assertEquals(misses, bp.getMissCount());
+    }
+
+    /**
+     * The pool of the Database saves a snapshot every interval, and stops
+     * once it is replaced
+     */
+    @Test public void periodic() throws Exception {
+        System.setProperty(WarmUp.INTERVAL_PROPERTY, "1");
+        BufferPool bp = new BufferPool(16);
+        // not before it is the pool of the Database
+        assertFalse(bp.getWarmUp().isRunning());
+        Database.resetBufferPool(bp);
+        assertTrue(bp.getWarmUp().isRunning());
+        bp.getPage(tid, pid(5), Permissions.READ_ONLY);
+        bp.getPage(tid, pid(7), Permissions.READ_ONLY);
+        for (int i = 0; i < 500 && bp.getWarmUp().getSnapshotCount() == 0; i++)
+            Thread.sleep(10);
+        assertTrue(bp.getWarmUp().getSnapshotCount() > 0);
+        assertEquals(new HashSet<PageId>(Arrays.asList(pid(5), pid(7))),
+                new HashSet<PageId>(WarmUp.read(snapshot)));
+
+        // every new Database snapshots, and the pool it replaced stops
+        for (int i = 0; i < 20; i++) {
+            Database.reset();
+            assertFalse(bp.getWarmUp().isRunning());
+            bp = Database.getBufferPool();
+            assertTrue(bp.getWarmUp().isRunning());
+        }
+    }
+
+    /**
+     * Pages wait for their table to be added to the catalog
+     */
+    @Test public void waitForTable() throws Exception {
+        BufferPool bp = Database.resetBufferPool(16);
+        bp.getPage(tid, pid(1), Permissions.READ_ONLY);
+        bp.getPage(tid, pid(2), Permissions.READ_ONLY);
+        bp.getWarmUp().snapshot();
+
+        Database.reset();
+        bp = Database.getBufferPool();
+        assertEquals(2, bp.getWarmUp().getPendingCount());
+        assertEquals(0, bp.size());
+
+        // a snapshot taken before the table comes back keeps its pages
+        bp.getWarmUp().snapshot();
+        assertEquals(2, WarmUp.read(snapshot).size());
+    }
+
+    /**
+     * Restoring never evicts anything
+     */
+    @Test public void poolFull() throws Exception {
+        BufferPool bp = Database.resetBufferPool(16);
+        for (int pgNo = 0; pgNo < 16; pgNo++)
+            bp.getPage(tid, pid(pgNo), Permissions.READ_ONLY);
+        bp.getWarmUp().snapshot();
+
+        Database.reset();
+        Database.resetBufferPool(4);
+        Database.getCatalog().addTable(hf);
+        bp = Database.getBufferPool();
+        for (int i = 0; i < 500 && !bp.getWarmUp().isIdle(); i++)
+            Thread.sleep(10);
+        assertEquals(4, bp.getWarmUp().getRestoredCount());
+        assertEquals(4, bp.size());
+        // in file order
+        assertEquals(new HashSet<PageId>(Arrays.asList(pid(0), pid(1), pid(2), pid(3))),
+                new HashSet<PageId>(bp.residentPages()));
+    }
+
+    /**
+     * B+ tree page ids survive the snapshot
+     */
+    @Test public void btreePages() throws Exception {
+        BufferPool bp = Database.resetBufferPool(16);
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 1000, null, null, 0);
+        BTreePageId root = ((BTreeRootPtrPage) bp.getPage(tid,
+                BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY)).getRootId();
+        bp.getPage(tid, root, Permissions.READ_ONLY);
+        bp.getWarmUp().snapshot();
+        List<PageId> pages = WarmUp.read(snapshot);
+        assertTrue(pages.contains(root));
+        assertTrue(pages.contains(BTreeRootPtrPage.getId(bf.getId())));
+    }
+
+    /**
+     * A damaged snapshot is ignored
+     */
+    @Test public void damaged() throws Exception {
+        FileOutputStream out = new FileOutputStream(snapshot);
+        out.write(new byte[] { 1, 2, 3 });
+        out.close();
+        BufferPool bp = restart();
+        assertEquals(0, bp.getWarmUp().getPendingCount());
+        assertEquals(0, bp.getWarmUp().getRestoredCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(WarmUpTest.class);
+    }
+}
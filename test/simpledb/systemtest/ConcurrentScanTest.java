@@ -0,0 +1,160 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Runs several sequential scans of the same table at once through a shared
+ * BufferPool, and inserts into a table while other threads evict its pages.
+ */
+public class ConcurrentScanTest extends SimpleDbTestBase {
+    private static final int THREADS = 8;
+    private static final int SCANS = 5;
+
+    /** Scans the table SCANS times and checks each scan sees every tuple once. */
+    private static class Scanner extends Thread {
+        private final HeapFile f;
+        private final int rows;
+        private final long sum;
+        private final AtomicReference<Throwable> error;
+
+        Scanner(HeapFile f, int rows, long sum, AtomicReference<Throwable> error) {
+            this.f = f;
+            this.rows = rows;
+            this.sum = sum;
+            this.error = error;
+        }
+
+        public void run() {
+            try {
+                for (int i = 0; i < SCANS; i++) {
+                    SeqScan scan = new SeqScan(new TransactionId(), f.getId(), "");
+                    int count = 0;
+                    long total = 0;
+                    scan.open();
+                    while (scan.hasNext()) {
+                        total += ((IntField) scan.next().getField(0)).getValue();
+                        count++;
+                    }
+                    scan.close();
+                    assertEquals(rows, count);
+                    assertEquals(sum, total);
+                }
+            } catch (Throwable t) {
+                error.compareAndSet(null, t);
+            }
+        }
+    }
+
+    private void scanConcurrently(int bufferPages) throws Exception {
+        int rows = 10000;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, rows, null, tuples);
+        long sum = 0;
+        for (ArrayList<Integer> t : tuples)
+            sum += t.get(0);
+        BufferPool bp = Database.resetBufferPool(bufferPages,
+                new LruKPolicy(2, bufferPages));
+
+        AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Scanner[] scanners = new Scanner[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            scanners[i] = new Scanner(f, rows, sum, error);
+            scanners[i].start();
+        }
+        for (Scanner s : scanners)
+            s.join();
+        if (error.get() != null)
+            throw new AssertionError("scan failed", error.get());
+
+        if (bufferPages >= f.numPages()) {
+            // every page is read from disk exactly once, however many
+            // threads asked for it at the same time
+            assertEquals(f.numPages(), bp.getMissCount());
+            assertEquals((long) THREADS * SCANS * f.numPages(),
+                    bp.getHitCount() + bp.getMissCount());
+        }
+    }
+
+    @Test public void testTableFits() throws Exception {
+        scanConcurrently(64);
+    }
+
+    @Test public void testEviction() throws Exception {
+        scanConcurrently(4);
+    }
+
+    /**
+     * Pages dirtied by inserts are never lost to evictions running at the
+     * same time: every tuple inserted reaches the disk
+     */
+    @Test public void testInsertDuringEviction() throws Exception {
+        final HeapFile other = SystemTestUtil.createRandomHeapFile(2, 10000, null, null);
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        final BufferPool bp = Database.resetBufferPool(4, new LruKPolicy(2, 4));
+
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread[] evictors = new Thread[2];
+        for (int i = 0; i < evictors.length; i++) {
+            evictors[i] = new Thread() {
+                public void run() {
+                    try {
+                        TransactionId tid = new TransactionId();
+                        while (!done.get()) {
+                            for (int pgNo = 0; pgNo < other.numPages(); pgNo++)
+                                bp.getPage(tid, new HeapPageId(other.getId(), pgNo), Permissions.READ_ONLY);
+                        }
+                    } catch (Throwable t) {
+                        error.compareAndSet(null, t);
+                    }
+                }
+            };
+            evictors[i].start();
+        }
+
+        int rows = 5000;
+        long sum = 0;
+        TransactionId tid = new TransactionId();
+        try {
+            for (int i = 0; i < rows; i++) {
+                bp.insertTuple(tid, f.getId(), Utility.getHeapTuple(new int[] { i, -i }));
+                sum += i;
+            }
+        } finally {
+            done.set(true);
+            for (Thread t : evictors)
+                t.join();
+        }
+        if (error.get() != null)
+            throw new AssertionError("eviction failed", error.get());
+        bp.flushAllPages();
+
+        // read the table back from disk
+        Database.resetBufferPool(64, new LruKPolicy(2, 64));
+        SeqScan scan = new SeqScan(new TransactionId(), f.getId(), "");
+        int count = 0;
+        long total = 0;
+        scan.open();
+        while (scan.hasNext()) {
+            total += scan.next().getInt(0);
+            count++;
+        }
+        scan.close();
+        assertEquals(rows, count);
+        assertEquals(sum, total);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ConcurrentScanTest.class);
+    }
+}
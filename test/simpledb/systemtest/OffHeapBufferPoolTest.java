@@ -0,0 +1,116 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Scans tables through buffer pools whose frames live outside the Java heap
+ * and checks that pages decoded again from the arena hold the same tuples.
+ */
+public class OffHeapBufferPoolTest extends SimpleDbTestBase {
+    private static final int BUFFER_PAGES = 32;
+    private static final int DECODED_PAGES = 4;
+
+    private void scanTwice(PageArena arena) throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        // about 20 pages, so the whole table fits in the pool
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10000, null, tuples);
+        assertTrue(f.numPages() < BUFFER_PAGES);
+        BufferPool bp = Database.resetBufferPool(new BufferPool(BUFFER_PAGES,
+                new LruKPolicy(2, BUFFER_PAGES), arena, DECODED_PAGES));
+
+        SystemTestUtil.matchTuples(f, tuples);
+        assertEquals(f.numPages(), bp.getMissCount());
+
+        // the second scan is served from the arena without any disk reads
+        SystemTestUtil.matchTuples(f, tuples);
+        assertEquals(f.numPages(), bp.getMissCount());
+        assertEquals(f.numPages(), bp.getHitCount());
+        // the table takes one slot per page
+        assertEquals(BUFFER_PAGES - f.numPages(), arena.getFreeSlots());
+    }
+
+    @Test public void testDirectArena() throws IOException, DbException, TransactionAbortedException {
+        PageArena arena = new PageArena(BUFFER_PAGES, BufferPool.getPageSize());
+        assertFalse(arena.isMapped());
+        scanTwice(arena);
+    }
+
+    @Test public void testMappedArena() throws IOException, DbException, TransactionAbortedException {
+        File backing = File.createTempFile("arena", ".dat");
+        PageArena arena = new PageArena(BUFFER_PAGES, BufferPool.getPageSize(), backing);
+        assertTrue(arena.isMapped());
+        assertEquals((long) BUFFER_PAGES * BufferPool.getPageSize(), backing.length());
+        scanTwice(arena);
+        arena.close();
+        assertFalse(backing.exists());
+    }
+
+    /** Pages larger than a slot are rejected; shorter ones keep their length. */
+    @Test public void testArenaSlots() {
+        PageArena arena = new PageArena(2, 16);
+        byte[] data = new byte[]{1, 2, 3};
+        arena.write(1, data);
+        assertArrayEquals(data, arena.read(1));
+        assertEquals(0, arena.read(0).length);
+        try {
+            arena.write(0, new byte[17]);
+            fail("expected exception");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    /**
+     * The partitions of a pool share one arena as large as the pool, and
+     * give back the slots of the pages they evict
+     */
+    @Test public void testPartitionsShareArena() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10000, null, tuples);
+        String old = System.setProperty(BufferPool.ARENA_PROPERTY, "direct");
+        BufferPool bp;
+        try {
+            bp = Database.resetBufferPool(new BufferPool(8, Arrays.asList(
+                    new PartitionSpec("table", 0, 6, "lru").addTable(f.getId()))));
+        } finally {
+            if (old == null)
+                System.clearProperty(BufferPool.ARENA_PROPERTY);
+            else
+                System.setProperty(BufferPool.ARENA_PROPERTY, old);
+        }
+        PageArena arena = bp.getArena();
+        assertEquals(8, arena.getFrames());
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < f.numPages(); i++)
+            bp.getPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+        assertEquals(6, bp.getPartitionSize("table"));
+        assertEquals(2, arena.getFreeSlots());
+    }
+
+    /** Replacing a pool frees the memory of its arena */
+    @Test public void testArenaClosedOnReset() throws Exception {
+        PageArena arena = new PageArena(BUFFER_PAGES, BufferPool.getPageSize());
+        scanTwice(arena);
+        Database.resetBufferPool(BUFFER_PAGES);
+        try {
+            arena.read(0);
+            fail("expected exception");
+        } catch (IllegalStateException e) {
+        }
+        // closing again does nothing
+        arena.close();
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(OffHeapBufferPoolTest.class);
+    }
+}